@@ -42,7 +42,6 @@ public class BleEvents {
   static final String READ_DESC_FAIL = "READ_DESC_FAIL";
   static final String WRITE_DESC_OK = "WRITE_DESC_OK";
   static final String WRITE_DESC_FAIL = "WRITE_DESC_FAIL";
-  static final String CHAR_CHANGED = "CHAR_CHANGED";
 
   private static final String DATA_SCHEME = "sciencejournal";
 
@@ -67,8 +66,6 @@ public class BleEvents {
     intent.addAction(WRITE_CHAR_OK);
     intent.addAction(WRITE_CHAR_FAIL);
 
-    intent.addAction(CHAR_CHANGED);
-
     intent.addAction(READ_DESC_OK);
     intent.addAction(READ_DESC_FAIL);
     intent.addAction(WRITE_DESC_OK);
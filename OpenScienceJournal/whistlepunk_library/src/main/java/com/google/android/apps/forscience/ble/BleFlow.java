@@ -81,7 +81,7 @@ public class BleFlow {
         public void onSuccess() {}
 
         @Override
-        public void onNotification(UUID characteristic, int flags, byte[] value) {}
+        public void onNotification(UUID characteristic, int flags, byte[] value, int length) {}
 
         @Override
         public void onCharacteristicRead(UUID characteristic, int flags, byte[] value) {}
@@ -139,7 +139,8 @@ public class BleFlow {
   private BluetoothGattCharacteristic currentCharacteristic;
   private BluetoothGattDescriptor currentDescriptor;
 
-  private BleFlowListener listener;
+  // Read on the BLE I/O thread when delivering notifications.
+  private volatile BleFlowListener listener;
   private int characteristicIndex;
   private int valueIndex;
   private int actionIndex;
@@ -147,6 +148,10 @@ public class BleFlow {
   private String address;
   private AtomicBoolean flowEnded;
 
+  private final BleNotificationDispatcher.Listener notificationListener =
+      (characteristic, flags, value, length) ->
+          listener.onNotification(characteristic, flags, value, length);
+
   private BroadcastReceiver receiver =
       new BroadcastReceiver() {
 
@@ -154,13 +159,6 @@ public class BleFlow {
         public void onReceive(Context context, Intent intent) {
           final String action = intent.getAction();
 
-          if (BleEvents.CHAR_CHANGED.equals(action)) {
-            int flags = intent.getIntExtra(MyBleService.FLAGS, 0);
-            byte[] data = intent.getByteArrayExtra(MyBleService.DATA);
-            UUID characteristic = UUID.fromString(intent.getStringExtra(MyBleService.UUID));
-            listener.onNotification(characteristic, flags, data);
-            return;
-          }
           if (flowEnded.get()
               && (BleEvents.GATT_CONNECT_FAIL.equals(action)
                   || BleEvents.GATT_DISCONNECT.equals(action))) {
@@ -223,6 +221,10 @@ public class BleFlow {
             byte[] data = intent.getByteArrayExtra(MyBleService.DATA);
             listener.onCharacteristicRead(characteristic, flags, data);
             nextAction();
+          } else if (BleEvents.READ_CHAR_FAIL.equals(action)) {
+            listener.onFailure(
+                new Exception("Reading characteristic fail for: " + currentCharacteristic));
+            flowEnded.set(true);
           } else if (BleEvents.WRITE_CHAR_OK.equals(action)) {
             nextAction();
           } else if (BleEvents.WRITE_CHAR_FAIL.equals(action)) {
@@ -265,6 +267,7 @@ public class BleFlow {
     flowEnded.set(true);
 
     registerReceiver(receiver);
+    BleNotificationDispatcher.getInstance().register(address, notificationListener);
   }
 
   @VisibleForTesting
@@ -526,6 +529,7 @@ public class BleFlow {
 
   void close() {
     MyBleService.getBroadcastManager(context).unregisterReceiver(receiver);
+    BleNotificationDispatcher.getInstance().unregister(address, notificationListener);
   }
 
   public String getAddress() {
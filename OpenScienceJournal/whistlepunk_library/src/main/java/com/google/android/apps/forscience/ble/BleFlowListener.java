@@ -27,7 +27,14 @@ public abstract class BleFlowListener {
 
   public abstract void onCharacteristicRead(UUID characteristic, int flags, byte[] value);
 
-  public abstract void onNotification(UUID characteristic, int flags, byte[] value);
+  /**
+   * Called on the BLE I/O thread rather than the main thread, so that notifications can be handled
+   * as fast as they arrive.
+   *
+   * @param value holds the notification in its first {@code length} bytes. It is reused once this
+   *     call returns, so copy anything that needs to be kept.
+   */
+  public abstract void onNotification(UUID characteristic, int flags, byte[] value, int length);
 
   public abstract void onDisconnect();
 
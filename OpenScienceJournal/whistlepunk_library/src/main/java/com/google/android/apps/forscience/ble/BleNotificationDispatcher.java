@@ -0,0 +1,196 @@
+/*
+ *  Copyright 2019 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.ble;
+
+import androidx.annotation.VisibleForTesting;
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Delivers characteristic notifications from {@link MyBleService} directly to the flows listening
+ * for them.
+ *
+ * <p>Connection lifecycle and GATT operation results still go through local broadcasts, but
+ * notifications arrive far too often for that: every broadcast meant an Intent, a URI, a copy of
+ * the value into a Bundle and a hop through the main thread's queue. Here the binder thread copies
+ * the value into a pooled buffer and hands it to a single BLE I/O thread, which calls the listeners
+ * registered for the device's address. Neither side takes a lock or allocates in the steady state.
+ */
+public class BleNotificationDispatcher {
+  /** Receives the notifications from one device. */
+  public interface Listener {
+    /**
+     * Called on the BLE I/O thread.
+     *
+     * @param value holds the notification in its first {@code length} bytes. It is reused once this
+     *     call returns, so copy anything that needs to be kept.
+     */
+    void onNotification(UUID characteristic, int flags, byte[] value, int length);
+  }
+
+  /** The longest value an attribute can have, per the Bluetooth Core spec (Vol 3, Part F). */
+  @VisibleForTesting static final int MAX_VALUE_LENGTH = 512;
+
+  /**
+   * Enough for the bursts a sensor sends between two runs of the I/O thread. If they're all in use,
+   * we allocate rather than drop a notification.
+   */
+  @VisibleForTesting static final int POOL_SIZE = 32;
+
+  private static BleNotificationDispatcher instance;
+
+  static synchronized BleNotificationDispatcher getInstance() {
+    if (instance == null) {
+      instance =
+          new BleNotificationDispatcher(
+              Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, "BLE I/O")));
+    }
+    return instance;
+  }
+
+  private final Executor ioExecutor;
+  private final AtomicReferenceArray<Notification> pool = new AtomicReferenceArray<>(POOL_SIZE);
+
+  // Copy-on-write, so that dispatch never takes a lock or allocates.
+  private volatile Registration[] registrations = new Registration[0];
+
+  @VisibleForTesting
+  BleNotificationDispatcher(Executor ioExecutor) {
+    this.ioExecutor = ioExecutor;
+    for (int i = 0; i < POOL_SIZE; i++) {
+      pool.set(i, new Notification());
+    }
+  }
+
+  /** Starts delivering the notifications from the device at {@code address} to {@code listener}. */
+  public synchronized void register(String address, Listener listener) {
+    Registration[] current = registrations;
+    Registration[] newRegistrations = Arrays.copyOf(current, current.length + 1);
+    newRegistrations[current.length] = new Registration(address, listener);
+    registrations = newRegistrations;
+  }
+
+  public synchronized void unregister(String address, Listener listener) {
+    Registration[] current = registrations;
+    for (int i = 0; i < current.length; i++) {
+      if (current[i].listener == listener && current[i].address.equals(address)) {
+        Registration[] newRegistrations = new Registration[current.length - 1];
+        System.arraycopy(current, 0, newRegistrations, 0, i);
+        System.arraycopy(current, i + 1, newRegistrations, i, current.length - i - 1);
+        registrations = newRegistrations;
+        return;
+      }
+    }
+  }
+
+  /**
+   * Copies {@code value} and queues it for delivery on the BLE I/O thread. {@code value} may be
+   * changed as soon as this returns, which is what BluetoothGatt does with characteristic values.
+   */
+  public void dispatch(String address, UUID characteristic, int flags, byte[] value) {
+    if (value == null || !hasListenerFor(address)) {
+      return;
+    }
+    Notification notification = obtain(value.length);
+    notification.address = address;
+    notification.characteristic = characteristic;
+    notification.flags = flags;
+    notification.length = value.length;
+    System.arraycopy(value, 0, notification.value, 0, value.length);
+    ioExecutor.execute(notification);
+  }
+
+  private boolean hasListenerFor(String address) {
+    for (Registration registration : registrations) {
+      if (registration.address.equals(address)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private Notification obtain(int length) {
+    if (length <= MAX_VALUE_LENGTH) {
+      for (int i = 0; i < POOL_SIZE; i++) {
+        Notification notification = pool.getAndSet(i, null);
+        if (notification != null) {
+          return notification;
+        }
+      }
+    }
+    Notification notification = new Notification(Math.max(length, MAX_VALUE_LENGTH));
+    notification.pooled = false;
+    return notification;
+  }
+
+  private void recycle(Notification notification) {
+    if (!notification.pooled) {
+      return;
+    }
+    notification.address = null;
+    notification.characteristic = null;
+    for (int i = 0; i < POOL_SIZE; i++) {
+      if (pool.compareAndSet(i, null, notification)) {
+        return;
+      }
+    }
+  }
+
+  private static class Registration {
+    final String address;
+    final Listener listener;
+
+    Registration(String address, Listener listener) {
+      this.address = address;
+      this.listener = listener;
+    }
+  }
+
+  /** A pooled notification, which delivers itself when run on the I/O thread. */
+  private class Notification implements Runnable {
+    final byte[] value;
+    boolean pooled = true;
+    String address;
+    UUID characteristic;
+    int flags;
+    int length;
+
+    Notification() {
+      this(MAX_VALUE_LENGTH);
+    }
+
+    Notification(int capacity) {
+      value = new byte[capacity];
+    }
+
+    @Override
+    public void run() {
+      try {
+        for (Registration registration : registrations) {
+          if (registration.address.equals(address)) {
+            registration.listener.onNotification(characteristic, flags, value, length);
+          }
+        }
+      } finally {
+        recycle(this);
+      }
+    }
+  }
+}
@@ -0,0 +1,483 @@
+/*
+ *  Copyright 2019 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.ble;
+
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import androidx.annotation.VisibleForTesting;
+import android.util.Log;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.UUID;
+
+/**
+ * Runs the GATT operations of one connection.
+ *
+ * <p>Android only lets a connection have one operation outstanding: a request made before the
+ * previous one has called back is refused. So operations are queued here, and each is sent as soon
+ * as the previous one calls back. An operation the stack refuses is retried a couple of times and
+ * then reported as failed.
+ *
+ * <p>An operation which doesn't call back in time can't just be sent again: the stack still counts
+ * it as outstanding, and refuses everything until its callback comes. So the queue keeps waiting
+ * for that callback, which is credited to the operation if it turns up late, and asks the owner to
+ * reconnect, which is the only way to free the connection if the callback was lost. The operation
+ * is sent again once the connection is back up, and reported as failed after a few tries. An owner
+ * that closes the connection instead calls {@link #failAll}, so that nothing is left waiting.
+ *
+ * <p>When the connection comes up, the queue asks for high connection priority and the largest MTU
+ * before anything else, so that setup round trips are short and a notification can carry a batch of
+ * readings. Writes to a descriptor that haven't been sent yet are coalesced, so subscribing and
+ * unsubscribing in quick succession only writes the final value.
+ *
+ * <p>The owner's BluetoothGattCallback must call {@link #onComplete} for each operation. Since only
+ * one attempt at one operation is ever outstanding, a callback is matched to it by its kind and
+ * target alone.
+ */
+class GattOperationQueue {
+  private static final String TAG = "GattOperationQueue";
+
+  /** The largest MTU Android allows; the peripheral picks the actual size. */
+  @VisibleForTesting static final int REQUESTED_MTU = 517;
+
+  @VisibleForTesting static final long TIMEOUT_MILLIS = 3000;
+  @VisibleForTesting static final long RETRY_DELAY_MILLIS = 100;
+  @VisibleForTesting static final int MAX_ATTEMPTS = 3;
+
+  enum Kind {
+    DISCOVER_SERVICES,
+    REQUEST_MTU,
+    READ_CHARACTERISTIC,
+    WRITE_CHARACTERISTIC,
+    WRITE_DESCRIPTOR
+  }
+
+  /** Sends an operation's request to the stack. */
+  interface Request {
+    /** @return false if the stack refused the request */
+    boolean send();
+  }
+
+  /** Told how an operation ended, with the queue locked. */
+  interface Callback {
+    void onComplete(boolean success);
+  }
+
+  /** Tells the time and schedules the queue's timeouts and retries. */
+  interface Timer {
+    long now();
+
+    void schedule(Runnable task, long delayMillis);
+
+    void cancel(Runnable task);
+  }
+
+  static class Operation {
+    private final Kind kind;
+    // The UUID of the characteristic the operation acts on, the descriptorTarget of the descriptor
+    // it writes, or null if it acts on the whole connection.
+    private final Object target;
+    private Request request;
+    private Callback callback;
+    private int attempts = 0;
+    private long enqueuedMillis;
+
+    Operation(Kind kind, Object target, Request request, Callback callback) {
+      this.kind = kind;
+      this.target = target;
+      this.request = request;
+      this.callback = callback;
+    }
+  }
+
+  /**
+   * The target of a write to a descriptor. Descriptors are only unique within their characteristic,
+   * so it takes both UUIDs to tell writes to different descriptors apart.
+   */
+  static Object descriptorTarget(UUID characteristicUuid, UUID descriptorUuid) {
+    return Arrays.asList(characteristicUuid, descriptorUuid);
+  }
+
+  static Object descriptorTarget(BluetoothGattDescriptor descriptor) {
+    return descriptorTarget(descriptor.getCharacteristic().getUuid(), descriptor.getUuid());
+  }
+
+  static Operation discoverServices(BluetoothGatt gatt, Callback callback) {
+    return new Operation(Kind.DISCOVER_SERVICES, null, gatt::discoverServices, callback);
+  }
+
+  static Operation readCharacteristic(
+      BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, Callback callback) {
+    return new Operation(
+        Kind.READ_CHARACTERISTIC,
+        characteristic.getUuid(),
+        () -> gatt.readCharacteristic(characteristic),
+        callback);
+  }
+
+  static Operation writeCharacteristic(
+      BluetoothGatt gatt,
+      BluetoothGattCharacteristic characteristic,
+      byte[] value,
+      Callback callback) {
+    return new Operation(
+        Kind.WRITE_CHARACTERISTIC,
+        characteristic.getUuid(),
+        () -> characteristic.setValue(value) && gatt.writeCharacteristic(characteristic),
+        callback);
+  }
+
+  static Operation writeDescriptor(
+      BluetoothGatt gatt, BluetoothGattDescriptor descriptor, byte[] value, Callback callback) {
+    return new Operation(
+        Kind.WRITE_DESCRIPTOR,
+        descriptorTarget(descriptor),
+        () -> descriptor.setValue(value) && gatt.writeDescriptor(descriptor),
+        callback);
+  }
+
+  private final String name;
+  private final Timer timer;
+  private final Runnable onStalled;
+  private final ArrayDeque<Operation> pending = new ArrayDeque<>();
+  private Operation inFlight = null;
+  private boolean connected = false;
+  // Whether inFlight has timed out, and is waiting for its callback or a reconnect.
+  private boolean stalled = false;
+
+  private final Runnable timeout = this::onTimeout;
+  private final Runnable retry =
+      () -> {
+        synchronized (this) {
+          sendNext();
+        }
+      };
+
+  private int maxQueueDepth = 0;
+  private int completedCount = 0;
+  private int failedCount = 0;
+  private int retryCount = 0;
+  private int stallCount = 0;
+  private int coalescedCount = 0;
+  private long totalLatencyMillis = 0;
+  private long maxLatencyMillis = 0;
+
+  /**
+   * @param name identifies the connection in logs
+   * @param onStalled run, with the queue locked, when an operation times out; it should disconnect
+   *     and connect again
+   */
+  GattOperationQueue(String name, Runnable onStalled) {
+    this(name, new HandlerTimer(), onStalled);
+  }
+
+  @VisibleForTesting
+  GattOperationQueue(String name, Timer timer, Runnable onStalled) {
+    this.name = name;
+    this.timer = timer;
+    this.onStalled = onStalled;
+  }
+
+  /** Adds {@code operation} to the end of the queue. */
+  synchronized void enqueue(Operation operation) {
+    if (!coalesce(operation)) {
+      operation.enqueuedMillis = timer.now();
+      pending.addLast(operation);
+      updateMaxQueueDepth();
+    }
+    sendNext();
+  }
+
+  /** Adds {@code operation} to the front of the queue, for example to finish setting up. */
+  synchronized void enqueueFirst(Operation operation) {
+    operation.enqueuedMillis = timer.now();
+    pending.addFirst(operation);
+    updateMaxQueueDepth();
+    sendNext();
+  }
+
+  /**
+   * Negotiates the connection, and then starts sending the queued operations. Operations may be
+   * queued before the connection comes up.
+   */
+  synchronized void onConnected(BluetoothGatt gatt) {
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+      // Takes effect without an operation of its own.
+      gatt.requestConnectionPriority(BluetoothGatt.CONNECTION_PRIORITY_HIGH);
+      enqueueFirst(
+          new Operation(
+              Kind.REQUEST_MTU, null, () -> gatt.requestMtu(REQUESTED_MTU), success -> {}));
+    }
+    resume();
+  }
+
+  @VisibleForTesting
+  synchronized void resume() {
+    connected = true;
+    sendNext();
+  }
+
+  /**
+   * Stops sending operations until the connection comes back up. The operation in flight, if any,
+   * is sent again then; if it had timed out, that counts as another try. Setting up the connection
+   * is redone each time it comes up, so queued service discovery and MTU requests are dropped.
+   */
+  synchronized void onDisconnected() {
+    Operation operation = inFlight;
+    boolean timedOut = stalled;
+    stop();
+    if (operation != null) {
+      if (!timedOut) {
+        operation.attempts = 0;
+        pending.addFirst(operation);
+      } else if (operation.attempts < MAX_ATTEMPTS) {
+        retryCount++;
+        pending.addFirst(operation);
+      } else {
+        finish(operation, false);
+      }
+    }
+    Iterator<Operation> operations = pending.iterator();
+    while (operations.hasNext()) {
+      Kind kind = operations.next().kind;
+      if (kind == Kind.DISCOVER_SERVICES || kind == Kind.REQUEST_MTU) {
+        operations.remove();
+      }
+    }
+  }
+
+  /**
+   * Reports the operation in flight and every queued one as failed, for when the connection has
+   * been closed rather than waiting to come back up.
+   */
+  synchronized void failAll() {
+    List<Operation> failed = new ArrayList<>();
+    if (inFlight != null) {
+      failed.add(inFlight);
+    }
+    failed.addAll(pending);
+    stop();
+    pending.clear();
+    for (Operation operation : failed) {
+      finish(operation, false);
+    }
+  }
+
+  /** Drops every queued operation, without calling back, when the connection is closed for good. */
+  synchronized void clear() {
+    stop();
+    pending.clear();
+    if (Log.isLoggable(TAG, Log.DEBUG)) {
+      Log.d(TAG, name + ": " + this);
+    }
+  }
+
+  /**
+   * Called from the BluetoothGattCallback when an operation of {@code kind} on {@code target} calls
+   * back. A late callback still ends the operation that timed out waiting for it. Any other
+   * callback, such as one from an operation that was given up on when the connection went down, is
+   * ignored.
+   *
+   * @param target the UUID of the characteristic that was read or written, or whose descriptor was
+   *     written; null for service discovery and MTU requests
+   */
+  synchronized void onComplete(Kind kind, Object target, boolean success) {
+    if (inFlight == null || inFlight.kind != kind || !Objects.equals(inFlight.target, target)) {
+      return;
+    }
+    if (stalled) {
+      Log.w(TAG, name + ": late callback for " + kind);
+      stalled = false;
+    }
+    timer.cancel(timeout);
+    Operation operation = inFlight;
+    inFlight = null;
+    finish(operation, success);
+    sendNext();
+  }
+
+  private boolean coalesce(Operation operation) {
+    if (operation.kind != Kind.WRITE_DESCRIPTOR || operation.target == null) {
+      return false;
+    }
+    for (Operation queued : pending) {
+      if (queued.kind == operation.kind && operation.target.equals(queued.target)) {
+        queued.request = operation.request;
+        Callback first = queued.callback;
+        Callback second = operation.callback;
+        queued.callback =
+            success -> {
+              first.onComplete(success);
+              second.onComplete(success);
+            };
+        coalescedCount++;
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private void sendNext() {
+    if (!connected || inFlight != null || pending.isEmpty()) {
+      return;
+    }
+    Operation operation = pending.removeFirst();
+    inFlight = operation;
+    operation.attempts++;
+    if (operation.request.send()) {
+      timer.schedule(timeout, TIMEOUT_MILLIS);
+    } else {
+      retryOrFail(operation);
+    }
+  }
+
+  private synchronized void onTimeout() {
+    if (inFlight != null && !stalled) {
+      Log.w(TAG, name + ": timed out waiting for " + inFlight.kind + ", reconnecting");
+      stalled = true;
+      stallCount++;
+      onStalled.run();
+    }
+  }
+
+  private void stop() {
+    connected = false;
+    stalled = false;
+    inFlight = null;
+    timer.cancel(timeout);
+    timer.cancel(retry);
+  }
+
+  private void retryOrFail(Operation operation) {
+    inFlight = null;
+    if (operation.attempts < MAX_ATTEMPTS) {
+      retryCount++;
+      pending.addFirst(operation);
+      timer.schedule(retry, RETRY_DELAY_MILLIS);
+    } else {
+      finish(operation, false);
+      sendNext();
+    }
+  }
+
+  private void finish(Operation operation, boolean success) {
+    long latencyMillis = timer.now() - operation.enqueuedMillis;
+    totalLatencyMillis += latencyMillis;
+    maxLatencyMillis = Math.max(maxLatencyMillis, latencyMillis);
+    if (success) {
+      completedCount++;
+    } else {
+      failedCount++;
+    }
+    operation.callback.onComplete(success);
+  }
+
+  private void updateMaxQueueDepth() {
+    maxQueueDepth = Math.max(maxQueueDepth, getQueueDepth());
+  }
+
+  /** @return how many operations are queued or in flight */
+  synchronized int getQueueDepth() {
+    return pending.size() + (inFlight == null ? 0 : 1);
+  }
+
+  synchronized int getMaxQueueDepth() {
+    return maxQueueDepth;
+  }
+
+  synchronized int getCompletedCount() {
+    return completedCount;
+  }
+
+  synchronized int getFailedCount() {
+    return failedCount;
+  }
+
+  synchronized int getRetryCount() {
+    return retryCount;
+  }
+
+  /** @return how many times an operation has timed out */
+  synchronized int getStallCount() {
+    return stallCount;
+  }
+
+  synchronized int getCoalescedCount() {
+    return coalescedCount;
+  }
+
+  /** @return the mean time from queueing an operation to its end, over all that have ended */
+  synchronized long getMeanLatencyMillis() {
+    int count = completedCount + failedCount;
+    return count == 0 ? 0 : totalLatencyMillis / count;
+  }
+
+  synchronized long getMaxLatencyMillis() {
+    return maxLatencyMillis;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return "GattOperationQueue{depth="
+        + getQueueDepth()
+        + ", maxDepth="
+        + maxQueueDepth
+        + ", completed="
+        + completedCount
+        + ", failed="
+        + failedCount
+        + ", retries="
+        + retryCount
+        + ", stalls="
+        + stallCount
+        + ", coalesced="
+        + coalescedCount
+        + ", meanLatencyMillis="
+        + getMeanLatencyMillis()
+        + ", maxLatencyMillis="
+        + maxLatencyMillis
+        + "}";
+  }
+
+  private static class HandlerTimer implements Timer {
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    @Override
+    public long now() {
+      return SystemClock.elapsedRealtime();
+    }
+
+    @Override
+    public void schedule(Runnable task, long delayMillis) {
+      handler.postDelayed(task, delayMillis);
+    }
+
+    @Override
+    public void cancel(Runnable task) {
+      handler.removeCallbacks(task);
+    }
+  }
+}
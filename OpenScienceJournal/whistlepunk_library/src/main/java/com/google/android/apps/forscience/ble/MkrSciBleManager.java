@@ -12,13 +12,15 @@ import android.bluetooth.BluetoothProfile;
 import android.content.Context;
 import android.os.Handler;
 import android.os.Looper;
-import java.nio.ByteBuffer;
+import androidx.annotation.VisibleForTesting;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Objects;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
 
 /**
  * This is the entry point for subscribing a sensor and receiving data from an Arduino MKR SCI
@@ -50,11 +52,30 @@ public class MkrSciBleManager {
   public static final String GYROSCOPE_UUID = "555a0001-5002-467a-9538-01f0652c74e8";
   public static final String MAGNETOMETER_UUID = "555a0001-5003-467a-9538-01f0652c74e8";
 
+  private static final UUID VERSION = UUID.fromString(VERSION_UUID);
+
   private static final double MAX_VALUE = 2000000000D;
   private static final double MIN_VALUE = -2000000000D;
 
+  // How each characteristic we know about encodes its values.
+  private static final Map<UUID, ValueType> VALUE_TYPES = new HashMap<>();
+
+  static {
+    VALUE_TYPES.put(UUID.fromString(INPUT_1_UUID), ValueType.UINT16);
+    VALUE_TYPES.put(UUID.fromString(INPUT_2_UUID), ValueType.UINT16);
+    VALUE_TYPES.put(UUID.fromString(INPUT_3_UUID), ValueType.UINT16);
+    VALUE_TYPES.put(UUID.fromString(VOLTAGE_UUID), ValueType.SFLOAT);
+    VALUE_TYPES.put(UUID.fromString(CURRENT_UUID), ValueType.SFLOAT);
+    VALUE_TYPES.put(UUID.fromString(RESISTANCE_UUID), ValueType.SFLOAT);
+    VALUE_TYPES.put(UUID.fromString(ACCELEROMETER_UUID), ValueType.SFLOAT_ARR);
+    VALUE_TYPES.put(UUID.fromString(GYROSCOPE_UUID), ValueType.SFLOAT_ARR);
+    VALUE_TYPES.put(UUID.fromString(MAGNETOMETER_UUID), ValueType.SFLOAT_ARR);
+  }
+
   private static final Handler handler = new Handler(Looper.getMainLooper());
 
+  private static final MainThreadBatcher mainThread = new MainThreadBatcher(handler::post);
+
   // device bt address > gatt handler
   private static final Map<String, GattHandler> gattHandlers = new HashMap<>();
 
@@ -70,7 +91,7 @@ public class MkrSciBleManager {
         }
         BluetoothAdapter adapter = manager.getAdapter();
         BluetoothDevice device = adapter.getRemoteDevice(address);
-        gattHandler = new GattHandler();
+        gattHandler = new GattHandler(address, mainThread);
         gattHandlers.put(address, gattHandler);
         device.connectGatt(context, true /* autoConnect */, gattHandler);
       }
@@ -97,120 +118,171 @@ public class MkrSciBleManager {
     }
   }
 
-  private static class GattHandler extends BluetoothGattCallback {
+  /**
+   * Returns an executor for work that must run on the main thread.
+   *
+   * <p>Work handed to it by a listener, while a notification is being delivered, is posted once
+   * every listener has seen the notification, in a single post. The X, Y and Z sensors of one
+   * accelerometer thus update the UI with one post per notification instead of three.
+   */
+  public static Executor getMainThreadExecutor() {
+    return mainThread;
+  }
+
+  /** One characteristic's parsed values and the listeners they go to. */
+  private static class Stream {
+    final UUID uuid;
+    final ValueType type;
+
+    // Reused for every notification; only touched on the thread delivering notifications.
+    double[] values;
+
+    // Copy-on-write, so that delivery never takes a lock.
+    volatile Listener[] listeners = new Listener[0];
+
+    Stream(UUID uuid, ValueType type) {
+      this.uuid = uuid;
+      this.type = type;
+      values = new double[type == ValueType.SFLOAT_ARR ? 3 : 1];
+    }
+  }
+
+  @VisibleForTesting
+  static class GattHandler extends BluetoothGattCallback {
 
     private static final UUID NOTIFICATION_DESCRIPTOR =
         UUID.fromString("00002902-0000-1000-8000-00805f9b34fb");
 
-    private final Map<String, List<Listener>> listenersMap = new HashMap<>();
+    // Never changes after construction, so it can be read without a lock.
+    private final Map<UUID, Stream> streams = new HashMap<>();
+
+    private final MainThreadBatcher mainThread;
 
     private BluetoothGatt gatt;
 
     private final List<BluetoothGattCharacteristic> characteristics = new ArrayList<>();
 
-    private final List<Runnable> gattActions = new ArrayList<>();
+    private final GattOperationQueue operations;
 
-    private boolean readyForAction = false;
+    private long firmwareVersion = -1;
 
-    private boolean busy = false;
+    // Set when an operation stalled the connection, so that it is brought back up once it's down.
+    private volatile boolean reconnecting = false;
 
-    private long firmwareVersion = -1;
+    GattHandler(String address, MainThreadBatcher mainThread) {
+      this.mainThread = mainThread;
+      operations = new GattOperationQueue(address, this::reconnect);
+      for (Map.Entry<UUID, ValueType> entry : VALUE_TYPES.entrySet()) {
+        streams.put(entry.getKey(), new Stream(entry.getKey(), entry.getValue()));
+      }
+    }
 
     private void disconnect() {
+      reconnecting = false;
+      operations.clear();
       if (gatt != null) {
         gatt.disconnect();
       }
     }
 
-    private void subscribe(String characteristicUuid, Listener listener) {
-      boolean subscribe = false;
-      synchronized (listenersMap) {
-        List<Listener> listeners = listenersMap.get(characteristicUuid);
-        if (listeners == null) {
-          listeners = new ArrayList<>();
-          listenersMap.put(characteristicUuid, listeners);
-          subscribe = true;
-        }
-        listeners.add(listener);
+    private void reconnect() {
+      if (gatt != null) {
+        reconnecting = true;
+        gatt.disconnect();
+      }
+    }
+
+    @VisibleForTesting
+    void subscribe(String characteristicUuid, Listener listener) {
+      Stream stream = streams.get(UUID.fromString(characteristicUuid));
+      if (stream == null) {
+        return;
+      }
+      boolean subscribe;
+      synchronized (streams) {
+        Listener[] listeners = stream.listeners;
+        subscribe = listeners.length == 0;
+        Listener[] newListeners = Arrays.copyOf(listeners, listeners.length + 1);
+        newListeners[listeners.length] = listener;
+        stream.listeners = newListeners;
         if (firmwareVersion > -1) {
           listener.onFirmwareVersion(firmwareVersion);
         }
       }
       if (subscribe) {
-        enqueueGattAction(
-            () -> {
-              BluetoothGattCharacteristic c = getCharacteristic(characteristicUuid);
-              if (c != null) {
-                gatt.setCharacteristicNotification(c, true);
-                BluetoothGattDescriptor d = c.getDescriptor(NOTIFICATION_DESCRIPTOR);
-                d.setValue(BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE);
-                gatt.writeDescriptor(d);
-              }
-            });
+        setNotification(stream, true);
       }
     }
 
-    private void unsubscribe(String characteristicUuid, Listener listener) {
+    @VisibleForTesting
+    void unsubscribe(String characteristicUuid, Listener listener) {
+      Stream stream = streams.get(UUID.fromString(characteristicUuid));
+      if (stream == null) {
+        return;
+      }
       boolean unsubscribe = false;
-      synchronized (listenersMap) {
-        List<Listener> listeners = listenersMap.get(characteristicUuid);
-        if (listeners != null) {
-          listeners.remove(listener);
-          if (listeners.size() == 0) {
-            listenersMap.remove(characteristicUuid);
-            unsubscribe = true;
+      synchronized (streams) {
+        Listener[] listeners = stream.listeners;
+        for (int i = 0; i < listeners.length; i++) {
+          if (listeners[i] == listener) {
+            Listener[] newListeners = new Listener[listeners.length - 1];
+            System.arraycopy(listeners, 0, newListeners, 0, i);
+            System.arraycopy(listeners, i + 1, newListeners, i, listeners.length - i - 1);
+            stream.listeners = newListeners;
+            unsubscribe = newListeners.length == 0;
+            break;
           }
         }
       }
       if (unsubscribe) {
-        enqueueGattAction(
-            () -> {
-              BluetoothGattCharacteristic c = getCharacteristic(characteristicUuid);
-              if (c != null) {
-                gatt.setCharacteristicNotification(c, true);
-                BluetoothGattDescriptor d = c.getDescriptor(NOTIFICATION_DESCRIPTOR);
-                d.setValue(BluetoothGattDescriptor.DISABLE_NOTIFICATION_VALUE);
-                gatt.writeDescriptor(d);
-              }
-            });
+        setNotification(stream, false);
       }
     }
 
-    private boolean hasSubscribers() {
-      synchronized (listenersMap) {
-        return listenersMap.size() > 0;
+    @VisibleForTesting
+    boolean hasSubscribers() {
+      for (Stream stream : streams.values()) {
+        if (stream.listeners.length > 0) {
+          return true;
+        }
       }
+      return false;
     }
 
-    private BluetoothGattCharacteristic getCharacteristic(String uuid) {
+    private BluetoothGattCharacteristic getCharacteristic(UUID uuid) {
       for (BluetoothGattCharacteristic aux : characteristics) {
-        if (Objects.equals(uuid, aux.getUuid().toString())) {
+        if (uuid.equals(aux.getUuid())) {
           return aux;
         }
       }
       return null;
     }
 
-    private void enqueueGattAction(Runnable action) {
-      synchronized (gattActions) {
-        if (readyForAction && !busy) {
-          busy = true;
-          action.run();
-        } else {
-          gattActions.add(action);
-        }
-      }
-    }
-
-    private void onGattActionCompleted() {
-      synchronized (gattActions) {
-        if (readyForAction && gattActions.size() > 0) {
-          busy = true;
-          gattActions.remove(0).run();
-        } else {
-          busy = false;
-        }
-      }
+    /**
+     * Queues a write of the characteristic's notification descriptor. The write waits for the
+     * connection to be set up, and replaces any earlier write to the same descriptor that hasn't
+     * been sent yet.
+     */
+    private void setNotification(Stream stream, boolean enable) {
+      operations.enqueue(
+          new GattOperationQueue.Operation(
+              GattOperationQueue.Kind.WRITE_DESCRIPTOR,
+              GattOperationQueue.descriptorTarget(stream.uuid, NOTIFICATION_DESCRIPTOR),
+              () -> {
+                BluetoothGattCharacteristic c = getCharacteristic(stream.uuid);
+                if (c == null) {
+                  return false;
+                }
+                BluetoothGattDescriptor d = c.getDescriptor(NOTIFICATION_DESCRIPTOR);
+                return d != null
+                    && gatt.setCharacteristicNotification(c, enable)
+                    && d.setValue(
+                        enable
+                            ? BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE
+                            : BluetoothGattDescriptor.DISABLE_NOTIFICATION_VALUE)
+                    && gatt.writeDescriptor(d);
+              },
+              success -> {}));
     }
 
     @Override
@@ -218,196 +290,174 @@ public class MkrSciBleManager {
       if (status == BluetoothGatt.GATT_SUCCESS && newState == BluetoothProfile.STATE_CONNECTED) {
         this.gatt = gatt;
         characteristics.clear();
-        gatt.discoverServices();
+        // Ahead of any subscriptions waiting for the connection; the version read goes in after it.
+        operations.enqueueFirst(
+            GattOperationQueue.discoverServices(gatt, success -> onServicesFound()));
+        operations.onConnected(gatt);
       } else if (newState == BluetoothProfile.STATE_DISCONNECTED) {
-        readyForAction = false;
-        gatt.disconnect();
+        operations.onDisconnected();
+        if (reconnecting) {
+          reconnecting = false;
+          gatt.connect();
+        } else {
+          gatt.disconnect();
+        }
       }
     }
 
-    @Override
-    public void onServicesDiscovered(BluetoothGatt gatt, int status) {
-      BluetoothGattService service = this.gatt.getService(UUID.fromString(SERVICE_UUID));
+    private void onServicesFound() {
+      BluetoothGattService service = gatt.getService(UUID.fromString(SERVICE_UUID));
       if (service != null) {
         characteristics.addAll(service.getCharacteristics());
       }
-      BluetoothGattCharacteristic c = getCharacteristic(VERSION_UUID);
+      BluetoothGattCharacteristic c = getCharacteristic(VERSION);
       if (c != null) {
-        this.gatt.readCharacteristic(c);
+        operations.enqueueFirst(GattOperationQueue.readCharacteristic(gatt, c, success -> {}));
       }
     }
 
     @Override
-    public void onDescriptorRead(
-        BluetoothGatt gatt, BluetoothGattDescriptor descriptor, int status) {
-      onGattActionCompleted();
+    public void onServicesDiscovered(BluetoothGatt gatt, int status) {
+      operations.onComplete(
+          GattOperationQueue.Kind.DISCOVER_SERVICES, null, status == BluetoothGatt.GATT_SUCCESS);
+    }
+
+    @Override
+    public void onMtuChanged(BluetoothGatt gatt, int mtu, int status) {
+      operations.onComplete(
+          GattOperationQueue.Kind.REQUEST_MTU, null, status == BluetoothGatt.GATT_SUCCESS);
     }
 
     @Override
     public void onDescriptorWrite(
         BluetoothGatt gatt, BluetoothGattDescriptor descriptor, int status) {
-      onGattActionCompleted();
+      operations.onComplete(
+          GattOperationQueue.Kind.WRITE_DESCRIPTOR,
+          GattOperationQueue.descriptorTarget(descriptor),
+          status == BluetoothGatt.GATT_SUCCESS);
     }
 
     @Override
     public void onCharacteristicRead(
         BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
-      final String uuid = characteristic.getUuid().toString();
-      if (VERSION_UUID.equals(uuid) && firmwareVersion == -1) {
+      if (VERSION.equals(characteristic.getUuid()) && firmwareVersion == -1) {
         final byte[] value = characteristic.getValue();
         if (value.length == 4) {
-          final ByteBuffer buffer = ByteBuffer.allocate(8);
-          buffer.put((byte) 0);
-          buffer.put((byte) 0);
-          buffer.put((byte) 0);
-          buffer.put((byte) 0);
-          buffer.put(value[3]);
-          buffer.put(value[2]);
-          buffer.put(value[1]);
-          buffer.put(value[0]);
-          buffer.position(0);
-          firmwareVersion = buffer.getLong();
           // delivering to listener(s)
-          synchronized (listenersMap) {
-            for (List<Listener> listeners : listenersMap.values()) {
-              if (listeners != null) {
-                for (Listener l : listeners) {
-                  l.onFirmwareVersion(firmwareVersion);
-                }
+          synchronized (streams) {
+            firmwareVersion = readInt(value, 0) & 0xFFFFFFFFL;
+            for (Stream stream : streams.values()) {
+              for (Listener l : stream.listeners) {
+                l.onFirmwareVersion(firmwareVersion);
               }
             }
           }
         }
-        readyForAction = true;
       }
-      onGattActionCompleted();
-    }
-
-    @Override
-    public void onCharacteristicWrite(
-        BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
-      onGattActionCompleted();
+      operations.onComplete(
+          GattOperationQueue.Kind.READ_CHARACTERISTIC,
+          characteristic.getUuid(),
+          status == BluetoothGatt.GATT_SUCCESS);
     }
 
     @Override
     public void onCharacteristicChanged(
         BluetoothGatt gatt, BluetoothGattCharacteristic characteristic) {
-      final String uuid = characteristic.getUuid().toString();
-      final ValueType type;
-      switch (uuid) {
-        case INPUT_1_UUID:
-        case INPUT_2_UUID:
-        case INPUT_3_UUID:
-          type = ValueType.UINT16;
-          break;
-        case VOLTAGE_UUID:
-        case CURRENT_UUID:
-        case RESISTANCE_UUID:
-          type = ValueType.SFLOAT;
-          break;
-        case ACCELEROMETER_UUID:
-        case GYROSCOPE_UUID:
-        case MAGNETOMETER_UUID:
-          type = ValueType.SFLOAT_ARR;
-          break;
-        default:
-          type = null;
-      }
-      if (type != null) {
-        final double[] values = parse(type, characteristic.getValue());
-        if (values != null) {
-          // filter to avoid too large values blocking the UI
-          for (int i = 0; i < values.length; i++) {
-            if (values[i] > MAX_VALUE) {
-              values[i] = MAX_VALUE;
-            } else if (values[i] < MIN_VALUE) {
-              values[i] = MIN_VALUE;
-            }
-          }
-          // delivering to listener(s)
-          synchronized (listenersMap) {
-            List<Listener> listeners = listenersMap.get(uuid);
-            if (listeners != null) {
-              for (Listener l : listeners) {
-                l.onValuesUpdated(values);
-              }
-            }
-          }
-        }
-      }
+      onNotification(characteristic.getUuid(), characteristic.getValue());
     }
-  }
 
-  private static double[] parse(ValueType valueType, byte[] value) {
-    if (ValueType.UINT8.equals(valueType)) {
-      if (value.length < 1) {
-        return null;
+    @VisibleForTesting
+    void onNotification(UUID uuid, byte[] value) {
+      Stream stream = streams.get(uuid);
+      if (stream == null) {
+        return;
       }
-      final ByteBuffer buffer = ByteBuffer.allocate(4);
-      buffer.put((byte) 0);
-      buffer.put((byte) 0);
-      buffer.put((byte) 0);
-      buffer.put(value[0]);
-      buffer.position(0);
-      return new double[] {buffer.getInt()};
-    }
-    if (ValueType.UINT16.equals(valueType)) {
-      if (value.length < 2) {
-        return null;
+      Listener[] listeners = stream.listeners;
+      if (listeners.length == 0) {
+        return;
       }
-      final ByteBuffer buffer = ByteBuffer.allocate(4);
-      buffer.put((byte) 0);
-      buffer.put((byte) 0);
-      buffer.put(value[1]);
-      buffer.put(value[0]);
-      buffer.position(0);
-      return new double[] {buffer.getInt()};
-    }
-    if (ValueType.UINT32.equals(valueType)) {
-      if (value.length < 4) {
-        return null;
+      final double[] values = parse(stream.type, value, stream.values);
+      if (values == null) {
+        return;
       }
-      final ByteBuffer buffer = ByteBuffer.allocate(8);
-      buffer.put((byte) 0);
-      buffer.put((byte) 0);
-      buffer.put((byte) 0);
-      buffer.put((byte) 0);
-      buffer.put(value[3]);
-      buffer.put(value[2]);
-      buffer.put(value[1]);
-      buffer.put(value[0]);
-      buffer.position(0);
-      return new double[] {buffer.getLong()};
-    }
-    if (ValueType.SFLOAT.equals(valueType)) {
-      if (value.length < 4) {
-        return null;
+      stream.values = values;
+      // filter to avoid too large values blocking the UI
+      for (int i = 0; i < values.length; i++) {
+        if (values[i] > MAX_VALUE) {
+          values[i] = MAX_VALUE;
+        } else if (values[i] < MIN_VALUE) {
+          values[i] = MIN_VALUE;
+        }
       }
-      final ByteBuffer buffer = ByteBuffer.allocate(4);
-      buffer.put(value[3]);
-      buffer.put(value[2]);
-      buffer.put(value[1]);
-      buffer.put(value[0]);
-      buffer.position(0);
-      return new double[] {buffer.getFloat()};
-    }
-    if (ValueType.SFLOAT_ARR.equals(valueType)) {
-      final int size = value.length / 4;
-      final double[] array = new double[size];
-      final ByteBuffer buffer = ByteBuffer.allocate(4);
-      for (int i = 0; i < size; i++) {
-        final int offset = 4 * i;
-        buffer.position(0);
-        buffer.put(value[3 + offset]);
-        buffer.put(value[2 + offset]);
-        buffer.put(value[1 + offset]);
-        buffer.put(value[offset]);
-        buffer.position(0);
-        array[i] = buffer.getFloat();
+      // delivering to listener(s), all of whose main-thread work goes in a single post
+      mainThread.begin();
+      try {
+        for (Listener l : listeners) {
+          l.onValuesUpdated(values);
+        }
+      } finally {
+        mainThread.end();
       }
-      return array;
     }
-    return null;
+  }
+
+  /**
+   * Parses a little-endian value into {@code into}, if it is the right size, or else into a new
+   * array.
+   *
+   * @return the parsed values, or null if {@code value} is too short
+   */
+  private static double[] parse(ValueType valueType, byte[] value, double[] into) {
+    switch (valueType) {
+      case UINT8:
+        if (value.length < 1) {
+          return null;
+        }
+        into = ensureLength(into, 1);
+        into[0] = value[0] & 0xFF;
+        return into;
+      case UINT16:
+        if (value.length < 2) {
+          return null;
+        }
+        into = ensureLength(into, 1);
+        into[0] = (value[0] & 0xFF) | (value[1] & 0xFF) << 8;
+        return into;
+      case UINT32:
+        if (value.length < 4) {
+          return null;
+        }
+        into = ensureLength(into, 1);
+        into[0] = readInt(value, 0) & 0xFFFFFFFFL;
+        return into;
+      case SFLOAT:
+        if (value.length < 4) {
+          return null;
+        }
+        into = ensureLength(into, 1);
+        into[0] = Float.intBitsToFloat(readInt(value, 0));
+        return into;
+      case SFLOAT_ARR:
+        final int size = value.length / 4;
+        into = ensureLength(into, size);
+        for (int i = 0; i < size; i++) {
+          into[i] = Float.intBitsToFloat(readInt(value, 4 * i));
+        }
+        return into;
+      default:
+        return null;
+    }
+  }
+
+  private static double[] ensureLength(double[] array, int length) {
+    return array.length == length ? array : new double[length];
+  }
+
+  private static int readInt(byte[] value, int offset) {
+    return (value[offset] & 0xFF)
+        | (value[offset + 1] & 0xFF) << 8
+        | (value[offset + 2] & 0xFF) << 16
+        | (value[offset + 3] & 0xFF) << 24;
   }
 
   private enum ValueType {
@@ -418,6 +468,71 @@ public class MkrSciBleManager {
     SFLOAT_ARR
   }
 
+  /**
+   * Posts main-thread work to {@code mainThread}, except between {@link #begin} and {@link #end},
+   * when the work handed to it on the same thread is collected and posted all together.
+   */
+  @VisibleForTesting
+  static class MainThreadBatcher implements Executor {
+    private final Executor mainThread;
+    private final ThreadLocal<Batch> openBatch = new ThreadLocal<>();
+    private final ConcurrentLinkedQueue<Batch> pool = new ConcurrentLinkedQueue<>();
+
+    MainThreadBatcher(Executor mainThread) {
+      this.mainThread = mainThread;
+    }
+
+    void begin() {
+      Batch batch = pool.poll();
+      openBatch.set(batch == null ? new Batch() : batch);
+    }
+
+    void end() {
+      Batch batch = openBatch.get();
+      openBatch.set(null);
+      if (batch.size == 0) {
+        pool.add(batch);
+      } else {
+        mainThread.execute(batch);
+      }
+    }
+
+    @Override
+    public void execute(Runnable command) {
+      Batch batch = openBatch.get();
+      if (batch == null) {
+        mainThread.execute(command);
+      } else {
+        batch.add(command);
+      }
+    }
+
+    private class Batch implements Runnable {
+      private Runnable[] commands = new Runnable[4];
+      private int size = 0;
+
+      void add(Runnable command) {
+        if (size == commands.length) {
+          commands = Arrays.copyOf(commands, size * 2);
+        }
+        commands[size++] = command;
+      }
+
+      @Override
+      public void run() {
+        try {
+          for (int i = 0; i < size; i++) {
+            commands[i].run();
+          }
+        } finally {
+          Arrays.fill(commands, 0, size, null);
+          size = 0;
+          pool.add(this);
+        }
+      }
+    }
+  }
+
   /**
    * Values read from a subscribed characteristic/sensor available in the external board are passed
    * through implementations of this interface.
@@ -425,6 +540,11 @@ public class MkrSciBleManager {
   public interface Listener {
     void onFirmwareVersion(long firmwareVersion);
 
+    /**
+     * Called on the thread that delivers notifications. {@code values} is reused for the next
+     * notification, so is only valid for the duration of the call. Main-thread work should go
+     * through {@link #getMainThreadExecutor()}.
+     */
     void onValuesUpdated(double[] values);
   }
 }
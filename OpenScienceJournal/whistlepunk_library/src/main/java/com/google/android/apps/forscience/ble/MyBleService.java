@@ -71,8 +71,15 @@ public class MyBleService extends Service {
   private Map<String, BluetoothGatt> addressToGattClient =
       Collections.synchronizedMap(new LinkedHashMap<String, BluetoothGatt>());
 
+  // Each connection's GATT operations, which must go one at a time.
+  private Map<String, GattOperationQueue> addressToOperations =
+      Collections.synchronizedMap(new LinkedHashMap<String, GattOperationQueue>());
+
   private Set<String> outstandingServiceDiscoveryAddresses = new ArraySet<>();
 
+  private final BleNotificationDispatcher notificationDispatcher =
+      BleNotificationDispatcher.getInstance();
+
   // GATT callbacks
   private BluetoothGattCallback gattCallbacks =
       new BluetoothGattCallback() {
@@ -93,8 +100,9 @@ public class MyBleService extends Service {
           connectionStatuses.put(address, newState);
 
           if (status != BluetoothGatt.GATT_SUCCESS) {
-            sendGattBroadcast(address, BleEvents.GATT_CONNECT_FAIL, null);
             addressToGattClient.remove(address);
+            failOperations(address);
+            sendGattBroadcast(address, BleEvents.GATT_CONNECT_FAIL, null);
             gatt.close();
             return;
           }
@@ -102,13 +110,14 @@ public class MyBleService extends Service {
           if (newState == BluetoothProfile.STATE_CONNECTED) {
             // TODO: extract testable code here
             if (isActualChange) {
+              // Negotiates MTU and connection priority ahead of the flow's first operation.
+              getOperations(address).onConnected(gatt);
               sendGattBroadcast(address, BleEvents.GATT_CONNECT, null);
             }
             return;
           }
           if (newState == BluetoothProfile.STATE_DISCONNECTED) {
-            sendGattBroadcast(address, BleEvents.GATT_DISCONNECT, null);
-            addressToGattClient.remove(address);
+            onDisconnected(address);
             gatt.close();
             return;
           }
@@ -117,21 +126,26 @@ public class MyBleService extends Service {
 
         @Override
         public void onServicesDiscovered(BluetoothGatt gatt, int status) {
-          String address = getAddressFromGatt(gatt);
-          outstandingServiceDiscoveryAddresses.remove(address);
-          if (status == BluetoothGatt.GATT_SUCCESS) {
-            if (DEBUG) Log.d(TAG, "Sending the action: " + BleEvents.SERVICES_OK);
-            sendServiceDiscoveryIntent(MyBleService.this, address, SERVICES_RETRY_COUNT);
-          } else {
-            sendGattBroadcast(address, BleEvents.SERVICES_FAIL, null);
-          }
+          // The result is broadcast when the operation completes; see internalDiscoverServices.
+          completeOperation(gatt, GattOperationQueue.Kind.DISCOVER_SERVICES, null, status);
+        }
+
+        @Override
+        public void onMtuChanged(BluetoothGatt gatt, int mtu, int status) {
+          if (DEBUG) Log.d(TAG, "MTU changed to " + mtu);
+          completeOperation(gatt, GattOperationQueue.Kind.REQUEST_MTU, null, status);
         }
 
         @Override
         public void onCharacteristicChanged(
             BluetoothGatt gatt, BluetoothGattCharacteristic characteristic) {
           if (DEBUG) Log.d(TAG, "Got notification from " + characteristic.getUuid());
-          sendGattBroadcast(getAddressFromGatt(gatt), BleEvents.CHAR_CHANGED, characteristic);
+          // Too frequent to broadcast: hand the value straight to the flows that want it.
+          notificationDispatcher.dispatch(
+              getAddressFromGatt(gatt),
+              characteristic.getUuid(),
+              characteristic.getProperties(),
+              characteristic.getValue());
         }
 
         @Override
@@ -148,13 +162,9 @@ public class MyBleService extends Service {
                     + (status == BluetoothGatt.GATT_SUCCESS));
             Log.d(TAG, "Characteristic value: " + characteristic.getStringValue(0).toString());
           }
-
-          sendGattBroadcast(
-              getAddressFromGatt(gatt),
-              status == BluetoothGatt.GATT_SUCCESS
-                  ? BleEvents.READ_CHAR_OK
-                  : BleEvents.READ_CHAR_FAIL,
-              characteristic);
+          // The result is broadcast when the operation completes; see readValue.
+          completeOperation(
+              gatt, GattOperationQueue.Kind.READ_CHARACTERISTIC, characteristic.getUuid(), status);
         }
 
         @Override
@@ -167,12 +177,8 @@ public class MyBleService extends Service {
                     + characteristic.getUuid()
                     + " - "
                     + (status == BluetoothGatt.GATT_SUCCESS));
-          sendGattBroadcast(
-              getAddressFromGatt(gatt),
-              status == BluetoothGatt.GATT_SUCCESS
-                  ? BleEvents.WRITE_CHAR_OK
-                  : BleEvents.WRITE_CHAR_FAIL,
-              characteristic);
+          completeOperation(
+              gatt, GattOperationQueue.Kind.WRITE_CHARACTERISTIC, characteristic.getUuid(), status);
         }
 
         @Override
@@ -189,15 +195,72 @@ public class MyBleService extends Service {
         @Override
         public void onDescriptorWrite(
             BluetoothGatt gatt, BluetoothGattDescriptor descriptor, int status) {
-          sendGattBroadcast(
-              getAddressFromGatt(gatt),
-              status == BluetoothGatt.GATT_SUCCESS
-                  ? BleEvents.WRITE_DESC_OK
-                  : BleEvents.WRITE_DESC_FAIL,
-              null);
+          completeOperation(
+              gatt,
+              GattOperationQueue.Kind.WRITE_DESCRIPTOR,
+              GattOperationQueue.descriptorTarget(descriptor),
+              status);
         }
       };
 
+  @VisibleForTesting
+  GattOperationQueue getOperations(String address) {
+    synchronized (addressToOperations) {
+      GattOperationQueue operations = addressToOperations.get(address);
+      if (operations == null) {
+        // Disconnecting fails the stalled operation and any queued behind it; see onDisconnected.
+        operations =
+            new GattOperationQueue(
+                address,
+                () -> {
+                  BluetoothGatt bluetoothGatt = addressToGattClient.get(address);
+                  if (bluetoothGatt != null) {
+                    bluetoothGatt.disconnect();
+                  }
+                });
+        addressToOperations.put(address, operations);
+      }
+      return operations;
+    }
+  }
+
+  /**
+   * Reports the operations still waiting on a connection that has gone down as failed, and then
+   * that it is gone. A flow waiting on one of them thus fails, rather than carrying on as if it had
+   * succeeded.
+   */
+  @VisibleForTesting
+  void onDisconnected(String address) {
+    addressToGattClient.remove(address);
+    failOperations(address);
+    sendGattBroadcast(address, BleEvents.GATT_DISCONNECT, null);
+  }
+
+  private void failOperations(String address) {
+    GattOperationQueue operations = addressToOperations.remove(address);
+    if (operations != null) {
+      operations.failAll();
+    }
+    outstandingServiceDiscoveryAddresses.remove(address);
+  }
+
+  private void clearOperations(String address) {
+    GattOperationQueue operations = addressToOperations.remove(address);
+    if (operations != null) {
+      operations.clear();
+    }
+    // A discovery that was dropped will never report back.
+    outstandingServiceDiscoveryAddresses.remove(address);
+  }
+
+  private void completeOperation(
+      BluetoothGatt gatt, GattOperationQueue.Kind kind, Object target, int status) {
+    GattOperationQueue operations = addressToOperations.get(getAddressFromGatt(gatt));
+    if (operations != null) {
+      operations.onComplete(kind, target, status == BluetoothGatt.GATT_SUCCESS);
+    }
+  }
+
   public static void sendServiceDiscoveryIntent(Context context, String address, int retriesLeft) {
     Intent newIntent = BleEvents.createIntent(BleEvents.SERVICES_OK, address);
     newIntent.putExtra(INT_PARAM, retriesLeft);
@@ -285,6 +348,7 @@ public class MyBleService extends Service {
 
     if (bluetoothGatt != null) {
       bluetoothGatt.close();
+      clearOperations(address);
     }
     bluetoothGatt =
         device.connectGatt(
@@ -310,8 +374,7 @@ public class MyBleService extends Service {
       bluetoothGatt.disconnect();
     } else {
       bluetoothGatt.close();
-      addressToGattClient.remove(address);
-      sendGattBroadcast(address, BleEvents.GATT_DISCONNECT, null);
+      onDisconnected(address);
     }
   }
 
@@ -319,6 +382,11 @@ public class MyBleService extends Service {
     for (BluetoothGatt bluetoothGatt : addressToGattClient.values()) {
       bluetoothGatt.close();
     }
+    synchronized (addressToOperations) {
+      for (GattOperationQueue operations : addressToOperations.values()) {
+        operations.clear();
+      }
+    }
   }
 
   @Override
@@ -343,7 +411,23 @@ public class MyBleService extends Service {
   @VisibleForTesting
   protected boolean internalDiscoverServices(String address) {
     BluetoothGatt bluetoothGatt = addressToGattClient.get(address);
-    return bluetoothGatt != null && bluetoothGatt.discoverServices();
+    if (bluetoothGatt == null) {
+      return false;
+    }
+    getOperations(address)
+        .enqueue(
+            GattOperationQueue.discoverServices(
+                bluetoothGatt,
+                success -> {
+                  outstandingServiceDiscoveryAddresses.remove(address);
+                  if (success) {
+                    if (DEBUG) Log.d(TAG, "Sending the action: " + BleEvents.SERVICES_OK);
+                    sendServiceDiscoveryIntent(this, address, SERVICES_RETRY_COUNT);
+                  } else {
+                    sendGattBroadcast(address, BleEvents.SERVICES_FAIL, null);
+                  }
+                }));
+    return true;
   }
 
   BluetoothGattService getService(String address, UUID serviceId) {
@@ -389,7 +473,16 @@ public class MyBleService extends Service {
       sendGattBroadcast(address, BleEvents.READ_CHAR_FAIL, null);
       return;
     }
-    bluetoothGatt.readCharacteristic(theCharacteristic);
+    getOperations(address)
+        .enqueue(
+            GattOperationQueue.readCharacteristic(
+                bluetoothGatt,
+                theCharacteristic,
+                success ->
+                    sendGattBroadcast(
+                        address,
+                        success ? BleEvents.READ_CHAR_OK : BleEvents.READ_CHAR_FAIL,
+                        theCharacteristic)));
   }
 
   void writeValue(String address, BluetoothGattCharacteristic theCharacteristic, byte[] value) {
@@ -399,8 +492,17 @@ public class MyBleService extends Service {
       sendGattBroadcast(address, BleEvents.WRITE_CHAR_FAIL, null);
       return;
     }
-    theCharacteristic.setValue(value);
-    bluetoothGatt.writeCharacteristic(theCharacteristic);
+    getOperations(address)
+        .enqueue(
+            GattOperationQueue.writeCharacteristic(
+                bluetoothGatt,
+                theCharacteristic,
+                value,
+                success ->
+                    sendGattBroadcast(
+                        address,
+                        success ? BleEvents.WRITE_CHAR_OK : BleEvents.WRITE_CHAR_FAIL,
+                        theCharacteristic)));
   }
 
   public void writeValue(String address, BluetoothGattDescriptor descriptor, byte[] value) {
@@ -410,10 +512,20 @@ public class MyBleService extends Service {
       sendGattBroadcast(address, BleEvents.WRITE_DESC_FAIL, null);
       return;
     }
-
-    if (!descriptor.setValue(value) || !bluetoothGatt.writeDescriptor(descriptor)) {
-      sendGattBroadcast(address, BleEvents.WRITE_DESC_FAIL, descriptor.getCharacteristic());
-    }
+    getOperations(address)
+        .enqueue(
+            GattOperationQueue.writeDescriptor(
+                bluetoothGatt,
+                descriptor,
+                value,
+                success -> {
+                  if (success) {
+                    sendGattBroadcast(address, BleEvents.WRITE_DESC_OK, null);
+                  } else {
+                    sendGattBroadcast(
+                        address, BleEvents.WRITE_DESC_FAIL, descriptor.getCharacteristic());
+                  }
+                }));
   }
 
   boolean setNotificationsFor(
@@ -31,8 +31,10 @@ import com.google.android.apps.forscience.whistlepunk.filemetadata.ExperimentLib
 import com.google.android.apps.forscience.whistlepunk.filemetadata.Label;
 import com.google.android.apps.forscience.whistlepunk.filemetadata.LocalSyncManager;
 import com.google.android.apps.forscience.whistlepunk.metadata.SimpleMetaDataManager;
+import com.google.android.apps.forscience.whistlepunk.metadata.ZoomTierMaintenance;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.SensorEnvironment;
 import com.google.android.apps.forscience.whistlepunk.sensordb.SensorDatabaseImpl;
+import com.google.android.apps.forscience.whistlepunk.sensors.HardwareSensorHub;
 import com.google.android.apps.forscience.whistlepunk.sensors.VelocitySensor;
 import com.google.common.base.Optional;
 import io.reactivex.Maybe;
@@ -55,12 +57,14 @@ public class AppSingleton {
   private final Map<AppAccount, LocalSyncManager> localSyncManagers = new HashMap<>();
   private final Map<AppAccount, ExperimentLibraryManager> experimentLibraryManagers =
       new HashMap<>();
+  private final Map<AppAccount, ZoomTierMaintenance> zoomTierMaintenances = new HashMap<>();
 
   private static Executor uiThreadExecutor = null;
   private final Map<AppAccount, SensorAppearanceProviderImpl> sensorAppearanceProviders =
       new HashMap<>();
   private final Clock currentTimeClock = new CurrentTimeClock();
   private final AudioSource audioSource = new AudioSource();
+  private final HardwareSensorHub hardwareSensorHub = new HardwareSensorHub(currentTimeClock);
   private BleClientImpl bleClient;
   private final Map<AppAccount, RecorderControllerImpl> recorderControllers = new HashMap<>();
   private VelocitySensor velocitySensor;
@@ -91,6 +95,11 @@ public class AppSingleton {
           return AppSingleton.this.getAudioSource();
         }
 
+        @Override
+        public HardwareSensorHub getHardwareSensorHub() {
+          return AppSingleton.this.getHardwareSensorHub();
+        }
+
         @Override
         public SensorHistoryStorage getSensorHistoryStorage() {
           return AppSingleton.this.getPrefsSensorHistoryStorage();
@@ -156,7 +165,8 @@ public class AppSingleton {
               new SimpleMetaDataManager(applicationContext, appAccount),
               getDefaultClock(),
               getExternalSensorProviders(),
-              getSensorConnector());
+              getSensorConnector(),
+              ScalarIngestPipeline.Policy.GROUP_COMMIT);
       dataControllers.put(appAccount, dataController);
     }
     return dataController;
@@ -197,6 +207,10 @@ public class AppSingleton {
     return audioSource;
   }
 
+  public HardwareSensorHub getHardwareSensorHub() {
+    return hardwareSensorHub;
+  }
+
   public void destroyBleClient() {
     if (bleClient != null) {
       bleClient.destroy();
@@ -345,4 +359,14 @@ public class AppSingleton {
     }
     return experimentLibraryManager;
   }
+
+  public ZoomTierMaintenance getZoomTierMaintenance(AppAccount appAccount) {
+    ZoomTierMaintenance zoomTierMaintenance = zoomTierMaintenances.get(appAccount);
+    if (zoomTierMaintenance == null) {
+      zoomTierMaintenance =
+          new ZoomTierMaintenance(applicationContext, internalGetDataController(appAccount));
+      zoomTierMaintenances.put(appAccount, zoomTierMaintenance);
+    }
+    return zoomTierMaintenance;
+  }
 }
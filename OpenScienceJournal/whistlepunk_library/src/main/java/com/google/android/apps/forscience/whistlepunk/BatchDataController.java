@@ -17,6 +17,7 @@
 package com.google.android.apps.forscience.whistlepunk;
 
 import com.google.android.apps.forscience.javalib.FailureListener;
+import com.google.android.apps.forscience.whistlepunk.sensordb.ScalarReadingBatch;
 import java.io.Closeable;
 import java.io.IOException;
 import java.util.ArrayList;
@@ -49,6 +50,18 @@ public class BatchDataController implements RecordingDataController, Closeable {
     dataController.addScalarReadings(readings);
   }
 
+  @Override
+  public void addScalarReadingBatch(ScalarReadingBatch batch) {
+    for (int i = 0; i < batch.size(); i++) {
+      addScalarReading(
+          batch.getTrialId(i),
+          batch.getSensorId(i),
+          batch.getResolutionTier(i),
+          batch.getTimestampMillis(i),
+          batch.getValue(i));
+    }
+  }
+
   public void flushScalarReadings() {
     dataController.addScalarReadings(readings);
     readings = new ArrayList<>();
@@ -0,0 +1,155 @@
+/*
+ *  Copyright 2019 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+
+/**
+ * Writes CSV cells to an output stream through one large reusable buffer.
+ *
+ * <p>Numbers are formatted straight into the buffer instead of through {@link Double#toString} and
+ * a Writer, which would allocate a String and encode it for every cell. Values are written with the
+ * fewest decimal digits that read back as the same double, in the same notation that {@link
+ * Double#toString} uses; values which that can't be done cheaply for fall back to it.
+ */
+class CsvWriter implements Closeable {
+  private static final int BUFFER_SIZE = 64 * 1024;
+  // Space left in the buffer for a single cell, so that cells don't need bounds checks.
+  private static final int MAX_CELL_LENGTH = 32;
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  // Double.toString uses plain notation in this range, and scientific notation outside it.
+  private static final double MIN_PLAIN = 1e-3;
+  private static final double MAX_PLAIN = 1e7;
+  // With at most 7 integer digits, 8 fraction digits keeps the scaled value exact in a long.
+  private static final int MAX_FRACTION_DIGITS = 8;
+  private static final long[] POWERS_OF_TEN = {
+    1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L, 10000000L, 100000000L
+  };
+
+  private final OutputStream out;
+  private final byte[] buffer = new byte[BUFFER_SIZE];
+  private int position = 0;
+
+  CsvWriter(OutputStream out) {
+    this.out = out;
+  }
+
+  /** Writes text which may not be plain ASCII, such as a header. */
+  void writeText(String text) throws IOException {
+    flush();
+    out.write(text.getBytes(UTF_8));
+  }
+
+  void writeComma() throws IOException {
+    ensureSpace(1);
+    buffer[position++] = ',';
+  }
+
+  void writeNewline() throws IOException {
+    ensureSpace(1);
+    buffer[position++] = '\n';
+  }
+
+  void writeLong(long value) throws IOException {
+    ensureSpace(MAX_CELL_LENGTH);
+    if (value < 0) {
+      if (value == Long.MIN_VALUE) {
+        writeAscii(Long.toString(value));
+        return;
+      }
+      buffer[position++] = '-';
+      value = -value;
+    }
+    writeDigits(value, 1);
+  }
+
+  void writeDouble(double value) throws IOException {
+    ensureSpace(MAX_CELL_LENGTH);
+    double abs = Math.abs(value);
+    if (abs == 0) {
+      // Keeps the sign of -0.0, as Double.toString does.
+      writeAscii(Double.toString(value));
+      return;
+    }
+    if (!(abs >= MIN_PLAIN && abs < MAX_PLAIN)) {
+      // Also catches NaN.
+      writeAscii(Double.toString(value));
+      return;
+    }
+    for (int digits = 1; digits <= MAX_FRACTION_DIGITS; digits++) {
+      long power = POWERS_OF_TEN[digits];
+      long scaled = Math.round(abs * power);
+      if (scaled / (double) power == abs) {
+        if (value < 0) {
+          buffer[position++] = '-';
+        }
+        writeDigits(scaled / power, 1);
+        buffer[position++] = '.';
+        writeDigits(scaled % power, digits);
+        return;
+      }
+    }
+    writeAscii(Double.toString(value));
+  }
+
+  /** Writes any buffered cells to the output stream. */
+  void flush() throws IOException {
+    if (position > 0) {
+      out.write(buffer, 0, position);
+      position = 0;
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      flush();
+    } finally {
+      out.close();
+    }
+  }
+
+  /** Writes a non-negative value, padded with leading zeros to at least {@code minDigits}. */
+  private void writeDigits(long value, int minDigits) {
+    int length = 1;
+    for (long rest = value / 10; rest > 0; rest /= 10) {
+      length++;
+    }
+    length = Math.max(length, minDigits);
+    for (int i = position + length - 1; i >= position; i--) {
+      buffer[i] = (byte) ('0' + value % 10);
+      value /= 10;
+    }
+    position += length;
+  }
+
+  private void writeAscii(String text) {
+    for (int i = 0; i < text.length(); i++) {
+      buffer[position++] = (byte) text.charAt(i);
+    }
+  }
+
+  private void ensureSpace(int length) throws IOException {
+    if (position + length > buffer.length) {
+      flush();
+    }
+  }
+}
@@ -26,16 +26,20 @@ import com.google.android.apps.forscience.whistlepunk.filemetadata.Experiment;
 import com.google.android.apps.forscience.whistlepunk.filemetadata.ExperimentOverviewPojo;
 import com.google.android.apps.forscience.whistlepunk.filemetadata.FileSyncCollection;
 import com.google.android.apps.forscience.whistlepunk.filemetadata.Trial;
+import com.google.android.apps.forscience.whistlepunk.filemetadata.TrialStats;
 import com.google.android.apps.forscience.whistlepunk.metadata.ExperimentSensors;
 import com.google.android.apps.forscience.whistlepunk.metadata.ExternalSensorSpec;
 import com.google.android.apps.forscience.whistlepunk.metadata.GoosciExperiment;
 import com.google.android.apps.forscience.whistlepunk.metadata.GoosciScalarSensorData;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.ScalarSensorDumpImporter;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.ZoomTierRebuilder;
 import com.google.android.apps.forscience.whistlepunk.sensordb.ScalarReading;
 import com.google.android.apps.forscience.whistlepunk.sensordb.ScalarReadingList;
 import com.google.android.apps.forscience.whistlepunk.sensordb.TimeRange;
 import io.reactivex.Observable;
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.List;
 import java.util.Map;
 
@@ -60,6 +64,36 @@ public interface DataController {
       GoosciExperiment.Experiment experiment,
       final MaybeConsumer<GoosciScalarSensorData.ScalarSensorData> onSuccess);
 
+  /**
+   * Writes every trial's sensor data as a chunked ScalarSensorData proto to {@code out}, which is
+   * flushed but not closed. The export runs on the background thread a chunk at a time, letting
+   * other reads and writes of sensor data go ahead between chunks. Like {@link
+   * #getScalarReadingProtosInBackground}, this calls onSuccess on the background thread.
+   */
+  void writeScalarReadingProtosInBackground(
+      GoosciExperiment.Experiment experiment, OutputStream out, MaybeConsumer<Success> onSuccess);
+
+  /**
+   * Returns an importer which writes into this controller's database on its background thread.
+   */
+  ScalarSensorDumpImporter createScalarSensorDumpImporter();
+
+  /**
+   * Writes a trial's sensor data as CSV to {@code out}, which is closed afterwards. The export runs
+   * on the background thread a step at a time, letting other reads and writes of sensor data go
+   * ahead between steps. Like {@link #getScalarReadingProtosInBackground}, this calls onSuccess on
+   * the background thread.
+   */
+  void exportTrialCsvInBackground(
+      TrialCsvExporter exporter, OutputStream out, MaybeConsumer<Success> onSuccess);
+
+  /**
+   * Runs {@code rebuilder} on the background thread a step at a time, letting other reads and
+   * writes of sensor data go ahead between steps, and passes the rebuilt stats to onSuccess.
+   */
+  void rebuildZoomTiersInBackground(
+      ZoomTierRebuilder rebuilder, MaybeConsumer<TrialStats> onSuccess);
+
   Observable<ScalarReading> createScalarObservable(
       String trialId, String[] sensorIds, TimeRange timeRange, final int resolutionTier);
 
@@ -34,15 +34,20 @@ import com.google.android.apps.forscience.whistlepunk.filemetadata.FileMetadataU
 import com.google.android.apps.forscience.whistlepunk.filemetadata.FileSyncCollection;
 import com.google.android.apps.forscience.whistlepunk.filemetadata.SensorLayoutPojo;
 import com.google.android.apps.forscience.whistlepunk.filemetadata.Trial;
+import com.google.android.apps.forscience.whistlepunk.filemetadata.TrialStats;
 import com.google.android.apps.forscience.whistlepunk.metadata.ExperimentSensors;
 import com.google.android.apps.forscience.whistlepunk.metadata.ExternalSensorSpec;
 import com.google.android.apps.forscience.whistlepunk.metadata.GoosciExperiment;
 import com.google.android.apps.forscience.whistlepunk.metadata.GoosciScalarSensorData;
 import com.google.android.apps.forscience.whistlepunk.metadata.GoosciScalarSensorData.ScalarSensorDataDump;
 import com.google.android.apps.forscience.whistlepunk.metadata.MetaDataManager;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.ScalarSensorDumpImporter;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.ScalarSensorDumpReader;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.ZoomTierRebuilder;
 import com.google.android.apps.forscience.whistlepunk.sensordb.ScalarReading;
+import com.google.android.apps.forscience.whistlepunk.sensordb.ScalarReadingBatch;
 import com.google.android.apps.forscience.whistlepunk.sensordb.ScalarReadingList;
+import com.google.android.apps.forscience.whistlepunk.sensordb.ScalarSensorDumpWriter;
 import com.google.android.apps.forscience.whistlepunk.sensordb.SensorDatabase;
 import com.google.android.apps.forscience.whistlepunk.sensordb.TimeRange;
 import com.google.common.base.Preconditions;
@@ -53,6 +58,7 @@ import io.reactivex.schedulers.Schedulers;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.lang.ref.WeakReference;
 import java.util.HashMap;
 import java.util.List;
@@ -75,6 +81,7 @@ public class DataControllerImpl implements DataController, RecordingDataControll
   private long prevLabelTimestamp = 0;
   private Map<String, WeakReference<Experiment>> cachedExperiments = new HashMap<>();
   private ConnectableSensor.Connector connector;
+  private final ScalarIngestPipeline ingestPipeline;
 
   public DataControllerImpl(
       Context context,
@@ -87,6 +94,36 @@ public class DataControllerImpl implements DataController, RecordingDataControll
       Clock clock,
       Map<String, SensorProvider> providerMap,
       ConnectableSensor.Connector connector) {
+    this(
+        context,
+        appAccount,
+        sensorDatabase,
+        uiThread,
+        metaDataThread,
+        sensorDataThread,
+        metaDataManager,
+        clock,
+        providerMap,
+        connector,
+        ScalarIngestPipeline.Policy.IMMEDIATE);
+  }
+
+  /**
+   * @param ingestPolicy how readings passed to {@link #addScalarReading} are grouped into
+   *     transactions
+   */
+  public DataControllerImpl(
+      Context context,
+      AppAccount appAccount,
+      SensorDatabase sensorDatabase,
+      Executor uiThread,
+      Executor metaDataThread,
+      Executor sensorDataThread,
+      MetaDataManager metaDataManager,
+      Clock clock,
+      Map<String, SensorProvider> providerMap,
+      ConnectableSensor.Connector connector,
+      ScalarIngestPipeline.Policy ingestPolicy) {
     this.context = context;
     this.appAccount = appAccount;
     this.sensorDatabase = sensorDatabase;
@@ -97,6 +134,19 @@ public class DataControllerImpl implements DataController, RecordingDataControll
     this.clock = clock;
     this.providerMap = providerMap;
     this.connector = connector;
+    ingestPipeline =
+        new ScalarIngestPipeline(
+            sensorDatabase,
+            sensorDataThread,
+            Schedulers.from(sensorDataThread),
+            clock,
+            ingestPolicy,
+            (sensorId, e) -> uiThread.execute(() -> notifyFailureListener(sensorId, e)));
+  }
+
+  /** Returns the pipeline that groups live readings into transactions, for its counters. */
+  public ScalarIngestPipeline getIngestPipeline() {
+    return ingestPipeline;
   }
 
   public void replaceSensorInExperiment(
@@ -141,6 +191,7 @@ public class DataControllerImpl implements DataController, RecordingDataControll
   private void removeTrialSensorData(final Trial trial) {
     sensorDataThread.execute(
         () -> {
+          ingestPipeline.drain();
           long firstTimestamp = trial.getOriginalFirstTimestamp();
           long lastTimestamp = trial.getOriginalLastTimestamp();
           if (firstTimestamp > lastTimestamp) {
@@ -183,24 +234,12 @@ public class DataControllerImpl implements DataController, RecordingDataControll
       final int resolutionTier,
       final long timestampMillis,
       final double value) {
-    sensorDataThread.execute(
-        new Runnable() {
-          @Override
-          public void run() {
-            try {
-              sensorDatabase.addScalarReading(
-                  trialId, sensorId, resolutionTier, timestampMillis, value);
-            } catch (final Exception e) {
-              uiThread.execute(
-                  new Runnable() {
-                    @Override
-                    public void run() {
-                      notifyFailureListener(sensorId, e);
-                    }
-                  });
-            }
-          }
-        });
+    ingestPipeline.add(trialId, sensorId, resolutionTier, timestampMillis, value);
+  }
+
+  @Override
+  public void addScalarReadingBatch(ScalarReadingBatch batch) {
+    ingestPipeline.addAll(batch);
   }
 
   private void notifyFailureListener(String sensorId, Exception e) {
@@ -225,6 +264,7 @@ public class DataControllerImpl implements DataController, RecordingDataControll
         new Callable<ScalarReadingList>() {
           @Override
           public ScalarReadingList call() throws Exception {
+            ingestPipeline.drain();
             return sensorDatabase.getScalarReadings(
                 trialId, databaseTag, timeRange, resolutionTier, maxRecords);
           }
@@ -238,19 +278,109 @@ public class DataControllerImpl implements DataController, RecordingDataControll
     Preconditions.checkNotNull(experiment);
     sensorDataThread.execute(
         () -> {
+          ingestPipeline.drain();
           onSuccess.success(sensorDatabase.getScalarReadingProtos(experiment));
         });
   }
 
+  @Override
+  public void writeScalarReadingProtosInBackground(
+      GoosciExperiment.Experiment experiment, OutputStream out, MaybeConsumer<Success> onSuccess) {
+    Preconditions.checkNotNull(experiment);
+    writeScalarReadingProtoSteps(
+        new ScalarSensorDumpWriter(experiment).setOutputStream(out), onSuccess);
+  }
+
+  private void writeScalarReadingProtoSteps(
+      ScalarSensorDumpWriter writer, MaybeConsumer<Success> onSuccess) {
+    sensorDataThread.execute(
+        () -> {
+          ingestPipeline.drain();
+          boolean done;
+          try {
+            done = writer.step(sensorDatabase);
+          } catch (Exception e) {
+            onSuccess.fail(e);
+            return;
+          }
+          if (done) {
+            onSuccess.success(Success.SUCCESS);
+          } else {
+            // Go to the back of the queue, so that recording isn't held up by a long export.
+            writeScalarReadingProtoSteps(writer, onSuccess);
+          }
+        });
+  }
+
+  @Override
+  public ScalarSensorDumpImporter createScalarSensorDumpImporter() {
+    return new ScalarSensorDumpImporter(
+        sensorDatabase, sensorDataThread, task -> Schedulers.computation().scheduleDirect(task));
+  }
+
+  @Override
+  public void exportTrialCsvInBackground(
+      TrialCsvExporter exporter, OutputStream out, MaybeConsumer<Success> onSuccess) {
+    exporter.setOutputStream(out);
+    exportTrialCsvSteps(exporter, onSuccess);
+  }
+
+  private void exportTrialCsvSteps(TrialCsvExporter exporter, MaybeConsumer<Success> onSuccess) {
+    sensorDataThread.execute(
+        () -> {
+          ingestPipeline.drain();
+          boolean done;
+          try {
+            done = exporter.step(sensorDatabase);
+          } catch (Exception e) {
+            onSuccess.fail(e);
+            return;
+          }
+          if (done) {
+            onSuccess.success(Success.SUCCESS);
+          } else {
+            // Go to the back of the queue, so that recording isn't held up by a long export.
+            exportTrialCsvSteps(exporter, onSuccess);
+          }
+        });
+  }
+
+  @Override
+  public void rebuildZoomTiersInBackground(
+      ZoomTierRebuilder rebuilder, MaybeConsumer<TrialStats> onSuccess) {
+    sensorDataThread.execute(
+        () -> {
+          ingestPipeline.drain();
+          boolean done;
+          try {
+            done = rebuilder.step(sensorDatabase);
+          } catch (Exception e) {
+            uiThread.execute(() -> onSuccess.fail(e));
+            return;
+          }
+          if (done) {
+            uiThread.execute(() -> onSuccess.success(rebuilder.getTrialStats()));
+          } else {
+            // Go to the back of the queue, so that recording isn't held up by a long trial.
+            rebuildZoomTiersInBackground(rebuilder, onSuccess);
+          }
+        });
+  }
+
   @Override
   public Observable<ScalarReading> createScalarObservable(
       final String trialId,
       final String[] sensorIds,
       final TimeRange timeRange,
       final int resolutionTier) {
-    return sensorDatabase
-        .createScalarObservable(trialId, sensorIds, timeRange, resolutionTier)
-        .observeOn(Schedulers.from(sensorDataThread));
+    // Drain on the data thread at subscription time, so buffered readings are in the result.
+    return Observable.defer(
+            () -> {
+              ingestPipeline.drain();
+              return sensorDatabase.createScalarObservable(
+                  trialId, sensorIds, timeRange, resolutionTier);
+            })
+        .subscribeOn(Schedulers.from(sensorDataThread));
   }
 
   @Override
@@ -41,9 +41,9 @@ import androidx.annotation.Nullable;
 import androidx.annotation.VisibleForTesting;
 import androidx.core.app.NotificationCompat;
 import androidx.core.content.FileProvider;
-import androidx.collection.ArrayMap;
 import android.util.Log;
 import com.google.android.apps.forscience.javalib.MaybeConsumer;
+import com.google.android.apps.forscience.javalib.Success;
 import com.google.android.apps.forscience.whistlepunk.accounts.AppAccount;
 import com.google.android.apps.forscience.whistlepunk.analytics.TrackerConstants;
 import com.google.android.apps.forscience.whistlepunk.filemetadata.Experiment;
@@ -52,24 +52,17 @@ import com.google.android.apps.forscience.whistlepunk.filemetadata.Label;
 import com.google.android.apps.forscience.whistlepunk.filemetadata.Trial;
 import com.google.android.apps.forscience.whistlepunk.metadata.GoosciLabel;
 import com.google.android.apps.forscience.whistlepunk.project.experiment.UpdateExperimentFragment;
-import com.google.android.apps.forscience.whistlepunk.sensordb.ScalarReading;
-import com.google.android.apps.forscience.whistlepunk.sensordb.TimeRange;
 import com.google.android.material.snackbar.Snackbar;
 import com.google.common.base.Strings;
-import com.google.common.collect.Range;
 import io.reactivex.Observable;
-import io.reactivex.Observer;
 import io.reactivex.Single;
 import io.reactivex.android.schedulers.AndroidSchedulers;
-import io.reactivex.disposables.Disposable;
 import io.reactivex.schedulers.Schedulers;
 import io.reactivex.subjects.BehaviorSubject;
 import io.reactivex.subjects.PublishSubject;
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStreamWriter;
 import java.nio.file.Files;
 import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
@@ -113,6 +106,10 @@ public class ExportService extends Service {
       "com.google.android.apps.forscience.whistlepunk.extra.IMPORT_URI";
   private static final String EXTRA_SAVE_LOCALLY =
       "com.google.android.apps.forscience.whistlepunk.extra.SAVE_LOCALLY";
+  private static final String EXTRA_GZIP =
+      "com.google.android.apps.forscience.whistlepunk.extra.GZIP";
+  private static final String EXTRA_BUCKET_MILLIS =
+      "com.google.android.apps.forscience.whistlepunk.extra.BUCKET_MILLIS";
 
   private final IBinder binder = new ExportServiceBinder();
 
@@ -173,6 +170,33 @@ public class ExportService extends Service {
       boolean relativeTime,
       boolean saveLocally,
       String[] sensorIds) {
+    exportTrial(
+        context,
+        appAccount,
+        experimentId,
+        trialId,
+        relativeTime,
+        saveLocally,
+        sensorIds,
+        false /* gzip */,
+        0 /* bucketMillis */);
+  }
+
+  /**
+   * Starts this service to perform action export trial with the given parameters, optionally
+   * gzipping the file and grouping readings into rows of {@code bucketMillis}. See {@link
+   * TrialCsvExporter#setBucketMillis}.
+   */
+  public static void exportTrial(
+      Context context,
+      AppAccount appAccount,
+      String experimentId,
+      String trialId,
+      boolean relativeTime,
+      boolean saveLocally,
+      String[] sensorIds,
+      boolean gzip,
+      long bucketMillis) {
     Intent intent = new Intent(context, ExportService.class);
     intent.setAction(ACTION_EXPORT_TRIAL);
     intent.putExtra(EXTRA_ACCOUNT_KEY, appAccount.getAccountKey());
@@ -181,6 +205,8 @@ public class ExportService extends Service {
     intent.putExtra(EXTRA_RELATIVE_TIME, relativeTime);
     intent.putExtra(EXTRA_SENSOR_IDS, sensorIds);
     intent.putExtra(EXTRA_SAVE_LOCALLY, saveLocally);
+    intent.putExtra(EXTRA_GZIP, gzip);
+    intent.putExtra(EXTRA_BUCKET_MILLIS, bucketMillis);
     startService(context, intent, TrackerConstants.ACTION_EXPORT_TRIAL);
   }
 
@@ -242,8 +268,17 @@ public class ExportService extends Service {
         final String trialId = intent.getStringExtra(EXTRA_TRIAL_ID);
         final boolean relativeTime = intent.getBooleanExtra(EXTRA_RELATIVE_TIME, false);
         final String[] sensorIds = intent.getStringArrayExtra(EXTRA_SENSOR_IDS);
+        final boolean gzip = intent.getBooleanExtra(EXTRA_GZIP, false);
+        final long bucketMillis = intent.getLongExtra(EXTRA_BUCKET_MILLIS, 0);
         handleActionExportTrial(
-            appAccount, experimentId, trialId, relativeTime, sensorIds, startId);
+            appAccount,
+            experimentId,
+            trialId,
+            relativeTime,
+            sensorIds,
+            gzip,
+            bucketMillis,
+            startId);
       } else if (ACTION_EXPORT_EXPERIMENT.equals(action)) {
         AppAccount appAccount = getAppAccount(intent);
         final String experimentId = intent.getStringExtra(EXTRA_EXPERIMENT_ID);
@@ -381,6 +416,8 @@ public class ExportService extends Service {
       String trialId,
       boolean relativeTime,
       String[] sensorIds,
+      boolean gzip,
+      long bucketMillis,
       int startId) {
     // Blocking gets OK: this is already background threaded.
     DataController dc = getDataController(appAccount).blockingGet();
@@ -388,21 +425,53 @@ public class ExportService extends Service {
     Trial trial = experiment.getTrial(trialId);
 
     String fileName = makeCSVExportFilename(experiment.getDisplayTitle(this), trial.getTitle(this));
-    // Start observing sensor data from here, while grouping them into timestamp equal rows.
-    // Then write the rows out.
-    Range<Long> range = Range.closed(trial.getFirstTimestamp(), trial.getLastTimestamp());
-    dc.createScalarObservable(trialId, sensorIds, TimeRange.oldest(range), 0 /* resolution
-        tier */)
-        .doOnComplete(() -> stopSelf(startId))
-        .observeOn(Schedulers.io())
-        .subscribe(
-            new TrialDataWriter(
-                trialId,
-                fileName,
-                relativeTime,
-                sensorIds,
-                trial.getFirstTimestamp(),
-                trial.getLastTimestamp()));
+    if (gzip) {
+      fileName += ".gz";
+    }
+    File storageDir = getStorageDir();
+    FileOutputStream out;
+    try {
+      // Create the storage directory if it does not exist
+      if (!storageDir.exists() && !storageDir.mkdirs()) {
+        throw new IOException("Could not create dir " + storageDir.getAbsolutePath());
+      }
+      out = new FileOutputStream(new File(storageDir.getPath(), fileName));
+    } catch (IOException e) {
+      Log.e(TAG, "failed to create export file", e);
+      updateProgress(ExportProgress.fromThrowable(trialId, e));
+      stopSelf(startId);
+      return;
+    }
+
+    TrialCsvExporter exporter =
+        new TrialCsvExporter(
+                trialId, sensorIds, trial.getFirstTimestamp(), trial.getLastTimestamp())
+            .setRelativeTime(relativeTime)
+            .setGzip(gzip)
+            .setBucketMillis(bucketMillis)
+            .setProgressListener(
+                progress ->
+                    updateProgress(
+                        new ExportProgress(trialId, ExportProgress.EXPORTING, progress)));
+    updateProgress(new ExportProgress(trialId, ExportProgress.EXPORTING, 0));
+    final String exportedFileName = fileName;
+    dc.exportTrialCsvInBackground(
+        exporter,
+        out,
+        new MaybeConsumer<Success>() {
+          @Override
+          public void success(Success value) {
+            updateProgress(ExportProgress.getComplete(trialId, getFileUri(exportedFileName)));
+            stopSelf(startId);
+          }
+
+          @Override
+          public void fail(Exception e) {
+            Log.e(TAG, "CSV export failed", e);
+            updateProgress(ExportProgress.fromThrowable(trialId, e));
+            stopSelf(startId);
+          }
+        });
   }
 
   /**
@@ -820,6 +889,8 @@ public class ExportService extends Service {
       return "image/jpeg";
     } else if (ext.equals(".csv")) {
       return "text/csv";
+    } else if (ext.equals(".gz")) {
+      return "application/gzip";
     } else if (ext.equals(".sj")) {
       return "application/octet-stream";
     }
@@ -884,153 +955,4 @@ public class ExportService extends Service {
       AppSingleton.getInstance(context).setExportServiceBusy(false);
     }
   }
-
-  private class TrialDataWriter implements Observer<ScalarReading> {
-
-    private final long firstTimeStamp;
-    private final long lastTimeStamp;
-    private long currentTimestamp = -1;
-    private long firstTimeStampWritten = -1;
-
-    private ArrayMap<String, Double> currentRow = new ArrayMap<>();
-    private OutputStreamWriter outputStreamWriter;
-    private final String fileName;
-    private final boolean relativeTime;
-    private final String[] sensorIds;
-    private final String trialId;
-
-    public TrialDataWriter(
-        String trialId,
-        String fileName,
-        boolean relativeTime,
-        String[] sensorIds,
-        long firstTimeStamp,
-        long lastTimeStamp) {
-      this.trialId = trialId;
-      this.fileName = fileName;
-      this.relativeTime = relativeTime;
-      this.sensorIds = sensorIds;
-      this.firstTimeStamp = firstTimeStamp;
-      this.lastTimeStamp = lastTimeStamp;
-    }
-
-    @Override
-    public void onSubscribe(Disposable disposable) {
-      // Start writing stream.
-      File storageDir = getStorageDir();
-
-      // Create the storage directory if it does not exist
-      if (!storageDir.exists()) {
-        if (!storageDir.mkdirs()) {
-          Log.e(TAG, "failed to create directory");
-          onError(new IOException("Could not create dir " + storageDir.getAbsolutePath()));
-          return;
-        }
-      }
-
-      File file = new File(storageDir.getPath(), fileName);
-      FileOutputStream fs;
-      try {
-        fs = new FileOutputStream(file);
-      } catch (FileNotFoundException e) {
-        onError(e);
-        return;
-      }
-
-      outputStreamWriter = new OutputStreamWriter(fs);
-      try {
-        outputStreamWriter.write(relativeTime ? "relative_time" : "timestamp");
-        // Loop through sensor IDs and output them here as column names.
-        for (int index = 0, length = sensorIds.length; index < length; ++index) {
-          outputStreamWriter.write(",");
-          outputStreamWriter.write(sensorIds[index].replace(",", "_"));
-        }
-        outputStreamWriter.write("\n");
-      } catch (IOException e) {
-        onError(e);
-        return;
-      }
-      updateProgress(new ExportProgress(trialId, ExportProgress.EXPORTING, 0));
-    }
-
-    @Override
-    public void onNext(ScalarReading scalarReading) {
-      // Check if we have a different timestamp than the current row.
-      if (scalarReading.getCollectedTimeMillis() != currentTimestamp) {
-        if (currentRow != null && currentTimestamp != -1) {
-          writeRow();
-        }
-        currentRow.clear();
-      }
-      // If not, just add to current row.
-      currentRow.put(scalarReading.getSensorTag(), scalarReading.getValue());
-      if (currentTimestamp == -1) {
-        firstTimeStampWritten = scalarReading.getCollectedTimeMillis();
-      }
-      currentTimestamp = scalarReading.getCollectedTimeMillis();
-      int progress =
-          (int)
-              (((currentTimestamp - firstTimeStamp) / (double) (lastTimeStamp - firstTimeStamp))
-                  * 100);
-      updateProgress(new ExportProgress(trialId, ExportProgress.EXPORTING, progress));
-    }
-
-    @Override
-    public void onError(Throwable throwable) {
-      // End writing stream.
-      closeStreamIfNecessary();
-      updateProgress(ExportProgress.fromThrowable(trialId, throwable));
-    }
-
-    @Override
-    public void onComplete() {
-      // Write the last row if necessary.
-      if (!currentRow.isEmpty()) {
-        writeRow();
-      }
-
-      // End writing stream.
-      closeStreamIfNecessary();
-      updateProgress(ExportProgress.getComplete(trialId, getFileUri(fileName)));
-    }
-
-    private void writeRow() {
-      // If so, if current row, then write it out (the old one)!
-      try {
-        if (outputStreamWriter == null) {
-          onError(new IllegalStateException("Output stream closed."));
-        }
-        outputStreamWriter.write(getTimestampString(currentTimestamp));
-        for (int index = 0, length = sensorIds.length; index < length; ++index) {
-          String value = "";
-          if (currentRow.containsKey(sensorIds[index])) {
-            value = Double.toString(currentRow.get(sensorIds[index]));
-          }
-          outputStreamWriter.write(",");
-          outputStreamWriter.write(value);
-        }
-        outputStreamWriter.write("\n");
-      } catch (IOException e) {
-        onError(e);
-      }
-    }
-
-    private String getTimestampString(long time) {
-      return Long.toString(relativeTime ? time - firstTimeStampWritten : time);
-    }
-
-    private void closeStreamIfNecessary() {
-      if (outputStreamWriter != null) {
-        try {
-          outputStreamWriter.close();
-        } catch (IOException e) {
-          Log.e(TAG, "File close failed: " + e.toString());
-          onError(e);
-          return;
-        } finally {
-          outputStreamWriter = null;
-        }
-      }
-    }
-  }
 }
@@ -21,12 +21,11 @@ import androidx.core.util.Pair;
 import com.google.android.apps.forscience.javalib.FailureListener;
 import com.google.android.apps.forscience.javalib.FallibleConsumer;
 import com.google.android.apps.forscience.javalib.MaybeConsumers;
-import com.google.android.apps.forscience.whistlepunk.sensordb.ScalarReading;
+import com.google.android.apps.forscience.whistlepunk.scalarchart.PointList;
 import com.google.android.apps.forscience.whistlepunk.sensordb.ScalarReadingList;
 import com.google.android.apps.forscience.whistlepunk.sensordb.TimeRange;
 import com.google.common.collect.DiscreteDomain;
 import com.google.common.collect.Range;
-import java.util.List;
 
 // TODO(saff): port tests from Weather
 public class GraphPopulator {
@@ -123,25 +122,27 @@ public class GraphPopulator {
 
                 public Pair<Range<Long>, Range<Double>> addObservationsToDisplay(
                     ScalarReadingList observations) {
-                  List<ScalarReading> points = ScalarReading.slurp(observations);
+                  PointList points = observations.asPointList();
                   long xMin = Long.MAX_VALUE;
                   long xMax = Long.MIN_VALUE;
                   double yMin = Double.MAX_VALUE;
                   double yMax = Double.MIN_VALUE;
                   Range<Long> timeRange = null;
                   Range<Double> valueRange = null;
-                  for (ScalarReading point : points) {
-                    if (point.getCollectedTimeMillis() < xMin) {
-                      xMin = point.getCollectedTimeMillis();
+                  for (int i = 0; i < points.size(); i++) {
+                    long x = points.getX(i);
+                    double y = points.getY(i);
+                    if (x < xMin) {
+                      xMin = x;
                     }
-                    if (point.getCollectedTimeMillis() > xMax) {
-                      xMax = point.getCollectedTimeMillis();
+                    if (x > xMax) {
+                      xMax = x;
                     }
-                    if (point.getValue() < yMin) {
-                      yMin = point.getValue();
+                    if (y < yMin) {
+                      yMin = y;
                     }
-                    if (point.getValue() > yMax) {
-                      yMax = point.getValue();
+                    if (y > yMax) {
+                      yMax = y;
                     }
                   }
                   if (xMin <= xMax) {
@@ -18,22 +18,95 @@ package com.google.android.apps.forscience.whistlepunk;
 
 import androidx.annotation.VisibleForTesting;
 import android.util.Log;
-import com.google.android.apps.forscience.whistlepunk.data.GoosciSensor;
-import com.google.android.apps.forscience.whistlepunk.data.GoosciSensor.Data;
-import com.google.android.apps.forscience.whistlepunk.data.GoosciSensor.Pin;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.SensorStatusListener;
 import com.google.protobuf.InvalidProtocolBufferException;
-import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
 
+/**
+ * Reassembles the readings that BLE sensors send as a series of fragments.
+ *
+ * <p>Each fragment starts with a two-byte header: the length of its payload, and 1 if it is the
+ * last fragment of a reading, otherwise 0. The payloads of a reading's fragments, concatenated, are
+ * a serialized goosci.SensorData. That holds either a single reading or, from devices that were
+ * asked for them, a delta-encoded DataBatch of several. A notification usually carries a single
+ * fragment, but may carry several back to back, so that a sensor can fit a few small readings into
+ * one.
+ *
+ * <p>This runs for every notification from the sensor, so fragments are reassembled in a single
+ * reused buffer, and only the fields we need are decoded, straight from that buffer, rather than
+ * parsing each reading into a new proto.
+ */
 public class PacketAssembler {
   private static final String TAG = "PacketAssembler";
 
+  private static final int FRAGMENT_HEADER_LENGTH = 2;
+  private static final int INITIAL_CAPACITY = 64;
+  private static final int INITIAL_BATCH_CAPACITY = 32;
+
+  /** A message longer than this means we missed its last fragment. */
+  @VisibleForTesting static final int MAX_PACKET_LENGTH = 4096;
+
+  // Wire types and field numbers from sensor.proto.
+  private static final int WIRETYPE_VARINT = 0;
+  private static final int WIRETYPE_FIXED64 = 1;
+  private static final int WIRETYPE_LENGTH_DELIMITED = 2;
+  private static final int WIRETYPE_FIXED32 = 5;
+
+  private static final int SENSOR_DATA_TIMESTAMP_KEY = 1;
+  private static final int SENSOR_DATA_ERROR = 10;
+  private static final int SENSOR_DATA_DATA = 11;
+  private static final int SENSOR_DATA_DATA_BATCH = 12;
+
+  private static final int DATA_PIN = 1;
+  private static final int DATA_ANALOG_VALUE = 10;
+  private static final int DATA_DIGITAL_VALUE = 11;
+  private static final int DATA_FLOAT_VALUE = 12;
+  private static final int DATA_INT_VALUE = 13;
+  private static final int DATA_STRING_VALUE = 14;
+
+  private static final int DATA_BATCH_PIN = 1;
+  private static final int DATA_BATCH_TIMESTAMP_DELTA = 2;
+  private static final int DATA_BATCH_VALUE_DELTA = 3;
+  private static final int DATA_BATCH_FLOAT_VALUE = 4;
+
+  private static final int PIN_ANALOG = 10;
+  private static final int PIN_DIGITAL = 11;
+  private static final int PIN_VIRTUAL = 12;
+
+  // Every *Value message keeps its value in field 1.
+  private static final int VALUE_VALUE = 1;
+
   private final Clock defaultClock;
   private final Listener listener;
 
-  private final ByteArrayOutputStream packetStream = new ByteArrayOutputStream();
+  private byte[] packet = new byte[INITIAL_CAPACITY];
+  private int packetLength = 0;
+
+  // Decoding state for the current reading.
+  private int position;
+  private boolean hasTimestampKey;
+  private int timestampKey;
+  private boolean hasData;
+  private boolean hasPin;
+  private int pinType;
+  private int valueType;
+  private double value;
+  private boolean hasBatch;
+
+  // The readings of the current batch, reused from batch to batch.
+  private int[] timestampDeltas = new int[INITIAL_BATCH_CAPACITY];
+  private int timestampDeltaCount;
+  private int[] valueDeltas = new int[INITIAL_BATCH_CAPACITY];
+  private int valueDeltaCount;
+  private float[] floatValues = new float[INITIAL_BATCH_CAPACITY];
+  private int floatValueCount;
 
-  private long timeSkew = -1;
+  private boolean hasTimestamp = false;
+  private long lastTimestamp;
+  private long timeSkew;
+
+  private int malformedFragmentCount = 0;
+  private int outOfOrderCount = 0;
 
   private static float DIGITAL_HIGH = 1023f;
   private static float DIGITAL_LOW = 0f;
@@ -55,18 +128,73 @@ public class PacketAssembler {
     return (double) (digitalValue ? DIGITAL_HIGH : DIGITAL_LOW);
   }
 
+  /**
+   * @return how many fragments were dropped because their header didn't make sense, along with the
+   *     partial reading they belonged to.
+   */
+  public int getMalformedFragmentCount() {
+    return malformedFragmentCount;
+  }
+
+  /** @return how many readings arrived with an earlier timestamp than the reading before them. */
+  public int getOutOfOrderCount() {
+    return outOfOrderCount;
+  }
+
   private void raiseError(String message) {
     listener.onError(SensorStatusListener.ERROR_INVALID_PROTO, message);
   }
 
-  private void parse() {
-    byte[] bs = packetStream.toByteArray();
-    packetStream.reset();
+  public void append(byte[] packet) {
+    append(packet, packet.length);
+  }
+
+  /**
+   * Appends the fragments in the first {@code length} bytes of {@code notification}, and reports
+   * every reading they complete. {@code notification} is not used after this returns.
+   */
+  public void append(byte[] notification, int length) {
+    int offset = 0;
+    while (offset + FRAGMENT_HEADER_LENGTH <= length) {
+      int fragmentLength = notification[offset] & 0xFF;
+      byte isLast = notification[offset + 1];
+      offset += FRAGMENT_HEADER_LENGTH;
+      if (fragmentLength > length - offset || (isLast != 0 && isLast != 1)) {
+        dropMalformedFragment();
+        return;
+      }
+      if (packetLength + fragmentLength > MAX_PACKET_LENGTH) {
+        dropMalformedFragment();
+        offset += fragmentLength;
+        continue;
+      }
+      if (packetLength + fragmentLength > packet.length) {
+        packet = Arrays.copyOf(packet, Math.max(packet.length * 2, packetLength + fragmentLength));
+      }
+      System.arraycopy(notification, offset, packet, packetLength, fragmentLength);
+      packetLength += fragmentLength;
+      offset += fragmentLength;
 
-    GoosciSensor.SensorData sensorData;
+      if (isLast == 1) {
+        parse();
+      }
+    }
+  }
+
+  private void dropMalformedFragment() {
+    malformedFragmentCount++;
+    packetLength = 0;
+    if (Log.isLoggable(TAG, Log.DEBUG)) {
+      Log.d(TAG, "Dropped malformed fragment, " + malformedFragmentCount + " so far");
+    }
+  }
+
+  private void parse() {
+    int end = packetLength;
+    packetLength = 0;
 
     try {
-      sensorData = GoosciSensor.SensorData.parseFrom(bs);
+      decodeSensorData(end);
     } catch (InvalidProtocolBufferException e) {
       raiseError(e.getLocalizedMessage());
       if (Log.isLoggable(TAG, Log.DEBUG)) {
@@ -75,7 +203,12 @@ public class PacketAssembler {
       return;
     }
 
-    if (!sensorData.hasData()) {
+    if (hasBatch) {
+      parseBatch();
+      return;
+    }
+
+    if (!hasData) {
       raiseError("Unable to read data from external sensor");
       if (Log.isLoggable(TAG, Log.DEBUG)) {
         Log.d(TAG, "Sensor data missing");
@@ -83,21 +216,17 @@ public class PacketAssembler {
       return;
     }
 
-    Data sensorValue = sensorData.getData();
-    Pin sensorPin = sensorValue.getPin();
-
     double data;
 
-    if (sensorPin.hasAnalogPin() && sensorValue.hasAnalogValue()) {
-      data = (double) sensorValue.getAnalogValue().getValue();
-    } else if (sensorPin.hasDigitalPin() && sensorValue.hasDigitalValue()) {
+    if (pinType == PIN_ANALOG && valueType == DATA_ANALOG_VALUE) {
+      data = value;
+    } else if (pinType == PIN_DIGITAL && valueType == DATA_DIGITAL_VALUE) {
       // TODO: Better support boolean values
-      data = booleanToDigital(sensorValue.getDigitalValue().getValue());
-    } else if (sensorPin.hasVirtualPin() && sensorValue.hasFloatValue()) {
-      data = (double) sensorValue.getFloatValue().getValue();
-    } else if (sensorPin.hasVirtualPin() && sensorValue.hasIntValue()) {
-      data = (double) sensorValue.getIntValue().getValue();
-    } else if (sensorPin.hasVirtualPin()) {
+      data = booleanToDigital(value != 0);
+    } else if (pinType == PIN_VIRTUAL
+        && (valueType == DATA_FLOAT_VALUE || valueType == DATA_INT_VALUE)) {
+      data = value;
+    } else if (pinType == PIN_VIRTUAL) {
       // TODO: We support string messages in the proto but
       // there is no good way to convert to any value.
       raiseError("Unable to read data from external sensor");
@@ -113,25 +242,317 @@ public class PacketAssembler {
       return;
     }
 
-    long relativeTime = sensorData.getTimestampKey();
+    listener.onDataParsed(toTimestamp(timestampKey), data);
+  }
 
-    if (timeSkew == -1) {
+  private void parseBatch() {
+    int count = timestampDeltaCount;
+    boolean isFloat = pinType == PIN_VIRTUAL && floatValueCount > 0;
+    if (pinType == 0 || (isFloat ? floatValueCount : valueDeltaCount) != count) {
+      raiseError("Unable to read data from external sensor");
+      if (Log.isLoggable(TAG, Log.DEBUG)) {
+        Log.d(TAG, "Sensor data batch has unknown pin or mismatched readings");
+      }
+      return;
+    }
+
+    int timestamp = timestampKey;
+    int value = 0;
+    for (int i = 0; i < count; i++) {
+      timestamp += timestampDeltas[i];
+      double data;
+      if (isFloat) {
+        data = floatValues[i];
+      } else {
+        value += valueDeltas[i];
+        if (pinType == PIN_ANALOG) {
+          // uint32
+          data = value & 0xFFFFFFFFL;
+        } else if (pinType == PIN_DIGITAL) {
+          data = booleanToDigital(value != 0);
+        } else {
+          data = value;
+        }
+      }
+      listener.onDataParsed(toTimestamp(timestamp), data);
+    }
+  }
+
+  /** Converts the sensor's 32-bit timestamp key to our clock, allowing for it to wrap around. */
+  private long toTimestamp(int timestampKey) {
+    if (!hasTimestamp) {
       // Haven't seen a value yet. Let's calculate the time skew assuming no
       // delay.
-      timeSkew = defaultClock.getNow() - relativeTime;
+      hasTimestamp = true;
+      lastTimestamp = timestampKey & 0xFFFFFFFFL;
+      timeSkew = defaultClock.getNow() - lastTimestamp;
+    } else {
+      int delta = timestampKey - (int) lastTimestamp;
+      if (delta < 0) {
+        outOfOrderCount++;
+      }
+      lastTimestamp += delta;
     }
+    return lastTimestamp + timeSkew;
+  }
 
-    listener.onDataParsed(relativeTime + timeSkew, data);
+  private void decodeSensorData(int end) throws InvalidProtocolBufferException {
+    position = 0;
+    hasTimestampKey = false;
+    hasData = false;
+    hasBatch = false;
+    hasPin = false;
+    pinType = 0;
+    valueType = 0;
+    timestampDeltaCount = 0;
+    valueDeltaCount = 0;
+    floatValueCount = 0;
+    while (position < end) {
+      int tag = readTag(end);
+      switch (tag) {
+        case SENSOR_DATA_TIMESTAMP_KEY << 3 | WIRETYPE_VARINT:
+          timestampKey = (int) readVarint(end);
+          hasTimestampKey = true;
+          break;
+        case SENSOR_DATA_DATA << 3 | WIRETYPE_LENGTH_DELIMITED:
+          decodeData(readEnd(end));
+          hasData = true;
+          hasBatch = false;
+          break;
+        case SENSOR_DATA_DATA_BATCH << 3 | WIRETYPE_LENGTH_DELIMITED:
+          decodeDataBatch(readEnd(end));
+          hasBatch = true;
+          hasData = false;
+          break;
+        case SENSOR_DATA_ERROR << 3 | WIRETYPE_LENGTH_DELIMITED:
+          // The other member of a oneof with data.
+          skipField(tag, end);
+          hasData = false;
+          hasBatch = false;
+          break;
+        default:
+          skipField(tag, end);
+      }
+    }
+    if (!hasTimestampKey || ((hasData || hasBatch) && !hasPin)) {
+      throw new InvalidProtocolBufferException("Message missing required fields");
+    }
   }
 
-  public void append(byte[] packet) {
-    int length = (int) packet[0];
-    boolean isLast = packet[1] == 1;
+  private void decodeData(int end) throws InvalidProtocolBufferException {
+    while (position < end) {
+      int tag = readTag(end);
+      switch (tag) {
+        case DATA_PIN << 3 | WIRETYPE_LENGTH_DELIMITED:
+          decodePin(readEnd(end));
+          hasPin = true;
+          break;
+        case DATA_ANALOG_VALUE << 3 | WIRETYPE_LENGTH_DELIMITED:
+          // uint32
+          value = decodeValue(end, WIRETYPE_VARINT) & 0xFFFFFFFFL;
+          valueType = DATA_ANALOG_VALUE;
+          break;
+        case DATA_DIGITAL_VALUE << 3 | WIRETYPE_LENGTH_DELIMITED:
+          value = decodeValue(end, WIRETYPE_VARINT) != 0 ? 1 : 0;
+          valueType = DATA_DIGITAL_VALUE;
+          break;
+        case DATA_FLOAT_VALUE << 3 | WIRETYPE_LENGTH_DELIMITED:
+          value = Float.intBitsToFloat((int) decodeValue(end, WIRETYPE_FIXED32));
+          valueType = DATA_FLOAT_VALUE;
+          break;
+        case DATA_INT_VALUE << 3 | WIRETYPE_LENGTH_DELIMITED:
+          // int32
+          value = (int) decodeValue(end, WIRETYPE_VARINT);
+          valueType = DATA_INT_VALUE;
+          break;
+        case DATA_STRING_VALUE << 3 | WIRETYPE_LENGTH_DELIMITED:
+          skipField(tag, end);
+          valueType = DATA_STRING_VALUE;
+          break;
+        default:
+          skipField(tag, end);
+      }
+    }
+  }
+
+  private void decodeDataBatch(int end) throws InvalidProtocolBufferException {
+    while (position < end) {
+      int tag = readTag(end);
+      // Repeated fields should be packed, but parsers have to accept them either way.
+      switch (tag) {
+        case DATA_BATCH_PIN << 3 | WIRETYPE_LENGTH_DELIMITED:
+          decodePin(readEnd(end));
+          hasPin = true;
+          break;
+        case DATA_BATCH_TIMESTAMP_DELTA << 3 | WIRETYPE_LENGTH_DELIMITED:
+          int timestampsEnd = readEnd(end);
+          while (position < timestampsEnd) {
+            addTimestampDelta((int) readVarint(timestampsEnd));
+          }
+          break;
+        case DATA_BATCH_TIMESTAMP_DELTA << 3 | WIRETYPE_VARINT:
+          addTimestampDelta((int) readVarint(end));
+          break;
+        case DATA_BATCH_VALUE_DELTA << 3 | WIRETYPE_LENGTH_DELIMITED:
+          int valuesEnd = readEnd(end);
+          while (position < valuesEnd) {
+            addValueDelta(decodeZigZag((int) readVarint(valuesEnd)));
+          }
+          break;
+        case DATA_BATCH_VALUE_DELTA << 3 | WIRETYPE_VARINT:
+          addValueDelta(decodeZigZag((int) readVarint(end)));
+          break;
+        case DATA_BATCH_FLOAT_VALUE << 3 | WIRETYPE_LENGTH_DELIMITED:
+          int floatsEnd = readEnd(end);
+          while (position < floatsEnd) {
+            addFloatValue(Float.intBitsToFloat((int) readFixed32(floatsEnd)));
+          }
+          break;
+        case DATA_BATCH_FLOAT_VALUE << 3 | WIRETYPE_FIXED32:
+          addFloatValue(Float.intBitsToFloat((int) readFixed32(end)));
+          break;
+        default:
+          skipField(tag, end);
+      }
+    }
+  }
+
+  private void addTimestampDelta(int delta) {
+    if (timestampDeltaCount == timestampDeltas.length) {
+      timestampDeltas = Arrays.copyOf(timestampDeltas, timestampDeltaCount * 2);
+    }
+    timestampDeltas[timestampDeltaCount++] = delta;
+  }
+
+  private void addValueDelta(int delta) {
+    if (valueDeltaCount == valueDeltas.length) {
+      valueDeltas = Arrays.copyOf(valueDeltas, valueDeltaCount * 2);
+    }
+    valueDeltas[valueDeltaCount++] = delta;
+  }
+
+  private void addFloatValue(float value) {
+    if (floatValueCount == floatValues.length) {
+      floatValues = Arrays.copyOf(floatValues, floatValueCount * 2);
+    }
+    floatValues[floatValueCount++] = value;
+  }
+
+  /** Decodes a sint32. */
+  private static int decodeZigZag(int n) {
+    return (n >>> 1) ^ -(n & 1);
+  }
+
+  private void decodePin(int end) throws InvalidProtocolBufferException {
+    while (position < end) {
+      int tag = readTag(end);
+      switch (tag) {
+        case PIN_ANALOG << 3 | WIRETYPE_LENGTH_DELIMITED:
+        case PIN_DIGITAL << 3 | WIRETYPE_LENGTH_DELIMITED:
+        case PIN_VIRTUAL << 3 | WIRETYPE_LENGTH_DELIMITED:
+          // We don't need the pin number, only which kind of pin it is.
+          skipField(tag, end);
+          pinType = tag >>> 3;
+          break;
+        default:
+          skipField(tag, end);
+      }
+    }
+  }
 
-    packetStream.write(packet, 2, length);
+  /** Decodes a *Value message, whose value has the given wire type, and returns its raw bits. */
+  private long decodeValue(int outerEnd, int wireType) throws InvalidProtocolBufferException {
+    int end = readEnd(outerEnd);
+    boolean hasValue = false;
+    long bits = 0;
+    while (position < end) {
+      int tag = readTag(end);
+      if (tag == (VALUE_VALUE << 3 | wireType)) {
+        bits = wireType == WIRETYPE_FIXED32 ? readFixed32(end) : readVarint(end);
+        hasValue = true;
+      } else {
+        skipField(tag, end);
+      }
+    }
+    if (!hasValue) {
+      throw new InvalidProtocolBufferException("Message missing required fields: value");
+    }
+    return bits;
+  }
 
-    if (isLast) {
-      parse();
+  private int readTag(int end) throws InvalidProtocolBufferException {
+    int tag = (int) readVarint(end);
+    if (tag >>> 3 == 0) {
+      throw new InvalidProtocolBufferException("Protocol message contained an invalid tag (zero).");
     }
+    return tag;
+  }
+
+  private long readVarint(int end) throws InvalidProtocolBufferException {
+    long result = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      if (position >= end) {
+        throw truncated();
+      }
+      byte b = packet[position++];
+      result |= (long) (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return result;
+      }
+    }
+    throw new InvalidProtocolBufferException("Protocol message contained a malformed varint.");
+  }
+
+  private long readFixed32(int end) throws InvalidProtocolBufferException {
+    if (end - position < 4) {
+      throw truncated();
+    }
+    long result =
+        (packet[position] & 0xFF)
+            | (packet[position + 1] & 0xFF) << 8
+            | (packet[position + 2] & 0xFF) << 16
+            | (long) (packet[position + 3] & 0xFF) << 24;
+    position += 4;
+    return result;
+  }
+
+  /** Reads the length of a length-delimited field, and returns where the field ends. */
+  private int readEnd(int end) throws InvalidProtocolBufferException {
+    long length = readVarint(end);
+    if (length < 0 || length > end - position) {
+      throw truncated();
+    }
+    return position + (int) length;
+  }
+
+  private void skipField(int tag, int end) throws InvalidProtocolBufferException {
+    switch (tag & 0x7) {
+      case WIRETYPE_VARINT:
+        readVarint(end);
+        break;
+      case WIRETYPE_FIXED64:
+        skipBytes(8, end);
+        break;
+      case WIRETYPE_LENGTH_DELIMITED:
+        position = readEnd(end);
+        break;
+      case WIRETYPE_FIXED32:
+        skipBytes(4, end);
+        break;
+      default:
+        throw new InvalidProtocolBufferException("Protocol message tag had invalid wire type.");
+    }
+  }
+
+  private void skipBytes(int count, int end) throws InvalidProtocolBufferException {
+    if (end - position < count) {
+      throw truncated();
+    }
+    position += count;
+  }
+
+  private static InvalidProtocolBufferException truncated() {
+    return new InvalidProtocolBufferException(
+        "While parsing a protocol message, the input ended unexpectedly in the middle of a field.");
   }
 }
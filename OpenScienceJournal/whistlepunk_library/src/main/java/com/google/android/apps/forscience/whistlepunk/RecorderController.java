@@ -182,6 +182,14 @@ public interface RecorderController {
 
   void clearSensorTriggers(String sensorId, SensorRegistry sensorRegistry);
 
+  /**
+   * Replaces the triggers evaluated against the values of {@code sensorId}, if it is being
+   * observed. Triggers are compiled when observing starts, so this must be called whenever they are
+   * saved, even if the same objects were edited in place.
+   */
+  void updateSensorTriggers(
+      String sensorId, List<SensorTrigger> activeTriggers, SensorRegistry sensorRegistry);
+
   /**
    * @param supplier can be called to get the current sensor layouts, for saving or storing with a
    *     trial.
@@ -100,6 +100,12 @@ public class RecorderControllerImpl implements RecorderController {
   // To disable delayed stop, comment out the above line, and uncomment this one.
   private static final Delay DEFAULT_STOP_DELAY = Delay.ZERO;
 
+  // Sensors don't say what a meaningful change in their values is, so triggers fire on any
+  // crossing, as they always have. Rate limiting still stops a trigger from firing on every value
+  // of a fast sensor; alerts are throttled to this rate by TriggerHelper anyway.
+  private static final double TRIGGER_HYSTERESIS = 0;
+  private static final long TRIGGER_MIN_INTERVAL_MS = 200;
+
   private final AppAccount appAccount;
   private DataController dataController;
   private final Scheduler scheduler;
@@ -131,7 +137,10 @@ public class RecorderControllerImpl implements RecorderController {
   private Supplier<List<SensorLayoutPojo>> layoutSupplier;
 
   /** The latest recorded value for each sensor */
-  private Map<String, BehaviorSubject<ScalarReading>> latestValues = new HashMap<>();
+  private Map<String, LatestValue> latestValues = new HashMap<>();
+
+  /** The compiled active triggers for each sensor with a service observer. */
+  private Map<String, TriggerEvaluator> triggerEvaluators = new HashMap<>();
 
   public RecorderControllerImpl(Context context, AppAccount appAccount) {
     this(context, appAccount, AppSingleton.getInstance(context).getDataController(appAccount));
@@ -244,10 +253,16 @@ public class RecorderControllerImpl implements RecorderController {
       final List<SensorTrigger> activeTriggers,
       SensorRegistry sensorRegistry) {
     if (!latestValues.containsKey(sensorId)) {
-      latestValues.put(sensorId, BehaviorSubject.<ScalarReading>create());
+      latestValues.put(sensorId, new LatestValue());
     }
 
     if (!serviceObservers.containsKey(sensorId)) {
+      final LatestValue latestValue = latestValues.get(sensorId);
+      final TriggerEvaluator triggerEvaluator =
+          new TriggerEvaluator(activeTriggers, TRIGGER_HYSTERESIS, TRIGGER_MIN_INTERVAL_MS);
+      triggerEvaluators.put(sensorId, triggerEvaluator);
+      final TriggerEvaluator.FiredListener triggerFiredListener =
+          (trigger, timestamp) -> fireSensorTrigger(trigger, timestamp, sensorRegistry);
       String serviceObserverId =
           registry.putListeners(
               sensorId,
@@ -258,16 +273,11 @@ public class RecorderControllerImpl implements RecorderController {
                 double value = ScalarSensor.getValue(data);
 
                 // Remember latest value
-                latestValues.get(sensorId).onNext(new ScalarReading(timestamp, value, sensorId));
+                latestValue.set(timestamp, value);
 
                 // Fire triggers.
-                for (SensorTrigger trigger : activeTriggers) {
-                  if (!isRecording() && trigger.shouldTriggerOnlyWhenRecording()) {
-                    continue;
-                  }
-                  if (trigger.isTriggered(value)) {
-                    fireSensorTrigger(trigger, timestamp, sensorRegistry);
-                  }
+                if (triggerEvaluator.getTriggerCount() > 0) {
+                  triggerEvaluator.evaluate(timestamp, value, isRecording(), triggerFiredListener);
                 }
               },
               null);
@@ -275,6 +285,13 @@ public class RecorderControllerImpl implements RecorderController {
     }
   }
 
+  private void removeTriggerEvaluator(String sensorId) {
+    TriggerEvaluator triggerEvaluator = triggerEvaluators.remove(sensorId);
+    if (triggerEvaluator != null) {
+      triggerEvaluator.updateLastUsed();
+    }
+  }
+
   private List<SensorLayoutPojo> buildSensorLayouts() {
     return layoutSupplier == null
         ? Collections.<SensorLayoutPojo>emptyList()
@@ -422,12 +439,19 @@ public class RecorderControllerImpl implements RecorderController {
 
   @Override
   public void clearSensorTriggers(String sensorId, SensorRegistry sensorRegistry) {
+    updateSensorTriggers(sensorId, Collections.<SensorTrigger>emptyList(), sensorRegistry);
+  }
+
+  @Override
+  public void updateSensorTriggers(
+      String sensorId, List<SensorTrigger> activeTriggers, SensorRegistry sensorRegistry) {
     String observerId = serviceObservers.get(sensorId);
     if (!TextUtils.isEmpty(observerId)) {
-      // Remove the old serviceObserver and add a new one with no triggers.
+      // Remove the old serviceObserver and add a new one, which compiles the new triggers.
       serviceObservers.remove(sensorId);
       registry.remove(sensorId, observerId);
-      addServiceObserverIfNeeded(sensorId, Collections.<SensorTrigger>emptyList(), sensorRegistry);
+      removeTriggerEvaluator(sensorId);
+      addServiceObserverIfNeeded(sensorId, activeTriggers, sensorRegistry);
     }
   }
 
@@ -466,6 +490,7 @@ public class RecorderControllerImpl implements RecorderController {
           String serviceObserverId = serviceObservers.get(sensorId);
           registry.remove(sensorId, serviceObserverId);
           serviceObservers.remove(sensorId);
+          removeTriggerEvaluator(sensorId);
           latestValues.remove(sensorId);
         }
       }
@@ -679,6 +704,10 @@ public class RecorderControllerImpl implements RecorderController {
                       trial.setSensorLayouts(sensorLayoutsAtStop);
                     }
                     trial.setRecordingEndTime(clock.getNow());
+                    // The triggers are saved with the experiment.
+                    for (TriggerEvaluator triggerEvaluator : triggerEvaluators.values()) {
+                      triggerEvaluator.updateLastUsed();
+                    }
                     dataController.updateExperiment(
                         getSelectedExperiment().getExperimentId(),
                         new LoggingConsumer<Success>(TAG, "stopTrial") {
@@ -759,12 +788,12 @@ public class RecorderControllerImpl implements RecorderController {
 
   private MaybeSource<SensorSnapshot> makeSnapshot(String sensorId, SensorRegistry sensorRegistry)
       throws Exception {
-    BehaviorSubject<ScalarReading> subject = latestValues.get(sensorId);
-    if (subject == null) {
+    LatestValue latestValue = latestValues.get(sensorId);
+    if (latestValue == null) {
       return Maybe.empty();
     }
     final GoosciSensorSpec.SensorSpec spec = getSensorSpec(sensorId, sensorRegistry);
-    return subject.firstElement().map(value -> generateSnapshot(spec, value));
+    return latestValue.whenSet().map(ignored -> generateSnapshot(spec, latestValue.get(sensorId)));
   }
 
   private GoosciSnapshotValue.SnapshotLabelValue buildSnapshotLabelValue(
@@ -946,4 +975,37 @@ public class RecorderControllerImpl implements RecorderController {
   public AppAccount getAppAccount() {
     return appAccount;
   }
+
+  /**
+   * The latest value of a sensor. It is updated in place, as sensors can produce hundreds of values
+   * a second, and snapshots are rare.
+   */
+  private static class LatestValue {
+    // Emits once, when the first value arrives, so that snapshots can wait for it.
+    private final BehaviorSubject<Boolean> firstValueSet = BehaviorSubject.create();
+    private long timestamp;
+    private double value;
+    private boolean hasValue = false;
+
+    void set(long timestamp, double value) {
+      boolean first;
+      synchronized (this) {
+        this.timestamp = timestamp;
+        this.value = value;
+        first = !hasValue;
+        hasValue = true;
+      }
+      if (first) {
+        firstValueSet.onNext(true);
+      }
+    }
+
+    Maybe<Boolean> whenSet() {
+      return firstValueSet.firstElement();
+    }
+
+    synchronized ScalarReading get(String sensorId) {
+      return new ScalarReading(timestamp, value, sensorId);
+    }
+  }
 }
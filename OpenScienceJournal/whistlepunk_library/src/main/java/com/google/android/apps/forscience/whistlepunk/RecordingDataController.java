@@ -17,6 +17,7 @@
 package com.google.android.apps.forscience.whistlepunk;
 
 import com.google.android.apps.forscience.javalib.FailureListener;
+import com.google.android.apps.forscience.whistlepunk.sensordb.ScalarReadingBatch;
 import java.util.List;
 
 /** Data interface for sensor recorders */
@@ -36,6 +37,12 @@ public interface RecordingDataController {
   /** Add all of the scalar readings in the list. */
   void addScalarReadings(List<BatchInsertScalarReading> readings);
 
+  /**
+   * Add all of the scalar readings in the batch, in order. The batch may be reused once this
+   * returns, so implementations must copy anything they keep.
+   */
+  void addScalarReadingBatch(ScalarReadingBatch batch);
+
   /**
    * If an error is encountered storing data or stats for {@code sensorId}, notify {@code listener}
    */
@@ -0,0 +1,438 @@
+/*
+ *  Copyright 2019 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk;
+
+import android.util.Log;
+import androidx.annotation.VisibleForTesting;
+import com.google.android.apps.forscience.whistlepunk.sensordb.ScalarReadingBatch;
+import com.google.android.apps.forscience.whistlepunk.sensordb.SensorDatabase;
+import io.reactivex.Scheduler;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Buffers live scalar readings from all sensors and writes them to the database in groups, one
+ * transaction per group.
+ *
+ * <p>Readings are copied into a preallocated ring buffer of primitive arrays, so adding a reading
+ * allocates nothing. A flush is posted to the write thread once {@link Policy#flushSize} readings
+ * are waiting, or once the oldest waiting reading is {@link Policy#maxDelayMs} old. When the write
+ * thread falls behind, for example behind a long export, the buffer grows, up to {@link
+ * Policy#maxCapacity}. Past that, new readings are dropped rather than blocking the sensor threads,
+ * and each sensor losing readings is reported to the failure listener.
+ *
+ * <p>{@link #add} may be called from any thread. {@link #drain} must only be called on the write
+ * thread.
+ */
+public class ScalarIngestPipeline {
+  private static final String TAG = "ScalarIngestPipeline";
+
+  /**
+   * Notified when readings could not be stored: on the write thread when a group of readings failed
+   * to be written, or on the adding thread when readings were dropped because the buffer was full.
+   */
+  public interface WriteFailureListener {
+    void onWriteFailed(String sensorId, Exception e);
+  }
+
+  /** When to flush buffered readings. */
+  public static class Policy {
+    /** Write each reading as soon as it arrives; used where callers expect synchronous storage. */
+    public static final Policy IMMEDIATE = new Policy(1024, 1024 * 16, 1, 0);
+
+    /**
+     * Group readings for up to half a second, which is plenty for live graphs to catch up. The
+     * buffer can grow to hold several minutes of a fast sensor while the write thread is busy.
+     */
+    public static final Policy GROUP_COMMIT = new Policy(16384, 16384 * 16, 2048, 500);
+
+    final int capacity;
+    final int maxCapacity;
+    final int flushSize;
+    final long maxDelayMs;
+
+    /** A policy whose buffer never grows. */
+    public Policy(int capacity, int flushSize, long maxDelayMs) {
+      this(capacity, capacity, flushSize, maxDelayMs);
+    }
+
+    /**
+     * @param capacity how many readings the buffer holds to begin with
+     * @param maxCapacity how many readings the buffer may grow to hold before dropping them
+     */
+    public Policy(int capacity, int maxCapacity, int flushSize, long maxDelayMs) {
+      this.capacity = capacity;
+      this.maxCapacity = Math.max(maxCapacity, capacity);
+      this.flushSize = Math.min(flushSize, capacity);
+      this.maxDelayMs = maxDelayMs;
+    }
+  }
+
+  private final SensorDatabase database;
+  private final Executor writeThread;
+  private final Scheduler timer;
+  private final Clock clock;
+  private final Policy policy;
+  private final WriteFailureListener failureListener;
+
+  // Ring buffer, guarded by "this". Slots in [head, head + count) hold readings waiting to be
+  // written; while a flush is running, the write thread reads its slots without holding the lock,
+  // so growing the buffer copies them to new arrays rather than touching the old ones.
+  private String[] trialIds;
+  private String[] sensorIds;
+  private int[] tiers;
+  private long[] timestamps;
+  private double[] values;
+  private int capacity;
+  private int head = 0;
+  private int count = 0;
+  private long oldestPendingAt;
+  private boolean flushPosted = false;
+  private boolean timerPosted = false;
+
+  // Sensors whose dropped readings have been reported since the buffer last had room.
+  private final Set<String> droppingSensorIds = new HashSet<>();
+  private long droppedCount = 0;
+  private long writtenCount = 0;
+  private long flushCount = 0;
+  private int highWaterMark = 0;
+
+  private final RingBatch batch = new RingBatch();
+  private final Runnable flushTask =
+      () -> {
+        synchronized (this) {
+          flushPosted = false;
+        }
+        drain();
+      };
+  private final Runnable timerTask =
+      () -> {
+        synchronized (this) {
+          timerPosted = false;
+          postFlushLocked();
+        }
+      };
+
+  /**
+   * @param writeThread executor on which the database is written; must run tasks one at a time
+   * @param timer schedules time-triggered flushes; unused by {@link Policy#IMMEDIATE}
+   */
+  public ScalarIngestPipeline(
+      SensorDatabase database,
+      Executor writeThread,
+      Scheduler timer,
+      Clock clock,
+      Policy policy,
+      WriteFailureListener failureListener) {
+    this.database = database;
+    this.writeThread = writeThread;
+    this.timer = timer;
+    this.clock = clock;
+    this.policy = policy;
+    this.failureListener = failureListener;
+    capacity = policy.capacity;
+    trialIds = new String[capacity];
+    sensorIds = new String[capacity];
+    tiers = new int[capacity];
+    timestamps = new long[capacity];
+    values = new double[capacity];
+  }
+
+  /**
+   * Buffers a reading to be written.
+   *
+   * @return false if the buffer was full and the reading was dropped
+   */
+  public boolean add(
+      String trialId, String sensorId, int resolutionTier, long timestampMillis, double value) {
+    boolean report;
+    synchronized (this) {
+      if (addLocked(trialId, sensorId, resolutionTier, timestampMillis, value)) {
+        scheduleFlushLocked();
+        return true;
+      }
+      report = droppingSensorIds.add(sensorId);
+    }
+    if (report) {
+      reportDropped(sensorId);
+    }
+    return false;
+  }
+
+  /**
+   * Buffers a batch of readings to be written, taking the lock once for the whole batch. Readings
+   * that don't fit in the buffer are dropped and reported.
+   *
+   * @return the number of readings buffered
+   */
+  public int addAll(ScalarReadingBatch batch) {
+    int added = 0;
+    List<String> report = null;
+    synchronized (this) {
+      for (int i = 0; i < batch.size(); i++) {
+        if (addLocked(
+            batch.getTrialId(i),
+            batch.getSensorId(i),
+            batch.getResolutionTier(i),
+            batch.getTimestampMillis(i),
+            batch.getValue(i))) {
+          added++;
+        } else if (droppingSensorIds.add(batch.getSensorId(i))) {
+          if (report == null) {
+            report = new ArrayList<>();
+          }
+          report.add(batch.getSensorId(i));
+        }
+      }
+      if (added > 0) {
+        scheduleFlushLocked();
+      }
+    }
+    if (report != null) {
+      for (String sensorId : report) {
+        reportDropped(sensorId);
+      }
+    }
+    return added;
+  }
+
+  private boolean addLocked(
+      String trialId, String sensorId, int resolutionTier, long timestampMillis, double value) {
+    if (count == capacity && !growLocked()) {
+      droppedCount++;
+      if (droppedCount == 1 || droppedCount % 1000 == 0) {
+        Log.w(TAG, "Ingest buffer full; dropped " + droppedCount + " readings");
+      }
+      return false;
+    }
+    int slot = (head + count) % capacity;
+    trialIds[slot] = trialId;
+    sensorIds[slot] = sensorId;
+    tiers[slot] = resolutionTier;
+    timestamps[slot] = timestampMillis;
+    values[slot] = value;
+    count++;
+    highWaterMark = Math.max(highWaterMark, count);
+
+    if (count == 1) {
+      oldestPendingAt = clock.getNow();
+    }
+    return true;
+  }
+
+  /** Doubles the buffer, up to its maximum, keeping the waiting readings in order. */
+  private boolean growLocked() {
+    if (capacity >= policy.maxCapacity) {
+      return false;
+    }
+    int newCapacity = (int) Math.min((long) capacity * 2, policy.maxCapacity);
+    String[] newTrialIds = new String[newCapacity];
+    String[] newSensorIds = new String[newCapacity];
+    int[] newTiers = new int[newCapacity];
+    long[] newTimestamps = new long[newCapacity];
+    double[] newValues = new double[newCapacity];
+    for (int i = 0; i < count; i++) {
+      int slot = (head + i) % capacity;
+      newTrialIds[i] = trialIds[slot];
+      newSensorIds[i] = sensorIds[slot];
+      newTiers[i] = tiers[slot];
+      newTimestamps[i] = timestamps[slot];
+      newValues[i] = values[slot];
+    }
+    trialIds = newTrialIds;
+    sensorIds = newSensorIds;
+    tiers = newTiers;
+    timestamps = newTimestamps;
+    values = newValues;
+    capacity = newCapacity;
+    head = 0;
+    Log.w(TAG, "Ingest buffer grown to " + newCapacity + " readings");
+    return true;
+  }
+
+  private void reportDropped(String sensorId) {
+    failureListener.onWriteFailed(
+        sensorId,
+        new IllegalStateException("Readings dropped: the database isn't keeping up with them"));
+  }
+
+  private void scheduleFlushLocked() {
+    if (count >= policy.flushSize || clock.getNow() - oldestPendingAt >= policy.maxDelayMs) {
+      postFlushLocked();
+    } else if (!timerPosted && !flushPosted) {
+      timerPosted = true;
+      timer.scheduleDirect(timerTask, policy.maxDelayMs, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  /** Asks the write thread to write everything buffered so far. */
+  public synchronized void flush() {
+    postFlushLocked();
+  }
+
+  private void postFlushLocked() {
+    if (!flushPosted && count > 0) {
+      flushPosted = true;
+      writeThread.execute(flushTask);
+    }
+  }
+
+  /**
+   * Writes everything buffered so far. Must be called on the write thread; call it before reading
+   * from the database so that reads see every reading added before them.
+   */
+  public void drain() {
+    while (true) {
+      int size;
+      synchronized (this) {
+        size = count;
+        // Captures the arrays, which a concurrent add may replace with bigger ones.
+        batch.set(head, size);
+      }
+      if (size == 0) {
+        return;
+      }
+      try {
+        database.addScalarReadingBatch(batch);
+      } catch (Exception e) {
+        notifyFailure(e);
+      }
+      synchronized (this) {
+        // The written readings are still the oldest, even if the buffer grew meanwhile.
+        for (int i = 0; i < size; i++) {
+          // Don't hold on to ids of sensors that are long gone.
+          int slot = (head + i) % capacity;
+          trialIds[slot] = null;
+          sensorIds[slot] = null;
+        }
+        head = (head + size) % capacity;
+        count -= size;
+        if (count > 0) {
+          oldestPendingAt = clock.getNow();
+        }
+        droppingSensorIds.clear();
+        writtenCount += size;
+        flushCount++;
+      }
+    }
+  }
+
+  private void notifyFailure(Exception e) {
+    // Report once per sensor in the failed group.
+    Set<String> failedSensorIds = new HashSet<>();
+    for (int i = 0; i < batch.size(); i++) {
+      if (failedSensorIds.add(batch.getSensorId(i))) {
+        failureListener.onWriteFailed(batch.getSensorId(i), e);
+      }
+    }
+  }
+
+  /** Returns the number of readings dropped because the buffer was full. */
+  public synchronized long getDroppedCount() {
+    return droppedCount;
+  }
+
+  /** Returns the number of readings waiting to be written. */
+  public synchronized int getPendingCount() {
+    return count;
+  }
+
+  /**
+   * Returns true once the buffer is more than three quarters of the way to its largest size,
+   * meaning the write thread is not keeping up. Sources that can reduce their rate should do so.
+   */
+  public synchronized boolean isBackpressured() {
+    return count > policy.maxCapacity * 3 / 4;
+  }
+
+  /** Returns the most readings that have been waiting at once. */
+  public synchronized int getHighWaterMark() {
+    return highWaterMark;
+  }
+
+  @VisibleForTesting
+  public synchronized long getWrittenCount() {
+    return writtenCount;
+  }
+
+  @VisibleForTesting
+  public synchronized long getFlushCount() {
+    return flushCount;
+  }
+
+  /** Presents a range of ring buffer slots as a batch, without copying. */
+  private class RingBatch implements ScalarReadingBatch {
+    private String[] trialIds;
+    private String[] sensorIds;
+    private int[] tiers;
+    private long[] timestamps;
+    private double[] values;
+    private int capacity;
+    private int start;
+    private int size;
+
+    /** Must be called with the pipeline locked. */
+    void set(int start, int size) {
+      trialIds = ScalarIngestPipeline.this.trialIds;
+      sensorIds = ScalarIngestPipeline.this.sensorIds;
+      tiers = ScalarIngestPipeline.this.tiers;
+      timestamps = ScalarIngestPipeline.this.timestamps;
+      values = ScalarIngestPipeline.this.values;
+      capacity = ScalarIngestPipeline.this.capacity;
+      this.start = start;
+      this.size = size;
+    }
+
+    private int slot(int index) {
+      return (start + index) % capacity;
+    }
+
+    @Override
+    public int size() {
+      return size;
+    }
+
+    @Override
+    public String getTrialId(int index) {
+      return trialIds[slot(index)];
+    }
+
+    @Override
+    public String getSensorId(int index) {
+      return sensorIds[slot(index)];
+    }
+
+    @Override
+    public int getResolutionTier(int index) {
+      return tiers[slot(index)];
+    }
+
+    @Override
+    public long getTimestampMillis(int index) {
+      return timestamps[slot(index)];
+    }
+
+    @Override
+    public double getValue(int index) {
+      return values[slot(index)];
+    }
+  }
+}
@@ -0,0 +1,268 @@
+/*
+ *  Copyright 2019 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk;
+
+import androidx.annotation.VisibleForTesting;
+import com.google.android.apps.forscience.whistlepunk.sensordb.ScalarReadingCursor;
+import com.google.android.apps.forscience.whistlepunk.sensordb.SensorDatabase;
+import com.google.common.base.Preconditions;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes the readings of some of a trial's sensors as CSV, with one row per timestamp and one
+ * column per sensor.
+ *
+ * <p>Each sensor is read a page at a time in timestamp order, and the sensors are merged by always
+ * taking the earliest timestamp still pending. Memory use is one page per sensor however long the
+ * trial is. Each row has a cell for every sensor, so finding the earliest timestamp with a scan of
+ * the sensors costs no more than writing the row.
+ *
+ * <p>The export is done in steps of at most {@link #setStepSize} rows, so that a long trial doesn't
+ * hold up the database's thread. All calls to the database are made from {@link #step}, which must
+ * be called on that thread. Each exporter can only be used once.
+ */
+public class TrialCsvExporter {
+  /** Notified as the export moves through the trial. */
+  public interface ProgressListener {
+    /** @param percent how far through the trial's time range the export has got */
+    void onProgress(int percent);
+  }
+
+  private static final int PAGE_SIZE = 2000;
+  private static final int DEFAULT_STEP_SIZE = 5000;
+  private static final int OUTPUT_BUFFER_SIZE = 64 * 1024;
+
+  // Progress is only reported this often, so that a long export doesn't flood observers.
+  private static final long PROGRESS_INTERVAL_MS = 250;
+
+  private final String trialId;
+  private final String[] sensorIds;
+  private final long firstTimestamp;
+  private final long lastTimestamp;
+  private boolean relativeTime = false;
+  private boolean gzip = false;
+  private long bucketMillis = 0;
+  private ProgressListener progressListener = null;
+  private Clock clock = new CurrentTimeClock();
+  private int pageSize = PAGE_SIZE;
+  private int stepSize = DEFAULT_STEP_SIZE;
+
+  private OutputStream out = null;
+  private CsvWriter writer = null;
+  private ScalarReadingCursor[] cursors = null;
+  private double[] values;
+  private boolean[] hasValue;
+  private long firstRow = -1;
+  private int reportedProgress = -1;
+  private long nextProgressTime = 0;
+  private boolean done = false;
+
+  public TrialCsvExporter(
+      String trialId, String[] sensorIds, long firstTimestamp, long lastTimestamp) {
+    this.trialId = trialId;
+    this.sensorIds = sensorIds;
+    this.firstTimestamp = firstTimestamp;
+    this.lastTimestamp = lastTimestamp;
+  }
+
+  /** Whether to write times relative to the first row, rather than as timestamps. */
+  public TrialCsvExporter setRelativeTime(boolean relativeTime) {
+    this.relativeTime = relativeTime;
+    return this;
+  }
+
+  /** Whether to gzip the output. */
+  public TrialCsvExporter setGzip(boolean gzip) {
+    this.gzip = gzip;
+    return this;
+  }
+
+  /**
+   * Groups readings into rows of this many milliseconds, counted from the start of the trial, so
+   * that sensors recording at different rates share rows. If a sensor has more than one reading in
+   * a row, the last one is written. 0 (the default) puts each distinct timestamp in its own row.
+   */
+  public TrialCsvExporter setBucketMillis(long bucketMillis) {
+    this.bucketMillis = bucketMillis;
+    return this;
+  }
+
+  public TrialCsvExporter setProgressListener(ProgressListener progressListener) {
+    this.progressListener = progressListener;
+    return this;
+  }
+
+  public TrialCsvExporter setClock(Clock clock) {
+    this.clock = clock;
+    return this;
+  }
+
+  @VisibleForTesting
+  TrialCsvExporter setPageSize(int pageSize) {
+    this.pageSize = pageSize;
+    return this;
+  }
+
+  @VisibleForTesting
+  TrialCsvExporter setStepSize(int stepSize) {
+    this.stepSize = stepSize;
+    return this;
+  }
+
+  /**
+   * Sets the stream that {@link #step} writes to, which is closed once the export finishes or
+   * fails. Nothing is written until the first step.
+   */
+  public TrialCsvExporter setOutputStream(OutputStream out) {
+    this.out = out;
+    return this;
+  }
+
+  /**
+   * Reads the trial from {@code db} and writes it to {@code out}, which is closed afterwards, in a
+   * single call.
+   */
+  public void write(SensorDatabase db, OutputStream out) throws IOException {
+    setOutputStream(out);
+    while (!step(db)) {}
+  }
+
+  /**
+   * Writes up to the step size of rows to the output stream. Must be called on the database's
+   * thread. If this throws, the output stream has been closed and the export can't go on.
+   *
+   * @return true once every row has been written and the output stream closed.
+   */
+  public boolean step(SensorDatabase db) throws IOException {
+    if (done) {
+      return true;
+    }
+    try {
+      if (writer == null) {
+        open(db);
+      }
+      for (int i = 0; i < stepSize; i++) {
+        if (!writeRow()) {
+          done = true;
+          writer.close();
+          return true;
+        }
+      }
+      return false;
+    } catch (IOException | RuntimeException e) {
+      done = true;
+      closeQuietly();
+      throw e;
+    }
+  }
+
+  private void open(SensorDatabase db) throws IOException {
+    Preconditions.checkNotNull(out, "No output stream was set");
+    if (gzip) {
+      out = new GZIPOutputStream(out, OUTPUT_BUFFER_SIZE);
+    }
+    writer = new CsvWriter(out);
+    StringBuilder header = new StringBuilder(relativeTime ? "relative_time" : "timestamp");
+    for (String sensorId : sensorIds) {
+      header.append(',').append(sensorId.replace(",", "_"));
+    }
+    writer.writeText(header.append('\n').toString());
+
+    int numSensors = sensorIds.length;
+    cursors = new ScalarReadingCursor[numSensors];
+    for (int i = 0; i < numSensors; i++) {
+      cursors[i] =
+          new ScalarReadingCursor(
+              db, trialId, sensorIds[i], firstTimestamp, lastTimestamp, pageSize);
+    }
+    values = new double[numSensors];
+    hasValue = new boolean[numSensors];
+  }
+
+  /** Writes the row with the earliest pending timestamp, or returns false if there are none. */
+  private boolean writeRow() throws IOException {
+    long row = Long.MAX_VALUE;
+    for (ScalarReadingCursor cursor : cursors) {
+      if (cursor.hasNext()) {
+        row = Math.min(row, getRow(cursor.getTimestamp()));
+      }
+    }
+    if (row == Long.MAX_VALUE) {
+      return false;
+    }
+    int numSensors = cursors.length;
+    for (int i = 0; i < numSensors; i++) {
+      ScalarReadingCursor cursor = cursors[i];
+      hasValue[i] = false;
+      while (cursor.hasNext() && getRow(cursor.getTimestamp()) == row) {
+        values[i] = cursor.getValue();
+        hasValue[i] = true;
+        cursor.advance();
+      }
+    }
+    if (firstRow == -1) {
+      firstRow = row;
+    }
+
+    writer.writeLong(relativeTime ? row - firstRow : row);
+    for (int i = 0; i < numSensors; i++) {
+      writer.writeComma();
+      if (hasValue[i]) {
+        writer.writeDouble(values[i]);
+      }
+    }
+    writer.writeNewline();
+
+    if (progressListener != null) {
+      int progress = getProgress(row);
+      if (progress != reportedProgress && clock.getNow() >= nextProgressTime) {
+        progressListener.onProgress(progress);
+        reportedProgress = progress;
+        nextProgressTime = clock.getNow() + PROGRESS_INTERVAL_MS;
+      }
+    }
+    return true;
+  }
+
+  private void closeQuietly() {
+    try {
+      if (writer != null) {
+        writer.close();
+      } else if (out != null) {
+        out.close();
+      }
+    } catch (IOException e) {
+      // The original failure is the one worth reporting.
+    }
+  }
+
+  private long getRow(long timestamp) {
+    if (bucketMillis <= 1 || timestamp < firstTimestamp) {
+      return timestamp;
+    }
+    return timestamp - (timestamp - firstTimestamp) % bucketMillis;
+  }
+
+  private int getProgress(long timestamp) {
+    if (lastTimestamp <= firstTimestamp) {
+      return 100;
+    }
+    return (int) ((timestamp - firstTimestamp) * 100 / (lastTimestamp - firstTimestamp));
+  }
+}
@@ -0,0 +1,209 @@
+/*
+ *  Copyright 2019 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk;
+
+import com.google.android.apps.forscience.whistlepunk.filemetadata.SensorTrigger;
+import java.util.List;
+
+/**
+ * Evaluates the active triggers of one sensor against each of its values.
+ *
+ * <p>The triggers are compiled once into flat arrays, so evaluating a value reads no protos and
+ * allocates nothing. The same conditions as {@link SensorTrigger#isTriggered} are used, with two
+ * optional refinements:
+ *
+ * <ul>
+ *   <li>Hysteresis: once a trigger that fires on crossing its value has fired, the sensor must move
+ *       back at least {@code hysteresis} past the value before the trigger can fire again, so a
+ *       noisy signal hovering around the value fires once rather than on every wobble.
+ *   <li>Rate limiting: a trigger never fires again within {@code minIntervalMillis} of the last
+ *       time it fired, by the sensor's timestamps.
+ * </ul>
+ *
+ * <p>The last used time of a trigger is only updated when it fires, or when {@link #updateLastUsed}
+ * is called, rather than on every value.
+ */
+class TriggerEvaluator {
+  /** Receives the triggers that fire. */
+  interface FiredListener {
+    void onTriggerFired(SensorTrigger trigger, long timestamp);
+  }
+
+  // When comparing double values from sensors, use this epsilon, as SensorTrigger does.
+  private static final double EPSILON = .00001;
+
+  private static final int WHEN_AT = 0;
+  private static final int WHEN_DROPS_BELOW = 1;
+  private static final int WHEN_RISES_ABOVE = 2;
+  private static final int WHEN_BELOW = 3;
+  private static final int WHEN_ABOVE = 4;
+  private static final int WHEN_NEVER = 5;
+
+  private final double hysteresis;
+  private final long minIntervalMillis;
+
+  private final SensorTrigger[] triggers;
+  private final int[] whens;
+  private final double[] valuesToTrigger;
+  private final boolean[] onlyWhenRecording;
+  // The state of each trigger.
+  private final double[] oldValues;
+  private final boolean[] armed;
+  private final boolean[] initialized;
+  private final long[] lastFiredTimestamps;
+  private final boolean[] hasFired;
+  private boolean evaluatedSinceLastUsedUpdate = false;
+
+  /**
+   * @param hysteresis how far back past its value the sensor must move before a trigger that fires
+   *     on crossing can fire again. With 0, triggers behave exactly like {@link
+   *     SensorTrigger#isTriggered}.
+   * @param minIntervalMillis the shortest time between two firings of the same trigger.
+   */
+  TriggerEvaluator(List<SensorTrigger> triggers, double hysteresis, long minIntervalMillis) {
+    this.hysteresis = hysteresis;
+    this.minIntervalMillis = minIntervalMillis;
+    int count = triggers.size();
+    this.triggers = triggers.toArray(new SensorTrigger[count]);
+    whens = new int[count];
+    valuesToTrigger = new double[count];
+    onlyWhenRecording = new boolean[count];
+    oldValues = new double[count];
+    armed = new boolean[count];
+    initialized = new boolean[count];
+    lastFiredTimestamps = new long[count];
+    hasFired = new boolean[count];
+    for (int i = 0; i < count; i++) {
+      SensorTrigger trigger = this.triggers[i];
+      whens[i] = compileWhen(trigger);
+      valuesToTrigger[i] = trigger.getValueToTrigger();
+      onlyWhenRecording[i] = trigger.shouldTriggerOnlyWhenRecording();
+      armed[i] = true;
+    }
+  }
+
+  private static int compileWhen(SensorTrigger trigger) {
+    switch (trigger.getTriggerWhen()) {
+      case TRIGGER_WHEN_AT:
+        return WHEN_AT;
+      case TRIGGER_WHEN_DROPS_BELOW:
+        return WHEN_DROPS_BELOW;
+      case TRIGGER_WHEN_RISES_ABOVE:
+        return WHEN_RISES_ABOVE;
+      case TRIGGER_WHEN_BELOW:
+        return WHEN_BELOW;
+      case TRIGGER_WHEN_ABOVE:
+        return WHEN_ABOVE;
+      default:
+        return WHEN_NEVER;
+    }
+  }
+
+  /** Returns the number of triggers being evaluated. */
+  int getTriggerCount() {
+    return triggers.length;
+  }
+
+  /**
+   * Evaluates every trigger against the given value, calling the listener for each one that fires.
+   *
+   * @param recording whether a recording is in progress; triggers that only apply while recording
+   *     are skipped otherwise.
+   */
+  void evaluate(long timestamp, double value, boolean recording, FiredListener listener) {
+    int count = triggers.length;
+    if (count == 0) {
+      return;
+    }
+    evaluatedSinceLastUsedUpdate = true;
+
+    for (int i = 0; i < count; i++) {
+      if (onlyWhenRecording[i] && !recording) {
+        continue;
+      }
+      double oldValue = oldValues[i];
+      oldValues[i] = value;
+      if (!initialized[i]) {
+        // The first value only tells us where the sensor starts.
+        initialized[i] = true;
+        continue;
+      }
+
+      double valueToTrigger = valuesToTrigger[i];
+
+      boolean result;
+      switch (whens[i]) {
+        case WHEN_AT:
+          if (!armed[i] && Math.abs(value - valueToTrigger) >= hysteresis) {
+            armed[i] = true;
+          }
+          // Not just an equality check: also test to see if the threshold was crossed in
+          // either direction.
+          result =
+              armed[i]
+                  && (Math.abs(value - valueToTrigger) < EPSILON
+                      || (value < valueToTrigger && oldValue > valueToTrigger)
+                      || (value > valueToTrigger && oldValue < valueToTrigger));
+          break;
+        case WHEN_DROPS_BELOW:
+          if (!armed[i] && value >= valueToTrigger + hysteresis) {
+            armed[i] = true;
+          }
+          result = armed[i] && value < valueToTrigger && oldValue >= valueToTrigger;
+          break;
+        case WHEN_RISES_ABOVE:
+          if (!armed[i] && value <= valueToTrigger - hysteresis) {
+            armed[i] = true;
+          }
+          result = armed[i] && value > valueToTrigger && oldValue <= valueToTrigger;
+          break;
+        case WHEN_BELOW:
+          result = value < valueToTrigger;
+          break;
+        case WHEN_ABOVE:
+          result = value > valueToTrigger;
+          break;
+        default:
+          result = false;
+      }
+
+      if (result && (!hasFired[i] || timestamp - lastFiredTimestamps[i] >= minIntervalMillis)) {
+        if (hysteresis > 0) {
+          armed[i] = false;
+        }
+        hasFired[i] = true;
+        lastFiredTimestamps[i] = timestamp;
+        triggers[i].updateLastUsed();
+        listener.onTriggerFired(triggers[i], timestamp);
+      }
+    }
+  }
+
+  /**
+   * Marks every trigger as used now, if any values have been evaluated since the last time. Call
+   * this before the triggers are saved, or when they stop being evaluated.
+   */
+  void updateLastUsed() {
+    if (!evaluatedSinceLastUsedUpdate) {
+      return;
+    }
+    evaluatedSinceLastUsedUpdate = false;
+    for (SensorTrigger trigger : triggers) {
+      trigger.updateLastUsed();
+    }
+  }
+}
@@ -40,7 +40,15 @@ public class AudioAnalyzer {
   private final Map<Integer, List<Double>> mapOfFundamentalFrequencies = new TreeMap<>();
 
   public AudioAnalyzer(int sampleRateInHz) {
-    fftAnalyzer = new FftAnalyzer(sampleRateInHz);
+    this(sampleRateInHz, FftWindow.RECTANGULAR);
+  }
+
+  /**
+   * @param window the window to apply before FFT. The frequency of each peak is still refined using
+   *     the unwindowed samples.
+   */
+  public AudioAnalyzer(int sampleRateInHz, FftWindow window) {
+    fftAnalyzer = new FftAnalyzer(sampleRateInHz, false, window);
     goertzelAnalyzer = new GoertzelAnalyzer(sampleRateInHz);
   }
 
@@ -71,11 +79,7 @@ public class AudioAnalyzer {
     }
 
     // Use Goertzel analyzer to more accurately determine the frequency of each peak.
-    for (Peak peak : peaks) {
-      double frequency =
-          goertzelAnalyzer.findFrequencyWithHighestPower(samples, peak.getFrequencyEstimate());
-      peak.setFrequency(frequency);
-    }
+    goertzelAnalyzer.findFrequenciesWithHighestPower(samples, peaks);
 
     Peak tallestPeak = peaks.get(0);
     if (peaks.size() == 1) {
@@ -0,0 +1,114 @@
+/*
+ *  Copyright 2019 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.audio;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A ring of fixed size frames of audio, written by one thread and read by any number of others,
+ * without locks.
+ *
+ * <p>Each reader has its own {@link Cursor}. The writer never waits for readers: before it
+ * overwrites a frame, it moves any cursor still on that frame past it, and counts the frames that
+ * reader missed. A reader which was part way through copying a frame when that happened finds out
+ * when it tries to advance its cursor, and throws the copy away.
+ */
+class AudioRing {
+  private final int frameSize;
+  private final int frameCount;
+  private final short[] samples;
+  // The number of frames written so far. Frame n is at slot n % frameCount.
+  private final AtomicLong written = new AtomicLong(0);
+
+  /** The position of one reader in the ring. */
+  static class Cursor {
+    private final AtomicLong next;
+    // Only written by the writer.
+    private volatile long dropped = 0;
+
+    private Cursor(long next) {
+      this.next = new AtomicLong(next);
+    }
+
+    /** Returns the number of frames that were overwritten before this reader got to them. */
+    long getDropped() {
+      return dropped;
+    }
+  }
+
+  AudioRing(int frameSize, int frameCount) {
+    this.frameSize = frameSize;
+    this.frameCount = frameCount;
+    samples = new short[frameSize * frameCount];
+  }
+
+  int getFrameSize() {
+    return frameSize;
+  }
+
+  /** Returns a cursor which will read the frames written from now on. */
+  Cursor newCursor() {
+    return new Cursor(written.get());
+  }
+
+  /**
+   * Writes the given frame, moving any of the given cursors that would otherwise read the frame it
+   * replaces. Must only be called from the writing thread.
+   */
+  void write(short[] frame, Cursor[] cursors) {
+    long n = written.get();
+    long oldest = n - frameCount + 1;
+    if (oldest > 0) {
+      for (Cursor cursor : cursors) {
+        while (true) {
+          long next = cursor.next.get();
+          if (next >= oldest) {
+            break;
+          }
+          if (cursor.next.compareAndSet(next, oldest)) {
+            cursor.dropped += oldest - next;
+            break;
+          }
+        }
+      }
+    }
+    System.arraycopy(frame, 0, samples, slot(n), frameSize);
+    written.set(n + 1);
+  }
+
+  /**
+   * Copies the next unread frame for the given cursor into {@code into}, and moves the cursor on.
+   * Returns false if there is no complete frame to read.
+   */
+  boolean read(Cursor cursor, short[] into) {
+    while (true) {
+      long next = cursor.next.get();
+      if (next >= written.get()) {
+        return false;
+      }
+      System.arraycopy(samples, slot(next), into, 0, frameSize);
+      if (cursor.next.compareAndSet(next, next + 1)) {
+        return true;
+      }
+      // The writer overwrote the frame while we were copying it, and moved the cursor on.
+    }
+  }
+
+  private int slot(long frame) {
+    return (int) (frame % frameCount) * frameSize;
+  }
+}
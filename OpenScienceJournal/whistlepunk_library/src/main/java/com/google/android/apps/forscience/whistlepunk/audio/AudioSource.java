@@ -19,6 +19,7 @@ package com.google.android.apps.forscience.whistlepunk.audio;
 import android.media.AudioFormat;
 import android.media.AudioRecord;
 import android.media.MediaRecorder;
+import android.util.Log;
 import androidx.annotation.VisibleForTesting;
 import java.util.ArrayList;
 import java.util.List;
@@ -26,19 +27,40 @@ import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
 
+/**
+ * Reads audio from the microphone, and hands it to each registered {@link AudioReceiver} on a
+ * thread of its own.
+ *
+ * <p>The thread reading the microphone only writes each buffer into an {@link AudioRing} and wakes
+ * the receivers, so a slow receiver can't make it fall behind the microphone, or hold up the other
+ * receivers. A receiver that falls more than the ring behind misses buffers instead; see {@link
+ * #getReceiverStats}.
+ */
 public class AudioSource {
+  private static final String TAG = "AudioSource";
   public static final int SAMPLE_RATE_IN_HZ = 44100;
   private static final int CHANNEL_CONFIG = AudioFormat.CHANNEL_IN_MONO;
   private static final int AUDIO_FORMAT = AudioFormat.ENCODING_PCM_16BIT;
+  // How many buffers a receiver can fall behind before it misses some. Buffers are usually tens of
+  // milliseconds long.
+  private static final int RING_BUFFERS = 16;
+  // How long a receiver waits for a buffer before checking whether it has been unregistered.
+  private static final long RECEIVER_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
 
   private final ExecutorService executorService = Executors.newSingleThreadExecutor();
   private final AtomicBoolean running = new AtomicBoolean(false);
   private volatile Future<?> future;
   private final int minBufferSizeInBytes;
+  private final AudioRing ring;
+  // Guards changes to receiverThreads and cursors, which are made by copying, so that the thread
+  // reading the microphone never has to wait for them.
   private final Object lockAudioReceivers = new Object();
-  private final List<AudioReceiver> audioReceivers = new ArrayList<>();
+  private volatile ReceiverThread[] receiverThreads = new ReceiverThread[0];
+  private volatile AudioRing.Cursor[] cursors = new AudioRing.Cursor[0];
 
   public interface AudioReceiver {
     /**
@@ -48,9 +70,52 @@ public class AudioSource {
     void onReceiveAudio(short[] buffer);
   }
 
+  /** How well a receiver has kept up with the microphone. */
+  public static class ReceiverStats {
+    private final long buffersReceived;
+    private final long buffersDropped;
+    private final long underruns;
+
+    private ReceiverStats(long buffersReceived, long buffersDropped, long underruns) {
+      this.buffersReceived = buffersReceived;
+      this.buffersDropped = buffersDropped;
+      this.underruns = underruns;
+    }
+
+    /** Returns how many buffers have been passed to the receiver. */
+    public long getBuffersReceived() {
+      return buffersReceived;
+    }
+
+    /** Returns how many buffers the receiver missed because it fell too far behind (overruns). */
+    public long getBuffersDropped() {
+      return buffersDropped;
+    }
+
+    /**
+     * Returns how many times the receiver caught up and had to wait for the microphone (underruns).
+     * A receiver with time to spare waits for almost every buffer.
+     */
+    public long getUnderruns() {
+      return underruns;
+    }
+
+    @Override
+    public String toString() {
+      return "ReceiverStats{received="
+          + buffersReceived
+          + ", dropped="
+          + buffersDropped
+          + ", underruns="
+          + underruns
+          + "}";
+    }
+  }
+
   public AudioSource() {
     minBufferSizeInBytes =
         AudioRecord.getMinBufferSize(SAMPLE_RATE_IN_HZ, CHANNEL_CONFIG, AUDIO_FORMAT);
+    ring = minBufferSizeInBytes < 0 ? null : new AudioRing(minBufferSizeInBytes / 2, RING_BUFFERS);
   }
 
   /** Registers the given AudioReceiver. Returns true if successful, false otherwise. */
@@ -60,37 +125,87 @@ public class AudioSource {
       return false;
     }
     synchronized (lockAudioReceivers) {
-      if (audioReceivers.contains(audioReceiver)) {
+      if (indexOf(audioReceiver) >= 0) {
         // This audioReceiver was already added.
         return false;
       }
-      audioReceivers.add(audioReceiver);
-      if (audioReceivers.size() == 1) {
+      if (receiverThreads.length == 0) {
         start();
       }
       boolean success = running.get();
       // success will be false if the AudioRecord could not be initialized or could not start
       // recording.
-      if (!success) {
-        audioReceivers.remove(audioReceiver);
+      if (success) {
+        ReceiverThread receiverThread = new ReceiverThread(audioReceiver, ring.newCursor());
+        ReceiverThread[] threads = new ReceiverThread[receiverThreads.length + 1];
+        System.arraycopy(receiverThreads, 0, threads, 0, receiverThreads.length);
+        threads[receiverThreads.length] = receiverThread;
+        setReceiverThreads(threads);
+        receiverThread.start();
       }
       return success;
     }
   }
 
   public void unregisterAudioReceiver(AudioReceiver audioReceiver) {
-    boolean needToStop = false;
+    ReceiverThread removed;
+    boolean needToStop;
     synchronized (lockAudioReceivers) {
-      if (!audioReceivers.isEmpty()) {
-        audioReceivers.remove(audioReceiver);
-        needToStop = audioReceivers.isEmpty();
+      int index = indexOf(audioReceiver);
+      if (index < 0) {
+        return;
       }
+      removed = receiverThreads[index];
+      ReceiverThread[] threads = new ReceiverThread[receiverThreads.length - 1];
+      System.arraycopy(receiverThreads, 0, threads, 0, index);
+      System.arraycopy(receiverThreads, index + 1, threads, index, threads.length - index);
+      setReceiverThreads(threads);
+      needToStop = threads.length == 0;
+    }
+    removed.stop();
+    ReceiverStats stats = removed.getStats();
+    if (stats.getBuffersDropped() > 0 && Log.isLoggable(TAG, Log.WARN)) {
+      Log.w(TAG, "Audio receiver fell behind: " + stats);
     }
     if (needToStop) {
       stop();
     }
   }
 
+  /**
+   * Returns how well the given receiver has kept up with the microphone, or null if it isn't
+   * registered.
+   */
+  public ReceiverStats getReceiverStats(AudioReceiver audioReceiver) {
+    ReceiverThread[] threads = receiverThreads;
+    for (ReceiverThread thread : threads) {
+      if (thread.audioReceiver == audioReceiver) {
+        return thread.getStats();
+      }
+    }
+    return null;
+  }
+
+  private void setReceiverThreads(ReceiverThread[] threads) {
+    AudioRing.Cursor[] newCursors = new AudioRing.Cursor[threads.length];
+    for (int i = 0; i < threads.length; i++) {
+      newCursors[i] = threads[i].cursor;
+    }
+    // A buffer written between these two is either not seen by a new receiver, whose cursor is
+    // already past it, or overwrites a buffer for a removed one, which doesn't matter.
+    receiverThreads = threads;
+    cursors = newCursors;
+  }
+
+  private int indexOf(AudioReceiver audioReceiver) {
+    for (int i = 0; i < receiverThreads.length; i++) {
+      if (receiverThreads[i].audioReceiver == audioReceiver) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
   private void start() {
     // FYI: the current thread holds lockAudioReceivers.
     // Use VOICE_COMMUNICATION to filter out audio coming from the speakers
@@ -118,7 +233,7 @@ public class AudioSource {
     future =
         executorService.submit(
             () -> {
-              short[] buffer = new short[minBufferSizeInBytes / 2];
+              short[] buffer = new short[ring.getFrameSize()];
               int offset = 0;
               boolean goodDataRead = false;
 
@@ -141,12 +256,11 @@ public class AudioSource {
                   goodDataRead = (readShorts > 0);
                 }
                 offset += readShorts;
-                // If the buffer is full, call the Receivers.
+                // If the buffer is full, hand it to the Receivers.
                 if (offset == buffer.length) {
-                  synchronized (lockAudioReceivers) {
-                    for (AudioReceiver audioReceiver : audioReceivers) {
-                      audioReceiver.onReceiveAudio(buffer);
-                    }
+                  ring.write(buffer, cursors);
+                  for (ReceiverThread thread : receiverThreads) {
+                    thread.wake();
                   }
                   offset = 0;
                 }
@@ -173,6 +287,10 @@ public class AudioSource {
 
   @VisibleForTesting
   public List<AudioReceiver> getRecievers() {
+    List<AudioReceiver> audioReceivers = new ArrayList<>();
+    for (ReceiverThread thread : receiverThreads) {
+      audioReceivers.add(thread.audioReceiver);
+    }
     return audioReceivers;
   }
 
@@ -183,10 +301,83 @@ public class AudioSource {
 
   @VisibleForTesting
   public void unregisterAllAudioReceivers() {
-    synchronized (lockAudioReceivers) {
-      while (!audioReceivers.isEmpty()) {
-        unregisterAudioReceiver(audioReceivers.get(0));
+    for (AudioReceiver audioReceiver : getRecievers()) {
+      unregisterAudioReceiver(audioReceiver);
+    }
+  }
+
+  /** Reads buffers from the ring for one receiver, and passes them to it on its own thread. */
+  private class ReceiverThread implements Runnable {
+    private final AudioReceiver audioReceiver;
+    private final AudioRing.Cursor cursor;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final short[] buffer = new short[ring.getFrameSize()];
+    private volatile boolean receiving = true;
+    private volatile Thread thread;
+    private volatile Future<?> receiverFuture;
+    // Only written by the receiver's thread.
+    private volatile long buffersReceived = 0;
+    private volatile long underruns = 0;
+
+    ReceiverThread(AudioReceiver audioReceiver, AudioRing.Cursor cursor) {
+      this.audioReceiver = audioReceiver;
+      this.cursor = cursor;
+    }
+
+    void start() {
+      receiverFuture = executor.submit(this);
+    }
+
+    @Override
+    public void run() {
+      // Set before looking at the ring, so that a wake() from then on isn't missed.
+      thread = Thread.currentThread();
+      boolean waiting = false;
+      while (receiving) {
+        if (ring.read(cursor, buffer)) {
+          waiting = false;
+          buffersReceived++;
+          audioReceiver.onReceiveAudio(buffer);
+        } else {
+          if (!waiting) {
+            underruns++;
+            waiting = true;
+          }
+          LockSupport.parkNanos(this, RECEIVER_WAIT_NANOS);
+        }
+      }
+    }
+
+    void wake() {
+      Thread t = thread;
+      if (t != null) {
+        LockSupport.unpark(t);
+      }
+    }
+
+    /**
+     * Stops passing buffers to the receiver, and waits for it to finish with the one it has, if
+     * any, unless this is called by the receiver itself.
+     */
+    void stop() {
+      receiving = false;
+      wake();
+      executor.shutdown();
+      if (Thread.currentThread() == thread) {
+        return;
       }
+      try {
+        receiverFuture.get();
+      } catch (ExecutionException e) {
+        throw new RuntimeException(e);
+      } catch (InterruptedException e) {
+        // Be a good citizen and set the interrupt flag.
+        Thread.currentThread().interrupt();
+      }
+    }
+
+    ReceiverStats getStats() {
+      return new ReceiverStats(buffersReceived, cursor.getDropped(), underruns);
     }
   }
 }
@@ -35,15 +35,32 @@ class FftAnalyzer {
   private final int sampleRateInHz;
   private final int indexOfLowestNote;
   private final int indexOfHighestNote;
-  // Pre-allocated arrays to hold complex numbers (a + bi), and magnitudes.
-  private final double[] a = new double[BUFFER_SIZE];
-  private final double[] b = new double[BUFFER_SIZE];
+  private final FftEngine fftEngine;
+  // Pre-allocated arrays to hold magnitudes.
   private final double[] magnitudes;
   private final double[] movingAverageValues;
   private final MovingAverage movingAverage = new MovingAverage(MOVING_AVERAGE_WINDOW_SIZE);
 
   FftAnalyzer(int sampleRateInHz) {
+    this(sampleRateInHz, false);
+  }
+
+  /**
+   * @param singlePrecision whether to perform FFT with floats rather than doubles; see {@link
+   *     FftEngine}.
+   */
+  FftAnalyzer(int sampleRateInHz, boolean singlePrecision) {
+    this(sampleRateInHz, singlePrecision, FftWindow.RECTANGULAR);
+  }
+
+  /**
+   * @param singlePrecision whether to perform FFT with floats rather than doubles; see {@link
+   *     FftEngine}.
+   * @param window the window to apply to the samples before performing FFT.
+   */
+  FftAnalyzer(int sampleRateInHz, boolean singlePrecision, FftWindow window) {
     this.sampleRateInHz = sampleRateInHz;
+    fftEngine = new FftEngine(BUFFER_SIZE, singlePrecision, window);
     indexOfLowestNote = frequencyToIndex(LOWEST_PIANO_FREQUENCY);
     indexOfHighestNote = frequencyToIndex(HIGHEST_PIANO_FREQUENCY);
     magnitudes = new double[indexOfHighestNote + MOVING_AVERAGE_WINDOW_SIZE];
@@ -55,30 +72,15 @@ class FftAnalyzer {
    * given List. When this method returns, the list is sorted by FFT value, in descending order.
    */
   void findPeaks(short[] samples, List<Peak> peaks) {
-    // Copy the samples into the a array, converting shorts to doubles.
-    for (int i = 0; i < BUFFER_SIZE; i++) {
-      if (i < samples.length) {
-        a[i] = ((double) samples[i]) / Short.MAX_VALUE;
-      } else {
-        a[i] = 0.0;
-      }
-      b[i] = 0.0;
-    }
-
     // Use FFT to convert the audio signal from time domain to frequency domain.
-    // performFft() calculates the FFT in place, modifying the elements of a and b arrays.
-    // The results of FFT are complex numbers expressed in the form a + bi, where a and b are
-    // real numbers and i is the imaginary unit. a[] will contain the "a" numbers and b[]
-    // will contain the "b" numbers.
-    performFft();
+    fftEngine.transform(samples);
 
     // Calculate the magnitudes.
     // Use a moving average to smooth out the magnitudes.
     movingAverage.clear();
     double mean = 0;
     for (int i = indexOfLowestNote; i < magnitudes.length; i++) {
-      // The magnitude of a complex number a + bi, is the square root of (a*a + b*b).
-      magnitudes[i] = Math.sqrt(a[i] * a[i] + b[i] * b[i]);
+      magnitudes[i] = fftEngine.getMagnitude(i);
       // Note that movingAverageValues[] is skewed since it averages the window of values
       // up to and including [i]. In findIndexOfMaxMagnitude below, we take that into
       // account.
@@ -131,51 +133,6 @@ class FftAnalyzer {
     }
   }
 
-  private void performFft() {
-    // Non-recursive version of the Cooley-Tukey FFT,  base on code from
-    // https://introcs.cs.princeton.edu/java/97data/InplaceFFT.java.html
-
-    // Bit reversal permutation.
-    int shift = 1 + Integer.numberOfLeadingZeros(BUFFER_SIZE);
-    for (int i = 0; i < BUFFER_SIZE; i++) {
-      int j = Integer.reverse(i) >>> shift;
-      if (j > i) {
-        double temp = a[j];
-        a[j] = a[i];
-        a[i] = temp;
-        temp = b[j];
-        b[j] = b[i];
-        b[i] = temp;
-      }
-    }
-
-    // Butterfly updates.
-    for (int l = 2; l <= BUFFER_SIZE; l += l) {
-      int lHalf = l / 2;
-      for (int k = 0; k < lHalf; k++) {
-        double kth = -2 * k * Math.PI / l;
-        double wA = Math.cos(kth);
-        double wB = Math.sin(kth);
-        for (int j = 0; j < BUFFER_SIZE / l; j++) {
-          int index1 = j * l + k + lHalf;
-          int index2 = j * l + k;
-          double xA = a[index1];
-          double xB = b[index1];
-
-          // Multiply complex numbers.
-          // tao = x * w
-          double taoA = xA * wA - xB * wB;
-          double taoB = xA * wB + xB * wA;
-
-          a[index1] = a[index2] - taoA;
-          b[index1] = b[index2] - taoB;
-          a[index2] = a[index2] + taoA;
-          b[index2] = b[index2] + taoB;
-        }
-      }
-    }
-  }
-
   /**
    * Determine the prominence of the peak at the given index. The prominence is determined by the
    * moving average value at the index, compared with the moving average values in the local area.
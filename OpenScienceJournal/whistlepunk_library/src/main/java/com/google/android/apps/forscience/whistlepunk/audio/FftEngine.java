@@ -0,0 +1,259 @@
+/*
+ *  Copyright 2019 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.audio;
+
+/**
+ * Performs FFT (Fast Fourier Transform) of real audio samples, reusing the same tables and buffers
+ * for every transform.
+ *
+ * <p>The samples are real, so the transform packs the even samples into the real parts and the odd
+ * samples into the imaginary parts of a complex FFT of half the size, and then separates the
+ * halves. Twiddle factors and the bit reversal permutation are computed once, in the constructor.
+ *
+ * <p>Only the bins from 0 to size / 2 are kept; the rest are the complex conjugates of those.
+ */
+class FftEngine {
+  private final int size;
+  private final int halfSize;
+  private final boolean singlePrecision;
+  // Multiplies each sample, or null for no window.
+  private final double[] window;
+  // Where each of the halfSize complex inputs goes after bit reversal.
+  private final int[] bitReversed;
+  // cos and sin of -2 * PI * k / size, for k from 0 to halfSize.
+  private final double[] cos;
+  private final double[] sin;
+  private final float[] cosFloat;
+  private final float[] sinFloat;
+  // Pre-allocated arrays to hold complex numbers (re + im * i), with room for the bin at halfSize.
+  private final double[] re;
+  private final double[] im;
+  private final float[] reFloat;
+  private final float[] imFloat;
+
+  /**
+   * @param size the number of samples per transform, which must be a power of 2, and at least 4.
+   * @param singlePrecision whether to transform with floats, which is faster on some devices but
+   *     less accurate.
+   */
+  FftEngine(int size, boolean singlePrecision) {
+    this(size, singlePrecision, FftWindow.RECTANGULAR);
+  }
+
+  /**
+   * @param size the number of samples per transform, which must be a power of 2, and at least 4.
+   * @param singlePrecision whether to transform with floats, which is faster on some devices but
+   *     less accurate.
+   * @param window the window to apply to the samples before transforming them.
+   */
+  FftEngine(int size, boolean singlePrecision, FftWindow window) {
+    if (size < 4 || Integer.bitCount(size) != 1) {
+      throw new IllegalArgumentException("FFT size must be a power of 2: " + size);
+    }
+    this.size = size;
+    halfSize = size / 2;
+    this.singlePrecision = singlePrecision;
+    this.window = window.makeCoefficients(size);
+
+    bitReversed = new int[halfSize];
+    int shift = 1 + Integer.numberOfLeadingZeros(halfSize);
+    for (int i = 0; i < halfSize; i++) {
+      bitReversed[i] = Integer.reverse(i) >>> shift;
+    }
+
+    cos = new double[halfSize + 1];
+    sin = new double[halfSize + 1];
+    for (int k = 0; k <= halfSize; k++) {
+      double kth = -2 * k * Math.PI / size;
+      cos[k] = Math.cos(kth);
+      sin[k] = Math.sin(kth);
+    }
+
+    if (singlePrecision) {
+      cosFloat = new float[halfSize + 1];
+      sinFloat = new float[halfSize + 1];
+      for (int k = 0; k <= halfSize; k++) {
+        cosFloat[k] = (float) cos[k];
+        sinFloat[k] = (float) sin[k];
+      }
+      reFloat = new float[halfSize + 1];
+      imFloat = new float[halfSize + 1];
+      re = null;
+      im = null;
+    } else {
+      re = new double[halfSize + 1];
+      im = new double[halfSize + 1];
+      cosFloat = null;
+      sinFloat = null;
+      reFloat = null;
+      imFloat = null;
+    }
+  }
+
+  /** Returns the number of samples per transform. */
+  int getSize() {
+    return size;
+  }
+
+  /**
+   * Transforms the given samples, scaled so that Short.MAX_VALUE is 1, and windowed. If there are
+   * fewer samples than the size, the rest are taken to be 0; if there are more, the rest are
+   * ignored.
+   */
+  void transform(short[] samples) {
+    if (singlePrecision) {
+      transformFloat(samples);
+    } else {
+      transformDouble(samples);
+    }
+  }
+
+  /**
+   * Returns the magnitude of the given bin, which must be from 0 to size / 2, of the last
+   * transform.
+   */
+  double getMagnitude(int bin) {
+    if (singlePrecision) {
+      return Math.sqrt(reFloat[bin] * reFloat[bin] + imFloat[bin] * imFloat[bin]);
+    }
+    // The magnitude of a complex number a + bi, is the square root of (a*a + b*b).
+    return Math.sqrt(re[bin] * re[bin] + im[bin] * im[bin]);
+  }
+
+  private void transformDouble(short[] samples) {
+    // Non-recursive version of the Cooley-Tukey FFT,  base on code from
+    // https://introcs.cs.princeton.edu/java/97data/InplaceFFT.java.html
+
+    // Copy the samples into place, converting shorts to doubles, windowing and permuting as we go.
+    for (int i = 0; i < halfSize; i++) {
+      int j = bitReversed[i];
+      re[j] = sampleAt(samples, 2 * i);
+      im[j] = sampleAt(samples, 2 * i + 1);
+    }
+
+    // Butterfly updates, for the FFT of halfSize. Its twiddle factors are every other one of ours.
+    for (int l = 2; l <= halfSize; l += l) {
+      int lHalf = l / 2;
+      int step = size / l;
+      for (int k = 0; k < lHalf; k++) {
+        double wA = cos[k * step];
+        double wB = sin[k * step];
+        for (int index2 = k; index2 < halfSize; index2 += l) {
+          int index1 = index2 + lHalf;
+          double xA = re[index1];
+          double xB = im[index1];
+
+          // Multiply complex numbers.
+          // tao = x * w
+          double taoA = xA * wA - xB * wB;
+          double taoB = xA * wB + xB * wA;
+
+          re[index1] = re[index2] - taoA;
+          im[index1] = im[index2] - taoB;
+          re[index2] = re[index2] + taoA;
+          im[index2] = im[index2] + taoB;
+        }
+      }
+    }
+
+    // Separate the transforms of the even samples (e) and odd samples (o), and combine them:
+    // X[k] = e[k] + w^k * o[k]. Bins k and halfSize - k are both computed from Z[k] and
+    // Z[halfSize - k], so they are done in pairs.
+    re[halfSize] = re[0];
+    im[halfSize] = im[0];
+    for (int k = 0; k <= halfSize / 2; k++) {
+      int m = halfSize - k;
+      double zkA = re[k];
+      double zkB = im[k];
+      double zmA = re[m];
+      double zmB = im[m];
+
+      double eA = (zkA + zmA) / 2;
+      double eB = (zkB - zmB) / 2;
+      double oA = (zkB + zmB) / 2;
+      double oB = (zmA - zkA) / 2;
+      re[k] = eA + oA * cos[k] - oB * sin[k];
+      im[k] = eB + oB * cos[k] + oA * sin[k];
+
+      // For bin m, the roles of Z[k] and Z[m] swap.
+      eB = -eB;
+      oB = -oB;
+      re[m] = eA + oA * cos[m] - oB * sin[m];
+      im[m] = eB + oB * cos[m] + oA * sin[m];
+    }
+  }
+
+  private void transformFloat(short[] samples) {
+    for (int i = 0; i < halfSize; i++) {
+      int j = bitReversed[i];
+      reFloat[j] = (float) sampleAt(samples, 2 * i);
+      imFloat[j] = (float) sampleAt(samples, 2 * i + 1);
+    }
+
+    for (int l = 2; l <= halfSize; l += l) {
+      int lHalf = l / 2;
+      int step = size / l;
+      for (int k = 0; k < lHalf; k++) {
+        float wA = cosFloat[k * step];
+        float wB = sinFloat[k * step];
+        for (int index2 = k; index2 < halfSize; index2 += l) {
+          int index1 = index2 + lHalf;
+          float xA = reFloat[index1];
+          float xB = imFloat[index1];
+
+          float taoA = xA * wA - xB * wB;
+          float taoB = xA * wB + xB * wA;
+
+          reFloat[index1] = reFloat[index2] - taoA;
+          imFloat[index1] = imFloat[index2] - taoB;
+          reFloat[index2] = reFloat[index2] + taoA;
+          imFloat[index2] = imFloat[index2] + taoB;
+        }
+      }
+    }
+
+    reFloat[halfSize] = reFloat[0];
+    imFloat[halfSize] = imFloat[0];
+    for (int k = 0; k <= halfSize / 2; k++) {
+      int m = halfSize - k;
+      float zkA = reFloat[k];
+      float zkB = imFloat[k];
+      float zmA = reFloat[m];
+      float zmB = imFloat[m];
+
+      float eA = (zkA + zmA) / 2;
+      float eB = (zkB - zmB) / 2;
+      float oA = (zkB + zmB) / 2;
+      float oB = (zmA - zkA) / 2;
+      reFloat[k] = eA + oA * cosFloat[k] - oB * sinFloat[k];
+      imFloat[k] = eB + oB * cosFloat[k] + oA * sinFloat[k];
+
+      eB = -eB;
+      oB = -oB;
+      reFloat[m] = eA + oA * cosFloat[m] - oB * sinFloat[m];
+      imFloat[m] = eB + oB * cosFloat[m] + oA * sinFloat[m];
+    }
+  }
+
+  private double sampleAt(short[] samples, int i) {
+    if (i >= samples.length) {
+      return 0.0;
+    }
+    double sample = ((double) samples[i]) / Short.MAX_VALUE;
+    return window == null ? sample : sample * window[i];
+  }
+}
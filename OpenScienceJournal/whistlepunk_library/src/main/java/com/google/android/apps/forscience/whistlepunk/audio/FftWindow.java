@@ -0,0 +1,62 @@
+/*
+ *  Copyright 2019 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.audio;
+
+/**
+ * Windows that can be applied to audio samples before FFT. Tapering the ends of the buffer keeps
+ * the energy of a strong note from leaking into distant bins, which matters when buffers overlap
+ * and start at arbitrary points in the waveform.
+ *
+ * <p>The coefficients are scaled so that their mean is 1, so a pure tone produces a peak of about
+ * the same height whichever window is used.
+ */
+public enum FftWindow {
+  /** No window; every sample is used as is. */
+  RECTANGULAR(1, 0, 0),
+  /** The Hann window, 0.5 - 0.5 cos(2 PI n / N). */
+  HANN(0.5, 0.5, 0),
+  /** The Blackman window, 0.42 - 0.5 cos(2 PI n / N) + 0.08 cos(4 PI n / N). */
+  BLACKMAN(0.42, 0.5, 0.08);
+
+  // The window is a0 - a1 cos(2 PI n / N) + a2 cos(4 PI n / N), before scaling; a0 is its mean.
+  private final double a0;
+  private final double a1;
+  private final double a2;
+
+  FftWindow(double a0, double a1, double a2) {
+    this.a0 = a0;
+    this.a1 = a1;
+    this.a2 = a2;
+  }
+
+  /**
+   * Returns the coefficients of this window for a buffer of the given size, or null if the samples
+   * should not be changed.
+   */
+  double[] makeCoefficients(int size) {
+    if (this == RECTANGULAR) {
+      return null;
+    }
+    double[] coefficients = new double[size];
+    for (int n = 0; n < size; n++) {
+      // The periodic form of the window, which is the one to use for spectral analysis.
+      double theta = 2 * Math.PI * n / size;
+      coefficients[n] = (a0 - a1 * Math.cos(theta) + a2 * Math.cos(2 * theta)) / a0;
+    }
+    return coefficients;
+  }
+}
@@ -16,107 +16,219 @@
 
 package com.google.android.apps.forscience.whistlepunk.audio;
 
-/** Determines the frequency by using a series of Goertzel filters. */
+import java.util.List;
+
+/**
+ * Determines the frequency by using a series of Goertzel filters.
+ *
+ * <p>Each peak is refined by repeatedly narrowing an interval around its estimate. The searches for
+ * all the peaks of a buffer run in lockstep: every round collects the frequencies that each search
+ * wants to probe next into one bank of filters, and runs the whole bank over the samples together.
+ * Within a round the filters are independent, so they are run four at a time, which keeps the
+ * processor busy instead of waiting on one filter's chain of multiplications.
+ */
 class GoertzelAnalyzer {
+  // The first round probes the ends of the interval and the 3 points between them. Adding the
+  // interval 3 times may fall a little short of the end, in which case there are 4 points between.
+  private static final int MAX_PROBES_PER_SEARCH = 6;
+  private static final int FILTERS_PER_PASS = 4;
+  // Must be a power of 2.
+  private static final int COEFFICIENT_CACHE_SIZE = 512;
+
   private final int sampleRateInHz;
 
+  // The state of each search.
+  private double[] loFrequencies = new double[0];
+  private double[] hiFrequencies = new double[0];
+  private double[] powersAtLoFrequencies = new double[0];
+  private double[] powersAtHiFrequencies = new double[0];
+  private double[] accuracies = new double[0];
+  private boolean[] searching = new boolean[0];
+  // Where each search's probes start in the bank, and how many there are.
+  private int[] firstProbes = new int[0];
+  private int[] probeCounts = new int[0];
+
+  // The bank of filters for the current round.
+  private double[] bankFrequencies = new double[0];
+  private double[] bankCoefficients = new double[0];
+  private double[] bankPowers = new double[0];
+
+  // Goertzel coefficients by frequency. The FFT estimates fall on bins, so the same frequencies
+  // are probed again and again while a note is held. Empty slots hold NaN.
+  private final double[] cachedFrequencies = new double[COEFFICIENT_CACHE_SIZE];
+  private final double[] cachedCoefficients = new double[COEFFICIENT_CACHE_SIZE];
+
   GoertzelAnalyzer(int sampleRateInHz) {
     this.sampleRateInHz = sampleRateInHz;
+    for (int i = 0; i < COEFFICIENT_CACHE_SIZE; i++) {
+      cachedFrequencies[i] = Double.NaN;
+    }
   }
 
   /**
-   * Applies a series of Goertzel filters to frequencies near the given frequency estimate, and
-   * returns the frequency with the highest power
+   * For each of the given peaks, applies a series of Goertzel filters to frequencies near the
+   * peak's frequency estimate, and sets the peak's frequency to the one with the highest power.
    */
-  double findFrequencyWithHighestPower(short[] samples, double frequencyEstimate) {
-    // Choose accuracy based on frequency estimate. Lower frequencies need to be more
-    // accurate than higher frequencies.
-    double accuracy;
-    // TODO(lizlooney): Try using frequencyEstimate / 10_000 instead of this stepped scale. If
-    // that works well, the 10_000 is a hand-picked number that should be set via constructors
-    // in AudioAnalyzer and GoertzelAnalyzer.
-    if (frequencyEstimate < 100) {
-      accuracy = 0.01;
-    } else if (frequencyEstimate < 1000) {
-      accuracy = 0.1;
-    } else {
-      accuracy = 1;
-    }
+  void findFrequenciesWithHighestPower(short[] samples, List<Peak> peaks) {
+    int count = peaks.size();
+    ensureCapacity(count);
 
-    // loFrequency is lower than hiFrequency, but the order of powerAtLoFrequency and
-    // powerAtHiFrequency is not relevant.
-    double loFrequency = frequencyEstimate - 10;
-    double powerAtLoFrequency = calculatePower(samples, loFrequency);
-    double hiFrequency = frequencyEstimate + 10;
-    double powerAtHiFrequency = calculatePower(samples, hiFrequency);
-
-    do {
-      // greatestPower is greater than secondGreatestPower, but the order of
-      // frequencyWithGreatestPower and frequencyWithSecondGreatestPower is not relevant.
-      double greatestPower,
-          frequencyWithGreatestPower,
-          secondGreatestPower,
-          frequencyWithSecondGreatestPower;
-      if (powerAtLoFrequency > powerAtHiFrequency) {
-        greatestPower = powerAtLoFrequency;
-        frequencyWithGreatestPower = loFrequency;
-        secondGreatestPower = powerAtHiFrequency;
-        frequencyWithSecondGreatestPower = hiFrequency;
+    for (int i = 0; i < count; i++) {
+      double frequencyEstimate = peaks.get(i).getFrequencyEstimate();
+      // Choose accuracy based on frequency estimate. Lower frequencies need to be more
+      // accurate than higher frequencies.
+      // TODO(lizlooney): Try using frequencyEstimate / 10_000 instead of this stepped scale. If
+      // that works well, the 10_000 is a hand-picked number that should be set via constructors
+      // in AudioAnalyzer and GoertzelAnalyzer.
+      if (frequencyEstimate < 100) {
+        accuracies[i] = 0.01;
+      } else if (frequencyEstimate < 1000) {
+        accuracies[i] = 0.1;
       } else {
-        greatestPower = powerAtHiFrequency;
-        frequencyWithGreatestPower = hiFrequency;
-        secondGreatestPower = powerAtLoFrequency;
-        frequencyWithSecondGreatestPower = loFrequency;
+        accuracies[i] = 1;
       }
+      // loFrequency is lower than hiFrequency, but the order of powerAtLoFrequency and
+      // powerAtHiFrequency is not relevant.
+      loFrequencies[i] = frequencyEstimate - 10;
+      hiFrequencies[i] = frequencyEstimate + 10;
+      searching[i] = true;
+    }
 
-      // Divide the interval between loFrequency and hiFrequency into 4 parts and get the
-      // Goertzel power at each division.
-      double interval = (hiFrequency - loFrequency) / 4;
-      for (double frequency = loFrequency + interval;
-          frequency < hiFrequency;
-          frequency += interval) {
-        double power = calculatePower(samples, frequency);
-        // Keep track of the greatest power as greatestPower and the second greatest
-        // power as secondGreatestPower.
-        if (power > greatestPower) {
-          // Move greatestPower to secondGreatestPower.
-          secondGreatestPower = greatestPower;
-          frequencyWithSecondGreatestPower = frequencyWithGreatestPower;
-          // Replace greatestPower.
-          greatestPower = power;
-          frequencyWithGreatestPower = frequency;
-        } else if (power > secondGreatestPower) {
-          // Replace secondGreatestPower.
-          secondGreatestPower = power;
-          frequencyWithSecondGreatestPower = frequency;
+    boolean firstRound = true;
+    boolean anySearching = count > 0;
+    while (anySearching) {
+      int bankSize = 0;
+      for (int i = 0; i < count; i++) {
+        if (searching[i]) {
+          bankSize = addProbes(i, bankSize, firstRound);
         }
       }
+      calculatePowers(samples, bankSize);
 
-      double previousHi = hiFrequency;
-      double previousLo = loFrequency;
-
-      // Figure out which of the two frequencies with the greatest powers is lower and
-      // which is higher.
-      if (frequencyWithGreatestPower > frequencyWithSecondGreatestPower) {
-        hiFrequency = frequencyWithGreatestPower;
-        powerAtHiFrequency = greatestPower;
-        loFrequency = frequencyWithSecondGreatestPower;
-        powerAtLoFrequency = secondGreatestPower;
-      } else {
-        hiFrequency = frequencyWithSecondGreatestPower;
-        powerAtHiFrequency = secondGreatestPower;
-        loFrequency = frequencyWithGreatestPower;
-        powerAtLoFrequency = greatestPower;
+      anySearching = false;
+      for (int i = 0; i < count; i++) {
+        if (searching[i]) {
+          searching[i] = narrowInterval(i, firstRound);
+          anySearching |= searching[i];
+        }
       }
+      firstRound = false;
+    }
+
+    for (int i = 0; i < count; i++) {
+      peaks
+          .get(i)
+          .setFrequency(
+              (powersAtLoFrequencies[i] > powersAtHiFrequencies[i])
+                  ? loFrequencies[i]
+                  : hiFrequencies[i]);
+    }
+  }
+
+  /**
+   * Adds the frequencies that the given search probes in this round to the bank, starting at
+   * bankSize, and returns the new size of the bank.
+   */
+  private int addProbes(int search, int bankSize, boolean firstRound) {
+    double loFrequency = loFrequencies[search];
+    double hiFrequency = hiFrequencies[search];
+    firstProbes[search] = bankSize;
+    if (firstRound) {
+      bankSize = addToBank(bankSize, loFrequency);
+      bankSize = addToBank(bankSize, hiFrequency);
+    }
+    // Divide the interval between loFrequency and hiFrequency into 4 parts and get the
+    // Goertzel power at each division.
+    double interval = (hiFrequency - loFrequency) / 4;
+    for (double frequency = loFrequency + interval;
+        frequency < hiFrequency;
+        frequency += interval) {
+      bankSize = addToBank(bankSize, frequency);
+    }
+    probeCounts[search] = bankSize - firstProbes[search];
+    return bankSize;
+  }
 
-      // If the low and high frequencies haven't changed, then we aren't finding a peak
-      // and we can give up.
-      if (doublesEqual(previousHi, hiFrequency) && doublesEqual(previousLo, loFrequency)) {
-        break;
+  private int addToBank(int bankSize, double frequency) {
+    bankFrequencies[bankSize] = frequency;
+    bankCoefficients[bankSize] = getCoefficient(frequency);
+    return bankSize + 1;
+  }
+
+  /**
+   * Narrows the interval of the given search to the two probed frequencies with the greatest
+   * powers. Returns whether the search should go on.
+   */
+  private boolean narrowInterval(int search, boolean firstRound) {
+    int probe = firstProbes[search];
+    int endProbe = probe + probeCounts[search];
+    if (firstRound) {
+      powersAtLoFrequencies[search] = bankPowers[probe++];
+      powersAtHiFrequencies[search] = bankPowers[probe++];
+    }
+    double loFrequency = loFrequencies[search];
+    double hiFrequency = hiFrequencies[search];
+    double powerAtLoFrequency = powersAtLoFrequencies[search];
+    double powerAtHiFrequency = powersAtHiFrequencies[search];
+
+    // greatestPower is greater than secondGreatestPower, but the order of
+    // frequencyWithGreatestPower and frequencyWithSecondGreatestPower is not relevant.
+    double greatestPower,
+        frequencyWithGreatestPower,
+        secondGreatestPower,
+        frequencyWithSecondGreatestPower;
+    if (powerAtLoFrequency > powerAtHiFrequency) {
+      greatestPower = powerAtLoFrequency;
+      frequencyWithGreatestPower = loFrequency;
+      secondGreatestPower = powerAtHiFrequency;
+      frequencyWithSecondGreatestPower = hiFrequency;
+    } else {
+      greatestPower = powerAtHiFrequency;
+      frequencyWithGreatestPower = hiFrequency;
+      secondGreatestPower = powerAtLoFrequency;
+      frequencyWithSecondGreatestPower = loFrequency;
+    }
+
+    for (; probe < endProbe; probe++) {
+      double frequency = bankFrequencies[probe];
+      double power = bankPowers[probe];
+      // Keep track of the greatest power as greatestPower and the second greatest
+      // power as secondGreatestPower.
+      if (power > greatestPower) {
+        // Move greatestPower to secondGreatestPower.
+        secondGreatestPower = greatestPower;
+        frequencyWithSecondGreatestPower = frequencyWithGreatestPower;
+        // Replace greatestPower.
+        greatestPower = power;
+        frequencyWithGreatestPower = frequency;
+      } else if (power > secondGreatestPower) {
+        // Replace secondGreatestPower.
+        secondGreatestPower = power;
+        frequencyWithSecondGreatestPower = frequency;
       }
-    } while (hiFrequency - loFrequency > accuracy);
+    }
+
+    // Figure out which of the two frequencies with the greatest powers is lower and
+    // which is higher.
+    if (frequencyWithGreatestPower > frequencyWithSecondGreatestPower) {
+      hiFrequencies[search] = frequencyWithGreatestPower;
+      powersAtHiFrequencies[search] = greatestPower;
+      loFrequencies[search] = frequencyWithSecondGreatestPower;
+      powersAtLoFrequencies[search] = secondGreatestPower;
+    } else {
+      hiFrequencies[search] = frequencyWithSecondGreatestPower;
+      powersAtHiFrequencies[search] = secondGreatestPower;
+      loFrequencies[search] = frequencyWithGreatestPower;
+      powersAtLoFrequencies[search] = greatestPower;
+    }
 
-    return (powerAtLoFrequency > powerAtHiFrequency) ? loFrequency : hiFrequency;
+    // If the low and high frequencies haven't changed, then we aren't finding a peak
+    // and we can give up.
+    if (doublesEqual(hiFrequency, hiFrequencies[search])
+        && doublesEqual(loFrequency, loFrequencies[search])) {
+      return false;
+    }
+    return hiFrequencies[search] - loFrequencies[search] > accuracies[search];
   }
 
   /** Returns true if the given doubles are equal enough, false otherwise. */
@@ -124,18 +236,88 @@ class GoertzelAnalyzer {
     return Math.abs(d1 - d2) < 0.000001;
   }
 
-  /** Calculates the power at the given target frequency. */
-  private double calculatePower(short[] samples, double targetFrequency) {
+  /** Returns the Goertzel coefficient for the given target frequency. */
+  private double getCoefficient(double targetFrequency) {
+    long bits = Double.doubleToLongBits(targetFrequency);
+    int slot = (int) (bits ^ (bits >>> 29) ^ (bits >>> 43)) & (COEFFICIENT_CACHE_SIZE - 1);
+    if (cachedFrequencies[slot] == targetFrequency) {
+      return cachedCoefficients[slot];
+    }
     double normalizedFrequency = targetFrequency / sampleRateInHz;
     double coeff = 2 * Math.cos(2 * Math.PI * normalizedFrequency);
-    double sPrev1 = 0;
-    double sPrev2 = 0;
+    cachedFrequencies[slot] = targetFrequency;
+    cachedCoefficients[slot] = coeff;
+    return coeff;
+  }
 
-    for (short sample : samples) {
-      double s = sample + coeff * sPrev1 - sPrev2;
-      sPrev2 = sPrev1;
-      sPrev1 = s;
+  /** Calculates the power at each of the frequencies in the bank. */
+  private void calculatePowers(short[] samples, int bankSize) {
+    int filter = 0;
+    for (; filter + FILTERS_PER_PASS <= bankSize; filter += FILTERS_PER_PASS) {
+      double coeff0 = bankCoefficients[filter];
+      double coeff1 = bankCoefficients[filter + 1];
+      double coeff2 = bankCoefficients[filter + 2];
+      double coeff3 = bankCoefficients[filter + 3];
+      double sPrev1a = 0;
+      double sPrev2a = 0;
+      double sPrev1b = 0;
+      double sPrev2b = 0;
+      double sPrev1c = 0;
+      double sPrev2c = 0;
+      double sPrev1d = 0;
+      double sPrev2d = 0;
+
+      for (short sample : samples) {
+        double sa = sample + coeff0 * sPrev1a - sPrev2a;
+        double sb = sample + coeff1 * sPrev1b - sPrev2b;
+        double sc = sample + coeff2 * sPrev1c - sPrev2c;
+        double sd = sample + coeff3 * sPrev1d - sPrev2d;
+        sPrev2a = sPrev1a;
+        sPrev1a = sa;
+        sPrev2b = sPrev1b;
+        sPrev1b = sb;
+        sPrev2c = sPrev1c;
+        sPrev1c = sc;
+        sPrev2d = sPrev1d;
+        sPrev1d = sd;
+      }
+      bankPowers[filter] = power(coeff0, sPrev1a, sPrev2a);
+      bankPowers[filter + 1] = power(coeff1, sPrev1b, sPrev2b);
+      bankPowers[filter + 2] = power(coeff2, sPrev1c, sPrev2c);
+      bankPowers[filter + 3] = power(coeff3, sPrev1d, sPrev2d);
+    }
+    for (; filter < bankSize; filter++) {
+      double coeff = bankCoefficients[filter];
+      double sPrev1 = 0;
+      double sPrev2 = 0;
+      for (short sample : samples) {
+        double s = sample + coeff * sPrev1 - sPrev2;
+        sPrev2 = sPrev1;
+        sPrev1 = s;
+      }
+      bankPowers[filter] = power(coeff, sPrev1, sPrev2);
     }
+  }
+
+  private static double power(double coeff, double sPrev1, double sPrev2) {
     return sPrev2 * sPrev2 + sPrev1 * sPrev1 - coeff * sPrev1 * sPrev2;
   }
+
+  /** Makes sure there is room for the given number of searches, and all their probes. */
+  private void ensureCapacity(int count) {
+    if (loFrequencies.length >= count) {
+      return;
+    }
+    loFrequencies = new double[count];
+    hiFrequencies = new double[count];
+    powersAtLoFrequencies = new double[count];
+    powersAtHiFrequencies = new double[count];
+    accuracies = new double[count];
+    searching = new boolean[count];
+    firstProbes = new int[count];
+    probeCounts = new int[count];
+    bankFrequencies = new double[count * MAX_PROBES_PER_SEARCH];
+    bankCoefficients = new double[count * MAX_PROBES_PER_SEARCH];
+    bankPowers = new double[count * MAX_PROBES_PER_SEARCH];
+  }
 }
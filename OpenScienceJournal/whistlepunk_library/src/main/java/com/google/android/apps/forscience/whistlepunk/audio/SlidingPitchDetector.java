@@ -0,0 +1,87 @@
+/*
+ *  Copyright 2019 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.audio;
+
+import static com.google.android.apps.forscience.whistlepunk.audio.AudioAnalyzer.BUFFER_SIZE;
+
+/**
+ * Detects the fundamental frequency of a stream of audio, in overlapping buffers of {@link
+ * AudioAnalyzer#BUFFER_SIZE} samples that start every {@code hopSize} samples.
+ *
+ * <p>Each buffer still needs BUFFER_SIZE samples to resolve low notes, but with a hop of 512 at
+ * 44100Hz there is a new frequency about 86 times a second, rather than about 11 times. The buffer
+ * and the analyzer, with its FFT tables, are reused for every hop, so nothing is allocated per
+ * buffer.
+ */
+public class SlidingPitchDetector {
+  /** Receives the frequency detected in each buffer. */
+  public interface Listener {
+    /**
+     * @param frequency the fundamental frequency in Hz, or null if none could be detected, for
+     *     instance because the volume was too low.
+     * @param samplesSinceEnd how many of the samples passed to the current call of {@link
+     *     #addSamples} came after the end of the buffer, which can be used to work out when the
+     *     buffer ended.
+     */
+    void onFrequency(Double frequency, int samplesSinceEnd);
+  }
+
+  private final AudioAnalyzer audioAnalyzer;
+  private final int hopSize;
+  private final short[] buffer = new short[BUFFER_SIZE];
+  private int bufferOffset = 0;
+
+  /**
+   * @param hopSize the number of samples between the starts of consecutive buffers, from 1 to
+   *     BUFFER_SIZE. With BUFFER_SIZE, the buffers don't overlap.
+   * @param window the window to apply to each buffer before FFT.
+   */
+  public SlidingPitchDetector(int sampleRateInHz, int hopSize, FftWindow window) {
+    if (hopSize < 1 || hopSize > BUFFER_SIZE) {
+      throw new IllegalArgumentException("Hop size must be from 1 to " + BUFFER_SIZE);
+    }
+    audioAnalyzer = new AudioAnalyzer(sampleRateInHz, window);
+    this.hopSize = hopSize;
+  }
+
+  /**
+   * Adds the given samples to the stream, calling the listener once for each buffer that they
+   * complete.
+   */
+  public void addSamples(short[] samples, Listener listener) {
+    int samplesOffset = 0;
+    while (samplesOffset < samples.length) {
+      int lengthToCopy = Math.min(samples.length - samplesOffset, buffer.length - bufferOffset);
+      System.arraycopy(samples, samplesOffset, buffer, bufferOffset, lengthToCopy);
+      bufferOffset += lengthToCopy;
+      samplesOffset += lengthToCopy;
+
+      if (bufferOffset == buffer.length) {
+        listener.onFrequency(
+            audioAnalyzer.detectFundamentalFrequency(buffer), samples.length - samplesOffset);
+        // Keep the samples that the next buffer shares with this one.
+        System.arraycopy(buffer, hopSize, buffer, 0, buffer.length - hopSize);
+        bufferOffset = buffer.length - hopSize;
+      }
+    }
+  }
+
+  /** Forgets any samples that haven't been analyzed yet. */
+  public void clear() {
+    bufferOffset = 0;
+  }
+}
@@ -34,16 +34,18 @@ import com.google.android.apps.forscience.whistlepunk.metadata.GoosciExperiment;
 import com.google.android.apps.forscience.whistlepunk.metadata.GoosciLabel;
 import com.google.android.apps.forscience.whistlepunk.metadata.GoosciLabel.Label.ValueType;
 import com.google.android.apps.forscience.whistlepunk.metadata.GoosciPictureLabelValue;
-import com.google.android.apps.forscience.whistlepunk.metadata.GoosciScalarSensorData;
 import com.google.android.apps.forscience.whistlepunk.metadata.GoosciTrial;
 import com.google.android.apps.forscience.whistlepunk.metadata.Version;
-import com.google.android.apps.forscience.whistlepunk.sensorapi.ScalarSensorDumpReader;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.ScalarSensorDumpImporter;
 import com.google.common.collect.Sets;
 import com.google.protobuf.InvalidProtocolBufferException;
 import io.reactivex.Single;
+import java.io.BufferedInputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Set;
@@ -62,6 +64,7 @@ public class FileMetadataManager {
   public static final String EXPERIMENT_LIBRARY_FILE = "experiment_library.proto";
   public static final String SYNC_STATUS_FILE = "sync_status.proto";
   private static final String TAG = "FileMetadataManager";
+  private static final int DATA_READ_BUFFER_SIZE = 64 * 1024;
   public static final String DOT_PROTO = ".proto";
 
   private AppAccount appAccount;
@@ -489,24 +492,24 @@ public class FileMetadataManager {
       newExperiment.setImagePath(overview.getImagePath());
     }
     updateExperiment(Experiment.fromExperiment(proto.build(), overview), true);
-    File dataFile = new File(externalPath, "sensorData.proto");
+    File dataFile = new File(externalPath, FileMetadataUtil.SENSOR_DATA_FILE);
 
     if (dataFile.exists()) {
-      LiteProtoFileHelper<GoosciScalarSensorData.ScalarSensorData> dataProtoFileHelper =
-          new LiteProtoFileHelper<>();
-      GoosciScalarSensorData.ScalarSensorData dataProto =
-          dataProtoFileHelper.readFromFile(
-              dataFile,
-              GoosciScalarSensorData.ScalarSensorData::parseFrom,
-              WhistlePunkApplication.getUsageTracker(context));
-
-      if (dataProto != null) {
-        ScalarSensorDumpReader dumpReader =
-            new ScalarSensorDumpReader(
-                AppSingleton.getInstance(context)
-                    .getSensorEnvironment()
-                    .getDataController(appAccount));
-        dumpReader.readData(dataProto, trialIdMap);
+      ScalarSensorDumpImporter importer =
+          AppSingleton.getInstance(context)
+              .getDataController(appAccount)
+              .createScalarSensorDumpImporter();
+      // Sensor data can be much larger than memory, so it is read a dump at a time.
+      try (InputStream dataStream =
+          new BufferedInputStream(new FileInputStream(dataFile), DATA_READ_BUFFER_SIZE)) {
+        ScalarSensorDumpImporter.Stats stats = importer.importData(dataStream, trialIdMap);
+        if (Log.isLoggable(TAG, Log.INFO)) {
+          Log.i(TAG, "Imported " + stats);
+        }
+      } catch (IOException e) {
+        if (Log.isLoggable(TAG, Log.ERROR)) {
+          Log.e(TAG, "Failed to read sensor data of imported experiment", e);
+        }
       }
     }
 
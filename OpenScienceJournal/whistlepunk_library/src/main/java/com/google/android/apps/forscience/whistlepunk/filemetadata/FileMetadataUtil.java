@@ -33,7 +33,6 @@ import com.google.android.apps.forscience.whistlepunk.R;
 import com.google.android.apps.forscience.whistlepunk.accounts.AppAccount;
 import com.google.android.apps.forscience.whistlepunk.data.GoosciExperimentLibrary.ExperimentLibrary;
 import com.google.android.apps.forscience.whistlepunk.data.GoosciLocalSyncStatus;
-import com.google.android.apps.forscience.whistlepunk.metadata.GoosciScalarSensorData;
 import com.google.android.apps.forscience.whistlepunk.metadata.Version;
 import io.reactivex.Single;
 import java.io.DataInputStream;
@@ -53,9 +52,11 @@ public class FileMetadataUtil {
   static final String ASSETS_DIRECTORY = "assets";
   public static final String EXPERIMENTS_DIRECTORY = "experiments";
   public static final String EXPERIMENT_FILE = "experiment.proto";
+  public static final String SENSOR_DATA_FILE = "sensorData.proto";
   public static final String EXPERIMENT_LIBRARY_FILE = "experiment_library.proto";
   public static final String SYNC_STATUS_FILE = "sync_status.proto";
   private static final String TAG = "FileMetadataManager";
+  private static final int ZIP_BUFFER_SIZE = 64 * 1024;
   private static final String USER_METADATA_FILE = "user_metadata.proto";
   public static final String DOT_PROTO = ".proto";
   private static final String RECORDING = "recording_";
@@ -153,51 +154,51 @@ public class FileMetadataUtil {
               new MaybeConsumer<Success>() {
                 @Override
                 public void success(Success result) {
-                  String sensorProtoFileName =
-                      getExperimentDirectory(appAccount, experiment.getExperimentId())
-                          + "/sensorData.proto";
-
                   File zipFile;
                   String experimentName = experiment.getTitle();
                   if (experimentName.isEmpty()) {
                     experimentName =
                         context.getResources().getString(R.string.default_experiment_name);
                   }
+                  ZipOutputStream zos;
                   try {
                     zipFile =
                         new File(
                             getExperimentExportDirectory(appAccount),
                             ExportService.makeSJExportFilename(experimentName));
+                    zos = new ZipOutputStream(new FileOutputStream(zipFile));
+                  } catch (IOException ioException) {
+                    s.onError(ioException);
+                    return;
+                  }
+                  try {
+                    zos.putNextEntry(new ZipEntry(SENSOR_DATA_FILE));
                   } catch (IOException ioException) {
+                    closePartialExport(zos);
                     s.onError(ioException);
                     return;
                   }
 
-                  dc.getScalarReadingProtosInBackground(
+                  // The sensor data is streamed straight into its zip entry a chunk at a time,
+                  // rather than built in memory and written to a file to be zipped.
+                  dc.writeScalarReadingProtosInBackground(
                       experiment.getExperimentProto(),
-                      new MaybeConsumer<GoosciScalarSensorData.ScalarSensorData>() {
+                      zos,
+                      new MaybeConsumer<Success>() {
                         @Override
-                        public void success(GoosciScalarSensorData.ScalarSensorData sensorData) {
-                          try (FileOutputStream sensorStream =
-                              new FileOutputStream(sensorProtoFileName)) {
-                            sensorData.writeTo(sensorStream);
-                          } catch (IOException ioException) {
-                            s.onError(ioException);
-                            return;
-                          }
-
-                          try (FileOutputStream fos = new FileOutputStream(zipFile);
-                              ZipOutputStream zos = new ZipOutputStream(fos); ) {
+                        public void success(Success result) {
+                          try (ZipOutputStream closingZos = zos) {
+                            closingZos.closeEntry();
                             File experimentDirectory =
                                 getExperimentDirectory(appAccount, experiment.getExperimentId());
-                            zipDirectory(experimentDirectory, zos, "");
+                            zipDirectory(experimentDirectory, closingZos, "");
 
                             if (!experiment.getExperimentOverview().getImagePath().isEmpty()) {
                               File experimentImage =
                                   new File(
                                       getFilesDir(appAccount),
                                       experiment.getExperimentOverview().getImagePath());
-                              zipExperimentImage(experimentImage, zos);
+                              zipExperimentImage(experimentImage, closingZos);
                             }
                           } catch (IOException ioException) {
                             s.onError(ioException);
@@ -208,8 +209,8 @@ public class FileMetadataUtil {
 
                         @Override
                         public void fail(Exception e) {
+                          closePartialExport(zos);
                           s.onError(e);
-                          return;
                         }
                       });
                 }
@@ -222,6 +223,14 @@ public class FileMetadataUtil {
         });
   }
 
+  private static void closePartialExport(ZipOutputStream zos) {
+    try {
+      zos.close();
+    } catch (IOException ioException) {
+      Log.d(TAG, "Failed to close partial export.", ioException);
+    }
+  }
+
   public void zipDirectory(File directory, ZipOutputStream zipOutputStream, String path)
       throws IOException {
     File[] fileList = directory.listFiles();
@@ -230,13 +239,18 @@ public class FileMetadataUtil {
         zipDirectory(f, zipOutputStream, path + f.getName() + "/");
         continue;
       }
-      FileInputStream fis = new FileInputStream(f.getAbsolutePath());
       String zipPath = path + f.getName();
+      // Sensor data is written into the zip by getFileForExport, so skip any copy left in the
+      // experiment directory by an import or an older export.
+      if (zipPath.equals(SENSOR_DATA_FILE)) {
+        continue;
+      }
+      FileInputStream fis = new FileInputStream(f.getAbsolutePath());
       if (!zipPath.equals(COVER_IMAGE_FILE)) {
         ZipEntry zipEntry = new ZipEntry(zipPath);
         zipOutputStream.putNextEntry(zipEntry);
 
-        byte[] bytes = new byte[1024];
+        byte[] bytes = new byte[ZIP_BUFFER_SIZE];
         int length;
         while ((length = fis.read(bytes)) >= 0) {
           zipOutputStream.write(bytes, 0, length);
@@ -186,8 +186,9 @@ public class SensorTrigger {
   }
 
   // This can be called any time a trigger is "used", i.e. when the trigger is used in a card, or
-  // when information about a trigger is edited.
-  private void updateLastUsed() {
+  // when information about a trigger is edited. It rebuilds the proto, so it should not be called
+  // for every sensor value.
+  public void updateLastUsed() {
     setLastUsed(System.currentTimeMillis());
   }
 
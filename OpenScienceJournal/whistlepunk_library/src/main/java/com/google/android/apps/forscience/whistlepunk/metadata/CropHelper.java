@@ -274,7 +274,7 @@ public class CropHelper {
 
   // Use a Broadcast to tell RunReviewFragment or ExperimentDetailsFragment or anyone who uses
   // stats that the stats are updated for this sensor on this run.
-  private static void sendStatsUpdatedBroadcast(Context context, String sensorId, String trialId) {
+  static void sendStatsUpdatedBroadcast(Context context, String sensorId, String trialId) {
     if (context == null) {
       return;
     }
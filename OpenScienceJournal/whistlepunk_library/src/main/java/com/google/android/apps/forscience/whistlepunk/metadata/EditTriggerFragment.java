@@ -639,6 +639,7 @@ public class EditTriggerFragment extends Fragment {
             new LoggingConsumer<Success>(TAG, "update experiment with layout") {
               @Override
               public void success(Success value) {
+                updateObservedTriggers();
                 if (goToParent) {
                   goToParent();
                 }
@@ -646,6 +647,21 @@ public class EditTriggerFragment extends Fragment {
             });
   }
 
+  // The sensor may still be observed, for example if it is recording, and is then evaluating the
+  // triggers it had when observing started.
+  private void updateObservedTriggers() {
+    if (getActivity() == null) {
+      return;
+    }
+    AppSingleton singleton = AppSingleton.getInstance(getActivity());
+    singleton
+        .getRecorderController(appAccount)
+        .updateSensorTriggers(
+            sensorId,
+            experiment.getActiveSensorTriggers(sensorLayout),
+            singleton.getSensorRegistry());
+  }
+
   // Returns to the TriggerListActivity.
   private void goToParent() {
     if (getActivity() == null) {
@@ -20,7 +20,7 @@ import com.google.android.apps.forscience.whistlepunk.StatsAccumulator;
 import com.google.android.apps.forscience.whistlepunk.filemetadata.TrialStats;
 import com.google.android.apps.forscience.whistlepunk.metadata.GoosciTrial.SensorStat.StatType;
 import com.google.android.apps.forscience.whistlepunk.metadata.GoosciTrial.SensorTrialStats.StatStatus;
-import com.google.android.apps.forscience.whistlepunk.sensorapi.ZoomRecorder;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.ZoomDownsampler;
 import com.google.common.collect.ImmutableMap;
 import java.util.HashSet;
 import java.util.Map;
@@ -39,9 +39,9 @@ public class RunStats {
           .put(StatsAccumulator.KEY_MAX, StatType.MAXIMUM)
           .put(StatsAccumulator.KEY_NUM_DATA_POINTS, StatType.NUM_DATA_POINTS)
           .put(StatsAccumulator.KEY_TOTAL_DURATION, StatType.TOTAL_DURATION)
-          .put(ZoomRecorder.STATS_KEY_TIER_COUNT, StatType.ZOOM_PRESENTER_TIER_COUNT)
+          .put(ZoomDownsampler.STATS_KEY_TIER_COUNT, StatType.ZOOM_PRESENTER_TIER_COUNT)
           .put(
-              ZoomRecorder.STATS_KEY_ZOOM_LEVEL_BETWEEN_TIERS,
+              ZoomDownsampler.STATS_KEY_ZOOM_LEVEL_BETWEEN_TIERS,
               StatType.ZOOM_PRESENTER_ZOOM_LEVEL_BETWEEN_TIERS)
           .build();
 
@@ -0,0 +1,286 @@
+/*
+ *  Copyright 2019 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.metadata;
+
+import android.content.Context;
+import androidx.annotation.VisibleForTesting;
+import com.google.android.apps.forscience.javalib.Success;
+import com.google.android.apps.forscience.whistlepunk.DataController;
+import com.google.android.apps.forscience.whistlepunk.LoggingConsumer;
+import com.google.android.apps.forscience.whistlepunk.filemetadata.Experiment;
+import com.google.android.apps.forscience.whistlepunk.filemetadata.Trial;
+import com.google.android.apps.forscience.whistlepunk.filemetadata.TrialStats;
+import com.google.android.apps.forscience.whistlepunk.metadata.GoosciTrial.SensorStat.StatType;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.ZoomTierRebuilder;
+import com.google.android.apps.forscience.whistlepunk.sensordb.ScalarReadingList;
+import com.google.android.apps.forscience.whistlepunk.sensordb.TimeRange;
+import com.google.common.collect.Range;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Finds trial sensors whose zoom tiers are missing or incomplete, such as those recorded before
+ * zoom tiers were stored and some imports, and rebuilds the tiers from the full resolution
+ * readings. Without them, run review loads every reading at every zoom level.
+ *
+ * <p>Sensors are rebuilt one at a time, in the background. A sensor's stats are only saved once all
+ * of its tiers have been written, so they mark which sensors are done: if a rebuild is cut short,
+ * for example by the app being killed, the sensor still looks unbuilt the next time it is checked,
+ * and its rebuild starts over.
+ *
+ * <p>All methods must be called on the UI thread.
+ */
+public class ZoomTierMaintenance {
+  private static final String TAG = "ZoomTierMaintenance";
+
+  private final Context context;
+  private final DataController dataController;
+  private final Deque<Rebuild> pending = new ArrayDeque<>();
+  // The sensors which have been checked, or are being checked, keyed by trial and sensor id.
+  private final Set<String> checked = new HashSet<>();
+  private Rebuild running = null;
+
+  public ZoomTierMaintenance(Context context, DataController dataController) {
+    this.context = context.getApplicationContext();
+    this.dataController = dataController;
+  }
+
+  /** Checks every trial in the experiment, and queues rebuilds for any sensors that need them. */
+  public void checkExperiment(Experiment experiment) {
+    for (Trial trial : experiment.getTrials()) {
+      checkTrial(experiment, trial, false);
+    }
+  }
+
+  /**
+   * Checks one trial, and rebuilds any of its sensors that need it ahead of the sensors that were
+   * already waiting, since the trial is about to be shown.
+   */
+  public void checkTrialNow(Experiment experiment, String trialId) {
+    Trial trial = experiment.getTrial(trialId);
+    if (trial != null) {
+      checkTrial(experiment, trial, true);
+    }
+  }
+
+  private void checkTrial(Experiment experiment, Trial trial, boolean urgent) {
+    if (!trial.isValid()) {
+      // Still recording, or nothing was recorded.
+      return;
+    }
+    for (String sensorId : trial.getSensorIds()) {
+      String key = getKey(trial.getTrialId(), sensorId);
+      if (!checked.add(key)) {
+        continue;
+      }
+      Rebuild rebuild = new Rebuild(experiment.getExperimentId(), trial, sensorId);
+      TrialStats stats = trial.getStatsForSensor(sensorId);
+      if (statsLackTiers(stats)) {
+        queue(rebuild, urgent);
+        continue;
+      }
+      int tierCount = (int) stats.getStatValue(StatType.ZOOM_PRESENTER_TIER_COUNT, 0);
+      if (tierCount > 1) {
+        // The stats are complete, but the tiers may not have been stored with them.
+        probeTopTier(rebuild, tierCount - 1, urgent);
+      }
+    }
+  }
+
+  /**
+   * Returns whether the stats show that the sensor's zoom tiers are missing, which is the case when
+   * they lack anything {@link com.google.android.apps.forscience.whistlepunk.review.ZoomPresenter}
+   * needs, or claim there is only one tier when there are enough readings for more.
+   */
+  @VisibleForTesting
+  static boolean statsLackTiers(TrialStats stats) {
+    if (stats == null
+        || !stats.hasStat(StatType.TOTAL_DURATION)
+        || !stats.hasStat(StatType.NUM_DATA_POINTS)
+        || !stats.hasStat(StatType.ZOOM_PRESENTER_ZOOM_LEVEL_BETWEEN_TIERS)
+        || !stats.hasStat(StatType.ZOOM_PRESENTER_TIER_COUNT)) {
+      return true;
+    }
+    int zoomLevel = (int) stats.getStatValue(StatType.ZOOM_PRESENTER_ZOOM_LEVEL_BETWEEN_TIERS, 0);
+    int tierCount = (int) stats.getStatValue(StatType.ZOOM_PRESENTER_TIER_COUNT, 0);
+    if (zoomLevel < 2 || tierCount < 1) {
+      return true;
+    }
+    // Every full run of tier 0 readings is summarized in tier 1.
+    return tierCount == 1 && stats.getStatValue(StatType.NUM_DATA_POINTS, 0) >= 2 * zoomLevel;
+  }
+
+  /**
+   * Returns the stats to save after a rebuild. The tier stats always come from the rebuild, but
+   * stats which are already there are kept, since they may be of a crop of the recording.
+   */
+  @VisibleForTesting
+  static TrialStats mergeStats(TrialStats existing, TrialStats rebuilt) {
+    if (existing == null) {
+      return rebuilt;
+    }
+    // Stats that are computed together are only replaced together.
+    copyMissing(existing, rebuilt, StatType.MINIMUM, StatType.MAXIMUM, StatType.AVERAGE);
+    copyMissing(existing, rebuilt, StatType.NUM_DATA_POINTS, StatType.TOTAL_DURATION);
+    existing.putStat(
+        StatType.ZOOM_PRESENTER_TIER_COUNT,
+        rebuilt.getStatValue(StatType.ZOOM_PRESENTER_TIER_COUNT, 1));
+    existing.putStat(
+        StatType.ZOOM_PRESENTER_ZOOM_LEVEL_BETWEEN_TIERS,
+        rebuilt.getStatValue(StatType.ZOOM_PRESENTER_ZOOM_LEVEL_BETWEEN_TIERS, 0));
+    return existing;
+  }
+
+  private static void copyMissing(TrialStats to, TrialStats from, StatType... types) {
+    boolean missing = false;
+    for (StatType type : types) {
+      missing |= !to.hasStat(type);
+    }
+    if (!missing) {
+      return;
+    }
+    for (StatType type : types) {
+      if (from.hasStat(type)) {
+        to.putStat(type, from.getStatValue(type, 0));
+      }
+    }
+  }
+
+  private void probeTopTier(Rebuild rebuild, int topTier, boolean urgent) {
+    dataController.getScalarReadings(
+        rebuild.trialId,
+        rebuild.sensorId,
+        topTier,
+        TimeRange.oldest(Range.closed(rebuild.firstTimestamp, rebuild.lastTimestamp)),
+        1,
+        new LoggingConsumer<ScalarReadingList>(TAG, "probe zoom tiers") {
+          @Override
+          public void success(ScalarReadingList list) {
+            if (list.size() == 0) {
+              queue(rebuild, urgent);
+            }
+          }
+
+          @Override
+          public void fail(Exception e) {
+            super.fail(e);
+            checked.remove(getKey(rebuild.trialId, rebuild.sensorId));
+          }
+        });
+  }
+
+  private void queue(Rebuild rebuild, boolean urgent) {
+    if (urgent) {
+      pending.addFirst(rebuild);
+    } else {
+      pending.addLast(rebuild);
+    }
+    runNext();
+  }
+
+  private void runNext() {
+    if (running != null || pending.isEmpty()) {
+      return;
+    }
+    running = pending.removeFirst();
+    final Rebuild rebuild = running;
+    dataController.rebuildZoomTiersInBackground(
+        new ZoomTierRebuilder(
+            rebuild.trialId, rebuild.sensorId, rebuild.firstTimestamp, rebuild.lastTimestamp),
+        new LoggingConsumer<TrialStats>(TAG, "rebuild zoom tiers") {
+          @Override
+          public void success(TrialStats stats) {
+            saveStats(rebuild, stats);
+          }
+
+          @Override
+          public void fail(Exception e) {
+            super.fail(e);
+            // Let a later check try again.
+            checked.remove(getKey(rebuild.trialId, rebuild.sensorId));
+            onRebuildDone();
+          }
+        });
+  }
+
+  private void saveStats(Rebuild rebuild, TrialStats rebuilt) {
+    dataController.getExperimentById(
+        rebuild.experimentId,
+        new LoggingConsumer<Experiment>(TAG, "load experiment for zoom tiers") {
+          @Override
+          public void success(Experiment experiment) {
+            Trial trial = experiment == null ? null : experiment.getTrial(rebuild.trialId);
+            if (trial == null) {
+              // Deleted while its tiers were rebuilt.
+              onRebuildDone();
+              return;
+            }
+            trial.setStats(mergeStats(trial.getStatsForSensor(rebuild.sensorId), rebuilt));
+            dataController.updateExperiment(
+                rebuild.experimentId,
+                new LoggingConsumer<Success>(TAG, "save zoom tier stats") {
+                  @Override
+                  public void success(Success value) {
+                    CropHelper.sendStatsUpdatedBroadcast(
+                        context, rebuild.sensorId, rebuild.trialId);
+                    onRebuildDone();
+                  }
+
+                  @Override
+                  public void fail(Exception e) {
+                    super.fail(e);
+                    onRebuildDone();
+                  }
+                });
+          }
+
+          @Override
+          public void fail(Exception e) {
+            super.fail(e);
+            onRebuildDone();
+          }
+        });
+  }
+
+  private void onRebuildDone() {
+    running = null;
+    runNext();
+  }
+
+  private static String getKey(String trialId, String sensorId) {
+    return trialId + "/" + sensorId;
+  }
+
+  private static class Rebuild {
+    final String experimentId;
+    final String trialId;
+    final String sensorId;
+    final long firstTimestamp;
+    final long lastTimestamp;
+
+    Rebuild(String experimentId, Trial trial, String sensorId) {
+      this.experimentId = experimentId;
+      trialId = trial.getTrialId();
+      this.sensorId = sensorId;
+      // The tiers cover the whole recording, even if the trial has been cropped.
+      firstTimestamp = trial.getOriginalFirstTimestamp();
+      lastTimestamp = trial.getOriginalLastTimestamp();
+    }
+  }
+}
@@ -368,6 +368,9 @@ public class ExperimentDetailsFragment extends Fragment
           boolean includeInvalidRuns = false;
           adapter.setScalarDisplayOptions(scalarDisplayOptions);
           adapter.setData(experiment, experiment.getTrials(includeArchived, includeInvalidRuns));
+          AppSingleton.getInstance(view.getContext())
+              .getZoomTierMaintenance(appAccount)
+              .checkExperiment(experiment);
           if (activeTrialId != null) {
             adapter.addActiveRecording(experiment.getTrial(activeTrialId));
           }
@@ -853,6 +853,10 @@ public class RunReviewFragment extends Fragment
         };
     CropHelper.registerStatsBroadcastReceiver(
         activity.getApplicationContext(), broadcastReceiver);
+    // Older trials may lack zoom tiers; the broadcast above reloads the chart once they're built.
+    AppSingleton.getInstance(activity)
+        .getZoomTierMaintenance(appAccount)
+        .checkTrialNow(experiment, trial.getTrialId());
 
     final View rootView = getView();
     if (rootView == null) {
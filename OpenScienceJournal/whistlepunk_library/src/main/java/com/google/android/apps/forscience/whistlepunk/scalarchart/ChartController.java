@@ -214,8 +214,7 @@ public class ChartController {
       // seen by scrolling from the current view.  If we're recording, we'll swap
       // this data back in when we scroll to it.  If not, then we have no data
       // retention guarantees.
-      // TODO: Is it possible to call throwAwayBetween less frequently for performance?
-      // no need to do so many binary searches in ChartData...
+      // This only searches the data when the range overlaps it, which is rare while pinned to now.
       // TODO: This throwAwayBetween is causing b/28614204.
       long throwawayBefore = point.getX() - (KEEP_THIS_MANY_SCREENS * defaultGraphRange);
       long throwawayAfter = chartOptions.getRenderedXMax() + defaultGraphRange;
@@ -236,7 +235,7 @@ public class ChartController {
     chartOptions.setPinnedToNow(false);
   }
 
-  private void addOrderedGroupOfPoints(List<ChartData.DataPoint> points, long requestId) {
+  private void addOrderedGroupOfPoints(PointList points, long requestId) {
     if (currentLoadIds.contains(requestId)) {
       chartData.addOrderedGroupOfPoints(points);
     }
@@ -625,7 +624,7 @@ public class ChartController {
               public void addRange(
                   ScalarReadingList observations, Range<Double> valueRange, long requestId) {
                 updateYRangeFromValueRange(valueRange);
-                addOrderedGroupOfPoints(observations.asDataPoints(), requestId);
+                addOrderedGroupOfPoints(observations.asPointList(), requestId);
               }
 
               @Override
@@ -814,7 +813,7 @@ public class ChartController {
               public void addRange(
                   ScalarReadingList observations, Range<Double> valueRange, long requestId) {
                 updateYRangeFromValueRange(valueRange);
-                addOrderedGroupOfPoints(observations.asDataPoints(), requestId);
+                addOrderedGroupOfPoints(observations.asPointList(), requestId);
               }
 
               @Override
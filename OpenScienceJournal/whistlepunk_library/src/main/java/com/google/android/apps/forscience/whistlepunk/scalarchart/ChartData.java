@@ -19,9 +19,9 @@ package com.google.android.apps.forscience.whistlepunk.scalarchart;
 import androidx.annotation.VisibleForTesting;
 import com.google.android.apps.forscience.whistlepunk.filemetadata.Label;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.StreamStat;
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
 
@@ -63,7 +63,10 @@ public class ChartData {
   public static final long DEFAULT_THROWAWAY_TIME_THRESHOLD = 1000 * 60 * 2;
   private long throwawayDataTimeThreshold = DEFAULT_THROWAWAY_TIME_THRESHOLD;
 
-  private List<DataPoint> data = new ArrayList<>();
+  private PointList data = new PointList();
+
+  // A DataPoint view of the data, for callers which need a List.
+  private final List<DataPoint> dataView = new DataView();
 
   // The list of data points at which a label should be displayed.
   private List<DataPoint> labels = new ArrayList<>();
@@ -76,14 +79,6 @@ public class ChartData {
   // The stats for this list.
   private List<StreamStat> stats = new ArrayList<>();
 
-  private static final Comparator<? super DataPoint> DATA_POINT_COMPARATOR =
-      new Comparator<DataPoint>() {
-        @Override
-        public int compare(DataPoint lhs, DataPoint rhs) {
-          return Long.compare(lhs.getX(), rhs.getX());
-        }
-      };
-
   public ChartData() {
     this(DEFAULT_THROWAWAY_THRESHOLD, DEFAULT_THROWAWAY_TIME_THRESHOLD);
   }
@@ -96,7 +91,7 @@ public class ChartData {
   // This assumes the data point occurs after all previous data points.
   // Order is not checked.
   public void addPoint(DataPoint point) {
-    data.add(point);
+    data.add(point.getX(), point.getY());
     if (unaddedLabels.size() > 0) {
       // TODO to avoid extra work, only try again if new data might come in in the direction
       // of these labels...?
@@ -110,35 +105,63 @@ public class ChartData {
     }
   }
 
+  /**
+   * Returns a view of the points as DataPoints. Each call to {@code get} allocates; use {@link
+   * #getPointList} when iterating over many points.
+   */
   public List<DataPoint> getPoints() {
+    return dataView;
+  }
+
+  /** Returns the points, ordered by x value. Callers must not modify the result. */
+  public PointList getPointList() {
     return data;
   }
 
   // This assumes the List<DataPoint> is ordered by timestamp.
   public void setPoints(List<DataPoint> data) {
-    this.data = data;
+    PointList points = new PointList(data.size());
+    for (DataPoint point : data) {
+      points.add(point.getX(), point.getY());
+    }
+    this.data = points;
   }
 
-  public void addOrderedGroupOfPoints(List<DataPoint> points) {
+  public void addOrderedGroupOfPoints(PointList points) {
     if (points == null || points.size() == 0) {
       return;
     }
-    data.addAll(points);
-    Collections.sort(data, DATA_POINT_COMPARATOR);
+    data.mergeOrdered(points);
   }
 
   public List<DataPoint> getPointsInRangeToEnd(long xMin) {
-    int startIndex = approximateBinarySearch(xMin, 0, true);
-    return data.subList(startIndex, data.size());
+    int startIndex = getRangeStartIndex(xMin);
+    return dataView.subList(startIndex, data.size());
   }
 
   public List<DataPoint> getPointsInRange(long xMin, long xMax) {
-    int startIndex = approximateBinarySearch(xMin, 0, true);
-    int endIndex = approximateBinarySearch(xMax, startIndex, false);
+    int startIndex = getRangeStartIndex(xMin);
+    int endIndex = getRangeEndIndex(xMax, startIndex);
     if (startIndex > endIndex) {
       return Collections.emptyList();
     }
-    return data.subList(startIndex, endIndex + 1);
+    return dataView.subList(startIndex, endIndex + 1);
+  }
+
+  /**
+   * Returns the index of the first point worth drawing for a range starting at xMin. May be a few
+   * points before the range, but never inside it.
+   */
+  public int getRangeStartIndex(long xMin) {
+    return approximateBinarySearch(xMin, 0, true);
+  }
+
+  /**
+   * Returns the index of the last point worth drawing for a range ending at xMax. May be a few
+   * points after the range, but never inside it.
+   */
+  public int getRangeEndIndex(long xMax, int startIndex) {
+    return approximateBinarySearch(xMax, startIndex, false);
   }
 
   public DataPoint getClosestDataPointToTimestamp(long timestamp) {
@@ -207,40 +230,41 @@ public class ChartData {
       return 0;
     }
 
-    // See if we're already done (need to do this before calculating distances below, in case
-    // searchX is so big or small we're in danger of overflow).
-
-    long startValue = data.get(startIndex).getX();
-    if (searchX <= startValue) {
-      return startIndex;
-    }
-    long endValue = data.get(endIndex).getX();
-    if (searchX >= endValue) {
-      return endIndex;
-    }
-    if (endIndex - startIndex <= searchRange) {
-      return preferStart ? startIndex : endIndex;
-    }
-    if (searchRange == 0 && endIndex - startIndex == 1) {
-      long distanceToStart = searchX - startValue;
-      long distanceToEnd = endValue - searchX;
-      if (distanceToStart < distanceToEnd) {
+    while (true) {
+      // See if we're already done (need to do this before calculating distances below, in case
+      // searchX is so big or small we're in danger of overflow).
+      long startValue = data.getX(startIndex);
+      if (searchX <= startValue) {
         return startIndex;
-      } else if (distanceToStart == distanceToEnd) {
+      }
+      long endValue = data.getX(endIndex);
+      if (searchX >= endValue) {
+        return endIndex;
+      }
+      if (endIndex - startIndex <= searchRange) {
         return preferStart ? startIndex : endIndex;
+      }
+      if (searchRange == 0 && endIndex - startIndex == 1) {
+        long distanceToStart = searchX - startValue;
+        long distanceToEnd = endValue - searchX;
+        if (distanceToStart < distanceToEnd) {
+          return startIndex;
+        } else if (distanceToStart == distanceToEnd) {
+          return preferStart ? startIndex : endIndex;
+        } else {
+          return endIndex;
+        }
+      }
+      int mid = (startIndex + endIndex) / 2;
+      long midX = data.getX(mid);
+      if (midX < searchX) {
+        startIndex = mid;
+      } else if (midX > searchX) {
+        endIndex = mid;
       } else {
-        return endIndex;
+        return mid;
       }
     }
-    int mid = (startIndex + endIndex) / 2;
-    long midX = data.get(mid).getX();
-    if (midX < searchX) {
-      return approximateBinarySearch(searchX, mid, endIndex, preferStart, searchRange);
-    } else if (midX > searchX) {
-      return approximateBinarySearch(searchX, startIndex, mid, preferStart, searchRange);
-    } else {
-      return mid;
-    }
   }
 
   public int getNumPoints() {
@@ -253,12 +277,12 @@ public class ChartData {
 
   // Assume points are ordered
   public long getXMin() {
-    return data.get(0).getX();
+    return data.getX(0);
   }
 
   // Assume points are ordered
   public long getXMax() {
-    return data.get(data.size() - 1).getX();
+    return data.getX(data.size() - 1);
   }
 
   public void clear() {
@@ -290,14 +314,16 @@ public class ChartData {
       return false;
     }
     int indexPrev = exactBinarySearch(timestamp, 0);
-    DataPoint start = data.get(indexPrev);
-    if (timestamp == start.getX()) {
-      labels.add(start);
+    long startX = data.getX(indexPrev);
+    if (timestamp == startX) {
+      labels.add(data.get(indexPrev));
       return true;
     } else if (indexPrev < data.size() - 2) {
-      DataPoint end = data.get(indexPrev + 1);
-      double weight = (timestamp - start.getX()) / (1.0 * end.getX() - start.getX());
-      labels.add(new DataPoint(timestamp, start.getY() * weight + end.getY() * (1 - weight)));
+      long endX = data.getX(indexPrev + 1);
+      double weight = (timestamp - startX) / (1.0 * endX - startX);
+      labels.add(
+          new DataPoint(
+              timestamp, data.getY(indexPrev) * weight + data.getY(indexPrev + 1) * (1 - weight)));
       return true;
     }
     return false;
@@ -327,6 +353,11 @@ public class ChartData {
     if (throwAwayMaxX <= throwAwayMinX) {
       return;
     }
+    // Live charts call this for every new point, usually for a range outside the data, so skip the
+    // searches when there is nothing to throw away.
+    if (data.isEmpty() || throwAwayMaxX <= getXMin() || throwAwayMinX >= getXMax()) {
+      return;
+    }
 
     // This should be the index to the right of max
     int indexEnd = approximateBinarySearch(throwAwayMaxX, 0, data.size() - 1, false, 1);
@@ -339,10 +370,63 @@ public class ChartData {
     if (indexEnd - indexStart < throwawayDataSizeThreshold
         && (indexStart >= 0
             && indexEnd < data.size()
-            && data.get(indexEnd).getX() - data.get(indexStart).getX()
-                < throwawayDataTimeThreshold)) {
+            && data.getX(indexEnd) - data.getX(indexStart) < throwawayDataTimeThreshold)) {
       return;
     }
-    data.subList(indexStart, indexEnd).clear();
+    data.removeRange(indexStart, indexEnd);
+  }
+
+  /** Presents the points as a mutable list of DataPoints, allocating one per {@code get}. */
+  private class DataView extends AbstractList<DataPoint> {
+    @Override
+    public DataPoint get(int index) {
+      checkIndex(index, data.size());
+      return data.get(index);
+    }
+
+    @Override
+    public int size() {
+      return data.size();
+    }
+
+    @Override
+    public DataPoint set(int index, DataPoint point) {
+      DataPoint previous = get(index);
+      data.set(index, point.getX(), point.getY());
+      return previous;
+    }
+
+    @Override
+    public void add(int index, DataPoint point) {
+      checkIndex(index, data.size() + 1);
+      data.insert(index, point.getX(), point.getY());
+      modCount++;
+    }
+
+    @Override
+    public DataPoint remove(int index) {
+      DataPoint previous = get(index);
+      data.removeRange(index, index + 1);
+      modCount++;
+      return previous;
+    }
+
+    @Override
+    protected void removeRange(int fromIndex, int toIndex) {
+      data.removeRange(fromIndex, toIndex);
+      modCount++;
+    }
+
+    @Override
+    public void clear() {
+      data.clear();
+      modCount++;
+    }
+
+    private void checkIndex(int index, int bound) {
+      if (index < 0 || index >= bound) {
+        throw new IndexOutOfBoundsException("Index: " + index + ", size: " + data.size());
+      }
+    }
   }
 }
@@ -56,6 +56,14 @@ public class ChartView extends View {
   // transformed. This value can be tweaked for performance as needed.
   private static final int MAXIMUM_NUM_POINTS_FOR_POPULATE_PATH = 10;
 
+  // Decimation keeps at most four points per pixel column, so it only pays off once there are
+  // more points than that to draw.
+  private static final int MIN_POINTS_PER_PIXEL_TO_DECIMATE = 4;
+
+  // A live path is drawn shifted instead of being rebuilt as the chart scrolls. Rebuild it once it
+  // has scrolled this many chart widths, so that its coordinates don't lose float precision.
+  private static final int MAX_LIVE_PATH_SCROLL_WIDTHS = 10;
+
   // Constants describing the number of Y axis labels to show on a graph. No graph should have
   // more than 6 Y axis labels, or fewer than 3, and 5 is prefered on a new load.
   // If the number of labels is outside of the min/max range, the labeled positions will be
@@ -71,6 +79,15 @@ public class ChartView extends View {
   private Paint pathPaint;
   private Path path;
   private boolean hasPath;
+  private final PathDecimator decimator = new PathDecimator();
+  // If the path was decimated, the x range it was decimated for. Zooming in past this needs a
+  // repopulate rather than a transform, to bring back the points which were left out.
+  private boolean pathIsDecimated;
+  private long decimatedXRange;
+  // While observing and pinned to now, the line is kept in livePath instead of path, so that new
+  // points and scrolling don't require rebuilding or transforming the whole line.
+  private final LivePath livePath = new LivePath();
+  private boolean drawingLive;
   private Matrix matrix = new Matrix();
 
   private Paint axisPaint;
@@ -626,6 +643,9 @@ public class ChartView extends View {
   private void populatePath(boolean optimizePinnedToEnd) {
     int numPoints = chartData.getNumPoints();
     path.reset();
+    livePath.reset();
+    pathIsDecimated = false;
+    drawingLive = isLive();
 
     if (numPoints == 0) {
       return;
@@ -634,29 +654,57 @@ public class ChartView extends View {
     // Just get the points in the range that we want to render, instead of all the points.
     // Adds some buffer to the load in case of scrolling, if those data points are available.
     updatePathCalcs();
-    List<ChartData.DataPoint> points;
+    PointList points = chartData.getPointList();
+    int startIndex = chartData.getRangeStartIndex(chartOptions.getRenderedXMin() - BUFFER_MS);
+    int endIndex;
     if (optimizePinnedToEnd) {
       // This is a slightly more efficient call, so use it when possible.
-      points = chartData.getPointsInRangeToEnd(chartOptions.getRenderedXMin() - BUFFER_MS);
+      endIndex = numPoints - 1;
     } else {
-      points =
-          chartData.getPointsInRange(
-              chartOptions.getRenderedXMin() - BUFFER_MS,
-              chartOptions.getRenderedXMax() + BUFFER_MS);
+      endIndex = chartData.getRangeEndIndex(chartOptions.getRenderedXMax() + BUFFER_MS, startIndex);
     }
-    int numPlottedPoints = points.size();
-    if (numPlottedPoints == 0) {
+    if (startIndex > endIndex) {
       return;
     }
-    path.moveTo(getPathX(points.get(0).getX()), getPathY(points.get(0).getY()));
-    for (int i = 1; i < numPlottedPoints; i++) {
-      path.lineTo(getPathX(points.get(i).getX()), getPathY(points.get(i).getY()));
+    pathIsDecimated = endIndex - startIndex + 1 > MIN_POINTS_PER_PIXEL_TO_DECIMATE * chartWidth;
+    if (pathIsDecimated) {
+      decimatedXRange = xMaxForPathCalcs - xMinForPathCalcs;
+      int numDrawn =
+          decimator.decimate(
+              points, startIndex, endIndex, xMinForPathCalcs, xMaxForPathCalcs, chartWidth);
+      for (int i = 0; i < numDrawn; i++) {
+        int index = decimator.getIndex(i);
+        addToPath(points.getX(index), points.getY(index), i == 0);
+      }
+    } else {
+      for (int i = startIndex; i <= endIndex; i++) {
+        addToPath(points.getX(i), points.getY(i), i == startIndex);
+      }
     }
     hasPath = true;
 
     // Only update these when the path is redrawn. They track how much data the path covers.
-    xMinInPath = points.get(0).getX();
-    xMaxInPath = points.get(numPlottedPoints - 1).getX();
+    xMinInPath = points.getX(startIndex);
+    xMaxInPath = points.getX(endIndex);
+  }
+
+  private void addToPath(long x, double y, boolean isFirst) {
+    float pathX = getPathX(x);
+    float pathY = getPathY(y);
+    if (drawingLive) {
+      livePath.add(x, pathX, pathY);
+    } else if (isFirst) {
+      path.moveTo(pathX, pathY);
+    } else {
+      path.lineTo(pathX, pathY);
+    }
+  }
+
+  // Whether the line should be kept in livePath: new points are always added at the right, and the
+  // chart only ever scrolls along with them.
+  private boolean isLive() {
+    return chartOptions.getChartPlacementType() == ChartOptions.ChartPlacementType.TYPE_OBSERVE
+        && chartOptions.isPinnedToNow();
   }
 
   /**
@@ -668,7 +716,14 @@ public class ChartView extends View {
    */
   public void addPointToEndOfPath(ChartData.DataPoint point) {
     int numPoints = chartData.getNumPoints();
-    if (!hasPath
+    if (drawingLive && isLive() && wasPinnedToNow && !livePath.isEmpty()) {
+      // This takes constant time however many points are shown: scrolling is done by shifting the
+      // live path when it is drawn, and segments are dropped once they are offscreen.
+      livePath.add(point.getX(), getPathX(point.getX()), getPathY(point.getY()));
+      livePath.dropBefore(chartOptions.getRenderedXMin() - BUFFER_MS);
+      xMaxInPath = point.getX();
+    } else if (drawingLive != isLive()
+        || !hasPath
         || numPoints < MAXIMUM_NUM_POINTS_FOR_POPULATE_PATH
         || (numPoints % DRAWN_POINTS_REDRAW_THRESHOLD == 0 && chartOptions.isPinnedToNow())) {
       populatePath(true);
@@ -690,6 +745,44 @@ public class ChartView extends View {
     wasPinnedToNow = chartOptions.isPinnedToNow();
   }
 
+  /**
+   * Shifts and stretches the live path to the new rendered range without rebuilding it, if that is
+   * possible. Scrolling only changes the offset it is drawn at, and a change in the Y range is
+   * applied to the points already in the path.
+   *
+   * @return false if the live path needs to be repopulated instead.
+   */
+  private boolean adjustLivePath() {
+    if (!drawingLive || !isLive() || livePath.isEmpty()) {
+      return false;
+    }
+    long xRange = chartOptions.getRenderedXMax() - chartOptions.getRenderedXMin();
+    if (xRange != xMaxForPathCalcs - xMinForPathCalcs
+        || getLivePathOffset() < -MAX_LIVE_PATH_SCROLL_WIDTHS * chartWidth) {
+      return false;
+    }
+    if (chartOptions.getRenderedYMin() != yMinForPathCalcs
+        || chartOptions.getRenderedYMax() != yMaxForPathCalcs) {
+      matrix.reset();
+      previousChartRect.set(
+          chartRect.left,
+          getScreenY(yMaxForPathCalcs),
+          chartRect.right,
+          getScreenY(yMinForPathCalcs));
+      matrix.setRectToRect(chartRect, previousChartRect, Matrix.ScaleToFit.FILL);
+      livePath.transform(matrix);
+      yMinForPathCalcs = chartOptions.getRenderedYMin();
+      yMaxForPathCalcs = chartOptions.getRenderedYMax();
+    }
+    postInvalidateOnAnimation();
+    return true;
+  }
+
+  // How far right the live path needs to be shifted to match the rendered range, in pixels.
+  private float getLivePathOffset() {
+    return getScreenX(xMinForPathCalcs) - startPadding;
+  }
+
   /** Transform the path by stretching and translating it to meet the new rendered size. */
   public void transformPath() {
     // The path needs to be scaled in X and Y based on the range of the new data points.
@@ -744,7 +837,11 @@ public class ChartView extends View {
 
     // Draw the Y label lines under the path.
     drawYAxis(canvas);
-    canvas.drawPath(path, pathPaint);
+    if (drawingLive) {
+      livePath.draw(canvas, pathPaint, getLivePathOffset());
+    } else {
+      canvas.drawPath(path, pathPaint);
+    }
     // Try drawing the endpoints, if they are needed.
     tryDrawingEndpoints(canvas);
 
@@ -837,12 +934,13 @@ public class ChartView extends View {
 
   private void tryDrawingEndpoints(Canvas canvas) {
     if (chartOptions.isShowLeadingEdge()) {
-      ChartData.DataPoint point = chartData.getPoints().get(chartData.getNumPoints() - 1);
-      if (point.getX() == xMaxInPath && xMaxInPath <= xMaxForPathCalcs) {
+      PointList points = chartData.getPointList();
+      int last = points.size() - 1;
+      if (points.getX(last) == xMaxInPath && xMaxInPath <= xMaxForPathCalcs) {
         leadingEdgeIsDrawn = true;
         canvas.drawCircle(
-            getScreenX(point.getX()),
-            getScreenY(point.getY()),
+            getScreenX(points.getX(last)),
+            getScreenY(points.getY(last)),
             leadingEdgeRadius,
             leadingEdgePaint);
       } else {
@@ -853,20 +951,21 @@ public class ChartView extends View {
       // start and/or end times.
       if (chartOptions.getRenderedXMin() < chartOptions.getRecordingStartTime()
           && chartOptions.getRecordingStartTime() < chartOptions.getRenderedXMax()) {
-        ChartData.DataPoint start = chartData.getPoints().get(0);
-        if (start.getX() >= xMinForPathCalcs) {
-          float screenX = getScreenX(start.getX());
-          float screenY = getScreenY(start.getY());
+        PointList points = chartData.getPointList();
+        if (points.getX(0) >= xMinForPathCalcs) {
+          float screenX = getScreenX(points.getX(0));
+          float screenY = getScreenY(points.getY(0));
           canvas.drawCircle(screenX, screenY, endpointOuterRadius, endpointPaint);
           canvas.drawCircle(screenX, screenY, endpointInnerRadius, backgroundPaint);
         }
       }
       if (chartOptions.getRenderedXMin() < chartOptions.getRecordingEndTime()
           && chartOptions.getRecordingEndTime() < chartOptions.getRenderedXMax()) {
-        ChartData.DataPoint end = chartData.getPoints().get(chartData.getNumPoints() - 1);
-        if (end.getX() <= xMaxForPathCalcs) {
-          float screenX = getScreenX(end.getX());
-          float screenY = getScreenY(end.getY());
+        PointList points = chartData.getPointList();
+        int last = points.size() - 1;
+        if (points.getX(last) <= xMaxForPathCalcs) {
+          float screenX = getScreenX(points.getX(last));
+          float screenY = getScreenY(points.getY(last));
           canvas.drawCircle(screenX, screenY, endpointOuterRadius, endpointPaint);
           canvas.drawCircle(screenX, screenY, endpointInnerRadius, backgroundPaint);
         }
@@ -1051,14 +1150,21 @@ public class ChartView extends View {
     // Uses transformPath() instead of populatePath() when possible, i.e. when
     // the range loaded (xMinInPath to xMaxInPath) is within the rendered
     // range desired (getRenderedXMax and getRenderedXMin).
-    if (chartData.isEmpty()) {
+    if (chartData.isEmpty() || adjustLivePath()) {
       return;
     }
     boolean newRangeOutsideOfPathRange =
         (chartOptions.getRenderedXMax() > xMaxInPath && xMaxInPath < chartData.getXMax())
             || (chartOptions.getRenderedXMin() < xMinInPath && xMinInPath > chartData.getXMin());
     boolean newRangeTooLarge = getScreenX(xMaxInPath) - getScreenX(xMinInPath) > width * 2;
-    if (newRangeOutsideOfPathRange || newRangeTooLarge) {
+    boolean zoomedInPastDecimation =
+        pathIsDecimated
+            && chartOptions.getRenderedXMax() - chartOptions.getRenderedXMin() < decimatedXRange;
+    if (newRangeOutsideOfPathRange
+        || newRangeTooLarge
+        || zoomedInPastDecimation
+        || drawingLive
+        || isLive()) {
       populatePath(false);
       postInvalidateOnAnimation();
     } else {
@@ -0,0 +1,134 @@
+/*
+ *  Copyright 2019 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.scalarchart;
+
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Path;
+import java.util.ArrayList;
+
+/**
+ * The line of a chart which is pinned to now, kept as a chain of short paths.
+ *
+ * <p>Vertices are only ever added at the end, in the coordinates the path was started in. Scrolling
+ * is done by translating the canvas when drawing, so a full segment is never changed again once the
+ * next one has been started. Each frame only adds to the last segment, and whole segments are
+ * dropped once they have scrolled off the chart, so the work per frame does not depend on how many
+ * points are on screen. Unchanged segments can also be reused from the renderer's path cache.
+ *
+ * <p>Segments are recycled rather than reallocated.
+ */
+class LivePath {
+  // Large enough that drawing is a handful of calls, small enough that dropping a segment that has
+  // scrolled off doesn't keep many offscreen points around.
+  static final int POINTS_PER_SEGMENT = 128;
+
+  private static class Segment {
+    final Path path = new Path();
+    int numPoints;
+    long xMax;
+  }
+
+  private final ArrayList<Segment> segments = new ArrayList<>();
+  private final ArrayList<Segment> spareSegments = new ArrayList<>();
+  // The last vertex added, in path coordinates.
+  private final float[] lastPoint = new float[2];
+
+  /** Adds a point with data x value {@code x}, at {@code (pathX, pathY)} in path coordinates. */
+  void add(long x, float pathX, float pathY) {
+    Segment tail = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+    if (tail == null) {
+      tail = startSegment();
+      tail.path.moveTo(pathX, pathY);
+    } else if (tail.numPoints >= POINTS_PER_SEGMENT) {
+      // Start the next segment from the end of this one, so the line stays connected.
+      tail = startSegment();
+      tail.path.moveTo(lastPoint[0], lastPoint[1]);
+      tail.path.lineTo(pathX, pathY);
+    } else {
+      tail.path.lineTo(pathX, pathY);
+    }
+    tail.numPoints++;
+    tail.xMax = x;
+    lastPoint[0] = pathX;
+    lastPoint[1] = pathY;
+  }
+
+  /**
+   * Drops segments which only hold points before data x value {@code x}. The last segment is always
+   * kept, so that there is something to continue the line from.
+   */
+  void dropBefore(long x) {
+    while (segments.size() > 1 && segments.get(0).xMax < x) {
+      recycle(segments.remove(0));
+    }
+  }
+
+  /** Applies a transformation to every vertex already in the path. */
+  void transform(Matrix matrix) {
+    for (int i = 0; i < segments.size(); i++) {
+      segments.get(i).path.transform(matrix);
+    }
+    matrix.mapPoints(lastPoint);
+  }
+
+  /** Draws the path, shifted right by {@code dx} pixels. */
+  void draw(Canvas canvas, Paint paint, float dx) {
+    canvas.save();
+    canvas.translate(dx, 0);
+    for (int i = 0; i < segments.size(); i++) {
+      canvas.drawPath(segments.get(i).path, paint);
+    }
+    canvas.restore();
+  }
+
+  void reset() {
+    while (!segments.isEmpty()) {
+      recycle(segments.remove(segments.size() - 1));
+    }
+  }
+
+  boolean isEmpty() {
+    return segments.isEmpty();
+  }
+
+  int getNumPoints() {
+    int numPoints = 0;
+    for (int i = 0; i < segments.size(); i++) {
+      numPoints += segments.get(i).numPoints;
+    }
+    return numPoints;
+  }
+
+  int getNumSegments() {
+    return segments.size();
+  }
+
+  private Segment startSegment() {
+    Segment segment =
+        spareSegments.isEmpty() ? new Segment() : spareSegments.remove(spareSegments.size() - 1);
+    segments.add(segment);
+    return segment;
+  }
+
+  private void recycle(Segment segment) {
+    segment.path.reset();
+    segment.numPoints = 0;
+    spareSegments.add(segment);
+  }
+}
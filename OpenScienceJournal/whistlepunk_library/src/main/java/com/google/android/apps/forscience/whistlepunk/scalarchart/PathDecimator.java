@@ -0,0 +1,101 @@
+/*
+ *  Copyright 2019 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.scalarchart;
+
+import java.util.Arrays;
+
+/**
+ * Chooses which points of a line chart need to be drawn, given how many pixel columns the chart
+ * has.
+ *
+ * <p>Within each pixel column only the first, minimum, maximum and last points are kept (the "M4"
+ * reduction). A polyline through those points covers exactly the same pixels as one through every
+ * point, so the chart looks the same while the path holds at most four vertices per column.
+ *
+ * <p>The index array is reused between calls, so steady-state drawing does not allocate.
+ */
+class PathDecimator {
+  private int[] indices = new int[256];
+  private int count = 0;
+
+  /**
+   * Picks the points to draw from {@code points} between {@code startIndex} and {@code endIndex},
+   * inclusive.
+   *
+   * @param xMin the x value at the left edge of the chart
+   * @param xMax the x value at the right edge of the chart
+   * @param columns the width of the chart in pixels
+   * @return the number of points chosen; see {@link #getIndex}
+   */
+  int decimate(
+      PointList points, int startIndex, int endIndex, long xMin, long xMax, float columns) {
+    count = 0;
+    double columnsPerX = columns / (double) (xMax - xMin);
+    int i = startIndex;
+    while (i <= endIndex) {
+      long column = getColumn(points.getX(i), xMin, columnsPerX);
+      int first = i;
+      int minIndex = i;
+      int maxIndex = i;
+      double min = points.getY(i);
+      double max = min;
+      i++;
+      while (i <= endIndex && getColumn(points.getX(i), xMin, columnsPerX) == column) {
+        double y = points.getY(i);
+        if (y < min) {
+          min = y;
+          minIndex = i;
+        } else if (y > max) {
+          max = y;
+          maxIndex = i;
+        }
+        i++;
+      }
+      int last = i - 1;
+
+      ensureCapacity(count + 4);
+      indices[count++] = first;
+      int lower = Math.min(minIndex, maxIndex);
+      int upper = Math.max(minIndex, maxIndex);
+      if (lower != first && lower != last) {
+        indices[count++] = lower;
+      }
+      if (upper != lower && upper != first && upper != last) {
+        indices[count++] = upper;
+      }
+      if (last != first) {
+        indices[count++] = last;
+      }
+    }
+    return count;
+  }
+
+  /** Returns the index into the decimated PointList of the {@code i}th point to draw. */
+  int getIndex(int i) {
+    return indices[i];
+  }
+
+  private static long getColumn(long x, long xMin, double columnsPerX) {
+    return (long) Math.floor((x - xMin) * columnsPerX);
+  }
+
+  private void ensureCapacity(int capacity) {
+    if (capacity > indices.length) {
+      indices = Arrays.copyOf(indices, Math.max(capacity, indices.length * 2));
+    }
+  }
+}
@@ -0,0 +1,233 @@
+/*
+ *  Copyright 2019 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.scalarchart;
+
+/**
+ * A growable list of (x, y) points stored in parallel primitive arrays, so that large charts can be
+ * loaded and drawn without allocating an object per point.
+ *
+ * <p>The arrays are used as a circular buffer: points can be appended, and removed from either end,
+ * in constant time. This suits live charts, which add points at the end and throw old ones away
+ * from the start.
+ */
+public class PointList {
+  private static final int DEFAULT_CAPACITY = 16;
+
+  private long[] xs;
+  private double[] ys;
+  // Index into the arrays of the first point.
+  private int head;
+  private int size;
+
+  public PointList() {
+    this(DEFAULT_CAPACITY);
+  }
+
+  public PointList(int initialCapacity) {
+    this(new long[initialCapacity], new double[initialCapacity], 0);
+  }
+
+  private PointList(long[] xs, double[] ys, int size) {
+    this.xs = xs;
+    this.ys = ys;
+    this.head = 0;
+    this.size = size;
+  }
+
+  /**
+   * Returns a list backed by the first {@code size} entries of the given arrays, without copying.
+   * The arrays must not be changed by the caller afterwards.
+   */
+  public static PointList wrap(long[] xs, double[] ys, int size) {
+    return new PointList(xs, ys, size);
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  public long getX(int index) {
+    return xs[physical(index)];
+  }
+
+  public double getY(int index) {
+    return ys[physical(index)];
+  }
+
+  /** Allocates a DataPoint for the given index; prefer {@link #getX} and {@link #getY}. */
+  public ChartData.DataPoint get(int index) {
+    int i = physical(index);
+    return new ChartData.DataPoint(xs[i], ys[i]);
+  }
+
+  public void add(long x, double y) {
+    ensureCapacity(size + 1);
+    int i = physical(size);
+    xs[i] = x;
+    ys[i] = y;
+    size++;
+  }
+
+  public void addAll(PointList other) {
+    ensureCapacity(size + other.size);
+    for (int i = 0; i < other.size; i++) {
+      int to = physical(size + i);
+      int from = other.physical(i);
+      xs[to] = other.xs[from];
+      ys[to] = other.ys[from];
+    }
+    size += other.size;
+  }
+
+  /**
+   * Adds all of {@code other}, which must be ordered by x, into this list, which must also be
+   * ordered by x. Points with equal x values keep existing points first.
+   *
+   * <p>Runs in time proportional to the size of {@code other} plus the number of existing points
+   * which sort after its first point, so adding a page of points at either end is cheap.
+   */
+  public void mergeOrdered(PointList other) {
+    int count = other.size;
+    if (count == 0) {
+      return;
+    }
+    ensureCapacity(size + count);
+    if (size == 0 || other.getX(0) >= getX(size - 1)) {
+      addAll(other);
+      return;
+    }
+    if (other.getX(count - 1) < getX(0)) {
+      // Prepend by moving the start of the buffer back.
+      head = physical(xs.length - count);
+      size += count;
+      for (int i = 0; i < count; i++) {
+        set(i, other.getX(i), other.getY(i));
+      }
+      return;
+    }
+
+    // Merge from the back, so that each point moves at most once.
+    int read = size - 1;
+    int otherRead = count - 1;
+    size += count;
+    for (int write = size - 1; otherRead >= 0; write--) {
+      long otherX = other.getX(otherRead);
+      if (read >= 0 && getX(read) > otherX) {
+        set(write, getX(read), getY(read));
+        read--;
+      } else {
+        set(write, otherX, other.getY(otherRead));
+        otherRead--;
+      }
+    }
+  }
+
+  public void insert(int index, long x, double y) {
+    ensureCapacity(size + 1);
+    size++;
+    move(index, index + 1, size - 1 - index);
+    set(index, x, y);
+  }
+
+  public void set(int index, long x, double y) {
+    int i = physical(index);
+    xs[i] = x;
+    ys[i] = y;
+  }
+
+  /**
+   * Removes the points from {@code fromIndex}, inclusive, to {@code toIndex}, exclusive. Removing
+   * from either end takes constant time; otherwise the shorter side of the gap is moved.
+   */
+  public void removeRange(int fromIndex, int toIndex) {
+    int removed = toIndex - fromIndex;
+    if (removed <= 0) {
+      return;
+    }
+    int before = fromIndex;
+    int after = size - toIndex;
+    if (before < after) {
+      move(0, removed, before);
+      head = physical(removed);
+    } else {
+      move(toIndex, fromIndex, after);
+    }
+    size -= removed;
+    if (size == 0) {
+      head = 0;
+    }
+  }
+
+  public void clear() {
+    head = 0;
+    size = 0;
+  }
+
+  /** Moves {@code count} points from index {@code from} to index {@code to}. */
+  private void move(int from, int to, int count) {
+    int capacity = xs.length;
+    if (to < from) {
+      // Copy forwards, in runs that don't wrap around the end of the arrays.
+      int done = 0;
+      while (done < count) {
+        int src = physical(from + done);
+        int dst = physical(to + done);
+        int run = Math.min(count - done, Math.min(capacity - src, capacity - dst));
+        System.arraycopy(xs, src, xs, dst, run);
+        System.arraycopy(ys, src, ys, dst, run);
+        done += run;
+      }
+    } else {
+      // Copy backwards, so that no point is overwritten before it has been moved.
+      int remaining = count;
+      while (remaining > 0) {
+        int srcEnd = physical(from + remaining - 1) + 1;
+        int dstEnd = physical(to + remaining - 1) + 1;
+        int run = Math.min(remaining, Math.min(srcEnd, dstEnd));
+        System.arraycopy(xs, srcEnd - run, xs, dstEnd - run, run);
+        System.arraycopy(ys, srcEnd - run, ys, dstEnd - run, run);
+        remaining -= run;
+      }
+    }
+  }
+
+  private int physical(int index) {
+    int i = head + index;
+    return i < xs.length ? i : i - xs.length;
+  }
+
+  private void ensureCapacity(int capacity) {
+    if (capacity <= xs.length) {
+      return;
+    }
+    int newCapacity = Math.max(capacity, Math.max(DEFAULT_CAPACITY, xs.length * 2));
+    long[] newXs = new long[newCapacity];
+    double[] newYs = new double[newCapacity];
+    int firstPart = Math.min(size, xs.length - head);
+    System.arraycopy(xs, head, newXs, 0, firstPart);
+    System.arraycopy(ys, head, newYs, 0, firstPart);
+    System.arraycopy(xs, 0, newXs, firstPart, size - firstPart);
+    System.arraycopy(ys, 0, newYs, firstPart, size - firstPart);
+    xs = newXs;
+    ys = newYs;
+    head = 0;
+  }
+}
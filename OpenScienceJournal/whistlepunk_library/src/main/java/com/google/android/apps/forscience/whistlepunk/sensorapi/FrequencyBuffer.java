@@ -16,12 +16,55 @@
 
 package com.google.android.apps.forscience.whistlepunk.sensorapi;
 
-import com.google.android.apps.forscience.whistlepunk.sensordb.ScalarReading;
-import java.util.LinkedList;
-import java.util.List;
+import java.util.Arrays;
 
+/**
+ * Estimates frequency by counting how often the readings in a sliding window cross their average.
+ *
+ * <p>The average moves with every reading, so rather than rescanning the window each time, the
+ * crossings are kept up to date incrementally: readings are also kept ordered by value, and when
+ * the average moves only the readings between the old and new average change sides. For a steady
+ * signal that is a handful of readings, so counting crossings no longer scans the window.
+ *
+ * <p>Keeping readings ordered by value still costs O(window) per reading: inserting the new reading
+ * and removing the oldest each shift part of an array. That shift is a single {@link
+ * System#arraycopy}, which for the default window at BLE rates is a few hundred entries, so it is
+ * much cheaper than the rescan it replaces, and than the pointer chasing of a balanced tree at that
+ * size. A ring buffer and a monotonic deque, as used for a sliding minimum or maximum, can't
+ * replace it: any reading may be on either side of the next average.
+ */
 public class FrequencyBuffer implements ValueFilter {
-  private List<ScalarReading> readings = new LinkedList<>();
+  private static final int INITIAL_CAPACITY = 16;
+
+  // Readings are numbered in the order they arrive, and reading n is kept at index n & mask.
+  // The readings in the window are numbered from oldest up to (but not including) next.
+  private long[] timestamps = new long[INITIAL_CAPACITY];
+  private double[] values = new double[INITIAL_CAPACITY];
+  // Whether reading n is on the other side of the threshold from reading n - 1.  Never true for
+  // the oldest reading.
+  private boolean[] crossings = new boolean[INITIAL_CAPACITY];
+  private int mask = INITIAL_CAPACITY - 1;
+  private long oldest = 0;
+  private long next = 0;
+
+  // The numbers of the readings in the window, ordered by value, then by number.
+  private long[] byValue = new long[INITIAL_CAPACITY];
+
+  // Sum of the finite values in the window, and the rounding error it has accumulated (Neumaier's
+  // variant of Kahan summation), so that a reading much larger than the rest doesn't lose them when
+  // it comes and goes. The sum is also recomputed each time the readings wrap around the buffer, so
+  // that what error is left can't build up.
+  private double sum = 0;
+  private double sumError = 0;
+  private int nonFiniteCount = 0;
+  private int addsSinceSum = 0;
+
+  // The threshold the crossings are relative to, if crossingsValid.
+  private double threshold = 0;
+  private boolean crossingsValid = false;
+  private int crossingCount = 0;
+  private long firstCrossing = -1;
+  private long lastCrossing = -1;
 
   private long window;
   private final double denominatorInMillis;
@@ -41,55 +84,103 @@ public class FrequencyBuffer implements ValueFilter {
 
   public void changeWindow(long newWindowMillis) {
     window = newWindowMillis;
-    if (!readings.isEmpty()) {
+    if (size() > 0) {
       prune(getNewestTimestamp());
     }
   }
 
   @Override
   public double filterValue(long timestamp, double value) {
-    readings.add(new ScalarReading(timestamp, value));
+    if (size() == timestamps.length) {
+      grow();
+    }
+    long n = next++;
+    int index = index(n);
+    timestamps[index] = timestamp;
+    values[index] = value;
+    crossings[index] = false;
+    insertByValue(n);
+    if (isFinite(value)) {
+      addToSum(value);
+    } else {
+      nonFiniteCount++;
+      crossingsValid = false;
+    }
+    addsSinceSum++;
+    if (crossingsValid && n > oldest) {
+      setCrossing(n, isCrossing(n));
+    }
     prune(timestamp);
     return getLatestFrequency();
   }
 
   private void prune(long timestamp) {
     long oldestRemaining = timestamp - window;
-    while (readings.get(0).getCollectedTimeMillis() < oldestRemaining) {
-      readings.remove(0);
+    while (size() > 0 && timestamps[index(oldest)] < oldestRemaining) {
+      removeOldest();
+    }
+  }
+
+  private void removeOldest() {
+    double value = values[index(oldest)];
+    removeByValue(oldest);
+    if (isFinite(value)) {
+      addToSum(-value);
+    } else {
+      nonFiniteCount--;
+    }
+    oldest++;
+    // The new oldest reading has nothing before it to cross from.
+    if (crossingsValid && oldest < next) {
+      setCrossing(oldest, false);
     }
   }
 
   public double getLatestFrequency() {
-    if (readings.size() < 2) {
+    if (size() < 2) {
       return 0.0;
     }
+    if (nonFiniteCount > 0) {
+      // The average can't be kept up to date incrementally, so count from scratch.
+      crossingsValid = false;
+      return scanFrequency();
+    }
+    updateThreshold();
+    if (crossingCount < 2) {
+      return 0.0;
+    }
+    return computeFrequency(
+        timestamps[index(firstCrossing)], timestamps[index(lastCrossing)], crossingCount - 1);
+  }
 
+  private double scanFrequency() {
     double average = computeAverageValue();
     int crossings = 0;
     long firstCrossingTime = -1;
     long lastCrossingTime = -1;
 
-    boolean higherThanAverage = readings.get(0).getValue() > average;
-    for (ScalarReading reading : readings.subList(1, readings.size())) {
-      boolean thisReadingHigher = reading.getValue() > average;
+    boolean higherThanAverage = values[index(oldest)] > average;
+    for (long n = oldest + 1; n < next; n++) {
+      boolean thisReadingHigher = values[index(n)] > average;
       if (higherThanAverage != thisReadingHigher) {
         higherThanAverage = thisReadingHigher;
         crossings++;
         if (firstCrossingTime == -1) {
-          firstCrossingTime = reading.getCollectedTimeMillis();
+          firstCrossingTime = timestamps[index(n)];
         } else {
-          lastCrossingTime = reading.getCollectedTimeMillis();
+          lastCrossingTime = timestamps[index(n)];
         }
       }
     }
-    // Drop the leading cross because that's where time starts
-    crossings--;
-
     if (firstCrossingTime == -1 || lastCrossingTime == -1) {
       return 0.0;
     }
+    return computeFrequency(firstCrossingTime, lastCrossingTime, crossings - 1);
+  }
 
+  /** @param crossings the number of crossings after the first one. */
+  private double computeFrequency(long firstCrossingTime, long lastCrossingTime, int crossings) {
+    // The leading cross has been dropped because that's where time starts
     long adjustedWindowMillis = lastCrossingTime - firstCrossingTime;
 
     if (adjustedWindowMillis < window / 4) {
@@ -112,16 +203,193 @@ public class FrequencyBuffer implements ValueFilter {
     // assume for now that doesn't happen.
 
     double total = 0;
-    for (ScalarReading reading : readings) {
-      total += reading.getValue();
+    for (long n = oldest; n < next; n++) {
+      total += values[index(n)];
     }
     // Adding filter means that variations of less than filter won't register as cycles.
-    return total / readings.size() + filter;
+    return total / size() + filter;
+  }
+
+  /** Moves the crossings to the current average, which must be of finite values. */
+  private void updateThreshold() {
+    if (addsSinceSum >= values.length) {
+      sum = 0;
+      sumError = 0;
+      for (long n = oldest; n < next; n++) {
+        addToSum(values[index(n)]);
+      }
+      addsSinceSum = 0;
+    }
+    // Adding filter means that variations of less than filter won't register as cycles.
+    double newThreshold = (sum + sumError) / size() + filter;
+    if (!crossingsValid || Double.isNaN(newThreshold) || Double.isNaN(threshold)) {
+      rebuildCrossings(newThreshold);
+      return;
+    }
+    if (newThreshold == threshold) {
+      return;
+    }
+
+    // Only readings between the two thresholds change sides, along with the crossings either side
+    // of them.
+    int from = countAtMost(Math.min(threshold, newThreshold));
+    int to = countAtMost(Math.max(threshold, newThreshold));
+    threshold = newThreshold;
+    for (int i = from; i < to; i++) {
+      long n = byValue[i];
+      if (n > oldest) {
+        setCrossing(n, isCrossing(n));
+      }
+      if (n + 1 < next) {
+        setCrossing(n + 1, isCrossing(n + 1));
+      }
+    }
+  }
+
+  private void rebuildCrossings(double newThreshold) {
+    threshold = newThreshold;
+    crossingCount = 0;
+    firstCrossing = -1;
+    lastCrossing = -1;
+    crossings[index(oldest)] = false;
+    for (long n = oldest + 1; n < next; n++) {
+      crossings[index(n)] = false;
+      setCrossing(n, isCrossing(n));
+    }
+    crossingsValid = true;
+  }
+
+  private void addToSum(double value) {
+    double total = sum + value;
+    if (Math.abs(sum) >= Math.abs(value)) {
+      sumError += (sum - total) + value;
+    } else {
+      sumError += (value - total) + sum;
+    }
+    sum = total;
+  }
+
+  private boolean isCrossing(long n) {
+    return (values[index(n - 1)] > threshold) != (values[index(n)] > threshold);
+  }
+
+  private void setCrossing(long n, boolean crossing) {
+    int index = index(n);
+    if (crossings[index] == crossing) {
+      return;
+    }
+    crossings[index] = crossing;
+    if (crossing) {
+      crossingCount++;
+      if (firstCrossing == -1 || n < firstCrossing) {
+        firstCrossing = n;
+      }
+      if (lastCrossing == -1 || n > lastCrossing) {
+        lastCrossing = n;
+      }
+      return;
+    }
+
+    crossingCount--;
+    if (crossingCount == 0) {
+      firstCrossing = -1;
+      lastCrossing = -1;
+      return;
+    }
+    // There is still a crossing somewhere in the window, so these scans stop inside it.
+    if (n == firstCrossing) {
+      do {
+        firstCrossing++;
+      } while (!crossings[index(firstCrossing)]);
+    }
+    if (n == lastCrossing) {
+      do {
+        lastCrossing--;
+      } while (!crossings[index(lastCrossing)]);
+    }
+  }
+
+  /** Returns how many readings in the window have a value no greater than {@code value}. */
+  private int countAtMost(double value) {
+    int low = 0;
+    int high = size();
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (values[index(byValue[mid])] > value) {
+        high = mid;
+      } else {
+        low = mid + 1;
+      }
+    }
+    return low;
+  }
+
+  /** Returns where reading n is, or belongs, among the first {@code count} of byValue. */
+  private int findByValue(long n, int count) {
+    double value = values[index(n)];
+    int low = 0;
+    int high = count;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      long other = byValue[mid];
+      int compare = Double.compare(values[index(other)], value);
+      if (compare < 0 || (compare == 0 && other < n)) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  private void insertByValue(long n) {
+    // n has already been added to the window, but not to byValue.
+    int count = size() - 1;
+    int position = findByValue(n, count);
+    System.arraycopy(byValue, position, byValue, position + 1, count - position);
+    byValue[position] = n;
+  }
+
+  private void removeByValue(long n) {
+    int count = size();
+    int position = findByValue(n, count);
+    System.arraycopy(byValue, position + 1, byValue, position, count - position - 1);
+  }
+
+  private void grow() {
+    int capacity = timestamps.length * 2;
+    long[] newTimestamps = new long[capacity];
+    double[] newValues = new double[capacity];
+    boolean[] newCrossings = new boolean[capacity];
+    int newMask = capacity - 1;
+    for (long n = oldest; n < next; n++) {
+      int from = index(n);
+      int to = (int) (n & newMask);
+      newTimestamps[to] = timestamps[from];
+      newValues[to] = values[from];
+      newCrossings[to] = crossings[from];
+    }
+    timestamps = newTimestamps;
+    values = newValues;
+    crossings = newCrossings;
+    mask = newMask;
+    byValue = Arrays.copyOf(byValue, capacity);
+  }
+
+  private int size() {
+    return (int) (next - oldest);
+  }
+
+  private int index(long n) {
+    return (int) (n & mask);
+  }
+
+  private static boolean isFinite(double value) {
+    return !Double.isNaN(value) && !Double.isInfinite(value);
   }
 
   private long getNewestTimestamp() {
-    final ScalarReading mostRecentReading = readings.get(readings.size() - 1);
-    return mostRecentReading.getCollectedTimeMillis();
+    return timestamps[index(next - 1)];
   }
 
   public void changeFilter(double newFilter) {
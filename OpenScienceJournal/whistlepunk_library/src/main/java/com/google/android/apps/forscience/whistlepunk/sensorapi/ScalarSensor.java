@@ -370,13 +370,10 @@ public abstract class ScalarSensor extends SensorChoice implements FilterChangeL
     final RecordingDataController dataController =
         Preconditions.checkNotNull(environment.getDataController(appAccount));
 
-    // We need twice the buffer as the zoom level, because in this implementation of zoom, we
-    // decided to store min and max data points at each level.
-    // TODO: make this configurable?
-    int zoomBufferSize = zoomLevelBetweenTiers * 2;
-    final ZoomRecorder zoomRecorder = new ZoomRecorder(getId(), zoomBufferSize, 1);
+    final ZoomDownsampler downsampler =
+        new ZoomDownsampler(getId(), zoomLevelBetweenTiers, getZoomKernel());
     final ScalarStreamConsumer consumer =
-        new ScalarStreamConsumer(statsAccumulator, observer, dataController, zoomRecorder);
+        new ScalarStreamConsumer(statsAccumulator, observer, dataController, downsampler);
     final SensorRecorder recorder = makeScalarControl(consumer, environment, context, listener);
     return new DelegatingSensorRecorder(recorder) {
       private String runId;
@@ -397,9 +394,9 @@ public abstract class ScalarSensor extends SensorChoice implements FilterChangeL
       public void startRecording(String runId) {
         this.runId = runId;
         statsAccumulator.clearStats();
-        zoomRecorder.setTrialId(runId);
-        zoomRecorder.clear();
-        consumer.startRecording(this.runId);
+        downsampler.setTrialId(runId);
+        downsampler.clear();
+        consumer.startRecording();
         super.startRecording(runId);
       }
 
@@ -409,7 +406,7 @@ public abstract class ScalarSensor extends SensorChoice implements FilterChangeL
 
         TrialStats trialStats = statsAccumulator.makeSaveableStats();
         trialStats.putStat(
-            GoosciTrial.SensorStat.StatType.ZOOM_PRESENTER_TIER_COUNT, zoomRecorder.countTiers());
+            GoosciTrial.SensorStat.StatType.ZOOM_PRESENTER_TIER_COUNT, downsampler.countTiers());
         trialStats.putStat(
             GoosciTrial.SensorStat.StatType.ZOOM_PRESENTER_ZOOM_LEVEL_BETWEEN_TIERS,
             zoomLevelBetweenTiers);
@@ -418,7 +415,7 @@ public abstract class ScalarSensor extends SensorChoice implements FilterChangeL
         }
         consumer.stopRecording();
         statsAccumulator.clearStats();
-        zoomRecorder.clearTrialId();
+        downsampler.clearTrialId();
       }
 
       @Override
@@ -428,6 +425,14 @@ public abstract class ScalarSensor extends SensorChoice implements FilterChangeL
     };
   }
 
+  /**
+   * Returns how runs of this sensor's readings are summarized in the zoomed-out tiers. Min and max
+   * suits most sensors; override for sensors whose shape is better kept another way.
+   */
+  protected ZoomDownsampler.Kernel getZoomKernel() {
+    return ZoomDownsampler.Kernel.MIN_MAX;
+  }
+
   public static ValueFilter computeValueFilter(
       long newWindow,
       double newFilter,
@@ -477,33 +482,31 @@ public abstract class ScalarSensor extends SensorChoice implements FilterChangeL
 
     private final StatsAccumulator statsAccumulator;
     private final RecordingDataController dataController;
-    private final ZoomRecorder zoomRecorder;
+    private final ZoomDownsampler downsampler;
     private boolean isRecording = false;
     private long lastDataTimestampMillis = NO_DATA_RECORDED;
     private long timestampBeforeRecordingStart = NO_DATA_RECORDED;
     private SensorMessage.Pool messagePool;
-    private String runId = null;
 
     public ScalarStreamConsumer(
         StatsAccumulator statsAccumulator,
         SensorObserver observer,
         RecordingDataController dataController,
-        ZoomRecorder zoomRecorder) {
+        ZoomDownsampler downsampler) {
       this.statsAccumulator = statsAccumulator;
       this.dataController = dataController;
-      this.zoomRecorder = zoomRecorder;
+      this.downsampler = downsampler;
       messagePool = new SensorMessage.Pool(observer);
     }
 
-    public void startRecording(String runId) {
+    public void startRecording() {
       isRecording = true;
       timestampBeforeRecordingStart = lastDataTimestampMillis;
-      this.runId = runId;
     }
 
     public void stopRecording() {
       isRecording = false;
-      zoomRecorder.flushAllTiers(dataController);
+      downsampler.flushAllTiers(dataController);
     }
 
     public boolean maintainsTimeSeries(final long timestampMillis) {
@@ -542,8 +545,8 @@ public abstract class ScalarSensor extends SensorChoice implements FilterChangeL
 
     public void recordData(long timestampMillis, double value) {
       if (isRecording) {
-        zoomRecorder.addData(timestampMillis, value, dataController);
-        dataController.addScalarReading(runId, getId(), 0, timestampMillis, value);
+        // Stores the reading at tier 0 as well as the zoomed-out tiers.
+        downsampler.addData(timestampMillis, value, dataController);
       }
     }
 
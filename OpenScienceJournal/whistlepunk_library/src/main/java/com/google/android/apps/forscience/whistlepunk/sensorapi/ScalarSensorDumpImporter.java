@@ -0,0 +1,497 @@
+/*
+ *  Copyright 2019 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.sensorapi;
+
+import androidx.annotation.VisibleForTesting;
+import com.google.android.apps.forscience.javalib.FailureListener;
+import com.google.android.apps.forscience.whistlepunk.BatchInsertScalarReading;
+import com.google.android.apps.forscience.whistlepunk.Clock;
+import com.google.android.apps.forscience.whistlepunk.CurrentTimeClock;
+import com.google.android.apps.forscience.whistlepunk.RecordingDataController;
+import com.google.android.apps.forscience.whistlepunk.metadata.GoosciScalarSensorData;
+import com.google.android.apps.forscience.whistlepunk.metadata.GoosciScalarSensorData.ScalarSensorDataDump;
+import com.google.android.apps.forscience.whistlepunk.metadata.GoosciScalarSensorData.ScalarSensorDataRow;
+import com.google.android.apps.forscience.whistlepunk.sensordb.ScalarReadingBatch;
+import com.google.android.apps.forscience.whistlepunk.sensordb.SensorDatabase;
+import com.google.common.base.Preconditions;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.ExtensionRegistryLite;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Imports sensor data exported as a {@link GoosciScalarSensorData.ScalarSensorData} proto, with
+ * parsing, zooming and writing running at the same time.
+ *
+ * <ol>
+ *   <li>The calling thread parses the proto one {@link ScalarSensorDataDump} at a time.
+ *   <li>Zoom tiers are computed on a pool of threads. The dumps of one sensor are zoomed in order
+ *       by one task at a time, but different sensors are zoomed in parallel.
+ *   <li>The database's write thread stores the readings of many dumps in each transaction.
+ * </ol>
+ *
+ * <p>At most {@link #MAX_DUMPS_IN_FLIGHT} dumps are between being parsed and being written at once,
+ * and the parsing thread waits when the others fall behind, so memory use doesn't grow with the
+ * size of the import.
+ *
+ * <p>The readings stored are the same as {@link ScalarSensorDumpReader#readData(InputStream, Map)}
+ * would store. Each importer can only be used once.
+ */
+public class ScalarSensorDumpImporter {
+
+  /** Notified on the write thread after each transaction. */
+  public interface ProgressListener {
+    /**
+     * @param readingsWritten readings stored so far, including zoom tiers
+     * @param bytesRead bytes of the proto parsed so far
+     */
+    void onProgress(long readingsWritten, long bytesRead);
+  }
+
+  /** What an import did, and how long it took. */
+  public static class Stats {
+    public final long dumpsRead;
+    public final long bytesRead;
+    public final long readingsWritten;
+    public final long transactions;
+    public final long elapsedMs;
+
+    Stats(long dumpsRead, long bytesRead, long readingsWritten, long transactions, long elapsedMs) {
+      this.dumpsRead = dumpsRead;
+      this.bytesRead = bytesRead;
+      this.readingsWritten = readingsWritten;
+      this.transactions = transactions;
+      this.elapsedMs = elapsedMs;
+    }
+
+    public double getReadingsPerSecond() {
+      return readingsWritten * 1000.0 / Math.max(1, elapsedMs);
+    }
+
+    @Override
+    public String toString() {
+      return String.format(
+          "%d readings from %d dumps (%d bytes) in %d transactions, %d ms (%.0f readings/s)",
+          readingsWritten, dumpsRead, bytesRead, transactions, elapsedMs, getReadingsPerSecond());
+    }
+  }
+
+  @VisibleForTesting static final int MAX_DUMPS_IN_FLIGHT = 32;
+  private static final int TRANSACTION_SIZE = 50000;
+  private static final int NO_DATA_RECORDED = -1;
+
+  // Queued after a sensor's last dump, to flush its zoom tiers. Never returned by parsing.
+  private static final ScalarSensorDataDump END_OF_SENSOR =
+      ScalarSensorDataDump.newBuilder().build();
+
+  private final SensorDatabase database;
+  private final Executor writeThread;
+  private final Executor zoomThreads;
+  private int transactionSize = TRANSACTION_SIZE;
+  private ProgressListener progressListener = null;
+  private Clock clock = new CurrentTimeClock();
+  private boolean used = false;
+
+  // One permit for each dump between being parsed and being written.
+  private final Semaphore inFlight = new Semaphore(MAX_DUMPS_IN_FLIGHT);
+  private final Queue<ReadingBuffer> spareBuffers = new ConcurrentLinkedQueue<>();
+  private volatile long bytesRead = 0;
+
+  // Guarded by "this".
+  private final List<ReadingBuffer> pending = new ArrayList<>();
+  private int pendingReadings = 0;
+  private boolean writePosted = false;
+  private boolean finishing = false;
+
+  // Only touched on the write thread, and read by the parsing thread once every permit is back.
+  private final TransactionBatch transaction = new TransactionBatch();
+  private long readingsWritten = 0;
+  private long transactions = 0;
+  private Exception failure = null;
+
+  private final Runnable writeTask = this::write;
+
+  /**
+   * @param writeThread executor on which the database is written; must run tasks one at a time
+   * @param zoomThreads executor on which zoom tiers are computed; may run tasks in parallel
+   */
+  public ScalarSensorDumpImporter(
+      SensorDatabase database, Executor writeThread, Executor zoomThreads) {
+    this.database = database;
+    this.writeThread = writeThread;
+    this.zoomThreads = zoomThreads;
+  }
+
+  /** The number of readings to collect before writing them in one transaction. */
+  public ScalarSensorDumpImporter setTransactionSize(int transactionSize) {
+    this.transactionSize = transactionSize;
+    return this;
+  }
+
+  public ScalarSensorDumpImporter setProgressListener(ProgressListener progressListener) {
+    this.progressListener = progressListener;
+    return this;
+  }
+
+  public ScalarSensorDumpImporter setClock(Clock clock) {
+    this.clock = clock;
+    return this;
+  }
+
+  /**
+   * Imports every dump in {@code input}, mapping their trial ids through {@code idMap}, and returns
+   * once all of the readings have been written. Must not be called on the write thread.
+   *
+   * @throws IOException if the proto can't be parsed or the readings can't be stored. Readings
+   *     parsed before the error are still stored.
+   */
+  public Stats importData(InputStream input, Map<String, String> idMap) throws IOException {
+    Preconditions.checkState(!used, "Each importer can only be used once");
+    used = true;
+    long startTime = clock.getNow();
+    long dumpsRead = 0;
+    SensorTask sensor = null;
+    try {
+      CodedInputStream codedInput = CodedInputStream.newInstance(input);
+      int fieldTag;
+      while ((fieldTag = codedInput.readTag()) != 0) {
+        if (fieldTag != ScalarSensorDumpReader.SENSORS_FIELD_TAG) {
+          codedInput.skipField(fieldTag);
+          continue;
+        }
+        ScalarSensorDataDump dump =
+            codedInput.readMessage(
+                ScalarSensorDataDump.parser(), ExtensionRegistryLite.getEmptyRegistry());
+        // Each dump is a message of its own, so only count each one against the size limit.
+        bytesRead += codedInput.getTotalBytesRead();
+        codedInput.resetSizeCounter();
+        dumpsRead++;
+
+        String trialId = idMap.get(dump.getTrialId());
+        if (sensor == null || !sensor.isFor(trialId, dump.getTag())) {
+          if (sensor != null) {
+            sensor.finish();
+          }
+          sensor = new SensorTask(trialId, dump.getTag());
+        }
+        sensor.add(dump);
+      }
+    } finally {
+      if (sensor != null) {
+        sensor.finish();
+      }
+      synchronized (this) {
+        finishing = true;
+        postWriteLocked();
+      }
+      // Every permit is back once everything parsed has been written.
+      inFlight.acquireUninterruptibly(MAX_DUMPS_IN_FLIGHT);
+    }
+    if (failure != null) {
+      throw new IOException("Failed to store imported sensor data", failure);
+    }
+    return new Stats(
+        dumpsRead, bytesRead, readingsWritten, transactions, clock.getNow() - startTime);
+  }
+
+  private void submit(ReadingBuffer buffer) {
+    synchronized (this) {
+      pending.add(buffer);
+      pendingReadings += buffer.size();
+      // Also write once half of the permits are waiting here, so that parsing can't stall waiting
+      // for a transaction to fill up.
+      if (finishing
+          || pendingReadings >= transactionSize
+          || pending.size() >= MAX_DUMPS_IN_FLIGHT / 2) {
+        postWriteLocked();
+      }
+    }
+  }
+
+  private void postWriteLocked() {
+    if (!writePosted && !pending.isEmpty()) {
+      writePosted = true;
+      writeThread.execute(writeTask);
+    }
+  }
+
+  private void write() {
+    ReadingBuffer[] buffers;
+    synchronized (this) {
+      writePosted = false;
+      buffers = pending.toArray(new ReadingBuffer[pending.size()]);
+      pending.clear();
+      pendingReadings = 0;
+    }
+    transaction.set(buffers);
+    try {
+      // After a failure, the rest of the import is still drained so that parsing can finish.
+      if (failure == null && transaction.size() > 0) {
+        database.addScalarReadingBatch(transaction);
+        readingsWritten += transaction.size();
+        transactions++;
+      }
+      if (progressListener != null) {
+        progressListener.onProgress(readingsWritten, bytesRead);
+      }
+    } catch (Exception e) {
+      if (failure == null) {
+        failure = e;
+      }
+    } finally {
+      transaction.set(null);
+      for (ReadingBuffer buffer : buffers) {
+        buffer.clear();
+        spareBuffers.add(buffer);
+      }
+      inFlight.release(buffers.length);
+    }
+  }
+
+  private ReadingBuffer obtainBuffer(String trialId, String sensorId) {
+    ReadingBuffer buffer = spareBuffers.poll();
+    if (buffer == null) {
+      buffer = new ReadingBuffer();
+    }
+    buffer.setSensor(trialId, sensorId);
+    return buffer;
+  }
+
+  /**
+   * Zooms a run of dumps of one sensor. Dumps are queued by the parsing thread, and zoomed in order
+   * by at most one zoom thread at a time.
+   */
+  private class SensorTask implements Runnable {
+    private final String trialId;
+    private final String tag;
+    private final Queue<ScalarSensorDataDump> dumps = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean scheduled = new AtomicBoolean(false);
+    // Only touched by the running task; the queue and flag publish them to the next run.
+    private final ZoomDownsampler downsampler;
+    private long lastTimestamp = NO_DATA_RECORDED;
+
+    SensorTask(String trialId, String tag) {
+      this.trialId = trialId;
+      this.tag = tag;
+      downsampler =
+          new ZoomDownsampler(
+              tag, ScalarSensor.DEFAULT_ZOOM_LEVEL_BETWEEN_TIERS, ZoomDownsampler.Kernel.MIN_MAX);
+      downsampler.setTrialId(trialId);
+    }
+
+    boolean isFor(String trialId, String tag) {
+      return Objects.equals(this.trialId, trialId) && this.tag.equals(tag);
+    }
+
+    void add(ScalarSensorDataDump dump) {
+      inFlight.acquireUninterruptibly();
+      dumps.add(dump);
+      schedule();
+    }
+
+    void finish() {
+      add(END_OF_SENSOR);
+    }
+
+    private void schedule() {
+      if (scheduled.compareAndSet(false, true)) {
+        zoomThreads.execute(this);
+      }
+    }
+
+    @Override
+    public void run() {
+      ScalarSensorDataDump dump;
+      while ((dump = dumps.poll()) != null) {
+        submit(zoom(dump));
+      }
+      scheduled.set(false);
+      // A dump may have been queued after the last poll, but before the flag was cleared.
+      if (!dumps.isEmpty()) {
+        schedule();
+      }
+    }
+
+    private ReadingBuffer zoom(ScalarSensorDataDump dump) {
+      ReadingBuffer buffer = obtainBuffer(trialId, tag);
+      if (dump == END_OF_SENSOR) {
+        downsampler.flushAllTiers(buffer);
+        return buffer;
+      }
+      for (int i = 0; i < dump.getRowsCount(); i++) {
+        ScalarSensorDataRow row = dump.getRows(i);
+        long timestamp = row.getTimestampMillis();
+        // Like ScalarSensorDumpReader, only keep readings which move forward in time.
+        if (timestamp > lastTimestamp) {
+          downsampler.addData(timestamp, row.getValue(), buffer);
+          lastTimestamp = timestamp;
+        }
+      }
+      return buffer;
+    }
+  }
+
+  /**
+   * The readings produced from one dump, which all belong to the same sensor, kept in primitive
+   * arrays which are reused for later dumps.
+   */
+  private static class ReadingBuffer implements RecordingDataController {
+    private String trialId;
+    private String sensorId;
+    private int[] tiers = new int[1024];
+    private long[] timestamps = new long[1024];
+    private double[] values = new double[1024];
+    private int size = 0;
+
+    void setSensor(String trialId, String sensorId) {
+      this.trialId = trialId;
+      this.sensorId = sensorId;
+    }
+
+    int size() {
+      return size;
+    }
+
+    void clear() {
+      size = 0;
+      trialId = null;
+      sensorId = null;
+    }
+
+    @Override
+    public void addScalarReading(
+        String trialId, String sensorId, int resolutionTier, long timestampMillis, double value) {
+      if (size == tiers.length) {
+        int capacity = size * 2;
+        tiers = Arrays.copyOf(tiers, capacity);
+        timestamps = Arrays.copyOf(timestamps, capacity);
+        values = Arrays.copyOf(values, capacity);
+      }
+      tiers[size] = resolutionTier;
+      timestamps[size] = timestampMillis;
+      values[size] = value;
+      size++;
+    }
+
+    @Override
+    public void addScalarReadings(List<BatchInsertScalarReading> readings) {
+      for (BatchInsertScalarReading reading : readings) {
+        addScalarReading(
+            reading.trialId,
+            reading.sensorId,
+            reading.resolutionTier,
+            reading.timestampMillis,
+            reading.value);
+      }
+    }
+
+    @Override
+    public void addScalarReadingBatch(ScalarReadingBatch batch) {
+      for (int i = 0; i < batch.size(); i++) {
+        addScalarReading(
+            batch.getTrialId(i),
+            batch.getSensorId(i),
+            batch.getResolutionTier(i),
+            batch.getTimestampMillis(i),
+            batch.getValue(i));
+      }
+    }
+
+    @Override
+    public void setDataErrorListenerForSensor(String sensorId, FailureListener listener) {}
+
+    @Override
+    public void clearDataErrorListenerForSensor(String sensorId) {}
+  }
+
+  /** Presents the readings of several buffers as one batch, without copying. */
+  private static class TransactionBatch implements ScalarReadingBatch {
+    private ReadingBuffer[] buffers;
+    private int size;
+    // The buffer that the last index looked up was in, and the index of its first reading.
+    // Databases read batches in order, so this makes each lookup constant time.
+    private int bufferIndex;
+    private int bufferStart;
+
+    void set(ReadingBuffer[] buffers) {
+      this.buffers = buffers;
+      size = 0;
+      if (buffers != null) {
+        for (ReadingBuffer buffer : buffers) {
+          size += buffer.size();
+        }
+      }
+      bufferIndex = 0;
+      bufferStart = 0;
+    }
+
+    private ReadingBuffer locate(int index) {
+      if (index < bufferStart) {
+        bufferIndex = 0;
+        bufferStart = 0;
+      }
+      while (index >= bufferStart + buffers[bufferIndex].size()) {
+        bufferStart += buffers[bufferIndex].size();
+        bufferIndex++;
+      }
+      return buffers[bufferIndex];
+    }
+
+    @Override
+    public int size() {
+      return size;
+    }
+
+    @Override
+    public String getTrialId(int index) {
+      return locate(index).trialId;
+    }
+
+    @Override
+    public String getSensorId(int index) {
+      return locate(index).sensorId;
+    }
+
+    @Override
+    public int getResolutionTier(int index) {
+      ReadingBuffer buffer = locate(index);
+      return buffer.tiers[index - bufferStart];
+    }
+
+    @Override
+    public long getTimestampMillis(int index) {
+      ReadingBuffer buffer = locate(index);
+      return buffer.timestamps[index - bufferStart];
+    }
+
+    @Override
+    public double getValue(int index) {
+      ReadingBuffer buffer = locate(index);
+      return buffer.values[index - bufferStart];
+    }
+  }
+}
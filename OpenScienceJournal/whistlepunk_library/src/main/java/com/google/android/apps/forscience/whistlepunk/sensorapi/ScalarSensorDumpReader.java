@@ -22,9 +22,14 @@ import com.google.android.apps.forscience.whistlepunk.RecordingDataController;
 import com.google.android.apps.forscience.whistlepunk.metadata.GoosciScalarSensorData;
 import com.google.android.apps.forscience.whistlepunk.metadata.GoosciScalarSensorData.ScalarSensorDataDump;
 import com.google.android.apps.forscience.whistlepunk.metadata.GoosciScalarSensorData.ScalarSensorDataRow;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.ExtensionRegistryLite;
+import com.google.protobuf.WireFormat;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 
 /*
  * Reads protos that have been exported from another experiment and populates the database with a
@@ -34,6 +39,10 @@ import java.util.Map;
 public class ScalarSensorDumpReader {
   private static final int NO_DATA_RECORDED = -1;
   private static final String TAG = "ScalarSensorDumpReader";
+  // The tag which starts each entry of ScalarSensorData's sensors field.
+  static final int SENSORS_FIELD_TAG =
+      GoosciScalarSensorData.ScalarSensorData.SENSORS_FIELD_NUMBER << 3
+          | WireFormat.WIRETYPE_LENGTH_DELIMITED;
 
   private final RecordingDataController dataController;
   private long lastDataTimestampMillis = NO_DATA_RECORDED;
@@ -46,13 +55,12 @@ public class ScalarSensorDumpReader {
 
   public void readData(
       GoosciScalarSensorData.ScalarSensorData scalarSensorData, Map<String, String> idMap) {
-    int zoomBufferSize = zoomLevelBetweenTiers * 2;
     for (ScalarSensorDataDump sensor : scalarSensorData.getSensorsList()) {
-      ZoomRecorder zoomRecorder = new ZoomRecorder(sensor.getTag(), zoomBufferSize, 1);
+      ZoomDownsampler downsampler = newDownsampler(sensor.getTag());
       String trialId = idMap.get(sensor.getTrialId());
-      zoomRecorder.setTrialId(trialId);
+      downsampler.setTrialId(trialId);
       try (BatchDataController batchController = new BatchDataController(dataController)) {
-        addAllRows(sensor, zoomRecorder, trialId, batchController);
+        addAllRows(sensor, downsampler, trialId, batchController);
         batchController.flushScalarReadings();
       } catch (IOException ioe) {
         Log.e(TAG, "Exception while flushing BatchDataController", ioe);
@@ -61,14 +69,64 @@ public class ScalarSensorDumpReader {
     }
   }
 
+  /**
+   * Reads a {@link GoosciScalarSensorData.ScalarSensorData} proto from {@code input} one {@link
+   * ScalarSensorDataDump} at a time, so that only one dump is in memory at once. Consecutive dumps
+   * with the same trial id and tag, as written by {@link
+   * com.google.android.apps.forscience.whistlepunk.sensordb.ScalarSensorDumpWriter}, are read as
+   * one sensor.
+   */
+  public void readData(InputStream input, Map<String, String> idMap) throws IOException {
+    CodedInputStream codedInput = CodedInputStream.newInstance(input);
+    String trialId = null;
+    String tag = null;
+    ZoomDownsampler downsampler = null;
+    BatchDataController batchController = new BatchDataController(dataController);
+    try {
+      int fieldTag;
+      while ((fieldTag = codedInput.readTag()) != 0) {
+        if (fieldTag != SENSORS_FIELD_TAG) {
+          codedInput.skipField(fieldTag);
+          continue;
+        }
+        ScalarSensorDataDump sensor =
+            codedInput.readMessage(
+                ScalarSensorDataDump.parser(), ExtensionRegistryLite.getEmptyRegistry());
+        // The size limit is there to stop a corrupt message from using up memory, and each dump is
+        // a message of its own, so only count each one against it.
+        codedInput.resetSizeCounter();
+
+        String dumpTrialId = idMap.get(sensor.getTrialId());
+        if (downsampler == null
+            || !Objects.equals(dumpTrialId, trialId)
+            || !sensor.getTag().equals(tag)) {
+          if (downsampler != null) {
+            downsampler.flushAllTiers(batchController);
+          }
+          trialId = dumpTrialId;
+          tag = sensor.getTag();
+          downsampler = newDownsampler(tag);
+          downsampler.setTrialId(trialId);
+          lastDataTimestampMillis = NO_DATA_RECORDED;
+        }
+        addRows(sensor, downsampler, trialId, batchController);
+      }
+      if (downsampler != null) {
+        downsampler.flushAllTiers(batchController);
+      }
+    } finally {
+      batchController.close();
+      lastDataTimestampMillis = NO_DATA_RECORDED;
+    }
+  }
+
   public void readData(List<ScalarSensorDataDump> scalarSensorData) {
-    int zoomBufferSize = zoomLevelBetweenTiers * 2;
     for (ScalarSensorDataDump sensor : scalarSensorData) {
-      ZoomRecorder zoomRecorder = new ZoomRecorder(sensor.getTag(), zoomBufferSize, 1);
+      ZoomDownsampler downsampler = newDownsampler(sensor.getTag());
       String trialId = sensor.getTrialId();
-      zoomRecorder.setTrialId(trialId);
+      downsampler.setTrialId(trialId);
       try (BatchDataController batchController = new BatchDataController(dataController)) {
-        addAllRows(sensor, zoomRecorder, trialId, batchController);
+        addAllRows(sensor, downsampler, trialId, batchController);
         batchController.flushScalarReadings();
       } catch (IOException ioe) {
         Log.e(TAG, "Exception while flushing BatchDataController", ioe);
@@ -78,13 +136,11 @@ public class ScalarSensorDumpReader {
   }
 
   public void readData(ScalarSensorDataDump sensor) {
-    int zoomBufferSize = zoomLevelBetweenTiers * 2;
-
-    ZoomRecorder zoomRecorder = new ZoomRecorder(sensor.getTag(), zoomBufferSize, 1);
+    ZoomDownsampler downsampler = newDownsampler(sensor.getTag());
     String trialId = sensor.getTrialId();
-    zoomRecorder.setTrialId(trialId);
+    downsampler.setTrialId(trialId);
     try (BatchDataController batchController = new BatchDataController(dataController)) {
-      addAllRows(sensor, zoomRecorder, trialId, batchController);
+      addAllRows(sensor, downsampler, trialId, batchController);
       batchController.flushScalarReadings();
     } catch (IOException ioe) {
       Log.e(TAG, "Exception while flushing BatchDataController", ioe);
@@ -92,26 +148,38 @@ public class ScalarSensorDumpReader {
     lastDataTimestampMillis = NO_DATA_RECORDED;
   }
 
+  private ZoomDownsampler newDownsampler(String tag) {
+    return new ZoomDownsampler(tag, zoomLevelBetweenTiers, ZoomDownsampler.Kernel.MIN_MAX);
+  }
+
   private void addAllRows(
       ScalarSensorDataDump sensor,
-      ZoomRecorder zoomRecorder,
+      ZoomDownsampler downsampler,
+      String trialId,
+      RecordingDataController batchController) {
+    addRows(sensor, downsampler, trialId, batchController);
+    downsampler.flushAllTiers(batchController);
+  }
+
+  private void addRows(
+      ScalarSensorDataDump sensor,
+      ZoomDownsampler downsampler,
       String trialId,
       RecordingDataController batchController) {
     for (ScalarSensorDataRow row : sensor.getRowsList()) {
       addData(
           batchController,
-          zoomRecorder,
+          downsampler,
           trialId,
           sensor.getTag(),
           row.getTimestampMillis(),
           row.getValue());
     }
-    zoomRecorder.flushAllTiers(batchController);
   }
 
   private boolean addData(
       RecordingDataController dataController,
-      ZoomRecorder zoomRecorder,
+      ZoomDownsampler downsampler,
       String trialId,
       String tag,
       final long timestampMillis,
@@ -119,7 +187,7 @@ public class ScalarSensorDumpReader {
     if (!maintainsTimeSeries(timestampMillis)) {
       return false;
     }
-    recordData(dataController, zoomRecorder, trialId, tag, timestampMillis, value);
+    recordData(dataController, downsampler, trialId, tag, timestampMillis, value);
     lastDataTimestampMillis = timestampMillis;
     return true;
   }
@@ -133,12 +201,11 @@ public class ScalarSensorDumpReader {
 
   private void recordData(
       RecordingDataController batchController,
-      ZoomRecorder zoomRecorder,
+      ZoomDownsampler downsampler,
       String trialId,
       String tag,
       long timestampMillis,
       double value) {
-    zoomRecorder.addData(timestampMillis, value, batchController);
-    batchController.addScalarReading(trialId, tag, 0, timestampMillis, value);
+    downsampler.addData(timestampMillis, value, batchController);
   }
 }
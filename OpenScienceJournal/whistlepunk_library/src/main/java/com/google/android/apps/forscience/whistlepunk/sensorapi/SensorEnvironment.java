@@ -22,6 +22,7 @@ import com.google.android.apps.forscience.whistlepunk.RecordingDataController;
 import com.google.android.apps.forscience.whistlepunk.SensorHistoryStorage;
 import com.google.android.apps.forscience.whistlepunk.accounts.AppAccount;
 import com.google.android.apps.forscience.whistlepunk.audio.AudioSource;
+import com.google.android.apps.forscience.whistlepunk.sensors.HardwareSensorHub;
 import io.reactivex.Single;
 
 /** Encapsulates services that sensors need to do their jobs */
@@ -41,5 +42,8 @@ public interface SensorEnvironment {
   /** @return the common audio source that can be used by multiple sensors simultaneously. */
   AudioSource getAudioSource();
 
+  /** @return the common hub that shares Android hardware sensors between our sensors. */
+  HardwareSensorHub getHardwareSensorHub();
+
   SensorHistoryStorage getSensorHistoryStorage();
 }
@@ -0,0 +1,446 @@
+/*
+ *  Copyright 2019 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.sensorapi;
+
+import com.google.android.apps.forscience.whistlepunk.RecordingDataController;
+import com.google.android.apps.forscience.whistlepunk.sensordb.ScalarReadingBatch;
+import java.util.Arrays;
+
+/**
+ * Stores data at multiple granularities. Each reading is stored at tier 0, and every run of
+ * zoomLevel * 2 data points in tier X is summarized by 2 data points in tier X+1, so each tier has
+ * 1 / zoomLevel as many data points as the tier below it.
+ *
+ * <p>How a run is summarized is chosen by a {@link Kernel}. The state of every tier is kept in
+ * primitive arrays allocated up front, so adding a reading allocates nothing. The reading and any
+ * summary points it completes, at whichever tiers, are handed to the data controller together as a
+ * single batch.
+ */
+public class ZoomDownsampler {
+  /**
+   * Statistics key for the number of resolution tiers that have stored data in the Database for the
+   * current run.
+   */
+  public static final String STATS_KEY_TIER_COUNT = "stats_tier_count";
+
+  /**
+   * Statistics key for the ratio of data points between resolution tiers. For example, if this is
+   * 10, then for every 10 data points in resolution tier N, there's 1 in tier N+1.
+   */
+  public static final String STATS_KEY_ZOOM_LEVEL_BETWEEN_TIERS = "stats_zoom_level";
+
+  /** How a run of data points is summarized in the next tier up. */
+  public enum Kernel {
+    /**
+     * The minimum and maximum of the run. This seems to capture the general shape of the graph
+     * better than, for example, synthesizing an "average" data point for the run. A run whose
+     * readings are all equal is summarized by its first and last, so every full run still gives two
+     * points.
+     */
+    MIN_MAX,
+
+    /**
+     * One point from each half of the run, picked by Largest-Triangle-Three-Buckets: the point
+     * making the largest triangle with the point picked before it and the average of the half after
+     * it. Keeps the visual shape of smooth signals, while only ever returning real readings.
+     */
+    LTTB,
+
+    /**
+     * The mean minus and plus the standard deviation of the run, at its first and last timestamps.
+     * Since each pair has the run's mean and variance, the tiers above see the same mean and
+     * variance as the readings they summarize. Suits noisy signals where extremes are mostly noise.
+     */
+    MEAN_STDDEV,
+
+    /** The first and last points of the run; suits counters and other step-like signals. */
+    FIRST_LAST
+  }
+
+  // With the default zoom level of 20, this is far more than any recording will reach.
+  private static final int MAX_TIER = 16;
+
+  // The most points that a single reading can produce: itself, and two at every tier above.
+  private static final int OUTPUT_CAPACITY = 2 * MAX_TIER + 1;
+
+  private final String sensorId;
+  private final int zoomLevel;
+  private final int runLength;
+  private final Kernel kernel;
+  private final Output output = new Output();
+
+  // State of the run being summarized for each tier, indexed by the tier the summary is written to.
+  private final int[] runCount = new int[MAX_TIER + 1];
+  private final long[] firstTimestamp = new long[MAX_TIER + 1];
+  private final double[] firstValue = new double[MAX_TIER + 1];
+  private final long[] lastTimestamp = new long[MAX_TIER + 1];
+  private final double[] lastValue = new double[MAX_TIER + 1];
+  private final long[] minTimestamp = new long[MAX_TIER + 1];
+  private final double[] minValue = new double[MAX_TIER + 1];
+  private final long[] maxTimestamp = new long[MAX_TIER + 1];
+  private final double[] maxValue = new double[MAX_TIER + 1];
+  private final double[] mean = new double[MAX_TIER + 1];
+  private final double[] sumOfSquares = new double[MAX_TIER + 1];
+
+  // LTTB can't pick a point from a half run until the next half is in, so for each tier it keeps
+  // the half waiting for a pick and the half whose average it is waiting for; only for LTTB.
+  private final long[] lttbTimestamps;
+  private final double[] lttbValues;
+  private final int[] waitingHalf = new int[MAX_TIER + 1];
+  private final int[] waitingCount = new int[MAX_TIER + 1];
+  private final boolean[] hasPicked = new boolean[MAX_TIER + 1];
+  private final long[] pickedTimestamp = new long[MAX_TIER + 1];
+  private final double[] pickedValue = new double[MAX_TIER + 1];
+  private final double[] meanTimeOffset = new double[MAX_TIER + 1];
+
+  // The highest tier that has been fed data points, and the highest that has been written to.
+  private int topFedTier = 0;
+  private int topWrittenTier = 0;
+
+  /**
+   * @param zoomLevel the ratio of data points between tiers; each tier has 1 / zoomLevel as many
+   *     data points as the next tier down
+   */
+  public ZoomDownsampler(String sensorId, int zoomLevel, Kernel kernel) {
+    this.sensorId = sensorId;
+    this.zoomLevel = zoomLevel;
+    this.kernel = kernel;
+    // We need twice the zoom level, because each run is summarized with two data points.
+    runLength = zoomLevel * 2;
+    if (kernel == Kernel.LTTB) {
+      lttbTimestamps = new long[(MAX_TIER + 1) * runLength];
+      lttbValues = new double[(MAX_TIER + 1) * runLength];
+    } else {
+      lttbTimestamps = null;
+      lttbValues = null;
+    }
+    clear();
+  }
+
+  public Kernel getKernel() {
+    return kernel;
+  }
+
+  public void setTrialId(String trialId) {
+    output.trialId = trialId;
+  }
+
+  public void clearTrialId() {
+    output.trialId = null;
+  }
+
+  /** Drops any partly summarized runs, to start a new recording. */
+  public void clear() {
+    for (int tier = 1; tier <= MAX_TIER; tier++) {
+      resetRun(tier);
+      waitingHalf[tier] = 0;
+      waitingCount[tier] = 0;
+      hasPicked[tier] = false;
+    }
+    topFedTier = 0;
+    topWrittenTier = 0;
+    output.size = 0;
+  }
+
+  /** Stores a reading at tier 0, and any summary points that it completes at higher tiers. */
+  public void addData(long timestampMillis, double value, RecordingDataController dc) {
+    output.add(0, timestampMillis, value);
+    feed(1, timestampMillis, value);
+    output.writeTo(dc);
+  }
+
+  /**
+   * Returns the number of tiers written to so far, including tier 0. Summaries of partial runs
+   * written by {@link #flushAllTiers} are not counted.
+   */
+  public int countTiers() {
+    return topWrittenTier + 1;
+  }
+
+  /**
+   * Summarizes the partial runs of every tier that has been fed data, so that the end of the
+   * recording is represented, and starts over.
+   */
+  public void flushAllTiers(RecordingDataController dc) {
+    int topTier = topFedTier;
+    for (int tier = 1; tier <= topTier; tier++) {
+      flushTier(tier);
+    }
+    output.writeTo(dc);
+    clear();
+  }
+
+  private void feed(int tier, long timestamp, double value) {
+    if (tier > MAX_TIER) {
+      return;
+    }
+    topFedTier = Math.max(topFedTier, tier);
+    if (kernel == Kernel.LTTB) {
+      feedLttb(tier, timestamp, value);
+      return;
+    }
+    int count = ++runCount[tier];
+    if (count == 1) {
+      firstTimestamp[tier] = minTimestamp[tier] = maxTimestamp[tier] = timestamp;
+      firstValue[tier] = minValue[tier] = maxValue[tier] = value;
+      mean[tier] = value;
+      sumOfSquares[tier] = 0;
+    } else {
+      if (value < minValue[tier]) {
+        minValue[tier] = value;
+        minTimestamp[tier] = timestamp;
+      }
+      if (value > maxValue[tier]) {
+        maxValue[tier] = value;
+        maxTimestamp[tier] = timestamp;
+      }
+      // Welford's method, which doesn't lose precision to large sums.
+      double delta = value - mean[tier];
+      mean[tier] += delta / count;
+      sumOfSquares[tier] += delta * (value - mean[tier]);
+    }
+    lastTimestamp[tier] = timestamp;
+    lastValue[tier] = value;
+    if (count == runLength) {
+      summarizeRun(tier);
+    }
+  }
+
+  private void flushTier(int tier) {
+    if (kernel == Kernel.LTTB) {
+      flushLttb(tier);
+    } else if (runCount[tier] > 0) {
+      summarizeRun(tier);
+    }
+  }
+
+  private void summarizeRun(int tier) {
+    switch (kernel) {
+      case MIN_MAX:
+        if (minValue[tier] == maxValue[tier]) {
+          // The readings are all equal, so the min and max are both the first reading.
+          emitPair(
+              tier, firstTimestamp[tier], firstValue[tier], lastTimestamp[tier], lastValue[tier]);
+        } else if (minTimestamp[tier] <= maxTimestamp[tier]) {
+          emitPair(tier, minTimestamp[tier], minValue[tier], maxTimestamp[tier], maxValue[tier]);
+        } else {
+          emitPair(tier, maxTimestamp[tier], maxValue[tier], minTimestamp[tier], minValue[tier]);
+        }
+        break;
+      case MEAN_STDDEV:
+        double stddev = Math.sqrt(sumOfSquares[tier] / runCount[tier]);
+        emitPair(
+            tier,
+            firstTimestamp[tier],
+            mean[tier] - stddev,
+            lastTimestamp[tier],
+            mean[tier] + stddev);
+        break;
+      case FIRST_LAST:
+        emitPair(
+            tier, firstTimestamp[tier], firstValue[tier], lastTimestamp[tier], lastValue[tier]);
+        break;
+      default:
+        throw new IllegalStateException("Not a run-based kernel: " + kernel);
+    }
+    resetRun(tier);
+  }
+
+  private void resetRun(int tier) {
+    runCount[tier] = 0;
+  }
+
+  /**
+   * Emits two points in time order, or one if they are the same reading, which only happens for the
+   * partial run of a single reading that ends a recording.
+   */
+  private void emitPair(int tier, long timestamp1, double value1, long timestamp2, double value2) {
+    if (timestamp1 == timestamp2) {
+      emit(tier, timestamp1, value1);
+      return;
+    }
+    emit(tier, timestamp1, value1);
+    emit(tier, timestamp2, value2);
+  }
+
+  private void emit(int tier, long timestamp, double value) {
+    output.add(tier, timestamp, value);
+    topWrittenTier = Math.max(topWrittenTier, tier);
+    feed(tier + 1, timestamp, value);
+  }
+
+  private void feedLttb(int tier, long timestamp, double value) {
+    int fillingHalf = 1 - waitingHalf[tier];
+    int count = runCount[tier];
+    int slot = halfStart(tier, fillingHalf) + count;
+    lttbTimestamps[slot] = timestamp;
+    lttbValues[slot] = value;
+    if (count == 0) {
+      firstTimestamp[tier] = timestamp;
+      meanTimeOffset[tier] = 0;
+      mean[tier] = value;
+    } else {
+      // The mean time is kept relative to the half's first point, so that it stays precise.
+      meanTimeOffset[tier] +=
+          (timestamp - firstTimestamp[tier] - meanTimeOffset[tier]) / (count + 1);
+      mean[tier] += (value - mean[tier]) / (count + 1);
+    }
+    runCount[tier] = ++count;
+    if (count == zoomLevel) {
+      if (waitingCount[tier] > 0) {
+        pickLttb(tier, firstTimestamp[tier] + meanTimeOffset[tier], mean[tier]);
+      }
+      // The filled half now waits for the average of the next one.
+      waitingHalf[tier] = fillingHalf;
+      waitingCount[tier] = count;
+      runCount[tier] = 0;
+    }
+  }
+
+  private void flushLttb(int tier) {
+    int fillingCount = runCount[tier];
+    int waitingCount = this.waitingCount[tier];
+    // Like LTTB, the last bucket is represented by its last point.
+    int lastBucket;
+    int lastBucketCount;
+    if (waitingCount > 0 && fillingCount > 0) {
+      pickLttb(tier, firstTimestamp[tier] + meanTimeOffset[tier], mean[tier]);
+      lastBucket = halfStart(tier, 1 - waitingHalf[tier]);
+      lastBucketCount = fillingCount;
+    } else if (waitingCount > 0) {
+      lastBucket = halfStart(tier, waitingHalf[tier]);
+      lastBucketCount = waitingCount;
+    } else if (fillingCount > 0) {
+      lastBucket = halfStart(tier, 1 - waitingHalf[tier]);
+      lastBucketCount = fillingCount;
+    } else {
+      return;
+    }
+    if (!hasPicked[tier]) {
+      emitPicked(tier, lastBucket);
+    }
+    int lastSlot = lastBucket + lastBucketCount - 1;
+    if (lttbTimestamps[lastSlot] != pickedTimestamp[tier]) {
+      emitPicked(tier, lastSlot);
+    }
+    runCount[tier] = 0;
+    this.waitingCount[tier] = 0;
+  }
+
+  /**
+   * Picks the point of the waiting half which makes the largest triangle with the last picked point
+   * and {@code (nextTimestamp, nextValue)}.
+   */
+  private void pickLttb(int tier, double nextTimestamp, double nextValue) {
+    int start = halfStart(tier, waitingHalf[tier]);
+    int count = waitingCount[tier];
+    int best = start;
+    if (hasPicked[tier]) {
+      long originTimestamp = pickedTimestamp[tier];
+      double originValue = pickedValue[tier];
+      double nextDx = nextTimestamp - originTimestamp;
+      double nextDy = nextValue - originValue;
+      double bestArea = -1;
+      for (int slot = start; slot < start + count; slot++) {
+        double area =
+            Math.abs(
+                nextDx * (lttbValues[slot] - originValue)
+                    - (lttbTimestamps[slot] - originTimestamp) * nextDy);
+        if (area > bestArea) {
+          bestArea = area;
+          best = slot;
+        }
+      }
+    }
+    // Otherwise, like LTTB, start with the very first point.
+    emitPicked(tier, best);
+    waitingCount[tier] = 0;
+  }
+
+  private void emitPicked(int tier, int slot) {
+    long timestamp = lttbTimestamps[slot];
+    double value = lttbValues[slot];
+    hasPicked[tier] = true;
+    pickedTimestamp[tier] = timestamp;
+    pickedValue[tier] = value;
+    emit(tier, timestamp, value);
+  }
+
+  private int halfStart(int tier, int half) {
+    return tier * runLength + half * zoomLevel;
+  }
+
+  /** The points produced by one call, handed to the data controller as one batch. */
+  private class Output implements ScalarReadingBatch {
+    private String trialId;
+    private int[] tiers = new int[OUTPUT_CAPACITY];
+    private long[] timestamps = new long[OUTPUT_CAPACITY];
+    private double[] values = new double[OUTPUT_CAPACITY];
+    private int size = 0;
+
+    void add(int tier, long timestamp, double value) {
+      if (size == tiers.length) {
+        // Only flushing all tiers at once can produce this many.
+        int capacity = size * 2;
+        tiers = Arrays.copyOf(tiers, capacity);
+        timestamps = Arrays.copyOf(timestamps, capacity);
+        values = Arrays.copyOf(values, capacity);
+      }
+      tiers[size] = tier;
+      timestamps[size] = timestamp;
+      values[size] = value;
+      size++;
+    }
+
+    void writeTo(RecordingDataController dc) {
+      if (size > 0) {
+        dc.addScalarReadingBatch(this);
+        size = 0;
+      }
+    }
+
+    @Override
+    public int size() {
+      return size;
+    }
+
+    @Override
+    public String getTrialId(int index) {
+      return trialId;
+    }
+
+    @Override
+    public String getSensorId(int index) {
+      return sensorId;
+    }
+
+    @Override
+    public int getResolutionTier(int index) {
+      return tiers[index];
+    }
+
+    @Override
+    public long getTimestampMillis(int index) {
+      return timestamps[index];
+    }
+
+    @Override
+    public double getValue(int index) {
+      return values[index];
+    }
+  }
+}
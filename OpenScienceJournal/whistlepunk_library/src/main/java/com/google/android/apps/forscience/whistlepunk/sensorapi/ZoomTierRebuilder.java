@@ -0,0 +1,241 @@
+/*
+ *  Copyright 2019 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.sensorapi;
+
+import androidx.annotation.VisibleForTesting;
+import com.google.android.apps.forscience.javalib.FailureListener;
+import com.google.android.apps.forscience.whistlepunk.BatchInsertScalarReading;
+import com.google.android.apps.forscience.whistlepunk.RecordingDataController;
+import com.google.android.apps.forscience.whistlepunk.StatsAccumulator;
+import com.google.android.apps.forscience.whistlepunk.filemetadata.TrialStats;
+import com.google.android.apps.forscience.whistlepunk.metadata.GoosciTrial;
+import com.google.android.apps.forscience.whistlepunk.sensordb.ScalarReadingBatch;
+import com.google.android.apps.forscience.whistlepunk.sensordb.ScalarReadingCursor;
+import com.google.android.apps.forscience.whistlepunk.sensordb.SensorDatabase;
+import java.util.List;
+
+/**
+ * Rebuilds the zoom tiers of one sensor in a trial from its tier 0 readings, for trials recorded or
+ * imported without them.
+ *
+ * <p>Tier 0 is read a page at a time and summarized with a {@link ZoomDownsampler}, and the
+ * summaries are written in batches of at most {@link #WRITE_BATCH_SIZE}, so memory use doesn't grow
+ * with the length of the trial. Work is done in steps of at most {@link #setStepSize} readings, so
+ * that a long trial doesn't hold up the database thread.
+ *
+ * <p>Any zoom tiers already stored for the sensor are deleted by the first step, so a rebuild which
+ * was interrupted can be started over. Each rebuilder can only be used once.
+ */
+public class ZoomTierRebuilder {
+  private static final int PAGE_SIZE = 1000;
+  private static final int DEFAULT_STEP_SIZE = 20000;
+  @VisibleForTesting static final int WRITE_BATCH_SIZE = 1024;
+
+  private final String trialId;
+  private final String sensorId;
+  private final long firstTimestamp;
+  private final long lastTimestamp;
+  private final int zoomLevel;
+  private final ZoomDownsampler downsampler;
+  private final StatsAccumulator statsAccumulator;
+  private final TierWriter writer = new TierWriter();
+  private int stepSize = DEFAULT_STEP_SIZE;
+  private ScalarReadingCursor cursor = null;
+  private TrialStats trialStats = null;
+
+  public ZoomTierRebuilder(
+      String trialId, String sensorId, long firstTimestamp, long lastTimestamp) {
+    this.trialId = trialId;
+    this.sensorId = sensorId;
+    this.firstTimestamp = firstTimestamp;
+    this.lastTimestamp = lastTimestamp;
+    zoomLevel = ScalarSensor.DEFAULT_ZOOM_LEVEL_BETWEEN_TIERS;
+    downsampler = new ZoomDownsampler(sensorId, zoomLevel, ZoomDownsampler.Kernel.MIN_MAX);
+    downsampler.setTrialId(trialId);
+    statsAccumulator = new StatsAccumulator(sensorId);
+  }
+
+  @VisibleForTesting
+  ZoomTierRebuilder setStepSize(int stepSize) {
+    this.stepSize = stepSize;
+    return this;
+  }
+
+  public String getTrialId() {
+    return trialId;
+  }
+
+  public String getSensorId() {
+    return sensorId;
+  }
+
+  /**
+   * Reads and summarizes up to the step size of tier 0 readings, and writes their summaries. Must
+   * be called on the database's thread.
+   *
+   * @return true once every reading has been summarized, after which {@link #getTrialStats} has the
+   *     stats of the whole trial.
+   */
+  public boolean step(SensorDatabase db) {
+    if (trialStats != null) {
+      return true;
+    }
+    writer.db = db;
+    if (cursor == null) {
+      db.deleteZoomTiers(trialId, sensorId);
+      cursor =
+          new ScalarReadingCursor(db, trialId, sensorId, firstTimestamp, lastTimestamp, PAGE_SIZE);
+    }
+    for (int i = 0; i < stepSize; i++) {
+      if (!cursor.hasNext()) {
+        finish();
+        return true;
+      }
+      long timestamp = cursor.getTimestamp();
+      double value = cursor.getValue();
+      statsAccumulator.updateRecordingStreamStats(timestamp, value);
+      downsampler.addData(timestamp, value, writer);
+      cursor.advance();
+    }
+    writer.flush();
+    return false;
+  }
+
+  /**
+   * Returns the stats of the readings, including the ones {@link
+   * com.google.android.apps.forscience.whistlepunk.review.ZoomPresenter} needs to pick a tier, or
+   * null if the rebuild isn't finished.
+   */
+  public TrialStats getTrialStats() {
+    return trialStats;
+  }
+
+  private void finish() {
+    // Count before flushing, as a recording would, so that the partial summaries at the end
+    // aren't counted as a tier.
+    int tierCount = downsampler.countTiers();
+    downsampler.flushAllTiers(writer);
+    writer.flush();
+
+    TrialStats stats = new TrialStats(sensorId);
+    if (statsAccumulator.isInitialized()) {
+      statsAccumulator.populateTrialStats(stats);
+    } else {
+      stats.putStat(GoosciTrial.SensorStat.StatType.NUM_DATA_POINTS, 0);
+      stats.putStat(GoosciTrial.SensorStat.StatType.TOTAL_DURATION, 0);
+    }
+    stats.putStat(GoosciTrial.SensorStat.StatType.ZOOM_PRESENTER_TIER_COUNT, tierCount);
+    stats.putStat(
+        GoosciTrial.SensorStat.StatType.ZOOM_PRESENTER_ZOOM_LEVEL_BETWEEN_TIERS, zoomLevel);
+    trialStats = stats;
+  }
+
+  /** Collects the summaries, dropping tier 0, which is already stored. */
+  private static class TierWriter implements RecordingDataController, ScalarReadingBatch {
+    private final int[] tiers = new int[WRITE_BATCH_SIZE];
+    private final long[] timestamps = new long[WRITE_BATCH_SIZE];
+    private final double[] values = new double[WRITE_BATCH_SIZE];
+    private String trialId;
+    private String sensorId;
+    private int size = 0;
+    private SensorDatabase db;
+
+    void flush() {
+      if (size > 0) {
+        db.addScalarReadingBatch(this);
+        size = 0;
+      }
+    }
+
+    @Override
+    public void addScalarReading(
+        String trialId, String sensorId, int resolutionTier, long timestampMillis, double value) {
+      if (resolutionTier == 0) {
+        return;
+      }
+      if (size == WRITE_BATCH_SIZE) {
+        flush();
+      }
+      this.trialId = trialId;
+      this.sensorId = sensorId;
+      tiers[size] = resolutionTier;
+      timestamps[size] = timestampMillis;
+      values[size] = value;
+      size++;
+    }
+
+    @Override
+    public void addScalarReadings(List<BatchInsertScalarReading> readings) {
+      for (BatchInsertScalarReading reading : readings) {
+        addScalarReading(
+            reading.trialId,
+            reading.sensorId,
+            reading.resolutionTier,
+            reading.timestampMillis,
+            reading.value);
+      }
+    }
+
+    @Override
+    public void addScalarReadingBatch(ScalarReadingBatch batch) {
+      for (int i = 0; i < batch.size(); i++) {
+        addScalarReading(
+            batch.getTrialId(i),
+            batch.getSensorId(i),
+            batch.getResolutionTier(i),
+            batch.getTimestampMillis(i),
+            batch.getValue(i));
+      }
+    }
+
+    @Override
+    public void setDataErrorListenerForSensor(String sensorId, FailureListener listener) {}
+
+    @Override
+    public void clearDataErrorListenerForSensor(String sensorId) {}
+
+    @Override
+    public int size() {
+      return size;
+    }
+
+    @Override
+    public String getTrialId(int index) {
+      return trialId;
+    }
+
+    @Override
+    public String getSensorId(int index) {
+      return sensorId;
+    }
+
+    @Override
+    public int getResolutionTier(int index) {
+      return tiers[index];
+    }
+
+    @Override
+    public long getTimestampMillis(int index) {
+      return timestamps[index];
+    }
+
+    @Override
+    public double getValue(int index) {
+      return values[index];
+    }
+  }
+}
@@ -0,0 +1,1180 @@
+/*
+ *  Copyright 2019 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.sensordb;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+import androidx.annotation.VisibleForTesting;
+import com.google.android.apps.forscience.whistlepunk.BatchInsertScalarReading;
+import com.google.android.apps.forscience.whistlepunk.accounts.AppAccount;
+import com.google.android.apps.forscience.whistlepunk.data.GoosciSensorLayout;
+import com.google.android.apps.forscience.whistlepunk.metadata.GoosciExperiment;
+import com.google.android.apps.forscience.whistlepunk.metadata.GoosciScalarSensorData;
+import com.google.android.apps.forscience.whistlepunk.metadata.GoosciScalarSensorData.ScalarSensorDataDump;
+import com.google.android.apps.forscience.whistlepunk.metadata.GoosciScalarSensorData.ScalarSensorDataRow;
+import com.google.android.apps.forscience.whistlepunk.metadata.GoosciTrial;
+import com.google.android.apps.forscience.whistlepunk.scalarchart.ChartData;
+import com.google.android.apps.forscience.whistlepunk.scalarchart.PointList;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.StreamConsumer;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.BoundType;
+import com.google.common.collect.DiscreteDomain;
+import com.google.common.collect.Range;
+import io.reactivex.Observable;
+import java.io.Closeable;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * A {@link SensorDatabase} that stores readings in compressed, columnar chunks rather than one row
+ * per reading.
+ *
+ * <p>New readings are appended to a small pending table. Once a series (a trialId, tag and
+ * resolution tier) has {@link #CHUNK_SIZE} pending readings, they are encoded with {@link
+ * ScalarChunkCodec} into a single row of the chunk table. The chunk table is indexed by series and
+ * time range, so a query only decodes the chunks that overlap it.
+ *
+ * <p>On first use, readings from the row-per-reading database written by {@link SensorDatabaseImpl}
+ * are migrated in batches. Migration progress is recorded after every batch, so it resumes where it
+ * left off if the process dies. The legacy database is left in place.
+ */
+public class ChunkedSensorDatabase implements SensorDatabase {
+  private static final String TAG = "ChunkedSensorDatabase";
+
+  @VisibleForTesting static final int CHUNK_SIZE = 1024;
+  private static final int MIGRATION_BATCH_SIZE = 10000;
+  private static final int LEGACY_MIN_VERSION = 4;
+
+  private static class DbVersions {
+    public static final int V1_START = 1;
+    public static final int CURRENT = V1_START;
+  }
+
+  private static class ChunksTable {
+    public static final String NAME = "scalar_chunks";
+
+    public static class Column {
+      public static final String TRIAL_ID = "trialId";
+      public static final String TAG = "tag";
+      public static final String RESOLUTION_TIER = "resolutionTier";
+      public static final String START_MILLIS = "startMillis";
+      public static final String END_MILLIS = "endMillis";
+      public static final String POINT_COUNT = "pointCount";
+      public static final String DATA = "data";
+    }
+
+    public static final String CREATION_SQL =
+        "CREATE TABLE "
+            + NAME
+            + " ("
+            + Column.TRIAL_ID
+            + " TEXT NOT NULL, "
+            + Column.TAG
+            + " TEXT NOT NULL, "
+            + Column.RESOLUTION_TIER
+            + " INTEGER NOT NULL, "
+            + Column.START_MILLIS
+            + " INTEGER NOT NULL, "
+            + Column.END_MILLIS
+            + " INTEGER NOT NULL, "
+            + Column.POINT_COUNT
+            + " INTEGER NOT NULL, "
+            + Column.DATA
+            + " BLOB NOT NULL);";
+
+    // endMillis is included so that overlap checks can be answered from the index alone.
+    public static final String INDEX_SQL =
+        "CREATE INDEX chunk_range ON "
+            + NAME
+            + "("
+            + Column.TRIAL_ID
+            + ", "
+            + Column.TAG
+            + ", "
+            + Column.RESOLUTION_TIER
+            + ", "
+            + Column.START_MILLIS
+            + ", "
+            + Column.END_MILLIS
+            + ");";
+  }
+
+  private static class PendingTable {
+    public static final String NAME = "scalar_pending";
+
+    public static class Column {
+      public static final String TRIAL_ID = "trialId";
+      public static final String TAG = "tag";
+      public static final String RESOLUTION_TIER = "resolutionTier";
+      public static final String TIMESTAMP_MILLIS = "timestampMillis";
+      public static final String VALUE = "value";
+    }
+
+    public static final String CREATION_SQL =
+        "CREATE TABLE "
+            + NAME
+            + " ("
+            + Column.TRIAL_ID
+            + " TEXT NOT NULL, "
+            + Column.TAG
+            + " TEXT NOT NULL, "
+            + Column.RESOLUTION_TIER
+            + " INTEGER NOT NULL, "
+            + Column.TIMESTAMP_MILLIS
+            + " INTEGER NOT NULL, "
+            + Column.VALUE
+            + " REAL NOT NULL);";
+
+    public static final String INDEX_SQL =
+        "CREATE INDEX pending_series ON "
+            + NAME
+            + "("
+            + Column.TRIAL_ID
+            + ", "
+            + Column.TAG
+            + ", "
+            + Column.RESOLUTION_TIER
+            + ", "
+            + Column.TIMESTAMP_MILLIS
+            + ");";
+
+    public static final String INSERT_SQL =
+        "INSERT INTO "
+            + NAME
+            + " ("
+            + Column.TRIAL_ID
+            + ", "
+            + Column.TAG
+            + ", "
+            + Column.RESOLUTION_TIER
+            + ", "
+            + Column.TIMESTAMP_MILLIS
+            + ", "
+            + Column.VALUE
+            + ") VALUES (?, ?, ?, ?, ?);";
+  }
+
+  private static class MigrationTable {
+    public static final String NAME = "legacy_migration";
+
+    public static class Column {
+      public static final String LEGACY_NAME = "legacyName";
+      public static final String LAST_ROW_ID = "lastRowId";
+      public static final String DONE = "done";
+    }
+
+    public static final String CREATION_SQL =
+        "CREATE TABLE "
+            + NAME
+            + " ("
+            + Column.LEGACY_NAME
+            + " TEXT PRIMARY KEY, "
+            + Column.LAST_ROW_ID
+            + " INTEGER NOT NULL, "
+            + Column.DONE
+            + " INTEGER NOT NULL);";
+  }
+
+  /** Identifies one series of readings, which is the unit of chunking. */
+  private static class SeriesKey {
+    final String trialId;
+    final String tag;
+    final int resolutionTier;
+
+    SeriesKey(String trialId, String tag, int resolutionTier) {
+      this.trialId = trialId;
+      this.tag = tag;
+      this.resolutionTier = resolutionTier;
+    }
+
+    String[] selectionArgs() {
+      return new String[] {trialId, tag, String.valueOf(resolutionTier)};
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (o == null || getClass() != o.getClass()) {
+        return false;
+      }
+      SeriesKey that = (SeriesKey) o;
+      return resolutionTier == that.resolutionTier
+          && trialId.equals(that.trialId)
+          && tag.equals(that.tag);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(trialId, tag, resolutionTier);
+    }
+  }
+
+  /** Readings of one series, held in parallel primitive arrays in ascending time order. */
+  private static class SeriesBuffer {
+    long[] timestamps;
+    double[] values;
+    int size = 0;
+    private boolean sorted = true;
+
+    SeriesBuffer(int capacity) {
+      timestamps = new long[Math.max(capacity, 16)];
+      values = new double[timestamps.length];
+    }
+
+    void add(long timestamp, double value) {
+      if (size == timestamps.length) {
+        timestamps = Arrays.copyOf(timestamps, size * 2);
+        values = Arrays.copyOf(values, size * 2);
+      }
+      if (size > 0 && timestamp < timestamps[size - 1]) {
+        sorted = false;
+      }
+      timestamps[size] = timestamp;
+      values[size] = value;
+      size++;
+    }
+
+    /** Chunks of one series may overlap if readings arrived out of order. */
+    void sort() {
+      if (sorted) {
+        return;
+      }
+      long[] tmpTimestamps = new long[size];
+      double[] tmpValues = new double[size];
+      mergeSort(0, size, tmpTimestamps, tmpValues);
+      sorted = true;
+    }
+
+    private void mergeSort(int from, int to, long[] tmpTimestamps, double[] tmpValues) {
+      if (to - from < 2) {
+        return;
+      }
+      int mid = (from + to) >>> 1;
+      mergeSort(from, mid, tmpTimestamps, tmpValues);
+      mergeSort(mid, to, tmpTimestamps, tmpValues);
+      if (timestamps[mid - 1] <= timestamps[mid]) {
+        return;
+      }
+      int left = from;
+      int right = mid;
+      int out = from;
+      while (left < mid && right < to) {
+        if (timestamps[left] <= timestamps[right]) {
+          tmpTimestamps[out] = timestamps[left];
+          tmpValues[out++] = values[left++];
+        } else {
+          tmpTimestamps[out] = timestamps[right];
+          tmpValues[out++] = values[right++];
+        }
+      }
+      while (left < mid) {
+        tmpTimestamps[out] = timestamps[left];
+        tmpValues[out++] = values[left++];
+      }
+      while (right < to) {
+        tmpTimestamps[out] = timestamps[right];
+        tmpValues[out++] = values[right++];
+      }
+      System.arraycopy(tmpTimestamps, from, timestamps, from, to - from);
+      System.arraycopy(tmpValues, from, values, from, to - from);
+    }
+  }
+
+  /**
+   * Streams the readings of one series in timestamp order. A chunk is only decoded once every
+   * earlier reading has been consumed, so a reader holds about one chunk in memory at a time.
+   */
+  private static class SeriesReader implements Closeable {
+    private final Cursor chunks;
+    private final Cursor pending;
+    private final long low;
+    private final long high;
+    // Decoded readings that have not been consumed yet, from position to window.size.
+    private final SeriesBuffer window = new SeriesBuffer(CHUNK_SIZE);
+    private int position = 0;
+    private boolean hasChunk;
+    private boolean hasPending;
+
+    /** The reading that the last successful {@link #advance} moved to. */
+    long timestamp;
+
+    double value;
+
+    SeriesReader(SQLiteDatabase db, SeriesKey key, long low, long high) {
+      this.low = low;
+      this.high = high;
+      String[] seriesArgs = key.selectionArgs();
+      chunks =
+          db.query(
+              ChunksTable.NAME,
+              new String[] {ChunksTable.Column.DATA, ChunksTable.Column.START_MILLIS},
+              chunkSeriesSelection()
+                  + " AND "
+                  + ChunksTable.Column.START_MILLIS
+                  + " <= ? AND "
+                  + ChunksTable.Column.END_MILLIS
+                  + " >= ?",
+              new String[] {
+                seriesArgs[0],
+                seriesArgs[1],
+                seriesArgs[2],
+                String.valueOf(high),
+                String.valueOf(low)
+              },
+              null,
+              null,
+              ChunksTable.Column.START_MILLIS + " ASC");
+      try {
+        pending =
+            db.query(
+                PendingTable.NAME,
+                new String[] {PendingTable.Column.TIMESTAMP_MILLIS, PendingTable.Column.VALUE},
+                pendingSeriesSelection()
+                    + " AND "
+                    + PendingTable.Column.TIMESTAMP_MILLIS
+                    + " >= ? AND "
+                    + PendingTable.Column.TIMESTAMP_MILLIS
+                    + " <= ?",
+                new String[] {
+                  seriesArgs[0],
+                  seriesArgs[1],
+                  seriesArgs[2],
+                  String.valueOf(low),
+                  String.valueOf(high)
+                },
+                null,
+                null,
+                PendingTable.Column.TIMESTAMP_MILLIS + " ASC");
+      } catch (RuntimeException e) {
+        chunks.close();
+        throw e;
+      }
+      hasChunk = chunks.moveToNext();
+      hasPending = pending.moveToNext();
+    }
+
+    /** Moves to the next reading, returning false once the series is exhausted. */
+    boolean advance() {
+      fillWindow();
+      boolean fromWindow =
+          position < window.size
+              && (!hasPending || window.timestamps[position] <= pending.getLong(0));
+      if (fromWindow) {
+        timestamp = window.timestamps[position];
+        value = window.values[position];
+        position++;
+        return true;
+      }
+      if (hasPending) {
+        timestamp = pending.getLong(0);
+        value = pending.getDouble(1);
+        hasPending = pending.moveToNext();
+        return true;
+      }
+      return false;
+    }
+
+    /**
+     * Decodes every chunk that starts at or before the earliest unconsumed reading. Chunks of one
+     * series may overlap if readings arrived out of order, so they can't simply be concatenated.
+     */
+    private void fillWindow() {
+      while (hasChunk
+          && (position == window.size || chunks.getLong(1) <= window.timestamps[position])) {
+        int remaining = window.size - position;
+        System.arraycopy(window.timestamps, position, window.timestamps, 0, remaining);
+        System.arraycopy(window.values, position, window.values, 0, remaining);
+        window.size = remaining;
+        position = 0;
+        SeriesBuffer chunk = decodeChunk(chunks.getBlob(0));
+        for (int i = 0; i < chunk.size; i++) {
+          if (chunk.timestamps[i] >= low && chunk.timestamps[i] <= high) {
+            window.add(chunk.timestamps[i], chunk.values[i]);
+          }
+        }
+        hasChunk = chunks.moveToNext();
+      }
+      window.sort();
+    }
+
+    @Override
+    public void close() {
+      chunks.close();
+      pending.close();
+    }
+  }
+
+  private final Context context;
+  private final AppAccount appAccount;
+  private final String legacyName;
+  private final SQLiteOpenHelper openHelper;
+  // Guarded by this. Reads may run on any thread, so only the write path touches these.
+  private final Map<SeriesKey, Integer> pendingCounts = new HashMap<>();
+  private SQLiteStatement insertPendingStatement;
+  private volatile boolean migrationChecked = false;
+
+  /**
+   * @param name the name of the chunked database
+   * @param legacyName the name of a database written by {@link SensorDatabaseImpl} whose readings
+   *     should be migrated on first use, or null to skip migration
+   */
+  public ChunkedSensorDatabase(
+      Context context, AppAccount appAccount, String name, String legacyName) {
+    this.context = context;
+    this.appAccount = appAccount;
+    this.legacyName = legacyName;
+    openHelper =
+        new SQLiteOpenHelper(
+            context, appAccount.getDatabaseFileName(name), null, DbVersions.CURRENT) {
+          @Override
+          public void onCreate(SQLiteDatabase db) {
+            db.execSQL(ChunksTable.CREATION_SQL);
+            db.execSQL(ChunksTable.INDEX_SQL);
+            db.execSQL(PendingTable.CREATION_SQL);
+            db.execSQL(PendingTable.INDEX_SQL);
+            db.execSQL(MigrationTable.CREATION_SQL);
+          }
+
+          @Override
+          public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {}
+        };
+  }
+
+  private SQLiteDatabase getDatabase() {
+    SQLiteDatabase db = openHelper.getWritableDatabase();
+    if (!migrationChecked) {
+      synchronized (this) {
+        if (!migrationChecked) {
+          migrateLegacyReadings(db);
+          migrationChecked = true;
+        }
+      }
+    }
+    return db;
+  }
+
+  @Override
+  public synchronized void addScalarReadings(List<BatchInsertScalarReading> readings) {
+    SQLiteDatabase db = getDatabase();
+    Set<SeriesKey> touched = new HashSet<>();
+    try {
+      db.beginTransaction();
+      for (BatchInsertScalarReading r : readings) {
+        touched.add(
+            insertPending(db, r.trialId, r.sensorId, r.resolutionTier, r.timestampMillis, r.value));
+      }
+      for (SeriesKey key : touched) {
+        compactIfNeeded(db, key);
+      }
+      db.setTransactionSuccessful();
+    } catch (RuntimeException e) {
+      // Cached counts may include rows that are about to be rolled back.
+      pendingCounts.clear();
+      throw e;
+    } finally {
+      db.endTransaction();
+    }
+  }
+
+  @Override
+  public synchronized void addScalarReadingBatch(ScalarReadingBatch batch) {
+    SQLiteDatabase db = getDatabase();
+    Set<SeriesKey> touched = new HashSet<>();
+    try {
+      db.beginTransaction();
+      for (int i = 0; i < batch.size(); i++) {
+        touched.add(
+            insertPending(
+                db,
+                batch.getTrialId(i),
+                batch.getSensorId(i),
+                batch.getResolutionTier(i),
+                batch.getTimestampMillis(i),
+                batch.getValue(i)));
+      }
+      for (SeriesKey key : touched) {
+        compactIfNeeded(db, key);
+      }
+      db.setTransactionSuccessful();
+    } catch (RuntimeException e) {
+      pendingCounts.clear();
+      throw e;
+    } finally {
+      db.endTransaction();
+    }
+  }
+
+  @Override
+  public synchronized void addScalarReading(
+      String trialId, String sensorTag, int resolutionTier, long timestampMillis, double value) {
+    SQLiteDatabase db = getDatabase();
+    SeriesKey key = insertPending(db, trialId, sensorTag, resolutionTier, timestampMillis, value);
+    if (getPendingCount(db, key) >= CHUNK_SIZE) {
+      try {
+        db.beginTransaction();
+        compactIfNeeded(db, key);
+        db.setTransactionSuccessful();
+      } catch (RuntimeException e) {
+        pendingCounts.clear();
+        throw e;
+      } finally {
+        db.endTransaction();
+      }
+    }
+  }
+
+  private synchronized SeriesKey insertPending(
+      SQLiteDatabase db,
+      String trialId,
+      String sensorTag,
+      int resolutionTier,
+      long timestampMillis,
+      double value) {
+    if (insertPendingStatement == null) {
+      insertPendingStatement = db.compileStatement(PendingTable.INSERT_SQL);
+    }
+    insertPendingStatement.bindString(1, trialId);
+    insertPendingStatement.bindString(2, sensorTag);
+    insertPendingStatement.bindLong(3, resolutionTier);
+    insertPendingStatement.bindLong(4, timestampMillis);
+    insertPendingStatement.bindDouble(5, value);
+    insertPendingStatement.executeInsert();
+
+    SeriesKey key = new SeriesKey(trialId, sensorTag, resolutionTier);
+    pendingCounts.put(key, getPendingCount(db, key) + 1);
+    return key;
+  }
+
+  private synchronized int getPendingCount(SQLiteDatabase db, SeriesKey key) {
+    Integer count = pendingCounts.get(key);
+    if (count == null) {
+      count =
+          (int)
+              DatabaseUtils.queryNumEntries(
+                  db, PendingTable.NAME, pendingSeriesSelection(), key.selectionArgs());
+      pendingCounts.put(key, count);
+    }
+    return count;
+  }
+
+  /** Moves the pending readings of a series into chunks. Must be called inside a transaction. */
+  private synchronized void compactIfNeeded(SQLiteDatabase db, SeriesKey key) {
+    if (getPendingCount(db, key) < CHUNK_SIZE) {
+      return;
+    }
+    SeriesBuffer pending = new SeriesBuffer(CHUNK_SIZE);
+    try (Cursor cursor =
+        db.query(
+            PendingTable.NAME,
+            new String[] {PendingTable.Column.TIMESTAMP_MILLIS, PendingTable.Column.VALUE},
+            pendingSeriesSelection(),
+            key.selectionArgs(),
+            null,
+            null,
+            PendingTable.Column.TIMESTAMP_MILLIS + " ASC")) {
+      while (cursor.moveToNext()) {
+        pending.add(cursor.getLong(0), cursor.getDouble(1));
+      }
+    }
+    for (int start = 0; start < pending.size; start += CHUNK_SIZE) {
+      int count = Math.min(CHUNK_SIZE, pending.size - start);
+      insertChunk(db, key, pending.timestamps, pending.values, start, count);
+    }
+    db.delete(PendingTable.NAME, pendingSeriesSelection(), key.selectionArgs());
+    pendingCounts.put(key, 0);
+  }
+
+  private void insertChunk(
+      SQLiteDatabase db, SeriesKey key, long[] timestamps, double[] values, int offset, int count) {
+    ContentValues chunk = new ContentValues();
+    chunk.put(ChunksTable.Column.TRIAL_ID, key.trialId);
+    chunk.put(ChunksTable.Column.TAG, key.tag);
+    chunk.put(ChunksTable.Column.RESOLUTION_TIER, key.resolutionTier);
+    chunk.put(ChunksTable.Column.START_MILLIS, timestamps[offset]);
+    chunk.put(ChunksTable.Column.END_MILLIS, timestamps[offset + count - 1]);
+    chunk.put(ChunksTable.Column.POINT_COUNT, count);
+    chunk.put(ChunksTable.Column.DATA, ScalarChunkCodec.encode(timestamps, values, offset, count));
+    db.insert(ChunksTable.NAME, null, chunk);
+  }
+
+  private static String pendingSeriesSelection() {
+    return PendingTable.Column.TRIAL_ID
+        + " = ? AND "
+        + PendingTable.Column.TAG
+        + " = ? AND "
+        + PendingTable.Column.RESOLUTION_TIER
+        + " = ?";
+  }
+
+  private static String chunkSeriesSelection() {
+    return ChunksTable.Column.TRIAL_ID
+        + " = ? AND "
+        + ChunksTable.Column.TAG
+        + " = ? AND "
+        + ChunksTable.Column.RESOLUTION_TIER
+        + " = ?";
+  }
+
+  /** Returns {lowest, highest} inclusive timestamps of {@code range}. */
+  private static long[] getBounds(TimeRange range) {
+    Range<Long> times = range.getTimes();
+    long low = Long.MIN_VALUE;
+    long high = Long.MAX_VALUE;
+    if (times != null) {
+      Range<Long> canonical = times.canonical(DiscreteDomain.longs());
+      if (canonical.hasLowerBound()) {
+        low =
+            canonical.lowerBoundType() == BoundType.CLOSED
+                ? canonical.lowerEndpoint()
+                : canonical.lowerEndpoint() + 1;
+      }
+      if (canonical.hasUpperBound()) {
+        high =
+            canonical.upperBoundType() == BoundType.CLOSED
+                ? canonical.upperEndpoint()
+                : canonical.upperEndpoint() - 1;
+      }
+    }
+    return new long[] {low, high};
+  }
+
+  /**
+   * Reads the readings of a series between {@code low} and {@code high}, inclusive. If {@code
+   * maxRecords} is positive, chunks are only decoded until the oldest or, if {@code newestFirst},
+   * newest {@code maxRecords} readings are in the result, though it may hold more.
+   */
+  private static SeriesBuffer readSeries(
+      SQLiteDatabase db, SeriesKey key, long low, long high, int maxRecords, boolean newestFirst) {
+    int limit = maxRecords <= 0 || newestFirst ? Integer.MAX_VALUE : maxRecords;
+    if (maxRecords > 0 && newestFirst) {
+      low = Math.max(low, getNewestCutoff(db, key, low, high, maxRecords));
+    }
+    SeriesBuffer result = new SeriesBuffer(CHUNK_SIZE);
+    try (SeriesReader reader = new SeriesReader(db, key, low, high)) {
+      while (result.size < limit && reader.advance()) {
+        result.add(reader.timestamp, reader.value);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Returns a timestamp at or after which there are at least {@code maxRecords} readings of the
+   * series between {@code low} and {@code high}, or {@code low} if there may not be that many. Only
+   * chunks that lie wholly within the range are counted, since their point counts are exact without
+   * decoding them.
+   */
+  private static long getNewestCutoff(
+      SQLiteDatabase db, SeriesKey key, long low, long high, int maxRecords) {
+    String[] seriesArgs = key.selectionArgs();
+    try (Cursor cursor =
+        db.query(
+            ChunksTable.NAME,
+            new String[] {ChunksTable.Column.START_MILLIS, ChunksTable.Column.POINT_COUNT},
+            chunkSeriesSelection()
+                + " AND "
+                + ChunksTable.Column.START_MILLIS
+                + " >= ? AND "
+                + ChunksTable.Column.END_MILLIS
+                + " <= ?",
+            new String[] {
+              seriesArgs[0], seriesArgs[1], seriesArgs[2], String.valueOf(low), String.valueOf(high)
+            },
+            null,
+            null,
+            ChunksTable.Column.END_MILLIS + " DESC")) {
+      long cutoff = high;
+      int counted = 0;
+      while (counted < maxRecords && cursor.moveToNext()) {
+        // Chunks of one series may overlap, so the cutoff is the earliest start seen so far.
+        cutoff = Math.min(cutoff, cursor.getLong(0));
+        counted += cursor.getInt(1);
+      }
+      return counted < maxRecords ? low : cutoff;
+    }
+  }
+
+  /** Decodes a chunk into a new buffer, so that concurrent readers never share scratch space. */
+  private static SeriesBuffer decodeChunk(byte[] data) {
+    SeriesBuffer chunk = new SeriesBuffer(ScalarChunkCodec.getPointCount(data));
+    chunk.size = ScalarChunkCodec.decode(data, chunk.timestamps, chunk.values, 0);
+    return chunk;
+  }
+
+  /** Reads a series, falling back to the default trial id used by pre-export trials. */
+  private static SeriesBuffer readSeriesWithFallback(
+      SQLiteDatabase db, String trialId, String sensorTag, int resolutionTier, long[] bounds) {
+    return readSeriesWithFallback(db, trialId, sensorTag, resolutionTier, bounds, 0, false);
+  }
+
+  /** As above, decoding only as much as {@link #readSeries} needs for {@code maxRecords}. */
+  private static SeriesBuffer readSeriesWithFallback(
+      SQLiteDatabase db,
+      String trialId,
+      String sensorTag,
+      int resolutionTier,
+      long[] bounds,
+      int maxRecords,
+      boolean newestFirst) {
+    SeriesBuffer result =
+        readSeries(
+            db,
+            new SeriesKey(Preconditions.checkNotNull(trialId), sensorTag, resolutionTier),
+            bounds[0],
+            bounds[1],
+            maxRecords,
+            newestFirst);
+    if (result.size == 0 && !SensorDatabaseImpl.DEFAULT_TRIAL_ID.equals(trialId)) {
+      result =
+          readSeries(
+              db,
+              new SeriesKey(SensorDatabaseImpl.DEFAULT_TRIAL_ID, sensorTag, resolutionTier),
+              bounds[0],
+              bounds[1],
+              maxRecords,
+              newestFirst);
+    }
+    return result;
+  }
+
+  @Override
+  public ScalarReadingList getScalarReadings(
+      String trialId, String sensorTag, TimeRange range, int resolutionTier, int maxRecords) {
+    final boolean newestFirst = range.getOrder() == TimeRange.ObservationOrder.NEWEST_FIRST;
+    SeriesBuffer series =
+        readSeriesWithFallback(
+            getDatabase(),
+            trialId,
+            sensorTag,
+            resolutionTier,
+            getBounds(range),
+            maxRecords,
+            newestFirst);
+    final int count = maxRecords <= 0 ? series.size : Math.min(maxRecords, series.size);
+    final long[] timestamps = new long[count];
+    final double[] values = new double[count];
+    for (int i = 0; i < count; i++) {
+      int source = newestFirst ? series.size - 1 - i : i;
+      timestamps[i] = series.timestamps[source];
+      values[i] = series.values[source];
+    }
+    return new ScalarReadingList() {
+      @Override
+      public void deliver(StreamConsumer c) {
+        for (int i = 0; i < count; i++) {
+          c.addData(timestamps[i], values[i]);
+        }
+      }
+
+      @Override
+      public int size() {
+        return count;
+      }
+
+      @Override
+      public List<ChartData.DataPoint> asDataPoints() {
+        List<ChartData.DataPoint> result = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+          result.add(new ChartData.DataPoint(timestamps[i], values[i]));
+        }
+        return result;
+      }
+
+      @Override
+      public PointList asPointList() {
+        return PointList.wrap(timestamps, values, count);
+      }
+    };
+  }
+
+  @Override
+  public String getFirstDatabaseTagAfter(long timestamp) {
+    SQLiteDatabase db = getDatabase();
+    String bestTag = null;
+    long bestTimestamp = Long.MAX_VALUE;
+    String timestampString = String.valueOf(timestamp);
+    try (Cursor cursor =
+        db.query(
+            PendingTable.NAME,
+            new String[] {PendingTable.Column.TAG, PendingTable.Column.TIMESTAMP_MILLIS},
+            PendingTable.Column.TIMESTAMP_MILLIS + " > ?",
+            new String[] {timestampString},
+            null,
+            null,
+            PendingTable.Column.TIMESTAMP_MILLIS + " ASC",
+            "1")) {
+      if (cursor.moveToNext()) {
+        bestTag = cursor.getString(0);
+        bestTimestamp = cursor.getLong(1);
+      }
+    }
+    try (Cursor cursor =
+        db.query(
+            ChunksTable.NAME,
+            new String[] {
+              ChunksTable.Column.TAG, ChunksTable.Column.START_MILLIS, ChunksTable.Column.DATA
+            },
+            ChunksTable.Column.END_MILLIS + " > ?",
+            new String[] {timestampString},
+            null,
+            null,
+            ChunksTable.Column.START_MILLIS + " ASC")) {
+      while (cursor.moveToNext() && cursor.getLong(1) < bestTimestamp) {
+        SeriesBuffer chunk = decodeChunk(cursor.getBlob(2));
+        for (int i = 0; i < chunk.size; i++) {
+          if (chunk.timestamps[i] > timestamp) {
+            if (chunk.timestamps[i] < bestTimestamp) {
+              bestTimestamp = chunk.timestamps[i];
+              bestTag = cursor.getString(0);
+            }
+            break;
+          }
+        }
+      }
+    }
+    return bestTag;
+  }
+
+  @Override
+  public synchronized void deleteScalarReadings(String trialId, String sensorTag, TimeRange range) {
+    SQLiteDatabase db = getDatabase();
+    long[] bounds = getBounds(range);
+    String low = String.valueOf(bounds[0]);
+    String high = String.valueOf(bounds[1]);
+    try {
+      db.beginTransaction();
+      // All resolution tiers are deleted.
+      db.delete(
+          PendingTable.NAME,
+          PendingTable.Column.TRIAL_ID
+              + " = ? AND "
+              + PendingTable.Column.TAG
+              + " = ? AND "
+              + PendingTable.Column.TIMESTAMP_MILLIS
+              + " >= ? AND "
+              + PendingTable.Column.TIMESTAMP_MILLIS
+              + " <= ?",
+          new String[] {trialId, sensorTag, low, high});
+      pendingCounts.clear();
+
+      String overlap =
+          ChunksTable.Column.TRIAL_ID
+              + " = ? AND "
+              + ChunksTable.Column.TAG
+              + " = ? AND "
+              + ChunksTable.Column.START_MILLIS
+              + " <= ? AND "
+              + ChunksTable.Column.END_MILLIS
+              + " >= ?";
+      String[] overlapArgs = new String[] {trialId, sensorTag, high, low};
+      List<ContentValues> rewrites = new ArrayList<>();
+      try (Cursor cursor =
+          db.query(
+              ChunksTable.NAME,
+              new String[] {
+                ChunksTable.Column.RESOLUTION_TIER,
+                ChunksTable.Column.START_MILLIS,
+                ChunksTable.Column.END_MILLIS,
+                ChunksTable.Column.DATA
+              },
+              overlap,
+              overlapArgs,
+              null,
+              null,
+              null)) {
+        while (cursor.moveToNext()) {
+          if (cursor.getLong(1) >= bounds[0] && cursor.getLong(2) <= bounds[1]) {
+            // Entirely inside the deleted range; nothing to keep.
+            continue;
+          }
+          SeriesBuffer chunk = decodeChunk(cursor.getBlob(3));
+          SeriesBuffer kept = new SeriesBuffer(chunk.size);
+          for (int i = 0; i < chunk.size; i++) {
+            if (chunk.timestamps[i] < bounds[0] || chunk.timestamps[i] > bounds[1]) {
+              kept.add(chunk.timestamps[i], chunk.values[i]);
+            }
+          }
+          if (kept.size > 0) {
+            ContentValues values = new ContentValues();
+            values.put(ChunksTable.Column.RESOLUTION_TIER, cursor.getInt(0));
+            values.put(ChunksTable.Column.START_MILLIS, kept.timestamps[0]);
+            values.put(ChunksTable.Column.END_MILLIS, kept.timestamps[kept.size - 1]);
+            values.put(ChunksTable.Column.POINT_COUNT, kept.size);
+            values.put(
+                ChunksTable.Column.DATA,
+                ScalarChunkCodec.encode(kept.timestamps, kept.values, 0, kept.size));
+            rewrites.add(values);
+          }
+        }
+      }
+      db.delete(ChunksTable.NAME, overlap, overlapArgs);
+      for (ContentValues values : rewrites) {
+        values.put(ChunksTable.Column.TRIAL_ID, trialId);
+        values.put(ChunksTable.Column.TAG, sensorTag);
+        db.insert(ChunksTable.NAME, null, values);
+      }
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
+  }
+
+  @Override
+  public synchronized void deleteZoomTiers(String trialId, String sensorTag) {
+    SQLiteDatabase db = getDatabase();
+    try {
+      db.beginTransaction();
+      db.delete(
+          PendingTable.NAME,
+          PendingTable.Column.TRIAL_ID
+              + " = ? AND "
+              + PendingTable.Column.TAG
+              + " = ? AND "
+              + PendingTable.Column.RESOLUTION_TIER
+              + " > 0",
+          new String[] {trialId, sensorTag});
+      pendingCounts.clear();
+      db.delete(
+          ChunksTable.NAME,
+          ChunksTable.Column.TRIAL_ID
+              + " = ? AND "
+              + ChunksTable.Column.TAG
+              + " = ? AND "
+              + ChunksTable.Column.RESOLUTION_TIER
+              + " > 0",
+          new String[] {trialId, sensorTag});
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
+  }
+
+  @Override
+  public Observable<ScalarReading> createScalarObservable(
+      String trialId, String[] sensorTags, TimeRange range, int resolutionTier) {
+    return Observable.create(
+        emitter -> {
+          SQLiteDatabase db = getDatabase();
+          long[] bounds = getBounds(range);
+          SeriesReader[] readers = new SeriesReader[sensorTags.length];
+          boolean[] hasReading = new boolean[sensorTags.length];
+          try {
+            for (int i = 0; i < sensorTags.length; i++) {
+              SeriesKey key = new SeriesKey(trialId, sensorTags[i], resolutionTier);
+              readers[i] = new SeriesReader(db, key, bounds[0], bounds[1]);
+              hasReading[i] = readers[i].advance();
+            }
+            // Merge the per-sensor series by timestamp, one chunk at a time.
+            while (!emitter.isDisposed()) {
+              int next = -1;
+              for (int i = 0; i < readers.length; i++) {
+                if (hasReading[i] && (next < 0 || readers[i].timestamp < readers[next].timestamp)) {
+                  next = i;
+                }
+              }
+              if (next < 0) {
+                break;
+              }
+              emitter.onNext(
+                  new ScalarReading(
+                      readers[next].timestamp, readers[next].value, sensorTags[next]));
+              hasReading[next] = readers[next].advance();
+            }
+          } finally {
+            for (SeriesReader reader : readers) {
+              if (reader != null) {
+                reader.close();
+              }
+            }
+          }
+          emitter.onComplete();
+        });
+  }
+
+  @Override
+  public GoosciScalarSensorData.ScalarSensorData getScalarReadingProtos(
+      GoosciExperiment.Experiment experiment) {
+    return GoosciScalarSensorData.ScalarSensorData.newBuilder()
+        .addAllSensors(getScalarReadingProtosAsList(experiment))
+        .build();
+  }
+
+  @Override
+  public List<ScalarSensorDataDump> getScalarReadingProtosAsList(
+      GoosciExperiment.Experiment experiment) {
+    ArrayList<ScalarSensorDataDump> sensorDataList = new ArrayList<>();
+    for (GoosciTrial.Trial trial : experiment.getTrialsList()) {
+      addTrialProtos(trial, sensorDataList);
+    }
+    return sensorDataList;
+  }
+
+  @Override
+  public GoosciScalarSensorData.ScalarSensorData getScalarReadingProtosForTrial(
+      GoosciExperiment.Experiment experiment, String trialId) {
+    ArrayList<ScalarSensorDataDump> sensorDataList = new ArrayList<>();
+    for (GoosciTrial.Trial trial : experiment.getTrialsList()) {
+      if (trial.getTrialId().equals(trialId)) {
+        addTrialProtos(trial, sensorDataList);
+      }
+    }
+    return GoosciScalarSensorData.ScalarSensorData.newBuilder()
+        .addAllSensors(sensorDataList)
+        .build();
+  }
+
+  private void addTrialProtos(GoosciTrial.Trial trial, List<ScalarSensorDataDump> sensorDataList) {
+    GoosciTrial.Range range = trial.getRecordingRange();
+    // This protects against corrupted trials with invalid range end times.
+    if (range.getEndMs() <= range.getStartMs()) {
+      return;
+    }
+    long[] bounds = new long[] {range.getStartMs(), range.getEndMs()};
+    for (GoosciSensorLayout.SensorLayout sensor : trial.getSensorLayoutsList()) {
+      String tag = sensor.getSensorId();
+      SeriesBuffer series =
+          readSeriesWithFallback(getDatabase(), trial.getTrialId(), tag, 0, bounds);
+      ScalarSensorDataDump.Builder dump =
+          ScalarSensorDataDump.newBuilder().setTag(tag).setTrialId(trial.getTrialId());
+      for (int i = 0; i < series.size; i++) {
+        dump.addRows(
+            ScalarSensorDataRow.newBuilder()
+                .setTimestampMillis(series.timestamps[i])
+                .setValue(series.values[i]));
+      }
+      sensorDataList.add(dump.build());
+    }
+  }
+
+  /**
+   * Copies readings out of the legacy row-per-reading database, {@link #MIGRATION_BATCH_SIZE} rows
+   * per transaction.
+   */
+  private void migrateLegacyReadings(SQLiteDatabase db) {
+    if (legacyName == null) {
+      return;
+    }
+    long lastRowId = -1;
+    try (Cursor cursor =
+        db.query(
+            MigrationTable.NAME,
+            new String[] {MigrationTable.Column.LAST_ROW_ID, MigrationTable.Column.DONE},
+            MigrationTable.Column.LEGACY_NAME + " = ?",
+            new String[] {legacyName},
+            null,
+            null,
+            null)) {
+      if (cursor.moveToNext()) {
+        if (cursor.getInt(1) != 0) {
+          return;
+        }
+        lastRowId = cursor.getLong(0);
+      }
+    }
+
+    File legacyFile = context.getDatabasePath(appAccount.getDatabaseFileName(legacyName));
+    if (!legacyFile.exists()) {
+      recordMigrationProgress(db, lastRowId, true);
+      return;
+    }
+
+    SQLiteDatabase legacyDb =
+        SQLiteDatabase.openDatabase(legacyFile.getPath(), null, SQLiteDatabase.OPEN_READONLY);
+    try {
+      if (legacyDb.getVersion() < LEGACY_MIN_VERSION) {
+        // SensorDatabaseImpl upgrades the schema the next time it is opened; try again then.
+        Log.w(TAG, "Legacy database is at version " + legacyDb.getVersion() + "; not migrating");
+        return;
+      }
+      while (true) {
+        int copied = 0;
+        Set<SeriesKey> touched = new HashSet<>();
+        try (Cursor cursor =
+            legacyDb.rawQuery(
+                "SELECT rowid, "
+                    + PendingTable.Column.TRIAL_ID
+                    + ", "
+                    + PendingTable.Column.TAG
+                    + ", "
+                    + PendingTable.Column.RESOLUTION_TIER
+                    + ", "
+                    + PendingTable.Column.TIMESTAMP_MILLIS
+                    + ", "
+                    + PendingTable.Column.VALUE
+                    + " FROM "
+                    + SensorDatabaseImpl.SCALAR_SENSORS_TABLE
+                    + " WHERE rowid > ? ORDER BY rowid ASC LIMIT "
+                    + MIGRATION_BATCH_SIZE,
+                new String[] {String.valueOf(lastRowId)})) {
+          try {
+            db.beginTransaction();
+            while (cursor.moveToNext()) {
+              lastRowId = cursor.getLong(0);
+              touched.add(
+                  insertPending(
+                      db,
+                      cursor.getString(1),
+                      cursor.getString(2),
+                      cursor.getInt(3),
+                      cursor.getLong(4),
+                      cursor.getDouble(5)));
+              copied++;
+            }
+            for (SeriesKey key : touched) {
+              compactIfNeeded(db, key);
+            }
+            recordMigrationProgress(db, lastRowId, copied < MIGRATION_BATCH_SIZE);
+            db.setTransactionSuccessful();
+          } catch (RuntimeException e) {
+            pendingCounts.clear();
+            throw e;
+          } finally {
+            db.endTransaction();
+          }
+        }
+        if (copied < MIGRATION_BATCH_SIZE) {
+          return;
+        }
+      }
+    } finally {
+      legacyDb.close();
+    }
+  }
+
+  private void recordMigrationProgress(SQLiteDatabase db, long lastRowId, boolean done) {
+    ContentValues values = new ContentValues();
+    values.put(MigrationTable.Column.LEGACY_NAME, legacyName);
+    values.put(MigrationTable.Column.LAST_ROW_ID, lastRowId);
+    values.put(MigrationTable.Column.DONE, done ? 1 : 0);
+    db.insertWithOnConflict(MigrationTable.NAME, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+  }
+}
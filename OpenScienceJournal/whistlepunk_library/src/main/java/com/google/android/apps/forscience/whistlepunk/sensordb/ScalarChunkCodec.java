@@ -0,0 +1,239 @@
+/*
+ *  Copyright 2019 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.sensordb;
+
+import java.util.Arrays;
+
+/**
+ * Encodes a block of time-ordered scalar readings into a compact byte array, and back.
+ *
+ * <p>Timestamps are stored as delta-of-deltas and values as XORs against the previous value, in the
+ * style of the Gorilla time series format. Sensors that sample at a steady rate and change slowly
+ * compress to a few bits per point.
+ *
+ * <p>Layout: 32 bits of point count, then the first timestamp and value in full, then one
+ * variable-length record per remaining point.
+ */
+class ScalarChunkCodec {
+  private ScalarChunkCodec() {}
+
+  /**
+   * Encodes {@code count} readings starting at {@code offset}. Timestamps must be in ascending
+   * order.
+   */
+  static byte[] encode(long[] timestamps, double[] values, int offset, int count) {
+    BitWriter out = new BitWriter(16 + count * 2);
+    out.writeBits(count, 32);
+    if (count == 0) {
+      return out.toByteArray();
+    }
+
+    long prevTimestamp = timestamps[offset];
+    long prevBits = Double.doubleToRawLongBits(values[offset]);
+    out.writeBits(prevTimestamp, 64);
+    out.writeBits(prevBits, 64);
+
+    long prevDelta = 0;
+    int prevLeading = -1;
+    int prevTrailing = 0;
+    for (int i = offset + 1; i < offset + count; i++) {
+      long delta = timestamps[i] - prevTimestamp;
+      writeDeltaOfDelta(out, delta - prevDelta);
+      prevDelta = delta;
+      prevTimestamp = timestamps[i];
+
+      long bits = Double.doubleToRawLongBits(values[i]);
+      long xor = bits ^ prevBits;
+      prevBits = bits;
+      if (xor == 0) {
+        out.writeBit(false);
+        continue;
+      }
+      out.writeBit(true);
+      int leading = Math.min(Long.numberOfLeadingZeros(xor), 31);
+      int trailing = Long.numberOfTrailingZeros(xor);
+      if (prevLeading >= 0 && leading >= prevLeading && trailing >= prevTrailing) {
+        // Meaningful bits fit in the previous window; reuse it.
+        out.writeBit(false);
+        out.writeBits(xor >>> prevTrailing, 64 - prevLeading - prevTrailing);
+      } else {
+        int meaningful = 64 - leading - trailing;
+        out.writeBit(true);
+        out.writeBits(leading, 5);
+        // A window of 64 bits is stored as 0, since 6 bits only go up to 63.
+        out.writeBits(meaningful & 0x3f, 6);
+        out.writeBits(xor >>> trailing, meaningful);
+        prevLeading = leading;
+        prevTrailing = trailing;
+      }
+    }
+    return out.toByteArray();
+  }
+
+  /** Returns the number of readings stored in {@code chunk}. */
+  static int getPointCount(byte[] chunk) {
+    return (int) new BitReader(chunk).readBits(32);
+  }
+
+  /**
+   * Decodes {@code chunk} into {@code timestamps} and {@code values} starting at {@code
+   * destOffset}. The arrays must have room for {@link #getPointCount} readings.
+   *
+   * @return the number of readings decoded
+   */
+  static int decode(byte[] chunk, long[] timestamps, double[] values, int destOffset) {
+    BitReader in = new BitReader(chunk);
+    int count = (int) in.readBits(32);
+    if (count == 0) {
+      return 0;
+    }
+
+    long prevTimestamp = in.readBits(64);
+    long prevBits = in.readBits(64);
+    timestamps[destOffset] = prevTimestamp;
+    values[destOffset] = Double.longBitsToDouble(prevBits);
+
+    long prevDelta = 0;
+    int prevLeading = 0;
+    int prevTrailing = 0;
+    for (int i = 1; i < count; i++) {
+      long delta = prevDelta + readDeltaOfDelta(in);
+      prevTimestamp += delta;
+      prevDelta = delta;
+
+      if (in.readBit()) {
+        if (in.readBit()) {
+          prevLeading = (int) in.readBits(5);
+          int meaningful = (int) in.readBits(6);
+          if (meaningful == 0) {
+            meaningful = 64;
+          }
+          prevTrailing = 64 - prevLeading - meaningful;
+        }
+        long xor = in.readBits(64 - prevLeading - prevTrailing) << prevTrailing;
+        prevBits ^= xor;
+      }
+      timestamps[destOffset + i] = prevTimestamp;
+      values[destOffset + i] = Double.longBitsToDouble(prevBits);
+    }
+    return count;
+  }
+
+  private static void writeDeltaOfDelta(BitWriter out, long dod) {
+    if (dod == 0) {
+      out.writeBit(false);
+    } else if (fitsIn(dod, 7)) {
+      out.writeBits(0b10, 2);
+      out.writeBits(dod, 7);
+    } else if (fitsIn(dod, 9)) {
+      out.writeBits(0b110, 3);
+      out.writeBits(dod, 9);
+    } else if (fitsIn(dod, 12)) {
+      out.writeBits(0b1110, 4);
+      out.writeBits(dod, 12);
+    } else {
+      // Gaps in sensor data (e.g. a disconnected device) can be arbitrarily long.
+      out.writeBits(0b1111, 4);
+      out.writeBits(dod, 64);
+    }
+  }
+
+  private static long readDeltaOfDelta(BitReader in) {
+    if (!in.readBit()) {
+      return 0;
+    }
+    if (!in.readBit()) {
+      return signExtend(in.readBits(7), 7);
+    }
+    if (!in.readBit()) {
+      return signExtend(in.readBits(9), 9);
+    }
+    if (!in.readBit()) {
+      return signExtend(in.readBits(12), 12);
+    }
+    return in.readBits(64);
+  }
+
+  private static boolean fitsIn(long value, int bits) {
+    long limit = 1L << (bits - 1);
+    return value >= -limit && value < limit;
+  }
+
+  private static long signExtend(long value, int bits) {
+    int shift = 64 - bits;
+    return (value << shift) >> shift;
+  }
+
+  private static class BitWriter {
+    private byte[] buffer;
+    private long bitPosition = 0;
+
+    BitWriter(int initialBytes) {
+      buffer = new byte[Math.max(initialBytes, 16)];
+    }
+
+    void writeBit(boolean bit) {
+      writeBits(bit ? 1 : 0, 1);
+    }
+
+    /** Writes the low {@code count} bits of {@code value}, most significant first. */
+    void writeBits(long value, int count) {
+      ensureCapacity(count);
+      for (int i = count - 1; i >= 0; i--) {
+        if (((value >>> i) & 1) != 0) {
+          int byteIndex = (int) (bitPosition >>> 3);
+          buffer[byteIndex] |= (byte) (0x80 >>> (bitPosition & 7));
+        }
+        bitPosition++;
+      }
+    }
+
+    private void ensureCapacity(int extraBits) {
+      int neededBytes = (int) ((bitPosition + extraBits + 7) >>> 3);
+      if (neededBytes > buffer.length) {
+        buffer = Arrays.copyOf(buffer, Math.max(neededBytes, buffer.length * 2));
+      }
+    }
+
+    byte[] toByteArray() {
+      return Arrays.copyOf(buffer, (int) ((bitPosition + 7) >>> 3));
+    }
+  }
+
+  private static class BitReader {
+    private final byte[] buffer;
+    private long bitPosition = 0;
+
+    BitReader(byte[] buffer) {
+      this.buffer = buffer;
+    }
+
+    boolean readBit() {
+      int b = buffer[(int) (bitPosition >>> 3)] & (0x80 >>> (bitPosition & 7));
+      bitPosition++;
+      return b != 0;
+    }
+
+    long readBits(int count) {
+      long result = 0;
+      for (int i = 0; i < count; i++) {
+        result = (result << 1) | (readBit() ? 1 : 0);
+      }
+      return result;
+    }
+  }
+}
@@ -0,0 +1,35 @@
+/*
+ *  Copyright 2019 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.sensordb;
+
+/**
+ * A batch of readings to store, accessed by index so that implementations can keep them in
+ * primitive arrays rather than one object per reading.
+ */
+public interface ScalarReadingBatch {
+  int size();
+
+  String getTrialId(int index);
+
+  String getSensorId(int index);
+
+  int getResolutionTier(int index);
+
+  long getTimestampMillis(int index);
+
+  double getValue(int index);
+}
@@ -0,0 +1,111 @@
+/*
+ *  Copyright 2019 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.sensordb;
+
+import com.google.android.apps.forscience.whistlepunk.scalarchart.PointList;
+import com.google.common.collect.Range;
+
+/**
+ * Reads one sensor's tier 0 readings in a trial from a {@link SensorDatabase} in timestamp order, a
+ * page at a time, so that a whole trial can be read without holding it in memory.
+ *
+ * <p>All calls to the database are made from {@link #hasNext}, which must be called on the
+ * database's thread.
+ */
+public class ScalarReadingCursor {
+  private final SensorDatabase db;
+  private final String trialId;
+  private final String sensorId;
+  private final long firstTimestamp;
+  private final long lastTimestamp;
+  private int pageSize;
+  private PointList page = null;
+  private int index = 0;
+  private boolean isLastPage = false;
+  // The last timestamp read, and how many readings had it. The next page starts at this
+  // timestamp, in case a page ended part way through readings which share it.
+  private long lastRead = -1;
+  private int readAtLast = 0;
+
+  public ScalarReadingCursor(
+      SensorDatabase db,
+      String trialId,
+      String sensorId,
+      long firstTimestamp,
+      long lastTimestamp,
+      int pageSize) {
+    this.db = db;
+    this.trialId = trialId;
+    this.sensorId = sensorId;
+    this.firstTimestamp = firstTimestamp;
+    this.lastTimestamp = lastTimestamp;
+    this.pageSize = pageSize;
+  }
+
+  public boolean hasNext() {
+    while ((page == null || index >= page.size()) && !isLastPage) {
+      loadPage();
+    }
+    return index < page.size();
+  }
+
+  public long getTimestamp() {
+    return page.getX(index);
+  }
+
+  public double getValue() {
+    return page.getY(index);
+  }
+
+  public void advance() {
+    long timestamp = page.getX(index);
+    if (timestamp == lastRead) {
+      readAtLast++;
+    } else {
+      lastRead = timestamp;
+      readAtLast = 1;
+    }
+    index++;
+  }
+
+  private void loadPage() {
+    long start = page == null ? firstTimestamp : lastRead;
+    page =
+        db.getScalarReadings(
+                trialId,
+                sensorId,
+                TimeRange.oldest(Range.closed(start, lastTimestamp)),
+                0,
+                pageSize)
+            .asPointList();
+    isLastPage = page.size() < pageSize;
+    index = 0;
+    if (lastRead == -1) {
+      return;
+    }
+    // Skip the readings at the last timestamp which the previous page already had.
+    int skipped = 0;
+    while (index < page.size() && skipped < readAtLast && page.getX(index) == lastRead) {
+      index++;
+      skipped++;
+    }
+    if (index == page.size() && !isLastPage) {
+      // The whole page was readings we already had, so ask for more next time.
+      pageSize *= 2;
+    }
+  }
+}
@@ -17,6 +17,7 @@
 package com.google.android.apps.forscience.whistlepunk.sensordb;
 
 import com.google.android.apps.forscience.whistlepunk.scalarchart.ChartData;
+import com.google.android.apps.forscience.whistlepunk.scalarchart.PointList;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.StreamConsumer;
 import java.util.List;
 
@@ -36,4 +37,12 @@ public interface ScalarReadingList {
    * @return The scalar reading list as a list of data points.
    */
   List<ChartData.DataPoint> asDataPoints();
+
+  /**
+   * Returns the readings as a PointList that shares this list's storage, so that no per-reading
+   * objects are allocated.
+   *
+   * @return The scalar reading list as a read-only point list.
+   */
+  PointList asPointList();
 }
@@ -0,0 +1,155 @@
+/*
+ *  Copyright 2019 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.sensordb;
+
+import androidx.annotation.VisibleForTesting;
+import com.google.android.apps.forscience.whistlepunk.metadata.GoosciExperiment;
+import com.google.android.apps.forscience.whistlepunk.metadata.GoosciScalarSensorData.ScalarSensorData;
+import com.google.android.apps.forscience.whistlepunk.metadata.GoosciScalarSensorData.ScalarSensorDataDump;
+import com.google.android.apps.forscience.whistlepunk.metadata.GoosciScalarSensorData.ScalarSensorDataRow;
+import com.google.android.apps.forscience.whistlepunk.metadata.GoosciTrial;
+import com.google.common.base.Preconditions;
+import com.google.protobuf.CodedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes an experiment's sensor data as a {@link ScalarSensorData} proto, a chunk at a time.
+ *
+ * <p>Each chunk is a {@link ScalarSensorDataDump} of at most {@link #CHUNK_SIZE} readings from one
+ * sensor in one trial, written as one length-delimited entry of the {@code sensors} field. A sensor
+ * with more readings than that is split over consecutive chunks with the same trial id and tag. The
+ * output is still an ordinary ScalarSensorData, so older readers can parse it whole, but it is
+ * never held in memory whole: memory use is one page of readings and one chunk however long the
+ * experiment is. {@link
+ * com.google.android.apps.forscience.whistlepunk.sensorapi.ScalarSensorDumpReader#readData(
+ * java.io.InputStream, java.util.Map)} reads it back a chunk at a time.
+ *
+ * <p>The export is done a chunk per {@link #step}, so that a long experiment doesn't hold up the
+ * database's thread. All calls to the database are made from {@link #step}, which must be called on
+ * that thread. Each writer can only be used once.
+ */
+public class ScalarSensorDumpWriter {
+  static final int CHUNK_SIZE = 4096;
+  private static final int PAGE_SIZE = 4096;
+  private static final int OUTPUT_BUFFER_SIZE = 64 * 1024;
+
+  private final GoosciExperiment.Experiment experiment;
+  private int chunkSize = CHUNK_SIZE;
+  private int pageSize = PAGE_SIZE;
+
+  private OutputStream out = null;
+  private CodedOutputStream output = null;
+  private int trialIndex = 0;
+  private int sensorIndex = 0;
+  private String trialId;
+  private String tag;
+  // The sensor being written, or null between sensors.
+  private ScalarReadingCursor cursor = null;
+  private boolean done = false;
+
+  public ScalarSensorDumpWriter(GoosciExperiment.Experiment experiment) {
+    this.experiment = experiment;
+  }
+
+  @VisibleForTesting
+  ScalarSensorDumpWriter setChunkSize(int chunkSize) {
+    this.chunkSize = chunkSize;
+    return this;
+  }
+
+  @VisibleForTesting
+  ScalarSensorDumpWriter setPageSize(int pageSize) {
+    this.pageSize = pageSize;
+    return this;
+  }
+
+  /**
+   * Sets the stream that {@link #step} writes to, which is flushed but not closed, so that it can
+   * be an entry of a zip file. Nothing is written until the first step.
+   */
+  public ScalarSensorDumpWriter setOutputStream(OutputStream out) {
+    this.out = out;
+    return this;
+  }
+
+  /**
+   * Reads every trial's sensors from {@code db} and writes them to {@code out}, which is flushed
+   * but not closed, in a single call.
+   */
+  public void write(SensorDatabase db, OutputStream out) throws IOException {
+    setOutputStream(out);
+    while (!step(db)) {}
+  }
+
+  /**
+   * Writes the next chunk to the output stream. Must be called on the database's thread. If this
+   * throws, the export can't go on.
+   *
+   * @return true once every chunk has been written and the output stream flushed.
+   */
+  public boolean step(SensorDatabase db) throws IOException {
+    if (done) {
+      return true;
+    }
+    if (output == null) {
+      Preconditions.checkNotNull(out, "No output stream was set");
+      output = CodedOutputStream.newInstance(out, OUTPUT_BUFFER_SIZE);
+    }
+    if (cursor == null && !startNextSensor(db)) {
+      done = true;
+      output.flush();
+      return true;
+    }
+    // A sensor with no readings still gets one empty chunk, as it did when the whole proto was
+    // built at once.
+    ScalarSensorDataDump.Builder chunk =
+        ScalarSensorDataDump.newBuilder().setTag(tag).setTrialId(trialId);
+    for (int rows = 0; rows < chunkSize && cursor.hasNext(); rows++) {
+      chunk.addRows(
+          ScalarSensorDataRow.newBuilder()
+              .setTimestampMillis(cursor.getTimestamp())
+              .setValue(cursor.getValue()));
+      cursor.advance();
+    }
+    output.writeMessage(ScalarSensorData.SENSORS_FIELD_NUMBER, chunk.build());
+    if (!cursor.hasNext()) {
+      cursor = null;
+    }
+    return false;
+  }
+
+  /** Opens a cursor on the next sensor to write, or returns false if there are none. */
+  private boolean startNextSensor(SensorDatabase db) {
+    while (trialIndex < experiment.getTrialsCount()) {
+      GoosciTrial.Trial trial = experiment.getTrials(trialIndex);
+      GoosciTrial.Range range = trial.getRecordingRange();
+      // This protects against corrupted trials with invalid range end times.
+      if (range.getEndMs() > range.getStartMs() && sensorIndex < trial.getSensorLayoutsCount()) {
+        trialId = trial.getTrialId();
+        tag = trial.getSensorLayouts(sensorIndex++).getSensorId();
+        cursor =
+            new ScalarReadingCursor(
+                db, trialId, tag, range.getStartMs(), range.getEndMs(), pageSize);
+        return true;
+      }
+      trialIndex++;
+      sensorIndex = 0;
+    }
+    return false;
+  }
+}
@@ -32,6 +32,9 @@ public interface SensorDatabase {
   /** Add all of the readings to the database. */
   void addScalarReadings(List<BatchInsertScalarReading> readings);
 
+  /** Add all of the readings in {@code batch} to the database, in a single transaction. */
+  void addScalarReadingBatch(ScalarReadingBatch batch);
+
   /**
    * See {@link #getScalarReadings(String, String, TimeRange, int, int)} for semantics of these
    * params
@@ -65,6 +68,12 @@ public interface SensorDatabase {
   /** Deletes the scalar records for the given sensor for the given time range. */
   void deleteScalarReadings(String trialId, String sensorTag, TimeRange range);
 
+  /**
+   * Deletes the readings of every resolution tier above 0 for the given sensor in the given trial,
+   * leaving the readings as recorded in place.
+   */
+  void deleteZoomTiers(String trialId, String sensorTag);
+
   Observable<ScalarReading> createScalarObservable(
       String trialId, String[] sensorTags, TimeRange range, int resolutionTier);
 
@@ -16,11 +16,12 @@
 
 package com.google.android.apps.forscience.whistlepunk.sensordb;
 
-import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
 import androidx.annotation.VisibleForTesting;
 import androidx.core.util.Pair;
 import com.google.android.apps.forscience.whistlepunk.BatchInsertScalarReading;
@@ -32,6 +33,7 @@ import com.google.android.apps.forscience.whistlepunk.metadata.GoosciScalarSenso
 import com.google.android.apps.forscience.whistlepunk.metadata.GoosciScalarSensorData.ScalarSensorDataRow;
 import com.google.android.apps.forscience.whistlepunk.metadata.GoosciTrial;
 import com.google.android.apps.forscience.whistlepunk.scalarchart.ChartData;
+import com.google.android.apps.forscience.whistlepunk.scalarchart.PointList;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.StreamConsumer;
 import com.google.common.base.Joiner;
 import com.google.common.base.Preconditions;
@@ -42,20 +44,30 @@ import io.reactivex.Observable;
 import io.reactivex.ObservableEmitter;
 import io.reactivex.ObservableOnSubscribe;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class SensorDatabaseImpl implements SensorDatabase {
+  /** Trial id of readings recorded before readings were tagged with their trial. */
+  static final String DEFAULT_TRIAL_ID = "0";
+
+  /** Name of the table holding one row per reading. */
+  static final String SCALAR_SENSORS_TABLE = "scalar_sensors";
+
   private static class DbVersions {
     public static final int V1_START = 1;
     public static final int V2_INDEX = 2;
     public static final int V3_TIER = 3;
     public static final int V4_TRIALID = 4;
-    public static final int CURRENT = V4_TRIALID;
+    public static final int V5_SERIES_INDEX = 5;
+    public static final int CURRENT = V5_SERIES_INDEX;
   }
 
   private static class ScalarSensorsTable {
-    public static final String NAME = "scalar_sensors";
-    public static final String DEFAULT_TRIAL_ID = "0";
+    public static final String NAME = SCALAR_SENSORS_TABLE;
+    public static final String DEFAULT_TRIAL_ID = SensorDatabaseImpl.DEFAULT_TRIAL_ID;
 
     public static class Column {
       public static final String TAG = "tag";
@@ -83,10 +95,102 @@ public class SensorDatabaseImpl implements SensorDatabase {
 
     public static final String INDEX_SQL =
         "CREATE INDEX timestamp ON " + NAME + "(" + Column.TIMESTAMP_MILLIS + ");";
+
+    // Every read filters on trialId, tag and tier and then a timestamp range, so this index
+    // serves them with a single range scan. Including the value makes it covering: reads never
+    // have to visit the table itself.
+    public static final String SERIES_INDEX_SQL =
+        "CREATE INDEX IF NOT EXISTS series_time ON "
+            + NAME
+            + "("
+            + Column.TRIAL_ID
+            + ", "
+            + Column.TAG
+            + ", "
+            + Column.RESOLUTION_TIER
+            + ", "
+            + Column.TIMESTAMP_MILLIS
+            + ", "
+            + Column.VALUE
+            + ");";
+
+    public static final String INSERT_SQL =
+        "INSERT INTO "
+            + NAME
+            + " ("
+            + Column.TRIAL_ID
+            + ", "
+            + Column.TAG
+            + ", "
+            + Column.RESOLUTION_TIER
+            + ", "
+            + Column.TIMESTAMP_MILLIS
+            + ", "
+            + Column.VALUE
+            + ") VALUES (?, ?, ?, ?, ?);";
+  }
+
+  /**
+   * Fixed SQL for reading a single series, one variant per combination of lower bound, upper bound
+   * and order. Because the SQL text never changes, SQLite's per-connection statement cache compiles
+   * each variant only once. See {@link #getSeriesCursor}.
+   */
+  private static final String[] SERIES_QUERIES = buildSeriesQueries();
+
+  private static final int HAS_LOWER_BOUND = 1;
+  private static final int HAS_UPPER_BOUND = 2;
+  private static final int NEWEST_FIRST = 4;
+
+  private static String[] buildSeriesQueries() {
+    String[] queries = new String[8];
+    for (int i = 0; i < queries.length; i++) {
+      StringBuilder sql =
+          new StringBuilder("SELECT ")
+              .append(ScalarSensorsTable.Column.TIMESTAMP_MILLIS)
+              .append(", ")
+              .append(ScalarSensorsTable.Column.VALUE)
+              .append(", ")
+              .append(ScalarSensorsTable.Column.TAG)
+              .append(", ")
+              .append(ScalarSensorsTable.Column.TRIAL_ID)
+              .append(" FROM ")
+              .append(ScalarSensorsTable.NAME)
+              .append(" WHERE ")
+              .append(ScalarSensorsTable.Column.TRIAL_ID)
+              .append(" = ? AND ")
+              .append(ScalarSensorsTable.Column.TAG)
+              .append(" = ? AND ")
+              .append(ScalarSensorsTable.Column.RESOLUTION_TIER)
+              .append(" = ?");
+      if ((i & HAS_LOWER_BOUND) != 0) {
+        sql.append(" AND ").append(ScalarSensorsTable.Column.TIMESTAMP_MILLIS).append(" >= ?");
+      }
+      if ((i & HAS_UPPER_BOUND) != 0) {
+        sql.append(" AND ").append(ScalarSensorsTable.Column.TIMESTAMP_MILLIS).append(" < ?");
+      }
+      sql.append(" ORDER BY ")
+          .append(ScalarSensorsTable.Column.TIMESTAMP_MILLIS)
+          .append((i & NEWEST_FIRST) != 0 ? " DESC" : " ASC")
+          // A negative limit means no limit.
+          .append(" LIMIT ?");
+      queries[i] = sql.toString();
+    }
+    return queries;
   }
 
   private final SQLiteOpenHelper openHelper;
 
+  // Reused for every insert; all access is from a single thread.
+  private SQLiteStatement insertStatement;
+
+  // Series, keyed by getSeriesKey, known to have readings stored under their own trialId. Queries
+  // for these never need to fall back to DEFAULT_TRIAL_ID, which only holds readings from before
+  // trial ids. This is per series rather than per trial, since the zoom tiers of an old trial may
+  // be rebuilt under its own trialId while its tier 0 readings stay under DEFAULT_TRIAL_ID.
+  // Concurrent, since reads and deletes come from more than one thread.
+  private final Set<String> seriesWithOwnReadings =
+      Collections.newSetFromMap(new ConcurrentHashMap<>());
+
   public SensorDatabaseImpl(Context context, AppAccount appAccount, String name) {
     openHelper =
         new SQLiteOpenHelper(
@@ -95,6 +199,7 @@ public class SensorDatabaseImpl implements SensorDatabase {
           public void onCreate(SQLiteDatabase db) {
             db.execSQL(ScalarSensorsTable.CREATION_SQL);
             db.execSQL(ScalarSensorsTable.INDEX_SQL);
+            db.execSQL(ScalarSensorsTable.SERIES_INDEX_SQL);
           }
 
           @Override
@@ -122,6 +227,10 @@ public class SensorDatabaseImpl implements SensorDatabase {
                         + " TEXT DEFAULT 0 NOT NULL;");
                 oldVersion = DbVersions.V4_TRIALID;
               }
+              if (oldVersion == DbVersions.V4_TRIALID) {
+                db.execSQL(ScalarSensorsTable.SERIES_INDEX_SQL);
+                oldVersion = DbVersions.V5_SERIES_INDEX;
+              }
             }
           }
         };
@@ -133,13 +242,27 @@ public class SensorDatabaseImpl implements SensorDatabase {
     try {
       db.beginTransaction();
       for (BatchInsertScalarReading r : readings) {
-        ContentValues values = new ContentValues();
-        values.put(ScalarSensorsTable.Column.TRIAL_ID, r.trialId);
-        values.put(ScalarSensorsTable.Column.TAG, r.sensorId);
-        values.put(ScalarSensorsTable.Column.TIMESTAMP_MILLIS, r.timestampMillis);
-        values.put(ScalarSensorsTable.Column.VALUE, r.value);
-        values.put(ScalarSensorsTable.Column.RESOLUTION_TIER, r.resolutionTier);
-        db.insert(ScalarSensorsTable.NAME, null, values);
+        insert(db, r.trialId, r.sensorId, r.resolutionTier, r.timestampMillis, r.value);
+      }
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
+  }
+
+  @Override
+  public void addScalarReadingBatch(ScalarReadingBatch batch) {
+    SQLiteDatabase db = openHelper.getWritableDatabase();
+    try {
+      db.beginTransaction();
+      for (int i = 0; i < batch.size(); i++) {
+        insert(
+            db,
+            batch.getTrialId(i),
+            batch.getSensorId(i),
+            batch.getResolutionTier(i),
+            batch.getTimestampMillis(i),
+            batch.getValue(i));
       }
       db.setTransactionSuccessful();
     } finally {
@@ -150,13 +273,31 @@ public class SensorDatabaseImpl implements SensorDatabase {
   @Override
   public void addScalarReading(
       String trialId, String sourceTag, int resolutionTier, long timestampMillis, double value) {
-    ContentValues values = new ContentValues();
-    values.put(ScalarSensorsTable.Column.TRIAL_ID, trialId);
-    values.put(ScalarSensorsTable.Column.TAG, sourceTag);
-    values.put(ScalarSensorsTable.Column.TIMESTAMP_MILLIS, timestampMillis);
-    values.put(ScalarSensorsTable.Column.VALUE, value);
-    values.put(ScalarSensorsTable.Column.RESOLUTION_TIER, resolutionTier);
-    openHelper.getWritableDatabase().insert(ScalarSensorsTable.NAME, null, values);
+    insert(
+        openHelper.getWritableDatabase(),
+        trialId,
+        sourceTag,
+        resolutionTier,
+        timestampMillis,
+        value);
+  }
+
+  private void insert(
+      SQLiteDatabase db,
+      String trialId,
+      String sourceTag,
+      int resolutionTier,
+      long timestampMillis,
+      double value) {
+    if (insertStatement == null) {
+      insertStatement = db.compileStatement(ScalarSensorsTable.INSERT_SQL);
+    }
+    insertStatement.bindString(1, trialId);
+    insertStatement.bindString(2, sourceTag);
+    insertStatement.bindLong(3, resolutionTier);
+    insertStatement.bindLong(4, timestampMillis);
+    insertStatement.bindDouble(5, value);
+    insertStatement.executeInsert();
   }
 
   /**
@@ -219,7 +360,7 @@ public class SensorDatabaseImpl implements SensorDatabase {
       String trialId, String sensorTag, TimeRange range, int resolutionTier, int maxRecords) {
     try (Cursor cursor =
         getCursor(trialId, new String[] {sensorTag}, range, resolutionTier, maxRecords)) {
-      if (cursor.getCount() == 0) {
+      if (cursor.getCount() == 0 && needsDefaultTrialFallback(trialId, sensorTag, resolutionTier)) {
         // Database returned no results with Trial Id; Attempt to use default Trial Id
         try (Cursor fallbackCursor =
             getCursor(
@@ -236,6 +377,42 @@ public class SensorDatabaseImpl implements SensorDatabase {
     }
   }
 
+  /**
+   * Returns true if an empty result for a series should be retried with {@link
+   * ScalarSensorsTable#DEFAULT_TRIAL_ID}. Once the series is known to have readings under {@code
+   * trialId}, that second query can only ever find readings from an unrelated, older recording, so
+   * it is skipped.
+   *
+   * @param resolutionTier the tier queried, or a negative number for every tier
+   */
+  private boolean needsDefaultTrialFallback(String trialId, String sensorTag, int resolutionTier) {
+    if (ScalarSensorsTable.DEFAULT_TRIAL_ID.equals(trialId)) {
+      return false;
+    }
+    String key = getSeriesKey(trialId, sensorTag, resolutionTier);
+    if (seriesWithOwnReadings.contains(key)) {
+      return false;
+    }
+    String selection =
+        ScalarSensorsTable.Column.TRIAL_ID + " = ? AND " + ScalarSensorsTable.Column.TAG + " = ?";
+    String[] selectionArgs = {trialId, sensorTag};
+    if (resolutionTier >= 0) {
+      selection += " AND " + ScalarSensorsTable.Column.RESOLUTION_TIER + " = ?";
+      selectionArgs = new String[] {trialId, sensorTag, String.valueOf(resolutionTier)};
+    }
+    if (DatabaseUtils.queryNumEntries(
+            openHelper.getReadableDatabase(), ScalarSensorsTable.NAME, selection, selectionArgs)
+        > 0) {
+      seriesWithOwnReadings.add(key);
+      return false;
+    }
+    return true;
+  }
+
+  private static String getSeriesKey(String trialId, String sensorTag, int resolutionTier) {
+    return trialId + "/" + sensorTag + "/" + resolutionTier;
+  }
+
   private ScalarReadingList cursorAsScalarReadingList(Cursor cursor, int maxRecords) {
     final int max = maxRecords <= 0 ? cursor.getCount() : maxRecords;
     final long[] readTimestamps = new long[max];
@@ -268,6 +445,11 @@ public class SensorDatabaseImpl implements SensorDatabase {
         }
         return result;
       }
+
+      @Override
+      public PointList asPointList() {
+        return PointList.wrap(readTimestamps, readValues, actualCount);
+      }
     };
   }
 
@@ -330,6 +512,9 @@ public class SensorDatabaseImpl implements SensorDatabase {
 
   private Cursor getCursor(
       String trialId, String[] sensorTags, TimeRange range, int resolutionTier, int maxRecords) {
+    if (sensorTags.length == 1 && resolutionTier >= 0) {
+      return getSeriesCursor(trialId, sensorTags[0], range, resolutionTier, maxRecords);
+    }
     String[] columns =
         new String[] {
           ScalarSensorsTable.Column.TIMESTAMP_MILLIS, ScalarSensorsTable.Column.VALUE,
@@ -350,6 +535,35 @@ public class SensorDatabaseImpl implements SensorDatabase {
             ScalarSensorsTable.NAME, columns, selection, selectionArgs, null, null, orderBy, limit);
   }
 
+  /** Reads a single series using one of the fixed {@link #SERIES_QUERIES}. */
+  private Cursor getSeriesCursor(
+      String trialId, String sensorTag, TimeRange range, int resolutionTier, int maxRecords) {
+    List<String> args = new ArrayList<>(6);
+    args.add(Preconditions.checkNotNull(trialId));
+    args.add(sensorTag);
+    args.add(String.valueOf(resolutionTier));
+
+    // Canonical ranges over a discrete domain are always closed below and open above.
+    int queryIndex = 0;
+    Range<Long> times = range.getTimes().canonical(DiscreteDomain.longs());
+    if (times.hasLowerBound()) {
+      queryIndex |= HAS_LOWER_BOUND;
+      args.add(String.valueOf(times.lowerEndpoint()));
+    }
+    if (times.hasUpperBound()) {
+      queryIndex |= HAS_UPPER_BOUND;
+      args.add(String.valueOf(times.upperEndpoint()));
+    }
+    if (range.getOrder() == TimeRange.ObservationOrder.NEWEST_FIRST) {
+      queryIndex |= NEWEST_FIRST;
+    }
+    args.add(String.valueOf(maxRecords <= 0 ? -1 : maxRecords));
+
+    return openHelper
+        .getReadableDatabase()
+        .rawQuery(SERIES_QUERIES[queryIndex], args.toArray(new String[args.size()]));
+  }
+
   @Override
   public GoosciScalarSensorData.ScalarSensorData getScalarReadingProtos(
       GoosciExperiment.Experiment experiment) {
@@ -382,7 +596,7 @@ public class SensorDatabaseImpl implements SensorDatabase {
   public ScalarSensorDataDump getScalarReadingSensorProtos(
       String trialId, String sensorTag, TimeRange range) {
     try (Cursor cursor = getCursor(trialId, new String[] {sensorTag}, range, 0, 0)) {
-      if (cursor.getCount() == 0) {
+      if (cursor.getCount() == 0 && needsDefaultTrialFallback(trialId, sensorTag, 0)) {
         // No results for the TrialId. Assume this is a pre-export trial, so query again
         // with the default trial id.
         try (Cursor fallbackCursor =
@@ -446,6 +660,24 @@ public class SensorDatabaseImpl implements SensorDatabase {
     String selection = selectionAndArgs.first;
     String[] selectionArgs = selectionAndArgs.second;
     openHelper.getWritableDatabase().delete(ScalarSensorsTable.NAME, selection, selectionArgs);
+    // The series may no longer have readings of their own.
+    seriesWithOwnReadings.clear();
+  }
+
+  @Override
+  public void deleteZoomTiers(String trialId, String sensorTag) {
+    openHelper
+        .getWritableDatabase()
+        .delete(
+            ScalarSensorsTable.NAME,
+            ScalarSensorsTable.Column.TAG
+                + " = ? AND "
+                + ScalarSensorsTable.Column.TRIAL_ID
+                + " = ? AND "
+                + ScalarSensorsTable.Column.RESOLUTION_TIER
+                + " > 0",
+            new String[] {sensorTag, trialId});
+    seriesWithOwnReadings.clear();
   }
 
   @Override
@@ -18,17 +18,17 @@ package com.google.android.apps.forscience.whistlepunk.sensors;
 
 import android.content.Context;
 import android.hardware.Sensor;
-import android.hardware.SensorEvent;
-import android.hardware.SensorEventListener;
 import android.hardware.SensorManager;
-import com.google.android.apps.forscience.whistlepunk.Clock;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.AbstractSensorRecorder;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.AvailableSensors;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.ReadableSensorOptions;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.ScalarSensor;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.SensorEnvironment;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.SensorPresenter;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.SensorRecorder;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.SensorStatusListener;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.StreamConsumer;
+import io.reactivex.disposables.Disposable;
 
 public class AccelerometerSensor extends ScalarSensor {
   private Axis axis;
@@ -46,8 +46,8 @@ public class AccelerometerSensor extends ScalarSensor {
       this.databaseTag = databaseTag;
     }
 
-    public float getValue(SensorEvent event) {
-      return event.values[valueIndex];
+    public float getValue(float[] values) {
+      return values[valueIndex];
     }
 
     public String getSensorId() {
@@ -55,7 +55,7 @@ public class AccelerometerSensor extends ScalarSensor {
     }
   }
 
-  private SensorEventListener sensorEventListener;
+  private Disposable subscription;
 
   public AccelerometerSensor(Axis axis) {
     super(axis.getSensorId());
@@ -69,36 +69,56 @@ public class AccelerometerSensor extends ScalarSensor {
       final Context context,
       final SensorStatusListener listener) {
     return new AbstractSensorRecorder() {
+      private int samplingPeriodUs = SensorManager.SENSOR_DELAY_UI;
+
       @Override
       public void startObserving() {
         listener.onSourceStatus(getId(), SensorStatusListener.STATUS_CONNECTED);
-        SensorManager sensorManager = getSensorManager(context);
-        Sensor sensor = sensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER);
-        if (sensorEventListener != null) {
-          getSensorManager(context).unregisterListener(sensorEventListener);
+        subscribe();
+      }
+
+      private void subscribe() {
+        if (subscription != null) {
+          subscription.dispose();
+        }
+        subscription =
+            environment
+                .getHardwareSensorHub()
+                .subscribe(
+                    context,
+                    Sensor.TYPE_ACCELEROMETER,
+                    samplingPeriodUs,
+                    HardwareSensorHub.DEFAULT_MAX_REPORT_LATENCY_US,
+                    (timestamp, values) -> c.addData(timestamp, axis.getValue(values)));
+      }
+
+      @Override
+      public void applyOptions(ReadableSensorOptions settings) {
+        int newPeriodUs = SamplingProfile.getSamplingPeriodUs(settings);
+        if (newPeriodUs != samplingPeriodUs) {
+          samplingPeriodUs = newPeriodUs;
+          if (subscription != null) {
+            subscribe();
+          }
         }
-        final Clock clock = environment.getDefaultClock();
-        sensorEventListener =
-            new SensorEventListener() {
-              @Override
-              public void onSensorChanged(SensorEvent event) {
-                c.addData(clock.getNow(), axis.getValue(event));
-              }
-
-              @Override
-              public void onAccuracyChanged(Sensor sensor, int accuracy) {}
-            };
-        sensorManager.registerListener(sensorEventListener, sensor, SensorManager.SENSOR_DELAY_UI);
       }
 
       @Override
       public void stopObserving() {
-        getSensorManager(context).unregisterListener(sensorEventListener);
+        if (subscription != null) {
+          subscription.dispose();
+          subscription = null;
+        }
         listener.onSourceStatus(getId(), SensorStatusListener.STATUS_DISCONNECTED);
       }
     };
   }
 
+  @Override
+  protected SensorPresenter.OptionsPresenter createAdditionalScalarOptionsPresenter() {
+    return new SamplingOptionsPresenter();
+  }
+
   public static boolean isAccelerometerAvailable(AvailableSensors availableSensors) {
     return availableSensors.isSensorAvailable(Sensor.TYPE_ACCELEROMETER);
   }
@@ -38,6 +38,10 @@ public class BleProtocolVersion {
   private static final int MINOR_MASK = MINOR_MAX << MINOR_SHIFT;
   private static final int PATCH_MASK = PATCH_MAX;
 
+  // The first version to support DataBatch.
+  private static final int BATCHED_READINGS_MAJOR = 1;
+  private static final int BATCHED_READINGS_MINOR = 1;
+
   public BleProtocolVersion(byte[] rawVersion) {
     int version = (rawVersion[0] & 0xFF) | ((rawVersion[1] << 8) & 0xFF00);
 
@@ -58,6 +62,12 @@ public class BleProtocolVersion {
     return patchVersion;
   }
 
+  /** @return whether the device can send batches of readings (see sensor.proto's DataBatch). */
+  public boolean supportsBatchedReadings() {
+    return majorVersion > BATCHED_READINGS_MAJOR
+        || (majorVersion == BATCHED_READINGS_MAJOR && minorVersion >= BATCHED_READINGS_MINOR);
+  }
+
   @VisibleForTesting
   public int getMaxMajorVersion() {
     return MAJOR_MAX;
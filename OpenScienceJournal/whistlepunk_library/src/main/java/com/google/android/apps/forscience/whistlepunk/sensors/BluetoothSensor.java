@@ -65,6 +65,10 @@ public class BluetoothSensor extends ScalarSensor {
   public static final BleServiceSpec[] SUPPORTED_SERVICES =
       new BleServiceSpec[] {ANNING_SERVICE_SPEC};
 
+  // How many readings a device may send at once, if it supports batches. About 100 bytes of
+  // analog readings, which fits in a single notification once the MTU has been raised.
+  @VisibleForTesting static final int MAX_BATCH_SIZE = 32;
+
   private static final long DEFAULT_FREQUENCY_WINDOW = 2000;
   private static final float DEFAULT_FREQUENCY_FILTER = 0;
   private final BleSensorSpec sensor;
@@ -105,7 +109,8 @@ public class BluetoothSensor extends ScalarSensor {
               new PacketAssembler.Listener() {
                 @Override
                 public void onError(@SensorStatusListener.Error int error, String message) {
-                  listener.onSourceError(getId(), error, message);
+                  // Packets are assembled on the BLE I/O thread.
+                  runOnMainThread(() -> listener.onSourceError(getId(), error, message));
                 }
 
                 @Override
@@ -136,18 +141,27 @@ public class BluetoothSensor extends ScalarSensor {
           switch (protocolVersion.getMajorVersion()) {
               // Currently no version requires a special connection sequence
             default:
-              writeConfigAndSetNotification(flow);
+              writeConfigAndSetNotification(flow, protocolVersion);
           }
         }
       }
 
       @Override
-      public void onNotification(UUID characteristic, int flags, byte[] value) {
-        pa.append(value);
+      public void onNotification(UUID characteristic, int flags, byte[] value, int length) {
+        pa.append(value, length);
       }
 
       @Override
       public void onDisconnect() {
+        if (Log.isLoggable(TAG, Log.DEBUG)) {
+          Log.d(
+              TAG,
+              "Disconnected; "
+                  + pa.getMalformedFragmentCount()
+                  + " malformed fragments, "
+                  + pa.getOutOfOrderCount()
+                  + " readings out of order");
+        }
         notificationSubscribed = false;
         listener.onSourceStatus(getId(), SensorStatusListener.STATUS_DISCONNECTED);
       }
@@ -175,7 +189,7 @@ public class BluetoothSensor extends ScalarSensor {
           flow.lookupCharacteristic(serviceSpec.getServiceId(), serviceSpec.getVersionId()).read();
           BleFlow.run(flow);
         } else {
-          writeConfigAndSetNotification(flow);
+          writeConfigAndSetNotification(flow, null);
         }
       }
     };
@@ -191,11 +205,20 @@ public class BluetoothSensor extends ScalarSensor {
     return deviceScaleTransform;
   }
 
-  private byte[] buildConfigProtoForDevice(BleSensorSpec sensor) {
+  /**
+   * @param protocolVersion the device's protocol version, or null if it doesn't say. If the device
+   *     supports it, we ask it to batch readings, so that it can send many more of them a second.
+   */
+  @VisibleForTesting
+  static byte[] buildConfigProtoForDevice(
+      BleSensorSpec sensor, @Nullable BleProtocolVersion protocolVersion) {
     GoosciSensor.SensorDataRequest.Builder sdr =
         GoosciSensor.SensorDataRequest.newBuilder()
             .setTimestampKey(42) // arbitrary constant.  TMOLTUAE.
             .setInterval(Interval.newBuilder().setCount(1).setFrequency(20));
+    if (protocolVersion != null && protocolVersion.supportsBatchedReadings()) {
+      sdr.setMaxBatchSize(MAX_BATCH_SIZE);
+    }
     Pin.Builder pin = Pin.newBuilder();
     String pinName = sensor.getPin();
     PinTypeProvider pinTypeProvider = new PinTypeProvider();
@@ -232,8 +255,9 @@ public class BluetoothSensor extends ScalarSensor {
     return outputStream.toByteArray();
   }
 
-  private void writeConfigAndSetNotification(BleFlow flow) {
-    byte[] sensorConfig = buildConfigProtoForDevice(sensor);
+  private void writeConfigAndSetNotification(
+      BleFlow flow, @Nullable BleProtocolVersion protocolVersion) {
+    byte[] sensorConfig = buildConfigProtoForDevice(sensor, protocolVersion);
     if (sensorConfig != null
         && flow.isCharacteristicValid(serviceSpec.getServiceId(), serviceSpec.getSettingId())) {
       flow.lookupCharacteristic(serviceSpec.getServiceId(), serviceSpec.getSettingId())
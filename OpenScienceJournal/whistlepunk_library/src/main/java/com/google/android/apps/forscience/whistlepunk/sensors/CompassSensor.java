@@ -18,22 +18,22 @@ package com.google.android.apps.forscience.whistlepunk.sensors;
 
 import android.content.Context;
 import android.hardware.Sensor;
-import android.hardware.SensorEvent;
-import android.hardware.SensorEventListener;
 import android.hardware.SensorManager;
-import com.google.android.apps.forscience.whistlepunk.Clock;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.AbstractSensorRecorder;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.AvailableSensors;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.ReadableSensorOptions;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.ScalarSensor;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.SensorEnvironment;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.SensorPresenter;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.SensorRecorder;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.SensorStatusListener;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.StreamConsumer;
+import io.reactivex.disposables.CompositeDisposable;
 
 /** Class to create a compass sensor from the magnetic field and accelerometer. */
 public class CompassSensor extends ScalarSensor {
   public static final String ID = "CompassSensor";
-  private SensorEventListener sensorEventListener;
+  private CompositeDisposable subscriptions;
 
   public CompassSensor() {
     super(ID);
@@ -46,67 +46,84 @@ public class CompassSensor extends ScalarSensor {
       Context context,
       SensorStatusListener listener) {
     return new AbstractSensorRecorder() {
+      private int samplingPeriodUs = SensorManager.SENSOR_DELAY_UI;
+
       @Override
       public void startObserving() {
         listener.onSourceStatus(getId(), SensorStatusListener.STATUS_CONNECTED);
-        SensorManager sensorManager = getSensorManager(context);
-        Sensor magnetometer = sensorManager.getDefaultSensor(Sensor.TYPE_MAGNETIC_FIELD);
-        Sensor accelerometer = sensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER);
-        if (sensorEventListener != null) {
-          getSensorManager(context).unregisterListener(sensorEventListener);
-        }
-        final Clock clock = environment.getDefaultClock();
-        sensorEventListener =
-            new SensorEventListener() {
-              private float[] orientation = new float[3];
-              private float[] magneticRotation;
-              private float[] acceleration;
-              private float[] rotation = new float[9];
-              private float[] inclination = new float[9];
+        subscribe();
+      }
 
-              @Override
-              public void onSensorChanged(SensorEvent event) {
-                if (event.sensor.getType() == Sensor.TYPE_ACCELEROMETER) {
-                  acceleration = event.values;
-                } else {
-                  magneticRotation = event.values;
-                }
-                // Update data as long as we have a value for both. This is the highest
-                // rate of update.
-                // If we want a slower rate, we can update when *both* values have changed,
-                // or only when magneticRotation changes, for example.
-                if (acceleration == null || magneticRotation == null) {
-                  return;
-                }
-                boolean hasRotation =
-                    SensorManager.getRotationMatrix(
-                        rotation, inclination, acceleration, magneticRotation);
-                if (hasRotation) {
-                  SensorManager.getOrientation(rotation, orientation);
-                  // Use a positive angle in degrees between 0 and 360.
-                  c.addData(clock.getNow(), 360 - (360 - (Math.toDegrees(orientation[0]))) % 360);
-                }
-              }
+      private void subscribe() {
+        if (subscriptions != null) {
+          subscriptions.dispose();
+        }
+        subscriptions = new CompositeDisposable();
+        subscriptions.add(
+            environment
+                .getHardwareSensorHub()
+                .subscribePair(
+                    context,
+                    Sensor.TYPE_MAGNETIC_FIELD,
+                    Sensor.TYPE_ACCELEROMETER,
+                    samplingPeriodUs,
+                    HardwareSensorHub.DEFAULT_MAX_REPORT_LATENCY_US,
+                    new HeadingCalculator(c)));
+      }
 
-              @Override
-              public void onAccuracyChanged(Sensor sensor, int accuracy) {}
-            };
-        sensorManager.registerListener(
-            sensorEventListener, magnetometer, SensorManager.SENSOR_DELAY_UI);
-        sensorManager.registerListener(
-            sensorEventListener, accelerometer, SensorManager.SENSOR_DELAY_UI);
+      @Override
+      public void applyOptions(ReadableSensorOptions settings) {
+        int newPeriodUs = SamplingProfile.getSamplingPeriodUs(settings);
+        if (newPeriodUs != samplingPeriodUs) {
+          samplingPeriodUs = newPeriodUs;
+          if (subscriptions != null) {
+            subscribe();
+          }
+        }
       }
 
       @Override
       public void stopObserving() {
-        getSensorManager(context).unregisterListener(sensorEventListener);
+        if (subscriptions != null) {
+          subscriptions.dispose();
+          subscriptions = null;
+        }
         listener.onSourceStatus(getId(), SensorStatusListener.STATUS_DISCONNECTED);
       }
     };
   }
 
+  @Override
+  protected SensorPresenter.OptionsPresenter createAdditionalScalarOptionsPresenter() {
+    return new SamplingOptionsPresenter();
+  }
+
   public static boolean isCompassSensorAvailable(AvailableSensors availableSensors) {
     return availableSensors.isSensorAvailable(Sensor.TYPE_ACCELEROMETER)
         && availableSensors.isSensorAvailable(Sensor.TYPE_MAGNETIC_FIELD);
   }
+
+  /** Combines the magnetic field and acceleration at each moment into a heading. */
+  private static class HeadingCalculator implements HardwareSensorHub.PairSubscriber {
+    private final StreamConsumer c;
+    private float[] orientation = new float[3];
+    private float[] rotation = new float[9];
+    private float[] inclination = new float[9];
+
+    HeadingCalculator(StreamConsumer c) {
+      this.c = c;
+    }
+
+    @Override
+    public void onSensorValues(long timestamp, float[] magneticField, float[] acceleration) {
+      // Update whenever either value changes. This is the highest rate of update.
+      boolean hasRotation =
+          SensorManager.getRotationMatrix(rotation, inclination, acceleration, magneticField);
+      if (hasRotation) {
+        SensorManager.getOrientation(rotation, orientation);
+        // Use a positive angle in degrees between 0 and 360.
+        c.addData(timestamp, 360 - (360 - (Math.toDegrees(orientation[0]))) % 360);
+      }
+    }
+  }
 }
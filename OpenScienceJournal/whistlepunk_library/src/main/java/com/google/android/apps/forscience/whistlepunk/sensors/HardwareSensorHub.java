@@ -0,0 +1,459 @@
+/*
+ *  Copyright 2019 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.sensors;
+
+import android.content.Context;
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorManager;
+import android.os.SystemClock;
+import android.util.SparseArray;
+import com.google.android.apps.forscience.whistlepunk.Clock;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.ScalarSensor;
+import io.reactivex.disposables.CompositeDisposable;
+import io.reactivex.disposables.Disposable;
+import io.reactivex.disposables.Disposables;
+import java.util.Arrays;
+
+/**
+ * Shares Android hardware sensors between the ScalarSensors that read them.
+ *
+ * <p>Several of our sensors are views on the same hardware: the three accelerometer axes and the
+ * compass all read TYPE_ACCELEROMETER, for example. Rather than each of them registering its own
+ * SensorEventListener (so that the framework copies and delivers every event once per listener),
+ * the hub registers a single listener per sensor type and fans each event out to all of its
+ * subscribers.
+ *
+ * <p>Event timestamps are converted from the sensor clock (elapsed realtime, in nanoseconds) to the
+ * recording clock, so that values keep their true spacing even when the framework delivers them in
+ * bursts. That is what makes it safe to ask for a max report latency: the sensor hardware can then
+ * batch events in its FIFO and let the application processor sleep between deliveries.
+ */
+public class HardwareSensorHub {
+  /** Receives the values of every event from one hardware sensor. */
+  public interface Subscriber {
+    /**
+     * @param timestamp event time, in the recording clock's millis
+     * @param values the event values. The array is only valid for the duration of the call.
+     */
+    void onSensorValues(long timestamp, float[] values);
+  }
+
+  /** Receives the values of two hardware sensors, merged in timestamp order. */
+  public interface PairSubscriber {
+    /**
+     * Called for each event of either sensor once both have had one, with the latest values of each
+     * as of that event's time.
+     *
+     * @param timestamp event time, in the recording clock's millis. Never less than the last one.
+     * @param first the first sensor's values. The array is only valid for the duration of the call.
+     * @param second the second sensor's values. The array is only valid for the duration of the
+     *     call.
+     */
+    void onSensorValues(long timestamp, float[] first, float[] second);
+  }
+
+  /** Source of the time base used by {@link SensorEvent#timestamp}. */
+  interface NanoClock {
+    long getNanos();
+  }
+
+  /** Registers and unregisters the hub's listeners with the system. */
+  interface Backend {
+    boolean register(Registration registration, int samplingPeriodUs, int maxReportLatencyUs);
+
+    void unregister(Registration registration);
+  }
+
+  /**
+   * How long the built-in sensors let the hardware batch events. Short enough that the live graph
+   * still looks live, long enough to save a few wakeups per second at SENSOR_DELAY_UI and many more
+   * at faster rates.
+   */
+  public static final int DEFAULT_MAX_REPORT_LATENCY_US = 100000;
+
+  /**
+   * Some older devices report event timestamps in a time base other than elapsed realtime. If a
+   * converted timestamp is further than this from the recording clock (after allowing for the
+   * report latency), we don't trust it and use the time of delivery instead.
+   */
+  private static final long MAX_TIMESTAMP_SKEW_MILLIS = 1000;
+
+  private final Clock clock;
+  private final NanoClock sensorClock;
+  private final SparseArray<Registration> registrations = new SparseArray<>();
+  private Backend backend;
+
+  public HardwareSensorHub(Clock clock) {
+    this(clock, SystemClock::elapsedRealtimeNanos, null);
+  }
+
+  HardwareSensorHub(Clock clock, NanoClock sensorClock, Backend backend) {
+    this.clock = clock;
+    this.sensorClock = sensorClock;
+    this.backend = backend;
+  }
+
+  /**
+   * Starts delivering events from the default sensor of {@code sensorType} to {@code subscriber}.
+   *
+   * <p>The sensor is registered at the fastest period and shortest latency asked for by any of its
+   * current subscribers. Each subscriber only gets events at about its own period, though, so that
+   * one fast sensor card doesn't make every other card reading the same hardware record as fast.
+   *
+   * @param samplingPeriodUs the desired delay between events, in microseconds, or one of the
+   *     SensorManager.SENSOR_DELAY_* constants
+   * @param maxReportLatencyUs how long events may be batched in hardware before they are delivered
+   * @return dispose of this to stop receiving events
+   */
+  public synchronized Disposable subscribe(
+      Context context,
+      int sensorType,
+      int samplingPeriodUs,
+      int maxReportLatencyUs,
+      Subscriber subscriber) {
+    if (backend == null) {
+      backend = new SensorManagerBackend(ScalarSensor.getSensorManager(context));
+    }
+    Registration registration = registrations.get(sensorType);
+    if (registration == null) {
+      registration = new Registration(sensorType);
+      registrations.put(sensorType, registration);
+    }
+    SubscriberEntry entry =
+        new SubscriberEntry(subscriber, toPeriodUs(samplingPeriodUs), maxReportLatencyUs);
+    registration.add(entry);
+    return Disposables.fromAction(() -> unsubscribe(sensorType, entry));
+  }
+
+  /**
+   * Starts delivering events from two sensors, such as the accelerometer and magnetometer, to a
+   * subscriber which combines them.
+   *
+   * <p>The hardware batches each sensor in its own FIFO, so a burst of one sensor's events can
+   * arrive before earlier events of the other. Pairing each event with whatever the other sensor
+   * last delivered would mix values from different moments and produce timestamps that go
+   * backwards. Instead, each event is held until the other sensor has caught up to its time, and
+   * events are passed on in timestamp order.
+   *
+   * @return dispose of this to stop receiving events from both sensors
+   */
+  public Disposable subscribePair(
+      Context context,
+      int firstSensorType,
+      int secondSensorType,
+      int samplingPeriodUs,
+      int maxReportLatencyUs,
+      PairSubscriber subscriber) {
+    PairMerger merger = new PairMerger(subscriber);
+    CompositeDisposable subscriptions = new CompositeDisposable();
+    subscriptions.add(
+        subscribe(
+            context,
+            firstSensorType,
+            samplingPeriodUs,
+            maxReportLatencyUs,
+            (timestamp, values) -> merger.add(0, timestamp, values)));
+    subscriptions.add(
+        subscribe(
+            context,
+            secondSensorType,
+            samplingPeriodUs,
+            maxReportLatencyUs,
+            (timestamp, values) -> merger.add(1, timestamp, values)));
+    return subscriptions;
+  }
+
+  private synchronized void unsubscribe(int sensorType, SubscriberEntry entry) {
+    Registration registration = registrations.get(sensorType);
+    if (registration == null) {
+      return;
+    }
+    registration.remove(entry);
+    if (registration.isEmpty()) {
+      registrations.remove(sensorType);
+    }
+  }
+
+  /** Converts the SENSOR_DELAY_* constants to the periods SensorManager uses for them. */
+  static int toPeriodUs(int samplingPeriodUs) {
+    switch (samplingPeriodUs) {
+      case SensorManager.SENSOR_DELAY_FASTEST:
+        return 0;
+      case SensorManager.SENSOR_DELAY_GAME:
+        return 20000;
+      case SensorManager.SENSOR_DELAY_UI:
+        return 66667;
+      case SensorManager.SENSOR_DELAY_NORMAL:
+        return 200000;
+      default:
+        return samplingPeriodUs;
+    }
+  }
+
+  private static class SubscriberEntry {
+    final Subscriber subscriber;
+    final int samplingPeriodUs;
+    final int maxReportLatencyUs;
+    private final long periodNanos;
+    // When, in the sensor clock, the next event is due. Only touched on the delivery thread.
+    private long nextEventNanos;
+    private boolean delivered = false;
+
+    SubscriberEntry(Subscriber subscriber, int samplingPeriodUs, int maxReportLatencyUs) {
+      this.subscriber = subscriber;
+      this.samplingPeriodUs = samplingPeriodUs;
+      this.maxReportLatencyUs = maxReportLatencyUs;
+      periodNanos = samplingPeriodUs * 1000L;
+    }
+
+    /**
+     * Whether to pass on an event, if the sensor is registered faster than this subscriber asked
+     * for. Due times are kept on a grid of the subscriber's period, so the average rate comes out
+     * right however the hardware's period divides into it, and an event up to a quarter period
+     * early still counts, to allow for jitter in the hardware's timing.
+     */
+    boolean isDue(long eventNanos) {
+      if (periodNanos == 0) {
+        return true;
+      }
+      if (delivered && eventNanos < nextEventNanos - periodNanos / 4) {
+        return false;
+      }
+      if (delivered && eventNanos < nextEventNanos + periodNanos) {
+        nextEventNanos += periodNanos;
+      } else {
+        // The first event, or after a gap: start the grid again from here.
+        nextEventNanos = eventNanos + periodNanos;
+      }
+      delivered = true;
+      return true;
+    }
+  }
+
+  /** The hub's single listener for one sensor type. */
+  class Registration implements SensorEventListener {
+    final int sensorType;
+
+    // Copy-on-write, so that delivery never takes a lock or allocates.
+    private volatile SubscriberEntry[] entries = new SubscriberEntry[0];
+
+    private int registeredPeriodUs = -1;
+    private int registeredLatencyUs = -1;
+    private volatile long offsetNanos;
+    private volatile long maxLatencyMillis;
+
+    Registration(int sensorType) {
+      this.sensorType = sensorType;
+    }
+
+    void add(SubscriberEntry entry) {
+      SubscriberEntry[] newEntries = Arrays.copyOf(entries, entries.length + 1);
+      newEntries[entries.length] = entry;
+      entries = newEntries;
+      updateRegistration();
+    }
+
+    void remove(SubscriberEntry entry) {
+      SubscriberEntry[] current = entries;
+      for (int i = 0; i < current.length; i++) {
+        if (current[i] == entry) {
+          SubscriberEntry[] newEntries = new SubscriberEntry[current.length - 1];
+          System.arraycopy(current, 0, newEntries, 0, i);
+          System.arraycopy(current, i + 1, newEntries, i, current.length - i - 1);
+          entries = newEntries;
+          break;
+        }
+      }
+      updateRegistration();
+    }
+
+    boolean isEmpty() {
+      return entries.length == 0;
+    }
+
+    /** (Re-)registers with the system if the subscribers' combined needs have changed. */
+    private void updateRegistration() {
+      SubscriberEntry[] current = entries;
+      if (current.length == 0) {
+        if (registeredPeriodUs >= 0) {
+          backend.unregister(this);
+          registeredPeriodUs = -1;
+          registeredLatencyUs = -1;
+        }
+        return;
+      }
+      int periodUs = Integer.MAX_VALUE;
+      int latencyUs = Integer.MAX_VALUE;
+      for (SubscriberEntry entry : current) {
+        periodUs = Math.min(periodUs, entry.samplingPeriodUs);
+        latencyUs = Math.min(latencyUs, entry.maxReportLatencyUs);
+      }
+      if (periodUs == registeredPeriodUs && latencyUs == registeredLatencyUs) {
+        return;
+      }
+      if (registeredPeriodUs >= 0) {
+        backend.unregister(this);
+      }
+      // Measured at registration, so that a change to the wall clock is picked up the next time
+      // anyone starts observing.
+      offsetNanos = clock.getNow() * 1000000 - sensorClock.getNanos();
+      maxLatencyMillis = latencyUs / 1000;
+      backend.register(this, periodUs, latencyUs);
+      registeredPeriodUs = periodUs;
+      registeredLatencyUs = latencyUs;
+    }
+
+    @Override
+    public void onSensorChanged(SensorEvent event) {
+      deliver(event.timestamp, event.values);
+    }
+
+    void deliver(long eventNanos, float[] values) {
+      long timestamp = (eventNanos + offsetNanos) / 1000000;
+      long now = clock.getNow();
+      if (timestamp > now + MAX_TIMESTAMP_SKEW_MILLIS
+          || timestamp < now - maxLatencyMillis - MAX_TIMESTAMP_SKEW_MILLIS) {
+        timestamp = now;
+      }
+      for (SubscriberEntry entry : entries) {
+        if (entry.isDue(eventNanos)) {
+          entry.subscriber.onSensorValues(timestamp, values);
+        }
+      }
+    }
+
+    @Override
+    public void onAccuracyChanged(Sensor sensor, int accuracy) {}
+  }
+
+  /** Merges the events of two sensors in timestamp order, for {@link #subscribePair}. */
+  private static class PairMerger {
+    // Room for the default report latency at the fastest rates. If a sensor stops delivering,
+    // the other's events are let through once this many are waiting.
+    private static final int CAPACITY = 256;
+
+    private final PairSubscriber subscriber;
+    private final EventQueue[] queues = {new EventQueue(), new EventQueue()};
+    private final float[][] latest = new float[2][];
+    private long lastTimestamp = Long.MIN_VALUE;
+
+    PairMerger(PairSubscriber subscriber) {
+      this.subscriber = subscriber;
+    }
+
+    synchronized void add(int sensor, long timestamp, float[] values) {
+      queues[sensor].push(timestamp, values);
+      while (true) {
+        int next;
+        if (queues[0].isEmpty()) {
+          next = 1;
+        } else if (queues[1].isEmpty()) {
+          next = 0;
+        } else {
+          next = queues[0].peekTimestamp() <= queues[1].peekTimestamp() ? 0 : 1;
+        }
+        EventQueue queue = queues[next];
+        EventQueue other = queues[1 - next];
+        if (queue.isEmpty()) {
+          return;
+        }
+        // Each sensor's events arrive in order, so once the other sensor has reached this time it
+        // can't send anything earlier.
+        if (other.isEmpty() && other.newest < queue.peekTimestamp() && queue.size < CAPACITY) {
+          return;
+        }
+        release(next);
+      }
+    }
+
+    private void release(int sensor) {
+      EventQueue queue = queues[sensor];
+      float[] values = queue.values[queue.head];
+      if (latest[sensor] == null || latest[sensor].length != values.length) {
+        latest[sensor] = new float[values.length];
+      }
+      System.arraycopy(values, 0, latest[sensor], 0, values.length);
+      long timestamp = queue.pop();
+      if (latest[0] != null && latest[1] != null && timestamp >= lastTimestamp) {
+        lastTimestamp = timestamp;
+        subscriber.onSensorValues(timestamp, latest[0], latest[1]);
+      }
+    }
+  }
+
+  /** A ring buffer of one sensor's events, with copies of their values. */
+  private static class EventQueue {
+    final long[] timestamps = new long[PairMerger.CAPACITY];
+    final float[][] values = new float[PairMerger.CAPACITY][];
+    int head = 0;
+    int size = 0;
+    // The timestamp of the newest event ever pushed.
+    long newest = Long.MIN_VALUE;
+
+    boolean isEmpty() {
+      return size == 0;
+    }
+
+    long peekTimestamp() {
+      return timestamps[head];
+    }
+
+    void push(long timestamp, float[] eventValues) {
+      int tail = (head + size) % timestamps.length;
+      if (values[tail] == null || values[tail].length != eventValues.length) {
+        values[tail] = new float[eventValues.length];
+      }
+      System.arraycopy(eventValues, 0, values[tail], 0, eventValues.length);
+      timestamps[tail] = timestamp;
+      size++;
+      newest = timestamp;
+    }
+
+    long pop() {
+      long timestamp = timestamps[head];
+      head = (head + 1) % timestamps.length;
+      size--;
+      return timestamp;
+    }
+  }
+
+  private static class SensorManagerBackend implements Backend {
+    private final SensorManager sensorManager;
+
+    SensorManagerBackend(SensorManager sensorManager) {
+      this.sensorManager = sensorManager;
+    }
+
+    @Override
+    public boolean register(
+        Registration registration, int samplingPeriodUs, int maxReportLatencyUs) {
+      Sensor sensor = sensorManager.getDefaultSensor(registration.sensorType);
+      if (sensor == null) {
+        return false;
+      }
+      return sensorManager.registerListener(
+          registration, sensor, samplingPeriodUs, maxReportLatencyUs);
+    }
+
+    @Override
+    public void unregister(Registration registration) {
+      sensorManager.unregisterListener(registration);
+    }
+  }
+}
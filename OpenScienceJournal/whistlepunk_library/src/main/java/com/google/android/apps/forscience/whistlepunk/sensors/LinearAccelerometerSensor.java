@@ -18,17 +18,17 @@ package com.google.android.apps.forscience.whistlepunk.sensors;
 
 import android.content.Context;
 import android.hardware.Sensor;
-import android.hardware.SensorEvent;
-import android.hardware.SensorEventListener;
 import android.hardware.SensorManager;
-import com.google.android.apps.forscience.whistlepunk.Clock;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.AbstractSensorRecorder;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.AvailableSensors;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.ReadableSensorOptions;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.ScalarSensor;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.SensorEnvironment;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.SensorPresenter;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.SensorRecorder;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.SensorStatusListener;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.StreamConsumer;
+import io.reactivex.disposables.Disposable;
 
 /**
  * Class to get scalar, linear data from the linear accelerometer sensor by combining acceleration
@@ -36,7 +36,7 @@ import com.google.android.apps.forscience.whistlepunk.sensorapi.StreamConsumer;
  */
 public class LinearAccelerometerSensor extends ScalarSensor {
   public static final String ID = "LinearAccelerometerSensor";
-  private SensorEventListener sensorEventListener;
+  private Disposable subscription;
 
   public LinearAccelerometerSensor() {
     super(ID);
@@ -49,41 +49,62 @@ public class LinearAccelerometerSensor extends ScalarSensor {
       final Context context,
       final SensorStatusListener listener) {
     return new AbstractSensorRecorder() {
+      private int samplingPeriodUs = SensorManager.SENSOR_DELAY_UI;
+
       @Override
       public void startObserving() {
         listener.onSourceStatus(getId(), SensorStatusListener.STATUS_CONNECTED);
-        SensorManager sensorManager = getSensorManager(context);
-        Sensor sensor = sensorManager.getDefaultSensor(Sensor.TYPE_LINEAR_ACCELERATION);
-        if (sensorEventListener != null) {
-          getSensorManager(context).unregisterListener(sensorEventListener);
+        subscribe();
+      }
+
+      private void subscribe() {
+        if (subscription != null) {
+          subscription.dispose();
         }
-        final Clock clock = environment.getDefaultClock();
-        sensorEventListener =
-            new SensorEventListener() {
-              @Override
-              public void onSensorChanged(SensorEvent event) {
-                c.addData(
-                    clock.getNow(),
-                    Math.sqrt(
-                        event.values[0] * event.values[0]
-                            + event.values[1] * event.values[1]
-                            + event.values[2] * event.values[2]));
-              }
+        subscription =
+            environment
+                .getHardwareSensorHub()
+                .subscribe(
+                    context,
+                    Sensor.TYPE_LINEAR_ACCELERATION,
+                    samplingPeriodUs,
+                    HardwareSensorHub.DEFAULT_MAX_REPORT_LATENCY_US,
+                    (timestamp, values) ->
+                        c.addData(
+                            timestamp,
+                            Math.sqrt(
+                                values[0] * values[0]
+                                    + values[1] * values[1]
+                                    + values[2] * values[2])));
+      }
 
-              @Override
-              public void onAccuracyChanged(Sensor sensor, int accuracy) {}
-            };
-        sensorManager.registerListener(sensorEventListener, sensor, SensorManager.SENSOR_DELAY_UI);
+      @Override
+      public void applyOptions(ReadableSensorOptions settings) {
+        int newPeriodUs = SamplingProfile.getSamplingPeriodUs(settings);
+        if (newPeriodUs != samplingPeriodUs) {
+          samplingPeriodUs = newPeriodUs;
+          if (subscription != null) {
+            subscribe();
+          }
+        }
       }
 
       @Override
       public void stopObserving() {
-        getSensorManager(context).unregisterListener(sensorEventListener);
+        if (subscription != null) {
+          subscription.dispose();
+          subscription = null;
+        }
         listener.onSourceStatus(getId(), SensorStatusListener.STATUS_DISCONNECTED);
       }
     };
   }
 
+  @Override
+  protected SensorPresenter.OptionsPresenter createAdditionalScalarOptionsPresenter() {
+    return new SamplingOptionsPresenter();
+  }
+
   public static boolean isLinearAccelerometerAvailable(AvailableSensors availableSensors) {
     return availableSensors.isSensorAvailable(Sensor.TYPE_LINEAR_ACCELERATION);
   }
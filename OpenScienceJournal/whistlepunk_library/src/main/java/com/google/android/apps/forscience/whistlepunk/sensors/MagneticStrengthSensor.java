@@ -18,24 +18,24 @@ package com.google.android.apps.forscience.whistlepunk.sensors;
 
 import android.content.Context;
 import android.hardware.Sensor;
-import android.hardware.SensorEvent;
-import android.hardware.SensorEventListener;
 import android.hardware.SensorManager;
-import com.google.android.apps.forscience.whistlepunk.Clock;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.AbstractSensorRecorder;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.AvailableSensors;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.ReadableSensorOptions;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.ScalarSensor;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.SensorEnvironment;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.SensorPresenter;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.SensorRecorder;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.SensorStatusListener;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.StreamConsumer;
+import io.reactivex.disposables.Disposable;
 
 /** Class to get sensor data from the Magnetic sensor. */
 public class MagneticStrengthSensor extends ScalarSensor {
   // For historical reasons, the ID is MagneticRotationSensor. Since this is not exposed to the
   // user, we will just not mind the inconsistency.
   public static final String ID = "MagneticRotationSensor";
-  private SensorEventListener sensorEventListener;
+  private Disposable subscription;
 
   public MagneticStrengthSensor() {
     super(ID);
@@ -48,44 +48,65 @@ public class MagneticStrengthSensor extends ScalarSensor {
       final Context context,
       final SensorStatusListener listener) {
     return new AbstractSensorRecorder() {
+      private int samplingPeriodUs = SensorManager.SENSOR_DELAY_UI;
+
       @Override
       public void startObserving() {
         listener.onSourceStatus(getId(), SensorStatusListener.STATUS_CONNECTED);
-        SensorManager sensorManager = getSensorManager(context);
-        Sensor magnetometer = sensorManager.getDefaultSensor(Sensor.TYPE_MAGNETIC_FIELD);
-        if (sensorEventListener != null) {
-          getSensorManager(context).unregisterListener(sensorEventListener);
+        subscribe();
+      }
+
+      private void subscribe() {
+        if (subscription != null) {
+          subscription.dispose();
         }
-        final Clock clock = environment.getDefaultClock();
-        sensorEventListener =
-            new SensorEventListener() {
-              @Override
-              public void onSensorChanged(SensorEvent event) {
-                // The strength is the square root of the sum of the squares of the
-                // values in X, Y and Z.
-                c.addData(
-                    clock.getNow(),
-                    Math.sqrt(
-                        Math.pow(event.values[0], 2)
-                            + Math.pow(event.values[1], 2)
-                            + Math.pow(event.values[2], 2)));
-              }
+        subscription =
+            environment
+                .getHardwareSensorHub()
+                .subscribe(
+                    context,
+                    Sensor.TYPE_MAGNETIC_FIELD,
+                    samplingPeriodUs,
+                    HardwareSensorHub.DEFAULT_MAX_REPORT_LATENCY_US,
+                    (timestamp, values) -> {
+                      // The strength is the square root of the sum of the squares of the
+                      // values in X, Y and Z.
+                      c.addData(
+                          timestamp,
+                          Math.sqrt(
+                              Math.pow(values[0], 2)
+                                  + Math.pow(values[1], 2)
+                                  + Math.pow(values[2], 2)));
+                    });
+      }
 
-              @Override
-              public void onAccuracyChanged(Sensor sensor, int accuracy) {}
-            };
-        sensorManager.registerListener(
-            sensorEventListener, magnetometer, SensorManager.SENSOR_DELAY_UI);
+      @Override
+      public void applyOptions(ReadableSensorOptions settings) {
+        int newPeriodUs = SamplingProfile.getSamplingPeriodUs(settings);
+        if (newPeriodUs != samplingPeriodUs) {
+          samplingPeriodUs = newPeriodUs;
+          if (subscription != null) {
+            subscribe();
+          }
+        }
       }
 
       @Override
       public void stopObserving() {
-        getSensorManager(context).unregisterListener(sensorEventListener);
+        if (subscription != null) {
+          subscription.dispose();
+          subscription = null;
+        }
         listener.onSourceStatus(getId(), SensorStatusListener.STATUS_DISCONNECTED);
       }
     };
   }
 
+  @Override
+  protected SensorPresenter.OptionsPresenter createAdditionalScalarOptionsPresenter() {
+    return new SamplingOptionsPresenter();
+  }
+
   public static boolean isMagneticRotationSensorAvailable(AvailableSensors availableSensors) {
     return availableSensors.isSensorAvailable(Sensor.TYPE_MAGNETIC_FIELD);
   }
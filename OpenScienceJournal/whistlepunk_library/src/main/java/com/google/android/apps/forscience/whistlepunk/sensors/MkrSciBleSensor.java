@@ -45,7 +45,8 @@ public class MkrSciBleSensor extends ScalarSensor {
   private ValueHandler valueHandler;
 
   public MkrSciBleSensor(String sensorId, MkrSciBleSensorSpec spec) {
-    super(sensorId);
+    // So that all the sensors reading one notification update the UI with a single post.
+    super(sensorId, MkrSciBleManager.getMainThreadExecutor());
     address = spec.getAddress();
     final String sensorKind = spec.getSensor();
     final String sensorHandler = spec.getHandler();
@@ -152,7 +153,7 @@ public class MkrSciBleSensor extends ScalarSensor {
           public void onValuesUpdated(double[] values) {
             if (!connected) {
               connected = true;
-              handler.post(
+              runOnMainThread(
                   () -> listener.onSourceStatus(getId(), SensorStatusListener.STATUS_CONNECTED));
             }
             valueHandler.handle(c, clock.getNow(), values);
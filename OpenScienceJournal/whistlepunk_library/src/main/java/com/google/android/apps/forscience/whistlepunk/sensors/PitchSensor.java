@@ -20,9 +20,10 @@ import static com.google.android.apps.forscience.whistlepunk.audio.AudioSource.S
 
 import android.content.Context;
 import com.google.android.apps.forscience.whistlepunk.Clock;
-import com.google.android.apps.forscience.whistlepunk.audio.AudioAnalyzer;
 import com.google.android.apps.forscience.whistlepunk.audio.AudioSource;
 import com.google.android.apps.forscience.whistlepunk.audio.AudioSource.AudioReceiver;
+import com.google.android.apps.forscience.whistlepunk.audio.FftWindow;
+import com.google.android.apps.forscience.whistlepunk.audio.SlidingPitchDetector;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.AbstractSensorRecorder;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.ReadableSensorOptions;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.ScalarSensor;
@@ -34,6 +35,8 @@ import com.google.android.apps.forscience.whistlepunk.sensorapi.StreamConsumer;
 /** A sensor that displays the pitch in Hertz (Hz). */
 public class PitchSensor extends ScalarSensor {
   public static final String ID = "PitchSensor";
+  // Analyze a new buffer every 512 samples, which is about 86 times a second.
+  private static final int HOP_SIZE = 512;
 
   public PitchSensor() {
     super(ID);
@@ -49,56 +52,35 @@ public class PitchSensor extends ScalarSensor {
     final AudioSource audioSource = environment.getAudioSource();
     final AudioReceiver audioReceiver =
         new AudioReceiver() {
-          private final AudioAnalyzer audioAnalyzer = new AudioAnalyzer(SAMPLE_RATE_IN_HZ);
-          private final short[] audioAnalyzerBuffer = new short[AudioAnalyzer.BUFFER_SIZE];
-          private int audioAnalyzerBufferOffset;
+          private final SlidingPitchDetector detector =
+              new SlidingPitchDetector(SAMPLE_RATE_IN_HZ, HOP_SIZE, FftWindow.HANN);
+          private final SlidingPitchDetector.Listener detectorListener = this::onFrequency;
+          private long receivedMillis;
           private Double previousFrequency;
 
           @Override
           public void onReceiveAudio(short[] audioSourceBuffer) {
-            int audioSourceBufferOffset = 0;
-            while (audioSourceBufferOffset < audioSourceBuffer.length) {
-              // Repeat the previous frequency value while we collect and analyze new data.
-              if (previousFrequency != null) {
-                c.addData(clock.getNow(), previousFrequency);
-              }
-
-              int lengthToCopy =
-                  Math.min(
-                      audioSourceBuffer.length - audioSourceBufferOffset,
-                      audioAnalyzerBuffer.length - audioAnalyzerBufferOffset);
-              System.arraycopy(
-                  audioSourceBuffer,
-                  audioSourceBufferOffset,
-                  audioAnalyzerBuffer,
-                  audioAnalyzerBufferOffset,
-                  lengthToCopy);
-              audioAnalyzerBufferOffset += lengthToCopy;
-              audioSourceBufferOffset += lengthToCopy;
-
-              // If audioAnalyzerBuffer is full, analyze it.
-              if (audioAnalyzerBufferOffset == audioAnalyzerBuffer.length) {
-                Double frequency = audioAnalyzer.detectFundamentalFrequency(audioAnalyzerBuffer);
-                long timestampMillis = clock.getNow();
-                if (frequency == null) {
-                  // Unable to detect frequency, likely due to low volume.
-                  c.addData(timestampMillis, 0);
-                } else if (isDrasticSpike(frequency)) {
-                  // Avoid drastic changes that show as spikes in the graph between notes
-                  // being played on an instrument. If the new value is more than 50%
-                  // different from the previous value, skip it.
-                  // Note that since we set previousFrequency to frequency below, we
-                  // will never skip two consecutive values.
-                  frequency = null;
-                } else {
-                  c.addData(timestampMillis, frequency);
-                }
-                previousFrequency = frequency;
+            receivedMillis = clock.getNow();
+            detector.addSamples(audioSourceBuffer, detectorListener);
+          }
 
-                // Since we've analyzed that buffer, set the offset back to 0.
-                audioAnalyzerBufferOffset = 0;
-              }
+          private void onFrequency(Double frequency, int samplesSinceEnd) {
+            // The samples that came after the end of the analyzed buffer were recorded after it.
+            long timestampMillis = receivedMillis - samplesSinceEnd * 1000L / SAMPLE_RATE_IN_HZ;
+            if (frequency == null) {
+              // Unable to detect frequency, likely due to low volume.
+              c.addData(timestampMillis, 0);
+            } else if (isDrasticSpike(frequency)) {
+              // Avoid drastic changes that show as spikes in the graph between notes
+              // being played on an instrument. If the new value is more than 50%
+              // different from the previous value, skip it.
+              // Note that since we set previousFrequency to frequency below, we
+              // will never skip two consecutive values.
+              frequency = null;
+            } else {
+              c.addData(timestampMillis, frequency);
             }
+            previousFrequency = frequency;
           }
 
           private boolean isDrasticSpike(double frequency) {
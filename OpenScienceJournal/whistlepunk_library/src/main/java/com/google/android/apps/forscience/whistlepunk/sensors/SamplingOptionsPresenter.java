@@ -0,0 +1,87 @@
+/*
+ *  Copyright 2019 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.sensors;
+
+import android.annotation.SuppressLint;
+import android.content.Context;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.widget.EditText;
+import android.widget.RadioGroup;
+import com.google.android.apps.forscience.whistlepunk.R;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.ActiveBundle;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.LongUpdatingWatcher;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.ReadableSensorOptions;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.SensorPresenter;
+
+/** OptionsPresenter for choosing the {@link SamplingProfile} of a built-in sensor. */
+class SamplingOptionsPresenter implements SensorPresenter.OptionsPresenter {
+  @Override
+  public View buildOptionsView(ActiveBundle activeBundle, Context context) {
+    @SuppressLint("InflateParams")
+    final View inflated = LayoutInflater.from(context).inflate(R.layout.sampling_options, null);
+    final ReadableSensorOptions roBundle = activeBundle.getReadOnly();
+
+    final EditText periodEdit = (EditText) inflated.findViewById(R.id.sampling_period_edit);
+    periodEdit.setText(String.valueOf(SamplingProfile.getCustomPeriodUs(roBundle)));
+    periodEdit.addTextChangedListener(
+        new LongUpdatingWatcher(
+            activeBundle, SamplingProfile.PREFS_KEY_SAMPLING_PERIOD_US, periodEdit));
+
+    SamplingProfile profile = SamplingProfile.fromOptions(roBundle);
+    periodEdit.setEnabled(profile == SamplingProfile.CUSTOM);
+    RadioGroup profileGroup = (RadioGroup) inflated.findViewById(R.id.sampling_profile_group);
+    profileGroup.check(getButtonId(profile));
+    profileGroup.setOnCheckedChangeListener(
+        (group, checkedId) -> {
+          SamplingProfile checked = getProfile(checkedId);
+          periodEdit.setEnabled(checked == SamplingProfile.CUSTOM);
+          activeBundle.changeString(SamplingProfile.PREFS_KEY_SAMPLING_PROFILE, checked.name());
+        });
+
+    return inflated;
+  }
+
+  private static int getButtonId(SamplingProfile profile) {
+    switch (profile) {
+      case GAME:
+        return R.id.sampling_profile_game;
+      case FASTEST:
+        return R.id.sampling_profile_fastest;
+      case CUSTOM:
+        return R.id.sampling_profile_custom;
+      default:
+        return R.id.sampling_profile_ui;
+    }
+  }
+
+  private static SamplingProfile getProfile(int buttonId) {
+    if (buttonId == R.id.sampling_profile_game) {
+      return SamplingProfile.GAME;
+    } else if (buttonId == R.id.sampling_profile_fastest) {
+      return SamplingProfile.FASTEST;
+    } else if (buttonId == R.id.sampling_profile_custom) {
+      return SamplingProfile.CUSTOM;
+    }
+    return SamplingProfile.UI;
+  }
+
+  @Override
+  public void applyOptions(ReadableSensorOptions bundle) {
+    // Nothing to preview; the recorder picks up the new rate when the options are committed.
+  }
+}
@@ -0,0 +1,78 @@
+/*
+ *  Copyright 2019 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.sensors;
+
+import android.hardware.SensorManager;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.ReadableSensorOptions;
+
+/**
+ * How often a built-in sensor asks the hardware for values. The default, UI, is plenty for the live
+ * graph but far too slow to catch an impact or a vibration.
+ */
+public enum SamplingProfile {
+  UI(SensorManager.SENSOR_DELAY_UI),
+  GAME(SensorManager.SENSOR_DELAY_GAME),
+  FASTEST(SensorManager.SENSOR_DELAY_FASTEST),
+  /** Uses the period stored under {@link #PREFS_KEY_SAMPLING_PERIOD_US}. */
+  CUSTOM(-1);
+
+  public static final String PREFS_KEY_SAMPLING_PROFILE = "sampling_profile";
+  public static final String PREFS_KEY_SAMPLING_PERIOD_US = "sampling_period_us";
+
+  /** 400Hz, fast enough for most impacts. */
+  public static final long DEFAULT_SAMPLING_PERIOD_US = 2500;
+
+  /**
+   * Our timestamps are in millis, and ScalarSensor drops readings that don't advance the timestamp,
+   * so there is nothing to gain from asking for more than 1kHz. It also keeps custom periods clear
+   * of the SENSOR_DELAY_* constants, which SensorManager reads as delays rather than periods.
+   */
+  public static final long MIN_SAMPLING_PERIOD_US = 1000;
+
+  private final int sensorDelay;
+
+  SamplingProfile(int sensorDelay) {
+    this.sensorDelay = sensorDelay;
+  }
+
+  public static SamplingProfile fromOptions(ReadableSensorOptions options) {
+    String name = options.getString(PREFS_KEY_SAMPLING_PROFILE, UI.name());
+    for (SamplingProfile profile : values()) {
+      if (profile.name().equals(name)) {
+        return profile;
+      }
+    }
+    return UI;
+  }
+
+  public static long getCustomPeriodUs(ReadableSensorOptions options) {
+    long periodUs = options.getLong(PREFS_KEY_SAMPLING_PERIOD_US, DEFAULT_SAMPLING_PERIOD_US);
+    return Math.min(Math.max(periodUs, MIN_SAMPLING_PERIOD_US), Integer.MAX_VALUE);
+  }
+
+  /**
+   * @return the sampling period to pass to {@link HardwareSensorHub#subscribe}: either a
+   *     SENSOR_DELAY_* constant or an explicit period in microseconds
+   */
+  public static int getSamplingPeriodUs(ReadableSensorOptions options) {
+    SamplingProfile profile = fromOptions(options);
+    if (profile == CUSTOM) {
+      return (int) getCustomPeriodUs(options);
+    }
+    return profile.sensorDelay;
+  }
+}
@@ -25,16 +25,20 @@ import com.google.android.apps.forscience.whistlepunk.filemetadata.Experiment;
 import com.google.android.apps.forscience.whistlepunk.filemetadata.ExperimentOverviewPojo;
 import com.google.android.apps.forscience.whistlepunk.filemetadata.FileSyncCollection;
 import com.google.android.apps.forscience.whistlepunk.filemetadata.Trial;
+import com.google.android.apps.forscience.whistlepunk.filemetadata.TrialStats;
 import com.google.android.apps.forscience.whistlepunk.metadata.ExperimentSensors;
 import com.google.android.apps.forscience.whistlepunk.metadata.ExternalSensorSpec;
 import com.google.android.apps.forscience.whistlepunk.metadata.GoosciExperiment;
 import com.google.android.apps.forscience.whistlepunk.metadata.GoosciScalarSensorData;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.ScalarSensorDumpImporter;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.ZoomTierRebuilder;
 import com.google.android.apps.forscience.whistlepunk.sensordb.ScalarReading;
 import com.google.android.apps.forscience.whistlepunk.sensordb.ScalarReadingList;
 import com.google.android.apps.forscience.whistlepunk.sensordb.TimeRange;
 import io.reactivex.Observable;
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.List;
 import java.util.Map;
 
@@ -57,6 +61,23 @@ public class StubDataController implements DataController {
       GoosciExperiment.Experiment experiment,
       MaybeConsumer<GoosciScalarSensorData.ScalarSensorData> onSuccess) {}
 
+  @Override
+  public void writeScalarReadingProtosInBackground(
+      GoosciExperiment.Experiment experiment, OutputStream out, MaybeConsumer<Success> onSuccess) {}
+
+  @Override
+  public ScalarSensorDumpImporter createScalarSensorDumpImporter() {
+    return null;
+  }
+
+  @Override
+  public void exportTrialCsvInBackground(
+      TrialCsvExporter exporter, OutputStream out, MaybeConsumer<Success> onSuccess) {}
+
+  @Override
+  public void rebuildZoomTiersInBackground(
+      ZoomTierRebuilder rebuilder, MaybeConsumer<TrialStats> onSuccess) {}
+
   @Override
   public Observable<ScalarReading> createScalarObservable(
       String trialId, String[] sensorIds, TimeRange timeRange, int resolutionTier) {
@@ -24,12 +24,14 @@ import com.google.android.apps.forscience.whistlepunk.SensorHistoryStorage;
 import com.google.android.apps.forscience.whistlepunk.accounts.AppAccount;
 import com.google.android.apps.forscience.whistlepunk.audio.AudioSource;
 import com.google.android.apps.forscience.whistlepunk.sensordb.InMemorySensorDatabase;
+import com.google.android.apps.forscience.whistlepunk.sensors.HardwareSensorHub;
 import io.reactivex.Single;
 
 public class MemorySensorEnvironment implements SensorEnvironment {
   private final RecordingDataController dataController;
   private final Clock clock;
   private final AudioSource audioSource = new AudioSource();
+  private final HardwareSensorHub hardwareSensorHub;
   private FakeBleClient bleClient;
   private SensorHistoryStorage historyStorage;
 
@@ -45,6 +47,7 @@ public class MemorySensorEnvironment implements SensorEnvironment {
     this.bleClient = bleClient;
     historyStorage = shs != null ? shs : new MemorySensorHistoryStorage();
     this.clock = clock;
+    hardwareSensorHub = new HardwareSensorHub(clock);
   }
 
   @Override
@@ -67,6 +70,11 @@ public class MemorySensorEnvironment implements SensorEnvironment {
     return audioSource;
   }
 
+  @Override
+  public HardwareSensorHub getHardwareSensorHub() {
+    return hardwareSensorHub;
+  }
+
   @Override
   public SensorHistoryStorage getSensorHistoryStorage() {
     return historyStorage;
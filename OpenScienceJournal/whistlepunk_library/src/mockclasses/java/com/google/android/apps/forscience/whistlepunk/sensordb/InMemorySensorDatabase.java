@@ -32,6 +32,7 @@ import com.google.android.apps.forscience.whistlepunk.metadata.GoosciScalarSenso
 import com.google.android.apps.forscience.whistlepunk.metadata.GoosciScalarSensorData.ScalarSensorDataRow;
 import com.google.android.apps.forscience.whistlepunk.metadata.GoosciTrial;
 import com.google.android.apps.forscience.whistlepunk.scalarchart.ChartData;
+import com.google.android.apps.forscience.whistlepunk.scalarchart.PointList;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.StreamConsumer;
 import com.google.common.collect.Range;
 import com.google.common.util.concurrent.MoreExecutors;
@@ -91,6 +92,18 @@ public class InMemorySensorDatabase implements SensorDatabase {
     }
   }
 
+  @Override
+  public void addScalarReadingBatch(ScalarReadingBatch batch) {
+    for (int i = 0; i < batch.size(); i++) {
+      addScalarReading(
+          batch.getTrialId(i),
+          batch.getSensorId(i),
+          batch.getResolutionTier(i),
+          batch.getTimestampMillis(i),
+          batch.getValue(i));
+    }
+  }
+
   @Override
   public void addScalarReading(
       String trialId, String databaseTag, int resolutionTier, long timestampMillis, double value) {
@@ -137,6 +150,15 @@ public class InMemorySensorDatabase implements SensorDatabase {
         }
         return result;
       }
+
+      @Override
+      public PointList asPointList() {
+        PointList result = new PointList(readingsToReturn.size());
+        for (ScalarReading scalarReading : readingsToReturn) {
+          result.add(scalarReading.getCollectedTimeMillis(), scalarReading.getValue());
+        }
+        return result;
+      }
     };
   }
 
@@ -224,6 +246,19 @@ public class InMemorySensorDatabase implements SensorDatabase {
     }
   }
 
+  @Override
+  public void deleteZoomTiers(String trialId, String sensorTag) {
+    for (int tier = 1; tier < readings.size(); tier++) {
+      List<Reading> readingList = readings.get(tier);
+      for (int index = readingList.size() - 1; index >= 0; --index) {
+        Reading reading = readingList.get(index);
+        if (reading.getDatabaseTag().equals(sensorTag) && reading.getTrialId().equals(trialId)) {
+          readingList.remove(index);
+        }
+      }
+    }
+  }
+
   @Override
   public Observable<ScalarReading> createScalarObservable(
       String trialId, String[] sensorTags, TimeRange range, int resolutionTier) {
@@ -0,0 +1,144 @@
+/*
+ *  Copyright 2019 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.sensors;
+
+import com.google.android.apps.forscience.whistlepunk.data.GoosciSensor.AnalogValue;
+import com.google.android.apps.forscience.whistlepunk.data.GoosciSensor.Data;
+import com.google.android.apps.forscience.whistlepunk.data.GoosciSensor.DataBatch;
+import com.google.android.apps.forscience.whistlepunk.data.GoosciSensor.DigitalValue;
+import com.google.android.apps.forscience.whistlepunk.data.GoosciSensor.IntValue;
+import com.google.android.apps.forscience.whistlepunk.data.GoosciSensor.Pin;
+import com.google.android.apps.forscience.whistlepunk.data.GoosciSensor.SensorData;
+import com.google.android.apps.forscience.whistlepunk.data.GoosciSensor.SensorDataRequest;
+import com.google.protobuf.InvalidProtocolBufferException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Stands in for an Arduino-style peripheral running the Anning service, so that the protocol can be
+ * tested without hardware.
+ *
+ * <p>Like the firmware, it reports its protocol version, takes its configuration from a
+ * SensorDataRequest, and sends its readings as SensorData split into notification-sized fragments.
+ * If its version supports it, and it is asked to, it batches readings into a DataBatch.
+ */
+public class FakeAnningPeripheral {
+  private final int majorVersion;
+  private final int minorVersion;
+  private final int notificationSize;
+  private final List<byte[]> notifications = new ArrayList<>();
+
+  private Pin pin;
+  private int maxBatchSize = 1;
+  private final List<Integer> batchTimestamps = new ArrayList<>();
+  private final List<Integer> batchValues = new ArrayList<>();
+
+  /** @param notificationSize how many bytes fit in a notification: the ATT MTU, less 3 */
+  public FakeAnningPeripheral(int majorVersion, int minorVersion, int notificationSize) {
+    this.majorVersion = majorVersion;
+    this.minorVersion = minorVersion;
+    this.notificationSize = notificationSize;
+  }
+
+  /** @return the value of the version characteristic */
+  public byte[] readVersion() {
+    int version = majorVersion << 11 | minorVersion << 6;
+    return new byte[] {(byte) version, (byte) (version >> 8)};
+  }
+
+  /** Takes a write to the setting characteristic. */
+  public void writeConfig(byte[] config) throws InvalidProtocolBufferException {
+    // The request is sent as a single fragment.
+    SensorDataRequest request =
+        SensorDataRequest.parseFrom(Arrays.copyOfRange(config, 2, 2 + (config[0] & 0xFF)));
+    pin = request.getPin(0);
+    // Like real firmware, an older version doesn't know about max_batch_size.
+    boolean canBatch = new BleProtocolVersion(readVersion()).supportsBatchedReadings();
+    maxBatchSize = canBatch ? Math.max(1, request.getMaxBatchSize()) : 1;
+  }
+
+  /**
+   * Takes a reading from the configured pin, which is sent straight away, or once there are enough
+   * for a batch.
+   *
+   * @param value an analog value, 0 or 1 for a digital pin, or an int value for a virtual pin
+   */
+  public void sample(int timestampKey, int value) {
+    if (maxBatchSize == 1) {
+      send(SensorData.newBuilder().setTimestampKey(timestampKey).setData(toData(value)).build());
+      return;
+    }
+    batchTimestamps.add(timestampKey);
+    batchValues.add(value);
+    if (batchTimestamps.size() == maxBatchSize) {
+      flush();
+    }
+  }
+
+  /** Sends any readings that are waiting for a batch to fill up. */
+  public void flush() {
+    if (batchTimestamps.isEmpty()) {
+      return;
+    }
+    DataBatch.Builder batch = DataBatch.newBuilder().setPin(pin);
+    int timestampKey = batchTimestamps.get(0);
+    int previousTimestamp = timestampKey;
+    int previousValue = 0;
+    for (int i = 0; i < batchTimestamps.size(); i++) {
+      batch.addTimestampDelta(batchTimestamps.get(i) - previousTimestamp);
+      batch.addValueDelta(batchValues.get(i) - previousValue);
+      previousTimestamp = batchTimestamps.get(i);
+      previousValue = batchValues.get(i);
+    }
+    batchTimestamps.clear();
+    batchValues.clear();
+    send(SensorData.newBuilder().setTimestampKey(timestampKey).setDataBatch(batch).build());
+  }
+
+  /** @return the notifications sent since the last call */
+  public List<byte[]> takeNotifications() {
+    List<byte[]> taken = new ArrayList<>(notifications);
+    notifications.clear();
+    return taken;
+  }
+
+  private Data toData(int value) {
+    Data.Builder data = Data.newBuilder().setPin(pin);
+    if (pin.hasAnalogPin()) {
+      data.setAnalogValue(AnalogValue.newBuilder().setValue(value));
+    } else if (pin.hasDigitalPin()) {
+      data.setDigitalValue(DigitalValue.newBuilder().setValue(value != 0));
+    } else {
+      data.setIntValue(IntValue.newBuilder().setValue(value));
+    }
+    return data.build();
+  }
+
+  private void send(SensorData sensorData) {
+    byte[] message = sensorData.toByteArray();
+    int fragmentSize = notificationSize - 2;
+    for (int start = 0; start < message.length; start += fragmentSize) {
+      int length = Math.min(fragmentSize, message.length - start);
+      byte[] notification = new byte[length + 2];
+      notification[0] = (byte) length;
+      notification[1] = (byte) (start + length == message.length ? 1 : 0);
+      System.arraycopy(message, start, notification, 2, length);
+      notifications.add(notification);
+    }
+  }
+}
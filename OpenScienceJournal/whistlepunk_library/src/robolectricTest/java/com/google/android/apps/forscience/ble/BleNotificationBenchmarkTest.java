@@ -0,0 +1,151 @@
+/*
+ *  Copyright 2019 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.ble;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+/**
+ * Measures the latency of delivering BLE notifications through {@link BleNotificationDispatcher}.
+ * Latencies are printed, not asserted on, and the test is skipped unless run with {@code
+ * -Pbenchmarks}.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class BleNotificationBenchmarkTest {
+  private static final String ADDRESS = "AA:BB:CC:DD:EE:FF";
+  private static final UUID VALUE_ID = UUID.fromString("555a0003-0aaa-467a-9538-01f0652c74e8");
+
+  // A sensor filling every 7.5ms connection interval with six 20-byte notifications, for 6s.
+  private static final long CONNECTION_INTERVAL_NANOS = 7500000;
+  private static final int NOTIFICATIONS_PER_INTERVAL = 6;
+  private static final int INTERVALS = 800;
+  private static final int NOTIFICATIONS = INTERVALS * NOTIFICATIONS_PER_INTERVAL;
+
+  @Test
+  public void testNotificationLatency() throws InterruptedException {
+    ExecutorService ioThread = Executors.newSingleThreadExecutor();
+    try {
+      BleNotificationDispatcher dispatcher = new BleNotificationDispatcher(ioThread);
+      // Warm up, so the numbers aren't of interpreted code.
+      run(dispatcher, INTERVALS / 4);
+      LatencyRecorder recorder = run(dispatcher, INTERVALS);
+
+      long[] latencies = Arrays.copyOf(recorder.latencyNanos, recorder.received);
+      Arrays.sort(latencies);
+      long median = latencies[latencies.length / 2];
+      long p99 = latencies[latencies.length * 99 / 100];
+      System.out.println(
+          String.format(
+              "%d notifications, %d per %.1fms interval: median latency %.1f us, p99 %.1f us,"
+                  + " max %.1f us",
+              NOTIFICATIONS,
+              NOTIFICATIONS_PER_INTERVAL,
+              CONNECTION_INTERVAL_NANOS / 1e6,
+              median / 1e3,
+              p99 / 1e3,
+              latencies[latencies.length - 1] / 1e3));
+
+      // Every notification arrives, in order and intact, even though the fake GATT overwrites its
+      // value as soon as each callback returns.
+      assertEquals(NOTIFICATIONS, recorder.received);
+      assertEquals(0, recorder.outOfOrder);
+    } finally {
+      ioThread.shutdown();
+    }
+  }
+
+  private static LatencyRecorder run(BleNotificationDispatcher dispatcher, int intervals)
+      throws InterruptedException {
+    LatencyRecorder recorder = new LatencyRecorder(intervals * NOTIFICATIONS_PER_INTERVAL);
+    dispatcher.register(ADDRESS, recorder);
+    FakeGatt gatt = new FakeGatt(dispatcher);
+    Thread binderThread =
+        new Thread(
+            () -> {
+              int sequence = 0;
+              long next = System.nanoTime();
+              for (int i = 0; i < intervals; i++) {
+                for (int j = 0; j < NOTIFICATIONS_PER_INTERVAL; j++) {
+                  gatt.notifyValue(sequence++);
+                }
+                next += CONNECTION_INTERVAL_NANOS;
+                LockSupport.parkNanos(next - System.nanoTime());
+              }
+            });
+    binderThread.start();
+    binderThread.join();
+    assertTrue(recorder.done.await(10, TimeUnit.SECONDS));
+    dispatcher.unregister(ADDRESS, recorder);
+    return recorder;
+  }
+
+  /**
+   * Stands in for BluetoothGatt and MyBleService's callback: like the framework, it reuses a single
+   * value array for every notification on the characteristic.
+   */
+  private static class FakeGatt {
+    private final BleNotificationDispatcher dispatcher;
+    private final byte[] value = new byte[20];
+    private final ByteBuffer buffer = ByteBuffer.wrap(value);
+
+    FakeGatt(BleNotificationDispatcher dispatcher) {
+      this.dispatcher = dispatcher;
+    }
+
+    void notifyValue(int sequence) {
+      buffer.putInt(0, sequence);
+      buffer.putLong(4, System.nanoTime());
+      dispatcher.dispatch(ADDRESS, VALUE_ID, 0, value);
+    }
+  }
+
+  private static class LatencyRecorder implements BleNotificationDispatcher.Listener {
+    final long[] latencyNanos;
+    final CountDownLatch done = new CountDownLatch(1);
+    int received = 0;
+    int outOfOrder = 0;
+
+    LatencyRecorder(int expected) {
+      latencyNanos = new long[expected];
+    }
+
+    @Override
+    public void onNotification(UUID characteristic, int flags, byte[] value, int length) {
+      long now = System.nanoTime();
+      ByteBuffer buffer = ByteBuffer.wrap(value, 0, length);
+      if (buffer.getInt(0) != received) {
+        outOfOrder++;
+      }
+      latencyNanos[received++] = now - buffer.getLong(4);
+      if (received == latencyNanos.length) {
+        done.countDown();
+      }
+    }
+  }
+}
@@ -0,0 +1,129 @@
+/*
+ *  Copyright 2019 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.ble;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+@RunWith(RobolectricTestRunner.class)
+public class BleNotificationDispatcherTest {
+  private static final UUID CHARACTERISTIC =
+      UUID.fromString("555a0003-0aaa-467a-9538-01f0652c74e8");
+
+  private final List<Runnable> queued = new ArrayList<>();
+  private final BleNotificationDispatcher dispatcher = new BleNotificationDispatcher(queued::add);
+
+  @Test
+  public void deliversOnlyToListenersForTheAddress() {
+    List<String> received = new ArrayList<>();
+    dispatcher.register("a", record(received, "a1"));
+    dispatcher.register("a", record(received, "a2"));
+    dispatcher.register("b", record(received, "b"));
+
+    dispatcher.dispatch("a", CHARACTERISTIC, 0, new byte[] {1, 2});
+    dispatcher.dispatch("b", CHARACTERISTIC, 0, new byte[] {3});
+    dispatcher.dispatch("c", CHARACTERISTIC, 0, new byte[] {4});
+    runQueued();
+
+    assertEquals("[a1:[1, 2], a2:[1, 2], b:[3]]", received.toString());
+  }
+
+  @Test
+  public void copiesValueBeforeReturning() {
+    List<String> received = new ArrayList<>();
+    dispatcher.register("a", record(received, "a"));
+
+    // BluetoothGatt overwrites the characteristic's value with each notification.
+    byte[] value = new byte[] {1};
+    dispatcher.dispatch("a", CHARACTERISTIC, 0, value);
+    value[0] = 2;
+    dispatcher.dispatch("a", CHARACTERISTIC, 0, value);
+    runQueued();
+
+    assertEquals("[a:[1], a:[2]]", received.toString());
+  }
+
+  @Test
+  public void reusesBuffers() {
+    List<byte[]> buffers = new ArrayList<>();
+    dispatcher.register(
+        "a",
+        (characteristic, flags, value, length) -> {
+          if (!buffers.contains(value)) {
+            buffers.add(value);
+          }
+        });
+
+    for (int i = 0; i < 100; i++) {
+      dispatcher.dispatch("a", CHARACTERISTIC, 0, new byte[20]);
+      runQueued();
+    }
+    assertEquals(1, buffers.size());
+  }
+
+  @Test
+  public void doesNotDropWhenPoolIsExhausted() {
+    List<String> received = new ArrayList<>();
+    dispatcher.register("a", record(received, "a"));
+
+    int count = BleNotificationDispatcher.POOL_SIZE * 2;
+    for (int i = 0; i < count; i++) {
+      dispatcher.dispatch("a", CHARACTERISTIC, 0, new byte[] {(byte) i});
+    }
+    runQueued();
+
+    assertEquals(count, received.size());
+    assertEquals("a:[" + (count - 1) + "]", received.get(count - 1));
+  }
+
+  @Test
+  public void unregisterStopsDelivery() {
+    List<String> received = new ArrayList<>();
+    BleNotificationDispatcher.Listener listener = record(received, "a1");
+    dispatcher.register("a", listener);
+    dispatcher.register("a", record(received, "a2"));
+
+    dispatcher.unregister("a", listener);
+    dispatcher.dispatch("a", CHARACTERISTIC, 0, new byte[] {1});
+    runQueued();
+
+    assertEquals("[a2:[1]]", received.toString());
+  }
+
+  private void runQueued() {
+    for (Runnable runnable : queued) {
+      runnable.run();
+    }
+    queued.clear();
+  }
+
+  private static BleNotificationDispatcher.Listener record(List<String> received, String name) {
+    return (characteristic, flags, value, length) -> {
+      StringBuilder builder = new StringBuilder(name).append(":[");
+      for (int i = 0; i < length; i++) {
+        builder.append(i == 0 ? "" : ", ").append(value[i]);
+      }
+      received.add(builder.append("]").toString());
+    };
+  }
+}
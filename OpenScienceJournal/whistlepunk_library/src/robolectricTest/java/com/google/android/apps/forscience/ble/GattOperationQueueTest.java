@@ -0,0 +1,283 @@
+/*
+ *  Copyright 2019 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.ble;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.android.apps.forscience.ble.GattOperationQueue.Kind;
+import com.google.android.apps.forscience.ble.GattOperationQueue.Operation;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+@RunWith(RobolectricTestRunner.class)
+public class GattOperationQueueTest {
+  private final FakeTimer timer = new FakeTimer();
+  private final List<String> sent = new ArrayList<>();
+  private final GattOperationQueue queue =
+      new GattOperationQueue("address", timer, () -> sent.add("reconnect"));
+  private final List<String> results = new ArrayList<>();
+
+  @Test
+  public void sendsOneAtATimeOnceConnected() {
+    queue.enqueue(operation(Kind.READ_CHARACTERISTIC, "a", "x", true));
+    queue.enqueue(operation(Kind.WRITE_CHARACTERISTIC, "b", "y", true));
+    assertEquals(0, sent.size());
+    assertEquals(2, queue.getQueueDepth());
+
+    queue.resume();
+    assertEquals("[a]", sent.toString());
+    // Callbacks for some other kind of operation, or another characteristic, don't finish this one.
+    queue.onComplete(Kind.WRITE_CHARACTERISTIC, "x", true);
+    queue.onComplete(Kind.READ_CHARACTERISTIC, "y", true);
+    assertEquals("[a]", sent.toString());
+
+    timer.advance(10);
+    queue.onComplete(Kind.READ_CHARACTERISTIC, "x", true);
+    assertEquals("[a, b]", sent.toString());
+    queue.onComplete(Kind.WRITE_CHARACTERISTIC, "y", false);
+    assertEquals("[a:true, b:false]", results.toString());
+    assertEquals(0, queue.getQueueDepth());
+    assertEquals(2, queue.getMaxQueueDepth());
+    assertEquals(1, queue.getCompletedCount());
+    assertEquals(1, queue.getFailedCount());
+    assertEquals(10, queue.getMaxLatencyMillis());
+  }
+
+  @Test
+  public void retriesRefusedRequests() {
+    int[] refusals = {2};
+    queue.enqueue(
+        new Operation(
+            Kind.READ_CHARACTERISTIC,
+            null,
+            () -> {
+              sent.add("a");
+              return refusals[0]-- <= 0;
+            },
+            success -> results.add("a:" + success)));
+    queue.resume();
+    assertEquals(1, sent.size());
+
+    timer.advance(GattOperationQueue.RETRY_DELAY_MILLIS);
+    timer.advance(GattOperationQueue.RETRY_DELAY_MILLIS);
+    assertEquals(3, sent.size());
+    queue.onComplete(Kind.READ_CHARACTERISTIC, null, true);
+    assertEquals("[a:true]", results.toString());
+    assertEquals(2, queue.getRetryCount());
+  }
+
+  @Test
+  public void waitsForLateCallbackAfterTimeout() {
+    queue.enqueue(operation(Kind.WRITE_DESCRIPTOR, "a", "x", true));
+    queue.enqueue(operation(Kind.WRITE_DESCRIPTOR, "b", "y", true));
+    queue.resume();
+
+    timer.advance(GattOperationQueue.TIMEOUT_MILLIS);
+    // Nothing is sent while the stack may still be busy with the write.
+    timer.advance(GattOperationQueue.TIMEOUT_MILLIS * 10);
+    assertEquals("[a, reconnect]", sent.toString());
+    assertEquals(1, queue.getStallCount());
+
+    // The late callback is the timed-out write's own, and ends it.
+    queue.onComplete(Kind.WRITE_DESCRIPTOR, "x", true);
+    assertEquals("[a, reconnect, b]", sent.toString());
+    queue.onComplete(Kind.WRITE_DESCRIPTOR, "y", true);
+    assertEquals("[a:true, b:true]", results.toString());
+    assertEquals(0, queue.getRetryCount());
+  }
+
+  @Test
+  public void givesUpAfterTimeouts() {
+    queue.enqueue(operation(Kind.READ_CHARACTERISTIC, "a", "x", true));
+    queue.enqueue(operation(Kind.READ_CHARACTERISTIC, "b", "y", true));
+    queue.resume();
+
+    for (int i = 0; i < GattOperationQueue.MAX_ATTEMPTS; i++) {
+      timer.advance(GattOperationQueue.TIMEOUT_MILLIS);
+      queue.onDisconnected();
+      queue.resume();
+    }
+    assertEquals("[a, reconnect, a, reconnect, a, reconnect, b]", sent.toString());
+    assertEquals("[a:false]", results.toString());
+    assertEquals(GattOperationQueue.MAX_ATTEMPTS - 1, queue.getRetryCount());
+
+    // A late callback from the abandoned read isn't credited to the one in flight.
+    queue.onComplete(Kind.READ_CHARACTERISTIC, "x", true);
+    assertEquals("[a:false]", results.toString());
+    queue.onComplete(Kind.READ_CHARACTERISTIC, "y", true);
+    assertEquals("[a:false, b:true]", results.toString());
+  }
+
+  @Test
+  public void disconnectsDontUseUpTries() {
+    queue.enqueue(operation(Kind.READ_CHARACTERISTIC, "a", "x", true));
+    queue.resume();
+
+    // Losing the connection isn't the operation's fault.
+    for (int i = 0; i < GattOperationQueue.MAX_ATTEMPTS * 2; i++) {
+      queue.onDisconnected();
+      queue.resume();
+    }
+    assertEquals("[]", results.toString());
+    queue.onComplete(Kind.READ_CHARACTERISTIC, "x", true);
+    assertEquals("[a:true]", results.toString());
+    assertEquals(0, queue.getStallCount());
+  }
+
+  @Test
+  public void coalescesPendingDescriptorWrites() {
+    queue.enqueue(operation(Kind.WRITE_DESCRIPTOR, "enable x", "x", true));
+    queue.enqueue(operation(Kind.WRITE_DESCRIPTOR, "enable y", "y", true));
+    queue.enqueue(operation(Kind.WRITE_DESCRIPTOR, "disable x", "x", true));
+    assertEquals(2, queue.getQueueDepth());
+    assertEquals(1, queue.getCoalescedCount());
+
+    queue.resume();
+    queue.onComplete(Kind.WRITE_DESCRIPTOR, "x", true);
+    queue.onComplete(Kind.WRITE_DESCRIPTOR, "y", true);
+    assertEquals("[disable x, enable y]", sent.toString());
+    // Both callers hear about the write that replaced theirs.
+    assertEquals("[enable x:true, disable x:true, enable y:true]", results.toString());
+  }
+
+  @Test
+  public void keepsWritesToDifferentDescriptorsOfOneCharacteristic() {
+    UUID characteristic = UUID.randomUUID();
+    UUID firstDescriptor = UUID.randomUUID();
+    Object first = GattOperationQueue.descriptorTarget(characteristic, firstDescriptor);
+    Object second = GattOperationQueue.descriptorTarget(characteristic, UUID.randomUUID());
+    queue.enqueue(operation(Kind.WRITE_DESCRIPTOR, "first", first, true));
+    queue.enqueue(operation(Kind.WRITE_DESCRIPTOR, "second", second, true));
+    assertEquals(2, queue.getQueueDepth());
+    assertEquals(0, queue.getCoalescedCount());
+
+    queue.resume();
+    // A callback for the other descriptor doesn't end the write in flight.
+    queue.onComplete(Kind.WRITE_DESCRIPTOR, second, true);
+    assertEquals("[first]", sent.toString());
+    // The callback builds its own target, which matches.
+    queue.onComplete(
+        Kind.WRITE_DESCRIPTOR,
+        GattOperationQueue.descriptorTarget(characteristic, firstDescriptor),
+        true);
+    queue.onComplete(Kind.WRITE_DESCRIPTOR, second, true);
+    assertEquals("[first, second]", sent.toString());
+    assertEquals("[first:true, second:true]", results.toString());
+  }
+
+  @Test
+  public void resendsAfterReconnecting() {
+    queue.enqueue(operation(Kind.DISCOVER_SERVICES, "discover", null, true));
+    queue.enqueue(operation(Kind.WRITE_DESCRIPTOR, "a", "x", true));
+    queue.resume();
+    queue.onComplete(Kind.DISCOVER_SERVICES, null, true);
+    assertEquals("[discover, a]", sent.toString());
+
+    queue.enqueueFirst(operation(Kind.DISCOVER_SERVICES, "rediscover", null, true));
+    queue.onDisconnected();
+    // Nothing times out while disconnected.
+    timer.advance(GattOperationQueue.TIMEOUT_MILLIS * 10);
+    assertEquals(1, queue.getQueueDepth());
+
+    queue.resume();
+    queue.onComplete(Kind.WRITE_DESCRIPTOR, "x", true);
+    assertEquals("[discover, a, a]", sent.toString());
+    assertEquals("[discover:true, a:true]", results.toString());
+  }
+
+  @Test
+  public void clearDropsEverything() {
+    queue.enqueue(operation(Kind.READ_CHARACTERISTIC, "a", "x", true));
+    queue.enqueue(operation(Kind.READ_CHARACTERISTIC, "b", "y", true));
+    queue.resume();
+    timer.advance(GattOperationQueue.TIMEOUT_MILLIS);
+    queue.clear();
+    assertEquals(0, queue.getQueueDepth());
+    assertTrue(timer.tasks.isEmpty());
+    queue.onComplete(Kind.READ_CHARACTERISTIC, "x", true);
+    assertEquals("[]", results.toString());
+  }
+
+  @Test
+  public void failAllFailsEverything() {
+    queue.enqueue(operation(Kind.READ_CHARACTERISTIC, "a", "x", true));
+    queue.enqueue(operation(Kind.READ_CHARACTERISTIC, "b", "y", true));
+    queue.resume();
+    timer.advance(GattOperationQueue.TIMEOUT_MILLIS);
+    queue.failAll();
+    assertEquals("[a:false, b:false]", results.toString());
+    assertEquals(0, queue.getQueueDepth());
+    assertTrue(timer.tasks.isEmpty());
+    queue.onComplete(Kind.READ_CHARACTERISTIC, "x", true);
+    assertEquals("[a:false, b:false]", results.toString());
+  }
+
+  private Operation operation(Kind kind, String name, Object target, boolean accepted) {
+    return new Operation(
+        kind,
+        target,
+        () -> {
+          sent.add(name);
+          return accepted;
+        },
+        success -> results.add(name + ":" + success));
+  }
+
+  private static class FakeTimer implements GattOperationQueue.Timer {
+    final Map<Runnable, Long> tasks = new LinkedHashMap<>();
+    long now = 0;
+
+    @Override
+    public long now() {
+      return now;
+    }
+
+    @Override
+    public void schedule(Runnable task, long delayMillis) {
+      tasks.put(task, now + delayMillis);
+    }
+
+    @Override
+    public void cancel(Runnable task) {
+      tasks.remove(task);
+    }
+
+    void advance(long millis) {
+      now += millis;
+      List<Runnable> due = new ArrayList<>();
+      Iterator<Map.Entry<Runnable, Long>> iterator = tasks.entrySet().iterator();
+      while (iterator.hasNext()) {
+        Map.Entry<Runnable, Long> task = iterator.next();
+        if (task.getValue() <= now) {
+          due.add(task.getKey());
+          iterator.remove();
+        }
+      }
+      for (Runnable task : due) {
+        task.run();
+      }
+    }
+  }
+}
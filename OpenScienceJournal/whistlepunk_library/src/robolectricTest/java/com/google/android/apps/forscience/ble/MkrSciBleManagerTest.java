@@ -0,0 +1,150 @@
+/*
+ *  Copyright 2019 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.ble;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+@RunWith(RobolectricTestRunner.class)
+public class MkrSciBleManagerTest {
+  private static final UUID ACCELEROMETER = UUID.fromString(MkrSciBleManager.ACCELEROMETER_UUID);
+  private static final UUID INPUT_1 = UUID.fromString(MkrSciBleManager.INPUT_1_UUID);
+  private static final UUID VOLTAGE = UUID.fromString(MkrSciBleManager.VOLTAGE_UUID);
+
+  private final List<Runnable> posted = new ArrayList<>();
+  private final MkrSciBleManager.MainThreadBatcher mainThread =
+      new MkrSciBleManager.MainThreadBatcher(posted::add);
+  private final MkrSciBleManager.GattHandler gattHandler =
+      new MkrSciBleManager.GattHandler("address", mainThread);
+
+  @Test
+  public void parsesEachType() {
+    RecordingListener accelerometer = subscribe(MkrSciBleManager.ACCELEROMETER_UUID, -1);
+    RecordingListener input = subscribe(MkrSciBleManager.INPUT_1_UUID, -1);
+    RecordingListener voltage = subscribe(MkrSciBleManager.VOLTAGE_UUID, -1);
+
+    gattHandler.onNotification(ACCELEROMETER, floats(1.5f, -2f, 9.75f));
+    gattHandler.onNotification(INPUT_1, new byte[] {(byte) 0xFF, 0x03});
+    gattHandler.onNotification(VOLTAGE, floats(3.3f));
+
+    assertArrayEquals(new double[] {1.5, -2, 9.75}, accelerometer.last, 0);
+    assertArrayEquals(new double[] {1023}, input.last, 0);
+    assertArrayEquals(new double[] {3.3f}, voltage.last, 0);
+  }
+
+  @Test
+  public void clampsAndIgnoresShortValues() {
+    RecordingListener voltage = subscribe(MkrSciBleManager.VOLTAGE_UUID, -1);
+
+    gattHandler.onNotification(VOLTAGE, floats(3e9f));
+    assertArrayEquals(new double[] {2000000000D}, voltage.last, 0);
+    gattHandler.onNotification(VOLTAGE, new byte[] {1, 2});
+    assertEquals(1, voltage.count);
+  }
+
+  @Test
+  public void deliversAllAxesWithOnePost() {
+    RecordingListener x = subscribe(MkrSciBleManager.ACCELEROMETER_UUID, 0);
+    RecordingListener y = subscribe(MkrSciBleManager.ACCELEROMETER_UUID, 1);
+    RecordingListener z = subscribe(MkrSciBleManager.ACCELEROMETER_UUID, 2);
+
+    gattHandler.onNotification(ACCELEROMETER, floats(1, 2, 3));
+    gattHandler.onNotification(ACCELEROMETER, floats(4, 5, 6));
+    assertEquals(2, posted.size());
+    assertTrue(x.shown.isEmpty());
+
+    for (Runnable post : posted) {
+      post.run();
+    }
+    assertEquals("[1.0, 4.0]", x.shown.toString());
+    assertEquals("[2.0, 5.0]", y.shown.toString());
+    assertEquals("[3.0, 6.0]", z.shown.toString());
+  }
+
+  @Test
+  public void postsDirectlyOutsideNotifications() {
+    mainThread.execute(() -> {});
+    mainThread.begin();
+    mainThread.end();
+    assertEquals(1, posted.size());
+  }
+
+  @Test
+  public void unsubscribeStopsDelivery() {
+    RecordingListener x = subscribe(MkrSciBleManager.ACCELEROMETER_UUID, 0);
+    RecordingListener y = subscribe(MkrSciBleManager.ACCELEROMETER_UUID, 1);
+    assertTrue(gattHandler.hasSubscribers());
+
+    gattHandler.unsubscribe(MkrSciBleManager.ACCELEROMETER_UUID, x);
+    gattHandler.onNotification(ACCELEROMETER, floats(1, 2, 3));
+    assertEquals(0, x.count);
+    assertEquals(1, y.count);
+
+    gattHandler.unsubscribe(MkrSciBleManager.ACCELEROMETER_UUID, y);
+    assertFalse(gattHandler.hasSubscribers());
+  }
+
+  private RecordingListener subscribe(String characteristic, int shownIndex) {
+    RecordingListener listener = new RecordingListener(shownIndex);
+    gattHandler.subscribe(characteristic, listener);
+    return listener;
+  }
+
+  private static byte[] floats(float... values) {
+    ByteBuffer buffer = ByteBuffer.allocate(values.length * 4).order(ByteOrder.LITTLE_ENDIAN);
+    for (float value : values) {
+      buffer.putFloat(value);
+    }
+    return buffer.array();
+  }
+
+  /** Records what it receives and, like a sensor, shows one of the values on the main thread. */
+  private class RecordingListener implements MkrSciBleManager.Listener {
+    private final int shownIndex;
+    final List<Double> shown = new ArrayList<>();
+    double[] last;
+    int count = 0;
+
+    RecordingListener(int shownIndex) {
+      this.shownIndex = shownIndex;
+    }
+
+    @Override
+    public void onFirmwareVersion(long firmwareVersion) {}
+
+    @Override
+    public void onValuesUpdated(double[] values) {
+      last = values.clone();
+      count++;
+      if (shownIndex >= 0) {
+        double value = values[shownIndex];
+        mainThread.execute(() -> shown.add(value));
+      }
+    }
+  }
+}
@@ -17,12 +17,18 @@ package com.google.android.apps.forscience.ble;
 
 import static org.junit.Assert.assertEquals;
 
+import android.bluetooth.BluetoothGattCharacteristic;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.FakeBleClient;
 import com.google.common.collect.Lists;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.shadows.ShadowLooper;
 
 @RunWith(RobolectricTestRunner.class)
 public class MyBleServiceTest {
@@ -38,6 +44,43 @@ public class MyBleServiceTest {
     assertEquals(Lists.newArrayList("address"), mbs.addressesDiscovered);
   }
 
+  @Test
+  public void testStallFailsFlow() {
+    TestBleService mbs = new TestBleService();
+    FakeBleClient client = new FakeBleClient(RuntimeEnvironment.application);
+    client.expectedAddress = "address";
+    RecordingListener listener = new RecordingListener();
+    BleFlow flow =
+        BleFlow.getInstance(client, RuntimeEnvironment.application, "address")
+            .resetAndAddListener(listener, true)
+            .connect()
+            .lookupService(UUID.randomUUID())
+            .disconnect();
+    BleFlow.run(flow);
+    mbs.sendGattBroadcast("address", BleEvents.GATT_CONNECT, null);
+
+    // Service discovery is sent, and never calls back.
+    GattOperationQueue operations = mbs.getOperations("address");
+    operations.enqueue(
+        new GattOperationQueue.Operation(
+            GattOperationQueue.Kind.DISCOVER_SERVICES,
+            null,
+            () -> true,
+            success ->
+                mbs.sendGattBroadcast(
+                    "address", success ? BleEvents.SERVICES_OK : BleEvents.SERVICES_FAIL, null)));
+    operations.resume();
+    ShadowLooper.idleMainLooper(GattOperationQueue.TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+    assertEquals(1, operations.getStallCount());
+
+    // The disconnect asked for by the stall goes through.
+    mbs.onDisconnected("address");
+
+    assertEquals(1, listener.failures);
+    assertEquals(0, listener.successes);
+    assertEquals(1, listener.disconnects);
+  }
+
   private static class TestBleService extends MyBleService {
     public List<String> addressesDiscovered = new ArrayList<>();
 
@@ -46,5 +89,51 @@ public class MyBleServiceTest {
       addressesDiscovered.add(address);
       return true;
     }
+
+    @Override
+    protected void sendGattBroadcast(
+        String address, String gattAction, BluetoothGattCharacteristic characteristic) {
+      getBroadcastManager(RuntimeEnvironment.application)
+          .sendBroadcast(BleEvents.createIntent(gattAction, address));
+    }
+  }
+
+  private static class RecordingListener extends BleFlowListener {
+    public int successes = 0;
+    public int failures = 0;
+    public int disconnects = 0;
+
+    @Override
+    public void onSuccess() {
+      successes++;
+    }
+
+    @Override
+    public void onFailure(Exception error) {
+      failures++;
+    }
+
+    @Override
+    public void onCharacteristicRead(UUID characteristic, int flags, byte[] value) {}
+
+    @Override
+    public void onNotification(UUID characteristic, int flags, byte[] value, int length) {}
+
+    @Override
+    public void onDisconnect() {
+      disconnects++;
+    }
+
+    @Override
+    public void onConnect() {}
+
+    @Override
+    public void onNotificationSubscribed() {}
+
+    @Override
+    public void onNotificationUnsubscribed() {}
+
+    @Override
+    public void onServicesDiscovered() {}
   }
 }
@@ -0,0 +1,104 @@
+/*
+ *  Copyright 2019 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+@RunWith(RobolectricTestRunner.class)
+public class CsvWriterTest {
+  @Test
+  public void testFormatsLikeDoubleToString() throws IOException {
+    double[] values = {
+      0,
+      -0.0,
+      1,
+      -1,
+      0.1,
+      0.5,
+      1e-3,
+      9.99e-4,
+      12345.678,
+      -273.15,
+      9999999.5,
+      1e7,
+      1e-10,
+      6.02e23,
+      Double.NaN,
+      Double.POSITIVE_INFINITY,
+      Double.MIN_VALUE,
+      Double.MAX_VALUE
+    };
+    for (double value : values) {
+      assertEquals(Double.toString(value), format(value));
+    }
+  }
+
+  @Test
+  public void testFormatsSensorValuesLikeDoubleToString() throws IOException {
+    Random random = new Random(42);
+    for (int i = 0; i < 100000; i++) {
+      // Values like sensors report, with up to six decimal places.
+      double scale = Math.pow(10, random.nextInt(7));
+      double value = Math.round((random.nextDouble() - 0.5) * 20000 * scale) / scale;
+      assertEquals(Double.toString(value), format(value));
+    }
+  }
+
+  @Test
+  public void testFullPrecisionValuesReadBackTheSame() throws IOException {
+    Random random = new Random(42);
+    for (int i = 0; i < 100000; i++) {
+      double value = (random.nextDouble() - 0.5) * Math.pow(10, random.nextInt(12) - 4);
+      assertEquals(value, Double.parseDouble(format(value)), 0.0);
+    }
+  }
+
+  @Test
+  public void testWritesRowsThroughBuffer() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    CsvWriter writer = new CsvWriter(out);
+    writer.writeText("timestamp,\u00fc\n");
+    for (int i = 0; i < 10000; i++) {
+      writer.writeLong(-i);
+      writer.writeComma();
+      writer.writeDouble(i / 4.0);
+      writer.writeNewline();
+    }
+    writer.close();
+
+    String[] lines = out.toString("UTF-8").split("\n");
+    assertEquals(10001, lines.length);
+    assertEquals("timestamp,\u00fc", lines[0]);
+    assertEquals("0,0.0", lines[1]);
+    assertEquals("-9999,2499.75", lines[10000]);
+  }
+
+  private static String format(double value) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    CsvWriter writer = new CsvWriter(out);
+    writer.writeDouble(value);
+    writer.close();
+    return out.toString("UTF-8");
+  }
+}
@@ -142,6 +142,10 @@ class MemoryRecorderController implements RecorderController {
   @Override
   public void clearSensorTriggers(String sensorId, SensorRegistry sensorRegistry) {}
 
+  @Override
+  public void updateSensorTriggers(
+      String sensorId, List<SensorTrigger> activeTriggers, SensorRegistry sensorRegistry) {}
+
   @Override
   public AppAccount getAppAccount() {
     Context context = RuntimeEnvironment.application.getApplicationContext();
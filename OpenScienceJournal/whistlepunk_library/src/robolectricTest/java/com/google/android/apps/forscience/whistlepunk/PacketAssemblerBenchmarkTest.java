@@ -0,0 +1,132 @@
+/*
+ *  Copyright 2019 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk;
+
+import static org.junit.Assert.assertEquals;
+
+import com.google.android.apps.forscience.whistlepunk.PacketAssemblerTest.GoosciSensorBuilder;
+import com.google.android.apps.forscience.whistlepunk.data.GoosciSensor;
+import com.google.protobuf.InvalidProtocolBufferException;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+/**
+ * Measures the cost of reassembling and decoding BLE sensor readings. Skipped unless the build is
+ * given {@code -Pbenchmarks}; it checks that both decoders agree and prints how long each took.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class PacketAssemblerBenchmarkTest {
+  // A sensor sending 100 readings a second for 10 minutes, in 20-byte notifications.
+  private static final int READINGS = 60000;
+  private static final int CHUNK_SIZE = 18;
+
+  private double sum;
+  private int count;
+  private final PacketAssembler.Listener listener =
+      new PacketAssembler.Listener() {
+        @Override
+        public void onError(int error, String errorMessage) {}
+
+        @Override
+        public void onDataParsed(long timeStampMs, double data) {
+          sum += data;
+          count++;
+        }
+      };
+
+  @Test
+  public void testAssemblySpeed() {
+    List<byte[]> fragments = new ArrayList<>();
+    for (int i = 0; i < READINGS; i++) {
+      // Mostly analog readings, some of which need more than one fragment.
+      GoosciSensorBuilder builder = new GoosciSensorBuilder();
+      if (i % 4 == 3) {
+        builder.setVirtualPin().setFloatValue(i / 4f, i * 10);
+      } else {
+        builder.setAnalogPin().setAnalogValue(i * 97, i * 10);
+      }
+      fragments.addAll(PacketAssemblerTest.frame(builder.commit().toByteArray(), CHUNK_SIZE));
+    }
+
+    // Warm up, so the comparison isn't of interpreted code.
+    runLegacy(fragments);
+    run(fragments);
+
+    long start = System.nanoTime();
+    runLegacy(fragments);
+    long legacyNanos = System.nanoTime() - start;
+    double legacySum = sum;
+    int legacyCount = count;
+
+    start = System.nanoTime();
+    run(fragments);
+    long nanos = System.nanoTime() - start;
+
+    System.out.println(
+        String.format(
+            "%d readings in %d fragments: parseFrom %.0f ns/reading, streaming decode %.0f"
+                + " ns/reading (%.1fx)",
+            READINGS,
+            fragments.size(),
+            legacyNanos / (double) READINGS,
+            nanos / (double) READINGS,
+            legacyNanos / (double) nanos));
+
+    assertEquals(READINGS, count);
+    assertEquals(legacyCount, count);
+    assertEquals(legacySum, sum, 0);
+  }
+
+  private void run(List<byte[]> fragments) {
+    sum = 0;
+    count = 0;
+    PacketAssembler pa = new PacketAssembler(() -> 0, listener);
+    for (byte[] fragment : fragments) {
+      pa.append(fragment, fragment.length);
+    }
+  }
+
+  /** Reassembles and parses readings the way PacketAssembler did before it decoded them itself. */
+  private void runLegacy(List<byte[]> fragments) {
+    sum = 0;
+    count = 0;
+    ByteArrayOutputStream packetStream = new ByteArrayOutputStream();
+    for (byte[] fragment : fragments) {
+      packetStream.write(fragment, 2, fragment[0]);
+      if (fragment[1] != 1) {
+        continue;
+      }
+      byte[] bs = packetStream.toByteArray();
+      packetStream.reset();
+      try {
+        GoosciSensor.SensorData sensorData = GoosciSensor.SensorData.parseFrom(bs);
+        GoosciSensor.Data data = sensorData.getData();
+        double value =
+            data.getPin().hasAnalogPin()
+                ? data.getAnalogValue().getValue()
+                : data.getFloatValue().getValue();
+        listener.onDataParsed(sensorData.getTimestampKey(), value);
+      } catch (InvalidProtocolBufferException e) {
+        listener.onError(0, e.getMessage());
+      }
+    }
+  }
+}
@@ -21,6 +21,7 @@ import static org.junit.Assert.assertEquals;
 import com.google.android.apps.forscience.whistlepunk.data.GoosciSensor;
 import com.google.android.apps.forscience.whistlepunk.data.GoosciSensor.AnalogPin;
 import com.google.android.apps.forscience.whistlepunk.data.GoosciSensor.AnalogValue;
+import com.google.android.apps.forscience.whistlepunk.data.GoosciSensor.DataBatch;
 import com.google.android.apps.forscience.whistlepunk.data.GoosciSensor.DigitalPin;
 import com.google.android.apps.forscience.whistlepunk.data.GoosciSensor.DigitalValue;
 import com.google.android.apps.forscience.whistlepunk.data.GoosciSensor.FloatValue;
@@ -31,6 +32,7 @@ import com.google.android.apps.forscience.whistlepunk.data.GoosciSensor.VirtualP
 import com.google.android.apps.forscience.whistlepunk.sensorapi.SensorStatusListener;
 import java.io.ByteArrayOutputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -90,7 +92,7 @@ public class PacketAssemblerTest {
     }
   }
 
-  private class GoosciSensorBuilder {
+  static class GoosciSensorBuilder {
     private GoosciSensor.SensorData.Builder sensorData;
 
     private com.google.android.apps.forscience.whistlepunk.data.GoosciSensor.Data.Builder data;
@@ -171,22 +173,49 @@ public class PacketAssemblerTest {
 
   private static void fakeFramedSensorData(
       PacketAssembler pa, byte[] value, int chunksize, int expectedNumPackets) {
+    List<byte[]> fragments = frame(value, chunksize);
+    assertEquals(expectedNumPackets, fragments.size());
+
+    for (byte[] fragment : fragments) {
+      pa.append(fragment);
+    }
+  }
+
+  /** Splits {@code value} into fragments of at most {@code chunksize} bytes, with headers. */
+  static List<byte[]> frame(byte[] value, int chunksize) {
     int length = (int) Math.ceil(value.length / (double) chunksize);
-    assertEquals(expectedNumPackets, length);
 
+    List<byte[]> fragments = new ArrayList<>();
     int start = 0;
     for (int i = 0; i < length; ++i) {
       ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
       int l = chunksize;
       boolean last = i == length - 1;
-      if (last) l = value.length % chunksize;
+      if (last) l = value.length - start;
       outputStream.write((byte) l);
       outputStream.write((byte) (last ? 1 : 0));
       for (int j = 0; j < l; ++j) outputStream.write(value[start++]);
 
-      pa.append(outputStream.toByteArray());
+      fragments.add(outputStream.toByteArray());
     }
     assertEquals(value.length, start);
+    return fragments;
+  }
+
+  private static byte[] concat(List<byte[]> fragments) {
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    for (byte[] fragment : fragments) {
+      outputStream.write(fragment, 0, fragment.length);
+    }
+    return outputStream.toByteArray();
+  }
+
+  private byte[] analogReading(int dataValue, int timestampMs) {
+    return new GoosciSensorBuilder()
+        .setAnalogPin()
+        .setAnalogValue(dataValue, timestampMs)
+        .commit()
+        .toByteArray();
   }
 
   private PacketAssembler createPacketAssembler(TestPacketAssemblerListener tpal) {
@@ -498,4 +527,199 @@ public class PacketAssemblerTest {
     List<String> errors = tpal.getErrors();
     assertEquals(1, errors.size());
   }
+
+  @Test
+  public void testBatchedReadings() {
+    final TestPacketAssemblerListener tpal = new TestPacketAssemblerListener();
+    final PacketAssembler pa = createPacketAssembler(tpal);
+
+    // Three readings in one notification, the last of them split across two.
+    List<byte[]> fragments = new ArrayList<>();
+    fragments.addAll(frame(analogReading(5, 0), 20));
+    fragments.addAll(frame(analogReading(10, 10), 20));
+    List<byte[]> last = frame(analogReading(15, 20), 4);
+    fragments.addAll(last.subList(0, last.size() - 1));
+    pa.append(concat(fragments));
+    assertEquals(2, tpal.getData().size());
+
+    pa.append(last.get(last.size() - 1));
+    List<Point> points = tpal.getData();
+    assertEquals(3, points.size());
+    assertEquals(testTime + 20, points.get(2).x);
+    assertEquals(15, points.get(2).y, Double.MIN_VALUE);
+    assertEquals(0, pa.getMalformedFragmentCount());
+  }
+
+  @Test
+  public void testIgnoresBytesPastLength() {
+    final TestPacketAssemblerListener tpal = new TestPacketAssemblerListener();
+    final PacketAssembler pa = createPacketAssembler(tpal);
+
+    // As BleNotificationDispatcher delivers them, in a buffer with stale bytes at the end.
+    byte[] fragment = frame(analogReading(5, 0), 20).get(0);
+    byte[] buffer = Arrays.copyOf(fragment, 512);
+    Arrays.fill(buffer, fragment.length, buffer.length, (byte) 7);
+    pa.append(buffer, fragment.length);
+
+    assertEquals(1, tpal.getData().size());
+    assertEquals(0, pa.getMalformedFragmentCount());
+  }
+
+  @Test
+  public void testMalformedFragment() {
+    final TestPacketAssemblerListener tpal = new TestPacketAssemblerListener();
+    final PacketAssembler pa = createPacketAssembler(tpal);
+
+    List<byte[]> fragments = frame(analogReading(5, 0), 4);
+    pa.append(fragments.get(0));
+    // Claims more bytes than the notification has.
+    pa.append(new byte[] {(byte) 200, 0, 1, 2});
+    // The rest of the interrupted reading can't be parsed on its own.
+    for (byte[] fragment : fragments.subList(1, fragments.size())) {
+      pa.append(fragment);
+    }
+    assertEquals(1, pa.getMalformedFragmentCount());
+    assertEquals(0, tpal.getData().size());
+    assertEquals(1, tpal.getErrors().size());
+
+    // But we're back in step for the next reading.
+    fakeFramedSensorData(pa, analogReading(10, 10), 4, fragments.size());
+    assertEquals(1, tpal.getData().size());
+    assertEquals(10, tpal.getData().get(0).y, Double.MIN_VALUE);
+  }
+
+  @Test
+  public void testOutOfOrderReadings() {
+    final TestPacketAssemblerListener tpal = new TestPacketAssemblerListener();
+    final PacketAssembler pa = createPacketAssembler(tpal);
+
+    int[] timestamps = {10, 30, 20, 40};
+    for (int timestamp : timestamps) {
+      fakeFramedSensorData(pa, analogReading(timestamp, timestamp), 20, 1);
+    }
+
+    assertEquals(1, pa.getOutOfOrderCount());
+    List<Point> points = tpal.getData();
+    for (int i = 0; i < timestamps.length; i++) {
+      assertEquals(testTime + timestamps[i] - timestamps[0], points.get(i).x);
+    }
+  }
+
+  @Test
+  public void testTimestampKeyWraparound() {
+    final TestPacketAssemblerListener tpal = new TestPacketAssemblerListener();
+    final PacketAssembler pa = createPacketAssembler(tpal);
+
+    // timestamp_key is a uint32, which wraps around after about 49 days.
+    fakeFramedSensorData(pa, analogReading(1, -10), 20, 1);
+    fakeFramedSensorData(pa, analogReading(2, 5), 20, 1);
+
+    assertEquals(0, pa.getOutOfOrderCount());
+    assertEquals(testTime + 15, tpal.getData().get(1).x);
+  }
+
+  @Test
+  public void testAnalogBatch() {
+    final TestPacketAssemblerListener tpal = new TestPacketAssemblerListener();
+    final PacketAssembler pa = createPacketAssembler(tpal);
+
+    DataBatch batch =
+        DataBatch.newBuilder()
+            .setPin(Pin.newBuilder().setAnalogPin(AnalogPin.newBuilder().setPin(0)))
+            .addTimestampDelta(0)
+            .addValueDelta(700)
+            .addTimestampDelta(5)
+            .addValueDelta(-300)
+            .addTimestampDelta(5)
+            .addValueDelta(10)
+            .build();
+    byte[] value =
+        GoosciSensor.SensorData.newBuilder()
+            .setTimestampKey(100)
+            .setDataBatch(batch)
+            .build()
+            .toByteArray();
+    fakeFramedSensorData(pa, value, 4, (int) Math.ceil(value.length / 4.0));
+
+    List<Point> points = tpal.getData();
+    assertEquals(3, points.size());
+    assertEquals(testTime, points.get(0).x);
+    assertEquals(700, points.get(0).y, Double.MIN_VALUE);
+    assertEquals(testTime + 5, points.get(1).x);
+    assertEquals(400, points.get(1).y, Double.MIN_VALUE);
+    assertEquals(testTime + 10, points.get(2).x);
+    assertEquals(410, points.get(2).y, Double.MIN_VALUE);
+    assertEquals(0, tpal.getErrors().size());
+  }
+
+  @Test
+  public void testFloatAndDigitalBatches() {
+    final TestPacketAssemblerListener tpal = new TestPacketAssemblerListener();
+    final PacketAssembler pa = createPacketAssembler(tpal);
+
+    DataBatch floats =
+        DataBatch.newBuilder()
+            .setPin(Pin.newBuilder().setVirtualPin(VirtualPin.newBuilder().setPin(0)))
+            .addTimestampDelta(0)
+            .addFloatValue(1.5f)
+            .addTimestampDelta(10)
+            .addFloatValue(-2.25f)
+            .build();
+    byte[] value =
+        GoosciSensor.SensorData.newBuilder()
+            .setTimestampKey(0)
+            .setDataBatch(floats)
+            .build()
+            .toByteArray();
+    fakeFramedSensorData(pa, value, 20, (int) Math.ceil(value.length / 20.0));
+
+    DataBatch digital =
+        DataBatch.newBuilder()
+            .setPin(Pin.newBuilder().setDigitalPin(DigitalPin.newBuilder().setPin(0)))
+            .addTimestampDelta(20)
+            .addValueDelta(1)
+            .addTimestampDelta(10)
+            .addValueDelta(-1)
+            .build();
+    value =
+        GoosciSensor.SensorData.newBuilder()
+            .setTimestampKey(0)
+            .setDataBatch(digital)
+            .build()
+            .toByteArray();
+    fakeFramedSensorData(pa, value, 20, (int) Math.ceil(value.length / 20.0));
+
+    List<Point> points = tpal.getData();
+    assertEquals(4, points.size());
+    assertEquals(1.5, points.get(0).y, Double.MIN_VALUE);
+    assertEquals(-2.25, points.get(1).y, Double.MIN_VALUE);
+    assertEquals(testTime + 20, points.get(2).x);
+    assertEquals(pa.booleanToDigital(true), points.get(2).y, Double.MIN_VALUE);
+    assertEquals(testTime + 30, points.get(3).x);
+    assertEquals(pa.booleanToDigital(false), points.get(3).y, Double.MIN_VALUE);
+  }
+
+  @Test
+  public void testMismatchedBatch() {
+    final TestPacketAssemblerListener tpal = new TestPacketAssemblerListener();
+    final PacketAssembler pa = createPacketAssembler(tpal);
+
+    DataBatch batch =
+        DataBatch.newBuilder()
+            .setPin(Pin.newBuilder().setAnalogPin(AnalogPin.newBuilder().setPin(0)))
+            .addTimestampDelta(0)
+            .addTimestampDelta(5)
+            .addValueDelta(700)
+            .build();
+    byte[] value =
+        GoosciSensor.SensorData.newBuilder()
+            .setTimestampKey(100)
+            .setDataBatch(batch)
+            .build()
+            .toByteArray();
+    fakeFramedSensorData(pa, value, 20, 1);
+
+    assertEquals(0, tpal.getData().size());
+    assertEquals(1, tpal.getErrors().size());
+  }
 }
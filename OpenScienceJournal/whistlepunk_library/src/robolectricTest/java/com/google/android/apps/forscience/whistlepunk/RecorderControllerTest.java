@@ -37,7 +37,7 @@ import com.google.android.apps.forscience.whistlepunk.filemetadata.SensorLayoutP
 import com.google.android.apps.forscience.whistlepunk.filemetadata.SensorTrigger;
 import com.google.android.apps.forscience.whistlepunk.filemetadata.Trial;
 import com.google.android.apps.forscience.whistlepunk.metadata.BleSensorSpec;
-import com.google.android.apps.forscience.whistlepunk.metadata.GoosciSensorTriggerInformation.TriggerInformation.TriggerActionType;
+import com.google.android.apps.forscience.whistlepunk.metadata.GoosciSensorTriggerInformation.TriggerInformation.TriggerAlertType;
 import com.google.android.apps.forscience.whistlepunk.metadata.GoosciSensorTriggerInformation.TriggerInformation.TriggerWhen;
 import com.google.android.apps.forscience.whistlepunk.metadata.GoosciSnapshotValue;
 import com.google.android.apps.forscience.whistlepunk.metadata.GoosciSnapshotValue.SnapshotLabelValue.SensorSnapshot;
@@ -153,7 +153,12 @@ public class RecorderControllerTest {
 
   @Test
   public void delayStopObserving() {
-    TestTrigger trigger = new TestTrigger(sensorId);
+    SensorTrigger trigger =
+        SensorTrigger.newAlertTypeTrigger(
+            sensorId,
+            TriggerWhen.TRIGGER_WHEN_AT,
+            Collections.singleton(TriggerAlertType.TRIGGER_ALERT_VISUAL),
+            0);
     ArrayList<SensorTrigger> triggerList = Lists.<SensorTrigger>newArrayList(trigger);
     RecorderControllerImpl rc =
         new RecorderControllerImpl(
@@ -198,9 +203,11 @@ public class RecorderControllerTest {
     assertTrue(sensor.isObserving());
 
     // And we have correctly picked up the new trigger list.
-    trigger.clearTestCount();
-    sensor.pushValue(0, 0);
-    assertEquals(1, trigger.getTestCount());
+    List<SensorTrigger> fired = new ArrayList<>();
+    rc.addTriggerFiredListener(new RecordingTriggerFiredListener(fired));
+    sensor.pushValue(0, 1);
+    sensor.pushValue(1000, -1);
+    assertEquals(Lists.newArrayList(trigger), fired);
 
     // Finally, after appropriate delay, sensor stops.
     rc.stopObserving(sensorId, observeId2);
@@ -209,6 +216,48 @@ public class RecorderControllerTest {
     assertFalse(sensor.isObserving());
   }
 
+  @Test
+  public void editedTriggerFiresOnceSaved() {
+    SensorTrigger trigger =
+        SensorTrigger.newAlertTypeTrigger(
+            sensorId,
+            TriggerWhen.TRIGGER_WHEN_RISES_ABOVE,
+            Collections.singleton(TriggerAlertType.TRIGGER_ALERT_VISUAL),
+            0);
+    ArrayList<SensorTrigger> triggerList = Lists.<SensorTrigger>newArrayList(trigger);
+    RecorderControllerImpl rc =
+        new RecorderControllerImpl(
+            null,
+            getAppAccount(),
+            environment,
+            new RecorderListenerRegistry(),
+            null,
+            null,
+            scheduler,
+            Delay.ZERO,
+            new FakeUnitAppearanceProvider());
+    rc.startObserving(
+        sensorId,
+        triggerList,
+        new RecordingSensorObserver(),
+        new RecordingStatusListener(),
+        null,
+        sensorRegistry);
+    List<SensorTrigger> fired = new ArrayList<>();
+    rc.addTriggerFiredListener(new RecordingTriggerFiredListener(fired));
+
+    // Edited in place and saved, as EditTriggerFragment does.
+    trigger.setValueToTrigger(10);
+    rc.updateSensorTriggers(sensorId, triggerList, sensorRegistry);
+
+    // Rising above the old value no longer fires, but rising above the new one does.
+    sensor.pushValue(0, -1);
+    sensor.pushValue(1000, 5);
+    assertEquals(0, fired.size());
+    sensor.pushValue(2000, 15);
+    assertEquals(Lists.newArrayList(trigger), fired);
+  }
+
   @Test
   public void dontScheduleIfDelayIs0() {
     RecorderControllerImpl rc =
@@ -549,30 +598,24 @@ public class RecorderControllerTest {
         .build();
   }
 
-  private class TestTrigger extends SensorTrigger {
-    int testCount = 0;
+  private static class RecordingTriggerFiredListener
+      implements RecorderController.TriggerFiredListener {
+    private final List<SensorTrigger> fired;
 
-    public TestTrigger(String sensorId) {
-      super(
-          sensorId,
-          TriggerWhen.TRIGGER_WHEN_AT,
-          TriggerActionType.TRIGGER_ACTION_START_RECORDING,
-          0);
+    RecordingTriggerFiredListener(List<SensorTrigger> fired) {
+      this.fired = fired;
     }
 
-    public void clearTestCount() {
-      testCount = 0;
+    @Override
+    public void onTriggerFired(SensorTrigger trigger) {
+      fired.add(trigger);
     }
 
-    public int getTestCount() {
-      return testCount;
-    }
+    @Override
+    public void onRequestStartRecording() {}
 
     @Override
-    public boolean isTriggered(double newValue) {
-      testCount++;
-      return false;
-    }
+    public void onRequestStopRecording(RecorderController rc) {}
   }
 
   private static Context getContext() {
@@ -0,0 +1,331 @@
+/*
+ *  Copyright 2019 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.android.apps.forscience.whistlepunk.accounts.NonSignedInAccount;
+import com.google.android.apps.forscience.whistlepunk.sensordb.InMemorySensorDatabase;
+import com.google.android.apps.forscience.whistlepunk.sensordb.ScalarReadingBatch;
+import com.google.android.apps.forscience.whistlepunk.sensordb.SensorDatabaseImpl;
+import com.google.common.util.concurrent.MoreExecutors;
+import io.reactivex.schedulers.TestScheduler;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+@RunWith(RobolectricTestRunner.class)
+public class ScalarIngestPipelineTest {
+  private final TestScheduler timer = new TestScheduler();
+  private final Clock clock = () -> timer.now(TimeUnit.MILLISECONDS);
+  private final QueueExecutor writeThread = new QueueExecutor();
+  private final BatchCountingDatabase db = new BatchCountingDatabase();
+  private final List<String> failedSensorIds = new ArrayList<>();
+
+  @Test
+  public void testFlushesOnceGroupIsFull() {
+    ScalarIngestPipeline pipeline = makePipeline(new ScalarIngestPipeline.Policy(8, 4, 1000));
+    for (int i = 0; i < 3; i++) {
+      pipeline.add("trial", "sensor", 0, i, i);
+    }
+    assertEquals(0, writeThread.size());
+
+    pipeline.add("trial", "sensor", 0, 3, 3);
+    assertEquals(1, writeThread.size());
+    writeThread.runAll();
+
+    assertEquals(1, db.batchCount);
+    assertEquals(4, db.getReadings(0).size());
+    assertEquals(0, pipeline.getPendingCount());
+    assertEquals(4, pipeline.getWrittenCount());
+  }
+
+  @Test
+  public void testFlushesAfterMaxDelay() {
+    ScalarIngestPipeline pipeline = makePipeline(new ScalarIngestPipeline.Policy(8, 4, 1000));
+    pipeline.add("trial", "sensor", 0, 0, 0);
+    timer.advanceTimeBy(999, TimeUnit.MILLISECONDS);
+    assertEquals(0, writeThread.size());
+
+    timer.advanceTimeBy(1, TimeUnit.MILLISECONDS);
+    writeThread.runAll();
+    assertEquals(1, db.batchCount);
+    assertEquals(1, db.getReadings(0).size());
+  }
+
+  @Test
+  public void testDropsWhenFull() {
+    ScalarIngestPipeline pipeline = makePipeline(new ScalarIngestPipeline.Policy(4, 4, 1000));
+    for (int i = 0; i < 4; i++) {
+      assertTrue(pipeline.add("trial", "sensor", 0, i, i));
+    }
+    assertTrue(pipeline.isBackpressured());
+    assertFalse(pipeline.add("trial", "sensor", 0, 4, 4));
+    assertFalse(pipeline.add("trial", "sensor", 0, 5, 5));
+    assertEquals(2, pipeline.getDroppedCount());
+    assertEquals(4, pipeline.getHighWaterMark());
+    // Reported once, rather than for every reading.
+    assertEquals(Arrays.asList("sensor"), failedSensorIds);
+
+    writeThread.runAll();
+    assertFalse(pipeline.isBackpressured());
+    assertTrue(pipeline.add("trial", "sensor", 0, 6, 6));
+  }
+
+  @Test
+  public void testGrowsWhileFlushing() {
+    ScalarIngestPipeline pipeline = makePipeline(new ScalarIngestPipeline.Policy(4, 16, 2, 1000));
+    for (int i = 0; i < 3; i++) {
+      pipeline.add("trial", "sensor", 0, i, i);
+    }
+    // Readings keep coming while the first group is being written.
+    db.duringWrite =
+        () -> {
+          for (int i = 3; i < 20; i++) {
+            pipeline.add("trial", "sensor", 0, i, i);
+          }
+        };
+    writeThread.runAll();
+
+    List<InMemorySensorDatabase.Reading> readings = db.getReadings(0);
+    assertEquals(16, readings.size());
+    for (int i = 0; i < 16; i++) {
+      assertEquals(i, readings.get(i).getTimestampMillis());
+    }
+    assertEquals(4, pipeline.getDroppedCount());
+    assertEquals(Arrays.asList("sensor"), failedSensorIds);
+    assertEquals(0, pipeline.getPendingCount());
+  }
+
+  @Test
+  public void testAddsBatchUntilFull() {
+    ScalarIngestPipeline pipeline = makePipeline(new ScalarIngestPipeline.Policy(4, 4, 1000));
+    pipeline.add("trial", "sensor", 0, 0, 0);
+    assertEquals(3, pipeline.addAll(new RangeBatch(1, 5)));
+    assertEquals(2, pipeline.getDroppedCount());
+    assertEquals(Arrays.asList("sensor"), failedSensorIds);
+    assertEquals(1, writeThread.size());
+
+    writeThread.runAll();
+    List<InMemorySensorDatabase.Reading> readings = db.getReadings(0);
+    assertEquals(4, readings.size());
+    for (int i = 0; i < 4; i++) {
+      assertEquals(i, readings.get(i).getTimestampMillis());
+    }
+  }
+
+  @Test
+  public void testKeepsOrderAcrossWraparound() {
+    ScalarIngestPipeline pipeline = makePipeline(new ScalarIngestPipeline.Policy(5, 3, 1000));
+    for (int i = 0; i < 20; i++) {
+      pipeline.add("trial", i % 2 == 0 ? "even" : "odd", 0, i, i * 10);
+      if (i % 4 == 0) {
+        writeThread.runAll();
+      }
+    }
+    pipeline.drain();
+
+    List<InMemorySensorDatabase.Reading> readings = db.getReadings(0);
+    assertEquals(20, readings.size());
+    for (int i = 0; i < 20; i++) {
+      assertEquals(i, readings.get(i).getTimestampMillis());
+      assertEquals(i * 10, readings.get(i).getValue(), 0.0);
+      assertEquals(i % 2 == 0 ? "even" : "odd", readings.get(i).getDatabaseTag());
+    }
+  }
+
+  @Test
+  public void testReportsFailureOncePerSensor() {
+    db.failWrites = true;
+    ScalarIngestPipeline pipeline = makePipeline(new ScalarIngestPipeline.Policy(8, 4, 1000));
+    pipeline.add("trial", "a", 0, 0, 0);
+    pipeline.add("trial", "b", 0, 1, 0);
+    pipeline.add("trial", "a", 0, 2, 0);
+    pipeline.add("trial", "b", 0, 3, 0);
+    writeThread.runAll();
+
+    assertEquals(2, failedSensorIds.size());
+    assertTrue(failedSensorIds.contains("a"));
+    assertTrue(failedSensorIds.contains("b"));
+    assertEquals(0, pipeline.getPendingCount());
+  }
+
+  @Test
+  public void testImmediatePolicyWritesInsideAdd() {
+    ScalarIngestPipeline pipeline =
+        new ScalarIngestPipeline(
+            db,
+            MoreExecutors.directExecutor(),
+            timer,
+            clock,
+            ScalarIngestPipeline.Policy.IMMEDIATE,
+            (sensorId, e) -> failedSensorIds.add(sensorId));
+    pipeline.add("trial", "sensor", 0, 0, 0);
+    assertEquals(1, db.getReadings(0).size());
+  }
+
+  /**
+   * Simulates one second of a 400 Hz BLE sensor alongside four phone sensors at 100 Hz, writing
+   * each reading in its own transaction and then through the pipeline.
+   */
+  @Test
+  public void testGroupCommitThroughput() {
+    int readings = 800;
+    SensorDatabaseImpl perReading =
+        new SensorDatabaseImpl(
+            RuntimeEnvironment.application,
+            NonSignedInAccount.getInstance(RuntimeEnvironment.application),
+            "bench_single.db");
+    long start = System.nanoTime();
+    for (int i = 0; i < readings; i++) {
+      perReading.addScalarReading("trial", sensorFor(i), 0, i, i);
+    }
+    long perReadingNanos = System.nanoTime() - start;
+
+    SensorDatabaseImpl grouped =
+        new SensorDatabaseImpl(
+            RuntimeEnvironment.application,
+            NonSignedInAccount.getInstance(RuntimeEnvironment.application),
+            "bench_group.db");
+    ScalarIngestPipeline pipeline =
+        new ScalarIngestPipeline(
+            grouped,
+            MoreExecutors.directExecutor(),
+            timer,
+            clock,
+            ScalarIngestPipeline.Policy.GROUP_COMMIT,
+            (sensorId, e) -> failedSensorIds.add(sensorId));
+    start = System.nanoTime();
+    for (int i = 0; i < readings; i++) {
+      pipeline.add("trial", sensorFor(i), 0, i, i);
+    }
+    pipeline.drain();
+    long groupedNanos = System.nanoTime() - start;
+
+    System.out.println(
+        String.format(
+            "%d readings: %d us in %d transactions one at a time, %d us in %d grouped",
+            readings,
+            perReadingNanos / 1000,
+            readings,
+            groupedNanos / 1000,
+            pipeline.getFlushCount()));
+    assertEquals(readings, pipeline.getWrittenCount());
+    assertTrue(failedSensorIds.isEmpty());
+  }
+
+  private static String sensorFor(int i) {
+    // Half of all readings come from the BLE sensor.
+    return i % 2 == 0 ? "ble" : "phone" + (i / 2) % 4;
+  }
+
+  private ScalarIngestPipeline makePipeline(ScalarIngestPipeline.Policy policy) {
+    return new ScalarIngestPipeline(
+        db, writeThread, timer, clock, policy, (sensorId, e) -> failedSensorIds.add(sensorId));
+  }
+
+  private static class QueueExecutor implements Executor {
+    private final Queue<Runnable> tasks = new ArrayDeque<>();
+
+    @Override
+    public void execute(Runnable command) {
+      tasks.add(command);
+    }
+
+    int size() {
+      return tasks.size();
+    }
+
+    void runAll() {
+      while (!tasks.isEmpty()) {
+        tasks.remove().run();
+      }
+    }
+  }
+
+  /** Readings of one sensor at timestamps {@code start} to {@code start + size - 1}. */
+  private static class RangeBatch implements ScalarReadingBatch {
+    private final int start;
+    private final int size;
+
+    RangeBatch(int start, int size) {
+      this.start = start;
+      this.size = size;
+    }
+
+    @Override
+    public int size() {
+      return size;
+    }
+
+    @Override
+    public String getTrialId(int index) {
+      return "trial";
+    }
+
+    @Override
+    public String getSensorId(int index) {
+      return "sensor";
+    }
+
+    @Override
+    public int getResolutionTier(int index) {
+      return 0;
+    }
+
+    @Override
+    public long getTimestampMillis(int index) {
+      return start + index;
+    }
+
+    @Override
+    public double getValue(int index) {
+      return start + index;
+    }
+  }
+
+  private static class BatchCountingDatabase extends InMemorySensorDatabase {
+    int batchCount = 0;
+    boolean failWrites = false;
+    // Run once, in the middle of the next write.
+    Runnable duringWrite = null;
+
+    @Override
+    public void addScalarReadingBatch(ScalarReadingBatch batch) {
+      if (failWrites) {
+        throw new IllegalStateException("disk full");
+      }
+      if (duringWrite != null) {
+        Runnable task = duringWrite;
+        duringWrite = null;
+        task.run();
+      }
+      batchCount++;
+      super.addScalarReadingBatch(batch);
+    }
+  }
+}
@@ -0,0 +1,128 @@
+/*
+ *  Copyright 2019 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk;
+
+import static org.junit.Assert.assertEquals;
+
+import android.content.Context;
+import com.google.android.apps.forscience.whistlepunk.accounts.NonSignedInAccount;
+import com.google.android.apps.forscience.whistlepunk.sensordb.ScalarReading;
+import com.google.android.apps.forscience.whistlepunk.sensordb.SensorDatabaseImpl;
+import com.google.android.apps.forscience.whistlepunk.sensordb.TimeRange;
+import com.google.common.collect.Range;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+/** Measures the cost of exporting a long trial as CSV. Only runs with {@code -Pbenchmarks}. */
+@RunWith(RobolectricTestRunner.class)
+public class TrialCsvExporterBenchmarkTest {
+  private static final String DATABASE_NAME = "bench_export.db";
+  private static final String TRIAL_ID = "trial";
+
+  // A one hour trial of ten sensors at 10Hz, each starting at a different offset.
+  private static final int BENCHMARK_SENSORS = 10;
+  private static final long BENCHMARK_MILLIS = 60 * 60 * 1000;
+  private static final long BENCHMARK_PERIOD_MILLIS = 100;
+
+  /**
+   * Compares the exporter with the way ExportService used to export: observing every reading in
+   * timestamp order, grouping rows in a map and writing Double.toString through an unbuffered
+   * writer.
+   */
+  @Test
+  public void testExportThroughput() throws IOException {
+    String[] sensorIds = new String[BENCHMARK_SENSORS];
+    List<BatchInsertScalarReading> readings = new ArrayList<>();
+    for (int i = 0; i < BENCHMARK_SENSORS; i++) {
+      sensorIds[i] = "sensor" + i;
+      for (long t = i; t < BENCHMARK_MILLIS; t += BENCHMARK_PERIOD_MILLIS) {
+        readings.add(
+            new BatchInsertScalarReading(
+                TRIAL_ID, sensorIds[i], 0, t, Math.sin(t / 1000.0 + i) * 100));
+      }
+    }
+    int numReadings = readings.size();
+    SensorDatabaseImpl db =
+        new SensorDatabaseImpl(
+            getContext(), NonSignedInAccount.getInstance(getContext()), DATABASE_NAME);
+    db.addScalarReadings(readings);
+
+    long start = System.nanoTime();
+    ByteArrayOutputStream observed = new ByteArrayOutputStream();
+    Writer writer = new OutputStreamWriter(observed);
+    Map<String, Double> row = new HashMap<>();
+    long rowTimestamp = -1;
+    for (ScalarReading reading :
+        db.createScalarObservable(
+                TRIAL_ID, sensorIds, TimeRange.oldest(Range.closed(0L, BENCHMARK_MILLIS)), 0)
+            .blockingIterable()) {
+      if (reading.getCollectedTimeMillis() != rowTimestamp && rowTimestamp != -1) {
+        writeRow(writer, rowTimestamp, row, sensorIds);
+        row.clear();
+      }
+      rowTimestamp = reading.getCollectedTimeMillis();
+      row.put(reading.getSensorTag(), reading.getValue());
+    }
+    writeRow(writer, rowTimestamp, row, sensorIds);
+    writer.close();
+    long observedMillis = (System.nanoTime() - start) / 1000000;
+
+    start = System.nanoTime();
+    ByteArrayOutputStream merged = new ByteArrayOutputStream();
+    new TrialCsvExporter(TRIAL_ID, sensorIds, 0, BENCHMARK_MILLIS).write(db, merged);
+    long mergedMillis = (System.nanoTime() - start) / 1000000;
+
+    System.out.println(
+        String.format(
+            "%d sensors, %d readings: %d ms observed and grouped, %d ms merged (%d KB)",
+            BENCHMARK_SENSORS, numReadings, observedMillis, mergedMillis, merged.size() / 1024));
+    int rows = merged.toString("UTF-8").split("\n").length - 1;
+    assertEquals(numReadings, rows);
+  }
+
+  private static void writeRow(Writer writer, long timestamp, Map<String, Double> row, String[] ids)
+      throws IOException {
+    writer.write(Long.toString(timestamp));
+    for (String id : ids) {
+      writer.write(",");
+      if (row.containsKey(id)) {
+        writer.write(Double.toString(row.get(id)));
+      }
+    }
+    writer.write("\n");
+  }
+
+  @After
+  public void tearDown() {
+    getContext().getDatabasePath(DATABASE_NAME).delete();
+  }
+
+  private Context getContext() {
+    return RuntimeEnvironment.application.getApplicationContext();
+  }
+}
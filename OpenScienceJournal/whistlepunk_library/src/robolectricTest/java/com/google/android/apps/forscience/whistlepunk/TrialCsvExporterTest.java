@@ -0,0 +1,179 @@
+/*
+ *  Copyright 2019 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+import com.google.android.apps.forscience.whistlepunk.accounts.NonSignedInAccount;
+import com.google.android.apps.forscience.whistlepunk.sensordb.SensorDatabaseImpl;
+import com.google.common.io.ByteStreams;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+@RunWith(RobolectricTestRunner.class)
+public class TrialCsvExporterTest {
+  private static final String DATABASE_NAME = "test_export.db";
+  private static final String TRIAL_ID = "trial";
+
+  private final List<BatchInsertScalarReading> readings = new ArrayList<>();
+
+  @Test
+  public void testMergesSensorsByTimestamp() throws IOException {
+    add("a", 1, 1.5);
+    add("b", 2, 20);
+    add("a", 3, 3);
+    add("b", 3, -0.25);
+    add("b", 5, 50);
+    SensorDatabaseImpl db = makeDatabase();
+
+    String csv = export(db, new TrialCsvExporter(TRIAL_ID, new String[] {"a", "b"}, 0, 10));
+    assertEquals("timestamp,a,b\n1,1.5,\n2,,20.0\n3,3.0,-0.25\n5,,50.0\n", csv);
+  }
+
+  @Test
+  public void testRelativeTimeAndBuckets() throws IOException {
+    add("fast", 100, 1);
+    add("fast", 105, 2);
+    add("fast", 110, 3);
+    add("fast", 115, 4);
+    add("sl,ow", 112, 10);
+    SensorDatabaseImpl db = makeDatabase();
+
+    TrialCsvExporter exporter =
+        new TrialCsvExporter(TRIAL_ID, new String[] {"fast", "sl,ow"}, 100, 200)
+            .setRelativeTime(true)
+            .setBucketMillis(10);
+    // The last reading of each sensor in a bucket is written.
+    assertEquals("relative_time,fast,sl_ow\n0,2.0,\n10,4.0,10.0\n", export(db, exporter));
+  }
+
+  @Test
+  public void testPagesDoNotDropSharedTimestamps() throws IOException {
+    for (int i = 0; i < 20; i++) {
+      // Pairs of readings with the same timestamp, so pages end part way through a timestamp.
+      add("a", i / 2, i);
+      add("b", i, i);
+    }
+    SensorDatabaseImpl db = makeDatabase();
+
+    TrialCsvExporter exporter =
+        new TrialCsvExporter(TRIAL_ID, new String[] {"a", "b"}, 0, 100).setPageSize(3);
+    String[] lines = export(db, exporter).split("\n");
+    assertEquals(21, lines.length);
+    assertEquals("0,1.0,0.0", lines[1]);
+    assertEquals("9,19.0,9.0", lines[10]);
+    assertEquals("19,,19.0", lines[20]);
+  }
+
+  @Test
+  public void testGzip() throws IOException {
+    for (int i = 0; i < 1000; i++) {
+      add("a", i, Math.sin(i));
+    }
+    SensorDatabaseImpl db = makeDatabase();
+    String[] sensorIds = {"a"};
+
+    String plain = export(db, new TrialCsvExporter(TRIAL_ID, sensorIds, 0, 1000));
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    new TrialCsvExporter(TRIAL_ID, sensorIds, 0, 1000).setGzip(true).write(db, out);
+    byte[] unzipped =
+        ByteStreams.toByteArray(new GZIPInputStream(new ByteArrayInputStream(out.toByteArray())));
+    assertEquals(plain, new String(unzipped, "UTF-8"));
+  }
+
+  @Test
+  public void testThrottlesProgress() throws IOException {
+    for (int i = 0; i < 100; i++) {
+      add("a", i, i);
+    }
+    SensorDatabaseImpl db = makeDatabase();
+    List<Integer> progress = new ArrayList<>();
+    // Time moves on 10ms each time the exporter looks at the clock.
+    long[] now = {0};
+
+    TrialCsvExporter exporter =
+        new TrialCsvExporter(TRIAL_ID, new String[] {"a"}, 0, 100)
+            .setClock(() -> now[0] += 10)
+            .setProgressListener(progress::add);
+    export(db, exporter);
+    // Reported for the first row, then no more than every 250ms.
+    assertEquals(Arrays.asList(0, 25, 50, 75), progress);
+  }
+
+  @Test
+  public void testStepsWriteTheSameAsOneCall() throws IOException {
+    for (int i = 0; i < 10; i++) {
+      add("a", i, i);
+      add("b", i * 2, -i);
+    }
+    SensorDatabaseImpl db = makeDatabase();
+    String[] sensorIds = {"a", "b"};
+    String whole = export(db, new TrialCsvExporter(TRIAL_ID, sensorIds, 0, 100));
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    TrialCsvExporter exporter =
+        new TrialCsvExporter(TRIAL_ID, sensorIds, 0, 100).setStepSize(4).setOutputStream(out);
+    int steps = 1;
+    while (!exporter.step(db)) {
+      steps++;
+    }
+    // 15 rows, four at a time.
+    assertEquals(4, steps);
+    assertEquals(whole, out.toString("UTF-8"));
+    assertTrue(exporter.step(db));
+  }
+
+  private void add(String sensorId, long timestamp, double value) {
+    readings.add(new BatchInsertScalarReading(TRIAL_ID, sensorId, 0, timestamp, value));
+  }
+
+  private SensorDatabaseImpl makeDatabase() {
+    SensorDatabaseImpl db =
+        new SensorDatabaseImpl(
+            getContext(), NonSignedInAccount.getInstance(getContext()), DATABASE_NAME);
+    db.addScalarReadings(readings);
+    return db;
+  }
+
+  private static String export(SensorDatabaseImpl db, TrialCsvExporter exporter)
+      throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    exporter.write(db, out);
+    return out.toString("UTF-8");
+  }
+
+  @After
+  public void tearDown() {
+    getContext().getDatabasePath(DATABASE_NAME).delete();
+  }
+
+  private Context getContext() {
+    return RuntimeEnvironment.application.getApplicationContext();
+  }
+}
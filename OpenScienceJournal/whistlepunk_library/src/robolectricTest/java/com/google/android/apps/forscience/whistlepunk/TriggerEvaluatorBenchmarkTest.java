@@ -0,0 +1,152 @@
+/*
+ *  Copyright 2019 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk;
+
+import static org.junit.Assert.assertEquals;
+
+import com.google.android.apps.forscience.whistlepunk.filemetadata.SensorTrigger;
+import com.google.android.apps.forscience.whistlepunk.metadata.GoosciSensorTriggerInformation.TriggerInformation.TriggerActionType;
+import com.google.android.apps.forscience.whistlepunk.metadata.GoosciSensorTriggerInformation.TriggerInformation.TriggerWhen;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+/**
+ * Measures the cost of evaluating sensor triggers. Run with {@code -Pbenchmarks}; timings are
+ * printed, and the only assertion is that both ways fire the same triggers.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class TriggerEvaluatorBenchmarkTest {
+  // 20 triggers across 6 sensors at 200Hz, for a minute.
+  private static final int SENSORS = 6;
+  private static final int TRIGGERS = 20;
+  private static final int SENSOR_HZ = 200;
+  private static final int VALUES_PER_SENSOR = SENSOR_HZ * 60;
+  private static final TriggerWhen[] WHENS = {
+    TriggerWhen.TRIGGER_WHEN_AT,
+    TriggerWhen.TRIGGER_WHEN_DROPS_BELOW,
+    TriggerWhen.TRIGGER_WHEN_RISES_ABOVE,
+    TriggerWhen.TRIGGER_WHEN_BELOW,
+    TriggerWhen.TRIGGER_WHEN_ABOVE
+  };
+
+  private final double[][] values = new double[SENSORS][VALUES_PER_SENSOR];
+  private int firedCount;
+  private final TriggerEvaluator.FiredListener listener = (trigger, timestamp) -> firedCount++;
+
+  @Test
+  public void testEvaluationSpeed() {
+    for (int sensor = 0; sensor < SENSORS; sensor++) {
+      for (int i = 0; i < VALUES_PER_SENSOR; i++) {
+        // A slow wave for each sensor, crossing the triggers' values a few times a second.
+        values[sensor][i] = 2 * Math.sin((i + sensor * 17) * 2 * Math.PI * 3 / SENSOR_HZ);
+      }
+    }
+
+    // Warm up, so the comparison isn't of interpreted code.
+    runSensorTriggers(makeTriggers(), VALUES_PER_SENSOR / 10);
+    runEvaluators(makeTriggers(), 0, VALUES_PER_SENSOR / 10);
+
+    long start = System.nanoTime();
+    int sensorTriggerFired = runSensorTriggers(makeTriggers(), VALUES_PER_SENSOR);
+    long sensorTriggerNanos = System.nanoTime() - start;
+
+    start = System.nanoTime();
+    int evaluatorFired = runEvaluators(makeTriggers(), 0, VALUES_PER_SENSOR);
+    long evaluatorNanos = System.nanoTime() - start;
+
+    // As RecorderControllerImpl uses it, with rate limiting.
+    start = System.nanoTime();
+    int rateLimitedFired = runEvaluators(makeTriggers(), 200, VALUES_PER_SENSOR);
+    long rateLimitedNanos = System.nanoTime() - start;
+
+    int valueCount = SENSORS * VALUES_PER_SENSOR;
+    System.out.println(
+        String.format(
+            "%d triggers on %d sensors at %dHz: SensorTrigger %.0f ns/value, evaluator %.0f"
+                + " ns/value (%.1fx), rate limited %.0f ns/value (%.1fx); %d fired, %d rate"
+                + " limited",
+            TRIGGERS,
+            SENSORS,
+            SENSOR_HZ,
+            sensorTriggerNanos / (double) valueCount,
+            evaluatorNanos / (double) valueCount,
+            sensorTriggerNanos / (double) evaluatorNanos,
+            rateLimitedNanos / (double) valueCount,
+            sensorTriggerNanos / (double) rateLimitedNanos,
+            evaluatorFired,
+            rateLimitedFired));
+
+    // Without rate limiting or hysteresis, the same triggers fire.
+    assertEquals(sensorTriggerFired, evaluatorFired);
+  }
+
+  private static List<List<SensorTrigger>> makeTriggers() {
+    List<List<SensorTrigger>> triggers = new ArrayList<>();
+    for (int sensor = 0; sensor < SENSORS; sensor++) {
+      triggers.add(new ArrayList<>());
+    }
+    for (int i = 0; i < TRIGGERS; i++) {
+      triggers
+          .get(i % SENSORS)
+          .add(
+              SensorTrigger.newTrigger(
+                  "sensor" + (i % SENSORS),
+                  WHENS[i % WHENS.length],
+                  TriggerActionType.TRIGGER_ACTION_ALERT,
+                  i % 3 - 1));
+    }
+    return triggers;
+  }
+
+  /** Evaluates the triggers the way RecorderControllerImpl did before TriggerEvaluator. */
+  private int runSensorTriggers(List<List<SensorTrigger>> triggers, int valuesPerSensor) {
+    int fired = 0;
+    for (int i = 0; i < valuesPerSensor; i++) {
+      for (int sensor = 0; sensor < SENSORS; sensor++) {
+        double value = values[sensor][i];
+        for (SensorTrigger trigger : triggers.get(sensor)) {
+          if (trigger.shouldTriggerOnlyWhenRecording()) {
+            continue;
+          }
+          if (trigger.isTriggered(value)) {
+            fired++;
+          }
+        }
+      }
+    }
+    return fired;
+  }
+
+  private int runEvaluators(
+      List<List<SensorTrigger>> triggers, long minIntervalMillis, int valuesPerSensor) {
+    TriggerEvaluator[] evaluators = new TriggerEvaluator[SENSORS];
+    for (int sensor = 0; sensor < SENSORS; sensor++) {
+      evaluators[sensor] = new TriggerEvaluator(triggers.get(sensor), 0, minIntervalMillis);
+    }
+    firedCount = 0;
+    for (int i = 0; i < valuesPerSensor; i++) {
+      long timestamp = i * 1000L / SENSOR_HZ;
+      for (int sensor = 0; sensor < SENSORS; sensor++) {
+        evaluators[sensor].evaluate(timestamp, values[sensor][i], false, listener);
+      }
+    }
+    return firedCount;
+  }
+}
@@ -0,0 +1,154 @@
+/*
+ *  Copyright 2019 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.android.apps.forscience.whistlepunk.filemetadata.SensorTrigger;
+import com.google.android.apps.forscience.whistlepunk.metadata.GoosciSensorTriggerInformation.TriggerInformation.TriggerActionType;
+import com.google.android.apps.forscience.whistlepunk.metadata.GoosciSensorTriggerInformation.TriggerInformation.TriggerWhen;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+@RunWith(RobolectricTestRunner.class)
+public class TriggerEvaluatorTest {
+  private final List<SensorTrigger> fired = new ArrayList<>();
+  private final List<Long> firedTimestamps = new ArrayList<>();
+  private final TriggerEvaluator.FiredListener listener =
+      (trigger, timestamp) -> {
+        fired.add(trigger);
+        firedTimestamps.add(timestamp);
+      };
+
+  @Test
+  public void testMatchesSensorTrigger() {
+    List<SensorTrigger> triggers = new ArrayList<>();
+    List<SensorTrigger> references = new ArrayList<>();
+    for (TriggerWhen when :
+        new TriggerWhen[] {
+          TriggerWhen.TRIGGER_WHEN_AT,
+          TriggerWhen.TRIGGER_WHEN_DROPS_BELOW,
+          TriggerWhen.TRIGGER_WHEN_RISES_ABOVE,
+          TriggerWhen.TRIGGER_WHEN_BELOW,
+          TriggerWhen.TRIGGER_WHEN_ABOVE
+        }) {
+      for (double value : new double[] {-1, 0, 2}) {
+        triggers.add(makeTrigger(when, value));
+        references.add(makeTrigger(when, value));
+      }
+    }
+    TriggerEvaluator evaluator = new TriggerEvaluator(triggers, 0, 0);
+
+    Random random = new Random(17);
+    for (int i = 0; i < 2000; i++) {
+      // Whole numbers, so that values land exactly on the triggers' values sometimes.
+      double value = random.nextInt(7) - 3;
+      fired.clear();
+      evaluator.evaluate(i, value, true, listener);
+      List<SensorTrigger> expected = new ArrayList<>();
+      for (int j = 0; j < references.size(); j++) {
+        if (references.get(j).isTriggered(value)) {
+          expected.add(triggers.get(j));
+        }
+      }
+      assertEquals(expected, fired);
+    }
+  }
+
+  @Test
+  public void testHysteresis() {
+    SensorTrigger trigger = makeTrigger(TriggerWhen.TRIGGER_WHEN_RISES_ABOVE, 10);
+    TriggerEvaluator evaluator = new TriggerEvaluator(Arrays.asList(trigger), 1, 0);
+
+    // Noise around the value only fires once, until the sensor drops back by the hysteresis.
+    evaluate(evaluator, 9.5, 10.2, 9.8, 10.1, 9.9, 10.3, 8.9, 10.5);
+    assertEquals(Arrays.asList(1L, 7L), firedTimestamps);
+  }
+
+  @Test
+  public void testHysteresisAt() {
+    SensorTrigger trigger = makeTrigger(TriggerWhen.TRIGGER_WHEN_AT, 0);
+    TriggerEvaluator evaluator = new TriggerEvaluator(Arrays.asList(trigger), 2, 0);
+
+    evaluate(evaluator, 5, -1, 1, -1, 0, 3, -3);
+    assertEquals(Arrays.asList(1L, 6L), firedTimestamps);
+  }
+
+  @Test
+  public void testRateLimit() {
+    SensorTrigger trigger = makeTrigger(TriggerWhen.TRIGGER_WHEN_ABOVE, 0);
+    TriggerEvaluator evaluator = new TriggerEvaluator(Arrays.asList(trigger), 0, 200);
+
+    for (long timestamp = 0; timestamp <= 1000; timestamp += 50) {
+      evaluator.evaluate(timestamp, 1, true, listener);
+    }
+    // The first value only sets where the sensor starts.
+    assertEquals(Arrays.asList(50L, 250L, 450L, 650L, 850L), firedTimestamps);
+  }
+
+  @Test
+  public void testOnlyWhenRecording() {
+    SensorTrigger trigger = makeTrigger(TriggerWhen.TRIGGER_WHEN_RISES_ABOVE, 0);
+    trigger.setTriggerOnlyWhenRecording(true);
+    TriggerEvaluator evaluator = new TriggerEvaluator(Arrays.asList(trigger), 0, 0);
+
+    evaluator.evaluate(0, -1, false, listener);
+    evaluator.evaluate(1, 1, false, listener);
+    assertTrue(fired.isEmpty());
+
+    // Like SensorTrigger, values while not recording are never seen.
+    evaluator.evaluate(2, -1, true, listener);
+    evaluator.evaluate(3, 1, true, listener);
+    assertEquals(Arrays.asList(3L), firedTimestamps);
+  }
+
+  @Test
+  public void testLastUsedUpdatedLazily() {
+    SensorTrigger quiet = makeTrigger(TriggerWhen.TRIGGER_WHEN_ABOVE, 100);
+    SensorTrigger firing = makeTrigger(TriggerWhen.TRIGGER_WHEN_ABOVE, 0);
+    quiet.setLastUsed(5);
+    firing.setLastUsed(5);
+    TriggerEvaluator evaluator = new TriggerEvaluator(Arrays.asList(quiet, firing), 0, 0);
+
+    evaluator.updateLastUsed();
+    assertEquals(5, quiet.getLastUsed());
+
+    evaluate(evaluator, 1, 2, 3);
+    assertEquals(5, quiet.getLastUsed());
+    assertTrue(firing.getLastUsed() > 5);
+
+    evaluator.updateLastUsed();
+    assertTrue(quiet.getLastUsed() > 5);
+  }
+
+  private void evaluate(TriggerEvaluator evaluator, double... values) {
+    for (int i = 0; i < values.length; i++) {
+      evaluator.evaluate(i, values[i], true, listener);
+    }
+  }
+
+  private static SensorTrigger makeTrigger(TriggerWhen when, double value) {
+    return SensorTrigger.newTrigger(
+        "sensorId", when, TriggerActionType.TRIGGER_ACTION_ALERT, value);
+  }
+}
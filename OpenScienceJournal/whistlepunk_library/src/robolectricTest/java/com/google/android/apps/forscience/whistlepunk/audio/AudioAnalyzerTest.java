@@ -65,8 +65,13 @@ public class AudioAnalyzerTest {
 
   private void testDetectFundamentalFrequency(String sampleFilename, double expectedFrequency)
       throws Exception {
+    testDetectFundamentalFrequency(audioAnalyzer, sampleFilename, expectedFrequency);
+  }
+
+  private void testDetectFundamentalFrequency(
+      AudioAnalyzer analyzer, String sampleFilename, double expectedFrequency) throws Exception {
     short[] samples = readSamples(sampleFilename);
-    Double actualFrequency = audioAnalyzer.detectFundamentalFrequency(samples);
+    Double actualFrequency = analyzer.detectFundamentalFrequency(samples);
     assertEquals(expectedFrequency, actualFrequency, expectedFrequency * 0.01);
   }
 
@@ -154,4 +159,21 @@ public class AudioAnalyzerTest {
     testDetectFundamentalFrequency("xylophone_1802.samples", 1802);
     testDetectFundamentalFrequency("xylophone_1950.samples", 1950);
   }
+
+  @Test
+  public void windowed() throws Exception {
+    for (FftWindow window : new FftWindow[] {FftWindow.HANN, FftWindow.BLACKMAN}) {
+      AudioAnalyzer analyzer = new AudioAnalyzer(SAMPLE_RATE_IN_HZ, window);
+      testDetectFundamentalFrequency(analyzer, "coke_bottle_325.samples", 325);
+      testDetectFundamentalFrequency(analyzer, "guitar_E_82_4069.samples", 82.4069);
+      testDetectFundamentalFrequency(analyzer, "guitar_A_110_000.samples", 110.000);
+      testDetectFundamentalFrequency(analyzer, "melodica_a4_440_000.samples", 440.000);
+      testDetectFundamentalFrequency(analyzer, "melodica_c6_1046_50.samples", 1046.50);
+      testDetectFundamentalFrequency(analyzer, "pint_glass_1797.samples", 1797);
+      testDetectFundamentalFrequency(analyzer, "synth_clarinet_b2_123_471.samples", 123.471);
+      testDetectFundamentalFrequency(analyzer, "synth_piano_b3_246_942.samples", 246.942);
+      testDetectFundamentalFrequency(analyzer, "tone_b5_987_767.samples", 987.767);
+      testDetectFundamentalFrequency(analyzer, "xylophone_1250.samples", 1250);
+    }
+  }
 }
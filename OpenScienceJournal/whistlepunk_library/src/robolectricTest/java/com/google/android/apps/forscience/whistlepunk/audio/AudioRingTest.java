@@ -0,0 +1,141 @@
+/*
+ *  Copyright 2019 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.audio;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+@RunWith(RobolectricTestRunner.class)
+public class AudioRingTest {
+  @Test
+  public void testEachCursorReadsEveryFrame() {
+    AudioRing ring = new AudioRing(3, 4);
+    AudioRing.Cursor first = ring.newCursor();
+    AudioRing.Cursor second = ring.newCursor();
+    AudioRing.Cursor[] cursors = {first, second};
+    short[] frame = new short[3];
+
+    assertFalse(ring.read(first, frame));
+    ring.write(new short[] {1, 2, 3}, cursors);
+    ring.write(new short[] {4, 5, 6}, cursors);
+
+    assertTrue(ring.read(first, frame));
+    assertArrayEquals(new short[] {1, 2, 3}, frame);
+    assertTrue(ring.read(first, frame));
+    assertArrayEquals(new short[] {4, 5, 6}, frame);
+    assertFalse(ring.read(first, frame));
+
+    assertTrue(ring.read(second, frame));
+    assertArrayEquals(new short[] {1, 2, 3}, frame);
+    assertEquals(0, first.getDropped());
+    assertEquals(0, second.getDropped());
+  }
+
+  @Test
+  public void testNewCursorStartsAtNextFrame() {
+    AudioRing ring = new AudioRing(1, 4);
+    ring.write(new short[] {1}, new AudioRing.Cursor[0]);
+    AudioRing.Cursor cursor = ring.newCursor();
+    short[] frame = new short[1];
+    assertFalse(ring.read(cursor, frame));
+    ring.write(new short[] {2}, new AudioRing.Cursor[] {cursor});
+    assertTrue(ring.read(cursor, frame));
+    assertEquals(2, frame[0]);
+  }
+
+  @Test
+  public void testSlowCursorDropsOldestFrames() {
+    AudioRing ring = new AudioRing(1, 4);
+    AudioRing.Cursor slow = ring.newCursor();
+    AudioRing.Cursor fast = ring.newCursor();
+    AudioRing.Cursor[] cursors = {slow, fast};
+    short[] frame = new short[1];
+    for (short i = 0; i < 10; i++) {
+      ring.write(new short[] {i}, cursors);
+      assertTrue(ring.read(fast, frame));
+      assertEquals(i, frame[0]);
+    }
+
+    // Only the last four frames are still there.
+    assertEquals(6, slow.getDropped());
+    for (short i = 6; i < 10; i++) {
+      assertTrue(ring.read(slow, frame));
+      assertEquals(i, frame[0]);
+    }
+    assertFalse(ring.read(slow, frame));
+    assertEquals(0, fast.getDropped());
+  }
+
+  @Test
+  public void testConcurrentReaderNeverSeesTornFrames() throws Exception {
+    // Every sample of a frame is the frame's number, so a frame that was overwritten while it was
+    // being copied would have mixed samples.
+    int frameSize = 256;
+    AudioRing ring = new AudioRing(frameSize, 2);
+    AudioRing.Cursor cursor = ring.newCursor();
+    AudioRing.Cursor[] cursors = {cursor};
+    AtomicBoolean done = new AtomicBoolean(false);
+    AtomicReference<String> failure = new AtomicReference<>();
+    int[] framesRead = new int[1];
+    Thread reader =
+        new Thread(
+            () -> {
+              short[] frame = new short[frameSize];
+              short last = -1;
+              while (true) {
+                boolean finished = done.get();
+                if (!ring.read(cursor, frame)) {
+                  if (finished) {
+                    break;
+                  }
+                  continue;
+                }
+                for (short sample : frame) {
+                  if (sample != frame[0]) {
+                    failure.set("torn frame " + frame[0] + "/" + sample);
+                  }
+                }
+                if (frame[0] <= last) {
+                  failure.set("out of order " + last + " then " + frame[0]);
+                }
+                last = frame[0];
+                framesRead[0]++;
+              }
+            });
+    reader.start();
+
+    short[] frame = new short[frameSize];
+    for (int i = 0; i < 20000; i++) {
+      Arrays.fill(frame, (short) i);
+      ring.write(frame, cursors);
+    }
+    done.set(true);
+    reader.join();
+
+    assertEquals(null, failure.get());
+    assertEquals(20000, framesRead[0] + cursor.getDropped());
+  }
+}
@@ -22,7 +22,13 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import android.media.AudioRecord;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 import org.junit.After;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -193,6 +199,54 @@ public class AudioSourceTest {
     assertArrayEquals(new short[] {1, 2, 3, 4, 5, 6, 7, 8, 9, 0}, otherFuture.join());
   }
 
+  @Test
+  public void testSlowReceiverDoesNotHoldUpOthers() throws Exception {
+    final int buffers = 40;
+    List<Short> fastFirstSamples = Collections.synchronizedList(new ArrayList<>());
+    Semaphore fastReceived = new Semaphore(0);
+    CountDownLatch releaseSlow = new CountDownLatch(1);
+
+    ShadowAudioRecord.setMinBufferSize(20);
+    audioSource = new AudioSource();
+    AudioSource.AudioReceiver slowReceiver =
+        buffer -> {
+          try {
+            releaseSlow.await();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+        };
+    AudioSource.AudioReceiver fastReceiver =
+        buffer -> {
+          fastFirstSamples.add(buffer[0]);
+          fastReceived.release();
+        };
+    assertTrue(audioSource.registerAudioReceiver(slowReceiver));
+    assertTrue(audioSource.registerAudioReceiver(fastReceiver));
+
+    // Hand over one buffer at a time, so the fast receiver is never behind by more than one and
+    // can't be lapped however its thread is scheduled, while the slow one is stuck on its first.
+    List<Short> expectedFirstSamples = new ArrayList<>();
+    for (int i = 0; i < buffers; i++) {
+      short[] data = new short[10];
+      for (int j = 0; j < data.length; j++) {
+        data[j] = (short) (i * data.length + j + 1);
+      }
+      expectedFirstSamples.add(data[0]);
+      ShadowAudioRecord.setAudioData(data);
+      assertTrue(fastReceived.tryAcquire(5, TimeUnit.SECONDS));
+    }
+
+    assertEquals(expectedFirstSamples, fastFirstSamples);
+    assertEquals(buffers, audioSource.getReceiverStats(fastReceiver).getBuffersReceived());
+    assertTrue(audioSource.getReceiverStats(slowReceiver).getBuffersDropped() > 0);
+
+    releaseSlow.countDown();
+    audioSource.unregisterAudioReceiver(slowReceiver);
+    assertEquals(null, audioSource.getReceiverStats(slowReceiver));
+    assertTrue(audioSource.isRunning());
+  }
+
   @After
   public void cleanUp() {
     ShadowAudioRecord.resetState();
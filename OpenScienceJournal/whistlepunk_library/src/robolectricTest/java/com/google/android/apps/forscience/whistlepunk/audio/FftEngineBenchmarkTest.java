@@ -0,0 +1,91 @@
+/*
+ *  Copyright 2019 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.audio;
+
+import static com.google.android.apps.forscience.whistlepunk.audio.AudioAnalyzer.BUFFER_SIZE;
+
+import java.util.Random;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+/**
+ * Measures the cost of the FFT behind the pitch sensor. This is left out of the normal test run;
+ * pass {@code -Pbenchmarks} to run it and compare the printed times.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class FftEngineBenchmarkTest {
+  private static final int WARM_UP_BUFFERS = 200;
+  // About 40 seconds of audio at 44100Hz.
+  private static final int BUFFERS = 400;
+
+  @Test
+  public void testTransformSpeed() {
+    short[] samples = new short[BUFFER_SIZE];
+    Random random = new Random(11);
+    for (int i = 0; i < samples.length; i++) {
+      // A 440Hz note with harmonics, and some noise.
+      double t = i / 44100.0;
+      double value =
+          Math.sin(2 * Math.PI * 440 * t)
+              + 0.5 * Math.sin(2 * Math.PI * 880 * t)
+              + 0.1 * random.nextGaussian();
+      samples[i] = (short) (value * 10000);
+    }
+
+    FftEngine doubles = new FftEngine(BUFFER_SIZE, false);
+    FftEngine floats = new FftEngine(BUFFER_SIZE, true);
+    double sink = 0;
+    for (int i = 0; i < WARM_UP_BUFFERS; i++) {
+      sink += FftEngineTest.complexFftMagnitudes(samples)[10];
+      doubles.transform(samples);
+      floats.transform(samples);
+    }
+
+    long start = System.nanoTime();
+    for (int i = 0; i < BUFFERS; i++) {
+      sink += FftEngineTest.complexFftMagnitudes(samples)[10];
+    }
+    long complexNanos = System.nanoTime() - start;
+
+    start = System.nanoTime();
+    for (int i = 0; i < BUFFERS; i++) {
+      doubles.transform(samples);
+      sink += doubles.getMagnitude(10);
+    }
+    long doubleNanos = System.nanoTime() - start;
+
+    start = System.nanoTime();
+    for (int i = 0; i < BUFFERS; i++) {
+      floats.transform(samples);
+      sink += floats.getMagnitude(10);
+    }
+    long floatNanos = System.nanoTime() - start;
+
+    System.out.println(
+        String.format(
+            "FFT of %d samples: complex %.1f us, real %.1f us (%.1fx), real with floats %.1f us"
+                + " (%.1fx) [%.0f]",
+            BUFFER_SIZE,
+            complexNanos / 1000.0 / BUFFERS,
+            doubleNanos / 1000.0 / BUFFERS,
+            complexNanos / (double) doubleNanos,
+            floatNanos / 1000.0 / BUFFERS,
+            complexNanos / (double) floatNanos,
+            sink));
+  }
+}
@@ -0,0 +1,233 @@
+/*
+ *  Copyright 2019 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.audio;
+
+import static com.google.android.apps.forscience.whistlepunk.audio.AudioAnalyzer.BUFFER_SIZE;
+import static org.junit.Assert.assertEquals;
+
+import java.io.BufferedReader;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+@RunWith(RobolectricTestRunner.class)
+public class FftEngineTest {
+  private static final int SAMPLE_RATE_IN_HZ = 44100;
+  static final String[] SAMPLE_FILES = {
+    "coke_bottle_325.samples",
+    "guitar_A_110_000.samples",
+    "guitar_E_82_4069.samples",
+    "melodica_a4_440_000.samples",
+    "melodica_c6_1046_50.samples",
+    "pint_glass_1797.samples",
+    "synth_clarinet_b3_246_942.samples",
+    "synth_piano_b2_123_471.samples",
+    "tone_b4_493_883.samples",
+    "xylophone_1802.samples",
+  };
+
+  @Test
+  public void testMatchesComplexFft() throws Exception {
+    FftEngine engine = new FftEngine(BUFFER_SIZE, false);
+    List<short[]> inputs = new ArrayList<>();
+    for (String file : SAMPLE_FILES) {
+      inputs.add(readSamples(file));
+    }
+    Random random = new Random(7);
+    short[] noise = new short[BUFFER_SIZE];
+    for (int i = 0; i < noise.length; i++) {
+      noise[i] = (short) random.nextInt();
+    }
+    inputs.add(noise);
+    // Shorter than a buffer, so padded with zeros.
+    inputs.add(new short[] {Short.MAX_VALUE, 1000, -1000, Short.MIN_VALUE});
+
+    for (short[] samples : inputs) {
+      double[] expected = complexFftMagnitudes(samples);
+      engine.transform(samples);
+      for (int bin = 0; bin <= BUFFER_SIZE / 2; bin++) {
+        assertEquals("bin " + bin, expected[bin], engine.getMagnitude(bin), 1e-9);
+      }
+    }
+  }
+
+  @Test
+  public void testSinglePrecisionIsClose() throws Exception {
+    FftEngine engine = new FftEngine(BUFFER_SIZE, true);
+    for (String file : SAMPLE_FILES) {
+      short[] samples = readSamples(file);
+      double[] expected = complexFftMagnitudes(samples);
+      engine.transform(samples);
+      for (int bin = 0; bin <= BUFFER_SIZE / 2; bin++) {
+        assertEquals(
+            file + " bin " + bin,
+            expected[bin],
+            engine.getMagnitude(bin),
+            1e-3 + expected[bin] * 1e-4);
+      }
+    }
+  }
+
+  @Test
+  public void testGoldenPeaks() throws Exception {
+    // Found by the complex FFT that FftAnalyzer used before FftEngine.
+    assertPeaks("coke_bottle_325.samples", 30, 304.408);
+    assertPeaks("guitar_A_110_000.samples", 31, 648.797, 41, 424.986, 10, 96.1421, 20, 59.4887);
+    assertPeaks(
+        "melodica_a4_440_000.samples",
+        123,
+        665.918,
+        164,
+        188.410,
+        41,
+        167.791,
+        245,
+        63.8243,
+        82,
+        54.2105,
+        368,
+        38.2314,
+        205,
+        29.0028);
+    assertPeaks("tone_b4_493_883.samples", 46, 432.022, 138, 48.1088);
+    assertPeaks("xylophone_1802.samples", 167, 76.0383);
+  }
+
+  @Test
+  public void testSinglePrecisionFindsSamePeaks() throws Exception {
+    FftAnalyzer doubles = new FftAnalyzer(SAMPLE_RATE_IN_HZ);
+    FftAnalyzer floats = new FftAnalyzer(SAMPLE_RATE_IN_HZ, true);
+    for (String file : SAMPLE_FILES) {
+      short[] samples = readSamples(file);
+      List<Peak> expected = new ArrayList<>();
+      doubles.findPeaks(samples, expected);
+      List<Peak> actual = new ArrayList<>();
+      floats.findPeaks(samples, actual);
+      assertEquals(file, expected.size(), actual.size());
+      for (int i = 0; i < expected.size(); i++) {
+        assertEquals(
+            file,
+            expected.get(i).getFrequencyEstimate(),
+            actual.get(i).getFrequencyEstimate(),
+            0.0);
+        assertEquals(file, expected.get(i).getFftValue(), actual.get(i).getFftValue(), 1e-3);
+      }
+    }
+  }
+
+  /** @param expected pairs of FFT bin index and FFT value, in order of FFT value. */
+  private void assertPeaks(String file, double... expected) throws Exception {
+    List<Peak> peaks = new ArrayList<>();
+    new FftAnalyzer(SAMPLE_RATE_IN_HZ).findPeaks(readSamples(file), peaks);
+    assertEquals(file, expected.length / 2, peaks.size());
+    for (int i = 0; i < peaks.size(); i++) {
+      Peak peak = peaks.get(i);
+      assertEquals(
+          file,
+          expected[2 * i] * SAMPLE_RATE_IN_HZ / BUFFER_SIZE,
+          peak.getFrequencyEstimate(),
+          1e-9);
+      assertEquals(file, expected[2 * i + 1], peak.getFftValue(), expected[2 * i + 1] * 1e-5);
+    }
+  }
+
+  static short[] readSamples(String filename) throws Exception {
+    List<Short> list = new ArrayList<>();
+    boolean foundNonZero = false;
+    InputStream inputStream = FftEngineTest.class.getClassLoader().getResourceAsStream(filename);
+    try (BufferedReader br = new BufferedReader(new InputStreamReader(inputStream))) {
+      while (true) {
+        try {
+          String s = br.readLine();
+          if (!s.isEmpty()) {
+            short n = Short.parseShort(s);
+            if (n != 0) {
+              foundNonZero = true;
+            }
+            if (foundNonZero) {
+              list.add(n);
+            }
+          }
+        } catch (Exception e) {
+          break;
+        }
+      }
+    }
+    short[] samples = new short[list.size()];
+    for (int i = 0; i < list.size(); i++) {
+      samples[i] = list.get(i);
+    }
+    return samples;
+  }
+
+  /**
+   * Returns the magnitudes computed by the full size complex FFT that FftAnalyzer used before
+   * FftEngine, which computes its twiddle factors as it goes.
+   */
+  static double[] complexFftMagnitudes(short[] samples) {
+    double[] a = new double[BUFFER_SIZE];
+    double[] b = new double[BUFFER_SIZE];
+    for (int i = 0; i < BUFFER_SIZE && i < samples.length; i++) {
+      a[i] = ((double) samples[i]) / Short.MAX_VALUE;
+    }
+
+    int shift = 1 + Integer.numberOfLeadingZeros(BUFFER_SIZE);
+    for (int i = 0; i < BUFFER_SIZE; i++) {
+      int j = Integer.reverse(i) >>> shift;
+      if (j > i) {
+        double temp = a[j];
+        a[j] = a[i];
+        a[i] = temp;
+        temp = b[j];
+        b[j] = b[i];
+        b[i] = temp;
+      }
+    }
+
+    for (int l = 2; l <= BUFFER_SIZE; l += l) {
+      int lHalf = l / 2;
+      for (int k = 0; k < lHalf; k++) {
+        double kth = -2 * k * Math.PI / l;
+        double wA = Math.cos(kth);
+        double wB = Math.sin(kth);
+        for (int j = 0; j < BUFFER_SIZE / l; j++) {
+          int index1 = j * l + k + lHalf;
+          int index2 = j * l + k;
+          double xA = a[index1];
+          double xB = b[index1];
+          double taoA = xA * wA - xB * wB;
+          double taoB = xA * wB + xB * wA;
+          a[index1] = a[index2] - taoA;
+          b[index1] = b[index2] - taoB;
+          a[index2] = a[index2] + taoA;
+          b[index2] = b[index2] + taoB;
+        }
+      }
+    }
+
+    double[] magnitudes = new double[BUFFER_SIZE];
+    for (int i = 0; i < BUFFER_SIZE; i++) {
+      magnitudes[i] = Math.sqrt(a[i] * a[i] + b[i] * b[i]);
+    }
+    return magnitudes;
+  }
+}
@@ -0,0 +1,79 @@
+/*
+ *  Copyright 2019 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.audio;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+/**
+ * Measures the cost of refining the frequencies of FFT peaks, one filter at a time and as a bank.
+ * It needs {@code -Pbenchmarks} to run, and only prints the times.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class GoertzelAnalyzerBenchmarkTest {
+  private static final int SAMPLE_RATE_IN_HZ = 44100;
+  private static final int WARM_UP_BUFFERS = 50;
+  private static final int BUFFERS = 200;
+
+  @Test
+  public void testRefinementSpeed() throws Exception {
+    // The melodica has the most peaks of the recordings.
+    short[] samples = FftEngineTest.readSamples("melodica_a4_440_000.samples");
+    List<Peak> peaks = new ArrayList<>();
+    new FftAnalyzer(SAMPLE_RATE_IN_HZ).findPeaks(samples, peaks);
+    GoertzelAnalyzer goertzelAnalyzer = new GoertzelAnalyzer(SAMPLE_RATE_IN_HZ);
+
+    double sink = 0;
+    for (int i = 0; i < WARM_UP_BUFFERS; i++) {
+      sink += refineOneAtATime(samples, peaks);
+      goertzelAnalyzer.findFrequenciesWithHighestPower(samples, peaks);
+    }
+
+    long start = System.nanoTime();
+    for (int i = 0; i < BUFFERS; i++) {
+      sink += refineOneAtATime(samples, peaks);
+    }
+    long oneAtATimeNanos = System.nanoTime() - start;
+
+    start = System.nanoTime();
+    for (int i = 0; i < BUFFERS; i++) {
+      goertzelAnalyzer.findFrequenciesWithHighestPower(samples, peaks);
+      sink += peaks.get(0).getFrequency();
+    }
+    long bankNanos = System.nanoTime() - start;
+
+    System.out.println(
+        String.format(
+            "Goertzel refinement of %d peaks: one at a time %.1f us, bank %.1f us (%.1fx) [%.0f]",
+            peaks.size(),
+            oneAtATimeNanos / 1000.0 / BUFFERS,
+            bankNanos / 1000.0 / BUFFERS,
+            oneAtATimeNanos / (double) bankNanos,
+            sink));
+  }
+
+  private static double refineOneAtATime(short[] samples, List<Peak> peaks) {
+    double sum = 0;
+    for (Peak peak : peaks) {
+      sum += GoertzelAnalyzerTest.findFrequencyOneAtATime(samples, peak.getFrequencyEstimate());
+    }
+    return sum;
+  }
+}
@@ -0,0 +1,173 @@
+/*
+ *  Copyright 2019 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.audio;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+@RunWith(RobolectricTestRunner.class)
+public class GoertzelAnalyzerTest {
+  private static final int SAMPLE_RATE_IN_HZ = 44100;
+
+  @Test
+  public void testSameFrequenciesForFftPeaks() throws Exception {
+    FftAnalyzer fftAnalyzer = new FftAnalyzer(SAMPLE_RATE_IN_HZ);
+    GoertzelAnalyzer goertzelAnalyzer = new GoertzelAnalyzer(SAMPLE_RATE_IN_HZ);
+    for (String file : FftEngineTest.SAMPLE_FILES) {
+      short[] samples = FftEngineTest.readSamples(file);
+      List<Peak> peaks = new ArrayList<>();
+      fftAnalyzer.findPeaks(samples, peaks);
+      assertSameFrequencies(file, goertzelAnalyzer, samples, peaks);
+    }
+  }
+
+  @Test
+  public void testSameFrequenciesForManyEstimates() throws Exception {
+    short[] noise = new short[AudioAnalyzer.BUFFER_SIZE];
+    Random random = new Random(3);
+    for (int i = 0; i < noise.length; i++) {
+      noise[i] = (short) (random.nextGaussian() * 3000);
+    }
+    // Reuse one analyzer, so the coefficient cache is exercised across buffers.
+    GoertzelAnalyzer goertzelAnalyzer = new GoertzelAnalyzer(SAMPLE_RATE_IN_HZ);
+    for (short[] samples :
+        new short[][] {
+          noise,
+          FftEngineTest.readSamples("guitar_E_82_4069.samples"),
+          FftEngineTest.readSamples("melodica_c6_1046_50.samples")
+        }) {
+      // More peaks than FftAnalyzer ever finds, covering every accuracy.
+      List<Peak> peaks = new ArrayList<>();
+      for (int bin = 5; bin < 500; bin += 7) {
+        peaks.add(new Peak(bin, bin * (double) SAMPLE_RATE_IN_HZ / 4096, 1, 1));
+      }
+      assertSameFrequencies("bins", goertzelAnalyzer, samples, peaks);
+    }
+  }
+
+  @Test
+  public void testNoPeaks() {
+    new GoertzelAnalyzer(SAMPLE_RATE_IN_HZ)
+        .findFrequenciesWithHighestPower(new short[10], new ArrayList<>());
+  }
+
+  private static void assertSameFrequencies(
+      String message, GoertzelAnalyzer goertzelAnalyzer, short[] samples, List<Peak> peaks) {
+    goertzelAnalyzer.findFrequenciesWithHighestPower(samples, peaks);
+    for (Peak peak : peaks) {
+      assertEquals(
+          message + " " + peak.getFrequencyEstimate(),
+          findFrequencyOneAtATime(samples, peak.getFrequencyEstimate()),
+          peak.getFrequency(),
+          0.0);
+    }
+  }
+
+  /**
+   * Refines one frequency estimate the way GoertzelAnalyzer did before it searched for all the
+   * peaks together, running each filter over the samples separately.
+   */
+  static double findFrequencyOneAtATime(short[] samples, double frequencyEstimate) {
+    double accuracy;
+    if (frequencyEstimate < 100) {
+      accuracy = 0.01;
+    } else if (frequencyEstimate < 1000) {
+      accuracy = 0.1;
+    } else {
+      accuracy = 1;
+    }
+
+    double loFrequency = frequencyEstimate - 10;
+    double powerAtLoFrequency = calculatePower(samples, loFrequency);
+    double hiFrequency = frequencyEstimate + 10;
+    double powerAtHiFrequency = calculatePower(samples, hiFrequency);
+
+    do {
+      double greatestPower;
+      double frequencyWithGreatestPower;
+      double secondGreatestPower;
+      double frequencyWithSecondGreatestPower;
+      if (powerAtLoFrequency > powerAtHiFrequency) {
+        greatestPower = powerAtLoFrequency;
+        frequencyWithGreatestPower = loFrequency;
+        secondGreatestPower = powerAtHiFrequency;
+        frequencyWithSecondGreatestPower = hiFrequency;
+      } else {
+        greatestPower = powerAtHiFrequency;
+        frequencyWithGreatestPower = hiFrequency;
+        secondGreatestPower = powerAtLoFrequency;
+        frequencyWithSecondGreatestPower = loFrequency;
+      }
+
+      double interval = (hiFrequency - loFrequency) / 4;
+      for (double frequency = loFrequency + interval;
+          frequency < hiFrequency;
+          frequency += interval) {
+        double power = calculatePower(samples, frequency);
+        if (power > greatestPower) {
+          secondGreatestPower = greatestPower;
+          frequencyWithSecondGreatestPower = frequencyWithGreatestPower;
+          greatestPower = power;
+          frequencyWithGreatestPower = frequency;
+        } else if (power > secondGreatestPower) {
+          secondGreatestPower = power;
+          frequencyWithSecondGreatestPower = frequency;
+        }
+      }
+
+      double previousHi = hiFrequency;
+      double previousLo = loFrequency;
+      if (frequencyWithGreatestPower > frequencyWithSecondGreatestPower) {
+        hiFrequency = frequencyWithGreatestPower;
+        powerAtHiFrequency = greatestPower;
+        loFrequency = frequencyWithSecondGreatestPower;
+        powerAtLoFrequency = secondGreatestPower;
+      } else {
+        hiFrequency = frequencyWithSecondGreatestPower;
+        powerAtHiFrequency = secondGreatestPower;
+        loFrequency = frequencyWithGreatestPower;
+        powerAtLoFrequency = greatestPower;
+      }
+
+      if (Math.abs(previousHi - hiFrequency) < 0.000001
+          && Math.abs(previousLo - loFrequency) < 0.000001) {
+        break;
+      }
+    } while (hiFrequency - loFrequency > accuracy);
+
+    return (powerAtLoFrequency > powerAtHiFrequency) ? loFrequency : hiFrequency;
+  }
+
+  private static double calculatePower(short[] samples, double targetFrequency) {
+    double normalizedFrequency = targetFrequency / SAMPLE_RATE_IN_HZ;
+    double coeff = 2 * Math.cos(2 * Math.PI * normalizedFrequency);
+    double sPrev1 = 0;
+    double sPrev2 = 0;
+    for (short sample : samples) {
+      double s = sample + coeff * sPrev1 - sPrev2;
+      sPrev2 = sPrev1;
+      sPrev1 = s;
+    }
+    return sPrev2 * sPrev2 + sPrev1 * sPrev1 - coeff * sPrev1 * sPrev2;
+  }
+}
@@ -0,0 +1,79 @@
+/*
+ *  Copyright 2019 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.audio;
+
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+/**
+ * Measures the CPU time the pitch sensor needs for each second of audio, with and without
+ * overlapping buffers. Only run with {@code -Pbenchmarks}; the times are printed rather than
+ * checked.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class SlidingPitchDetectorBenchmarkTest {
+  private static final int SAMPLE_RATE_IN_HZ = 44100;
+  private static final int SECONDS = 20;
+  private static final int CHUNK_SIZE = 1792;
+
+  private int frequencyCount;
+  private final SlidingPitchDetector.Listener listener =
+      (frequency, samplesSinceEnd) -> frequencyCount++;
+
+  @Test
+  public void testCpuPerSecondOfAudio() {
+    short[] samples = SlidingPitchDetectorTest.makeTone(196, SAMPLE_RATE_IN_HZ * SECONDS);
+
+    long fullHopNanos = run(AudioAnalyzer.BUFFER_SIZE, FftWindow.RECTANGULAR, samples);
+    int fullHopCount = frequencyCount;
+    long slidingNanos = run(512, FftWindow.HANN, samples);
+    int slidingCount = frequencyCount;
+
+    System.out.println(
+        String.format(
+            "Pitch detection per second of audio: hop 4096 %.2f ms (%.1f values/s),"
+                + " hop 512 with Hann %.2f ms (%.1f values/s)",
+            fullHopNanos / 1e6 / SECONDS,
+            fullHopCount / (double) SECONDS,
+            slidingNanos / 1e6 / SECONDS,
+            slidingCount / (double) SECONDS));
+
+    assertTrue(slidingCount / SECONDS >= 80);
+  }
+
+  private long run(int hopSize, FftWindow window, short[] samples) {
+    // Warm up, so the measurement isn't of interpreted code.
+    addInChunks(new SlidingPitchDetector(SAMPLE_RATE_IN_HZ, hopSize, window), samples);
+
+    SlidingPitchDetector detector = new SlidingPitchDetector(SAMPLE_RATE_IN_HZ, hopSize, window);
+    frequencyCount = 0;
+    long start = System.nanoTime();
+    addInChunks(detector, samples);
+    return System.nanoTime() - start;
+  }
+
+  private void addInChunks(SlidingPitchDetector detector, short[] samples) {
+    short[] chunk = new short[CHUNK_SIZE];
+    for (int offset = 0; offset + CHUNK_SIZE <= samples.length; offset += CHUNK_SIZE) {
+      System.arraycopy(samples, offset, chunk, 0, CHUNK_SIZE);
+      detector.addSamples(chunk, listener);
+    }
+  }
+}
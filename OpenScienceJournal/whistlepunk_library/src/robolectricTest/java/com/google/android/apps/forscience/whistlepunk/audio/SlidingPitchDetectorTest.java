@@ -0,0 +1,136 @@
+/*
+ *  Copyright 2019 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.audio;
+
+import static com.google.android.apps.forscience.whistlepunk.audio.AudioAnalyzer.BUFFER_SIZE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+@RunWith(RobolectricTestRunner.class)
+public class SlidingPitchDetectorTest {
+  private static final int SAMPLE_RATE_IN_HZ = 44100;
+  // Roughly what AudioRecord delivers at a time.
+  private static final int CHUNK_SIZE = 1792;
+
+  private final List<Double> frequencies = new ArrayList<>();
+  private final List<Integer> samplesSinceEnds = new ArrayList<>();
+  private final SlidingPitchDetector.Listener listener =
+      (frequency, samplesSinceEnd) -> {
+        frequencies.add(frequency);
+        samplesSinceEnds.add(samplesSinceEnd);
+      };
+
+  @Test
+  public void testOneFrequencyPerHop() {
+    SlidingPitchDetector detector =
+        new SlidingPitchDetector(SAMPLE_RATE_IN_HZ, 512, FftWindow.HANN);
+    short[] samples = makeTone(220, SAMPLE_RATE_IN_HZ);
+    addInChunks(detector, samples);
+
+    assertEquals((samples.length - BUFFER_SIZE) / 512 + 1, frequencies.size());
+    for (Double frequency : frequencies) {
+      assertNotNull(frequency);
+      assertEquals(220, frequency, 220 * 0.01);
+    }
+  }
+
+  @Test
+  public void testSamplesSinceEnd() {
+    SlidingPitchDetector detector =
+        new SlidingPitchDetector(SAMPLE_RATE_IN_HZ, 512, FftWindow.HANN);
+    short[] samples = makeTone(440, BUFFER_SIZE + 1000);
+    detector.addSamples(samples, listener);
+
+    // Buffers end after samples 4096 and 4608, of 5096.
+    assertEquals(2, frequencies.size());
+    assertEquals(1000, (int) samplesSinceEnds.get(0));
+    assertEquals(488, (int) samplesSinceEnds.get(1));
+  }
+
+  @Test
+  public void testFullHopMatchesAudioAnalyzer() {
+    SlidingPitchDetector detector =
+        new SlidingPitchDetector(SAMPLE_RATE_IN_HZ, BUFFER_SIZE, FftWindow.RECTANGULAR);
+    short[] samples = makeTone(330, BUFFER_SIZE * 3);
+    addInChunks(detector, samples);
+
+    AudioAnalyzer audioAnalyzer = new AudioAnalyzer(SAMPLE_RATE_IN_HZ);
+    short[] buffer = new short[BUFFER_SIZE];
+    assertEquals(3, frequencies.size());
+    for (int i = 0; i < 3; i++) {
+      System.arraycopy(samples, i * BUFFER_SIZE, buffer, 0, BUFFER_SIZE);
+      assertEquals(audioAnalyzer.detectFundamentalFrequency(buffer), frequencies.get(i));
+    }
+  }
+
+  @Test
+  public void testSilence() {
+    SlidingPitchDetector detector =
+        new SlidingPitchDetector(SAMPLE_RATE_IN_HZ, 1024, FftWindow.BLACKMAN);
+    detector.addSamples(new short[BUFFER_SIZE + 1024], listener);
+
+    assertEquals(2, frequencies.size());
+    assertNull(frequencies.get(0));
+    assertNull(frequencies.get(1));
+  }
+
+  @Test
+  public void testClear() {
+    SlidingPitchDetector detector =
+        new SlidingPitchDetector(SAMPLE_RATE_IN_HZ, 512, FftWindow.HANN);
+    detector.addSamples(makeTone(440, BUFFER_SIZE - 1), listener);
+    detector.clear();
+    detector.addSamples(new short[1], listener);
+
+    assertEquals(0, frequencies.size());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testHopLargerThanBuffer() {
+    new SlidingPitchDetector(SAMPLE_RATE_IN_HZ, BUFFER_SIZE + 1, FftWindow.HANN);
+  }
+
+  private void addInChunks(SlidingPitchDetector detector, short[] samples) {
+    short[] chunk = new short[CHUNK_SIZE];
+    for (int offset = 0; offset + CHUNK_SIZE <= samples.length; offset += CHUNK_SIZE) {
+      System.arraycopy(samples, offset, chunk, 0, CHUNK_SIZE);
+      detector.addSamples(chunk, listener);
+    }
+    int rest = samples.length % CHUNK_SIZE;
+    short[] last = new short[rest];
+    System.arraycopy(samples, samples.length - rest, last, 0, rest);
+    detector.addSamples(last, listener);
+  }
+
+  /** Returns a tone with a few harmonics, like a wind instrument. */
+  static short[] makeTone(double frequency, int length) {
+    short[] samples = new short[length];
+    for (int i = 0; i < length; i++) {
+      double t = 2 * Math.PI * frequency * i / SAMPLE_RATE_IN_HZ;
+      double value = Math.sin(t) + 0.5 * Math.sin(2 * t) + 0.25 * Math.sin(3 * t);
+      samples[i] = (short) (value * 8000);
+    }
+    return samples;
+  }
+}
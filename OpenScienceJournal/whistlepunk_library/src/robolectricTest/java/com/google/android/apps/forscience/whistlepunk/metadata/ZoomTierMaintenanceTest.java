@@ -0,0 +1,83 @@
+/*
+ *  Copyright 2019 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.metadata;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.android.apps.forscience.whistlepunk.filemetadata.TrialStats;
+import com.google.android.apps.forscience.whistlepunk.metadata.GoosciTrial.SensorStat.StatType;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+@RunWith(RobolectricTestRunner.class)
+public class ZoomTierMaintenanceTest {
+  @Test
+  public void testStatsLackTiers() {
+    assertTrue(ZoomTierMaintenance.statsLackTiers(null));
+
+    // An old run, with only min, max and average.
+    TrialStats stats = new TrialStats("sensor");
+    stats.putStat(StatType.MINIMUM, 0);
+    stats.putStat(StatType.MAXIMUM, 10);
+    stats.putStat(StatType.AVERAGE, 5);
+    assertTrue(ZoomTierMaintenance.statsLackTiers(stats));
+
+    stats.putStat(StatType.NUM_DATA_POINTS, 39);
+    stats.putStat(StatType.TOTAL_DURATION, 1000);
+    stats.putStat(StatType.ZOOM_PRESENTER_ZOOM_LEVEL_BETWEEN_TIERS, 20);
+    stats.putStat(StatType.ZOOM_PRESENTER_TIER_COUNT, 1);
+    assertFalse(ZoomTierMaintenance.statsLackTiers(stats));
+
+    // Enough readings to fill a run, so there should be a tier 1.
+    stats.putStat(StatType.NUM_DATA_POINTS, 40);
+    assertTrue(ZoomTierMaintenance.statsLackTiers(stats));
+    stats.putStat(StatType.ZOOM_PRESENTER_TIER_COUNT, 2);
+    assertFalse(ZoomTierMaintenance.statsLackTiers(stats));
+  }
+
+  @Test
+  public void testMergeKeepsCroppedStats() {
+    TrialStats existing = new TrialStats("sensor");
+    existing.putStat(StatType.MINIMUM, 2);
+    existing.putStat(StatType.MAXIMUM, 8);
+    existing.putStat(StatType.AVERAGE, 5);
+    existing.putStat(StatType.NUM_DATA_POINTS, 100);
+
+    TrialStats rebuilt = new TrialStats("sensor");
+    rebuilt.putStat(StatType.MINIMUM, 1);
+    rebuilt.putStat(StatType.MAXIMUM, 9);
+    rebuilt.putStat(StatType.AVERAGE, 4);
+    rebuilt.putStat(StatType.NUM_DATA_POINTS, 500);
+    rebuilt.putStat(StatType.TOTAL_DURATION, 5000);
+    rebuilt.putStat(StatType.ZOOM_PRESENTER_TIER_COUNT, 3);
+    rebuilt.putStat(StatType.ZOOM_PRESENTER_ZOOM_LEVEL_BETWEEN_TIERS, 20);
+
+    TrialStats merged = ZoomTierMaintenance.mergeStats(existing, rebuilt);
+    assertEquals(2, merged.getStatValue(StatType.MINIMUM, 0), 0.0);
+    assertEquals(8, merged.getStatValue(StatType.MAXIMUM, 0), 0.0);
+    assertEquals(5, merged.getStatValue(StatType.AVERAGE, 0), 0.0);
+    // The duration is missing, so both it and the count come from the rebuild.
+    assertEquals(500, merged.getStatValue(StatType.NUM_DATA_POINTS, 0), 0.0);
+    assertEquals(5000, merged.getStatValue(StatType.TOTAL_DURATION, 0), 0.0);
+    assertEquals(3, merged.getStatValue(StatType.ZOOM_PRESENTER_TIER_COUNT, 0), 0.0);
+    assertEquals(20, merged.getStatValue(StatType.ZOOM_PRESENTER_ZOOM_LEVEL_BETWEEN_TIERS, 0), 0.0);
+    assertFalse(ZoomTierMaintenance.statsLackTiers(merged));
+  }
+}
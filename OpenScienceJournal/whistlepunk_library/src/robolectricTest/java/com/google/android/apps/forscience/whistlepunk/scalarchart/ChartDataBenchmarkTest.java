@@ -0,0 +1,311 @@
+/*
+ *  Copyright 2019 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.scalarchart;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+import android.graphics.Matrix;
+import android.graphics.Path;
+import com.google.android.apps.forscience.whistlepunk.BatchInsertScalarReading;
+import com.google.android.apps.forscience.whistlepunk.accounts.NonSignedInAccount;
+import com.google.android.apps.forscience.whistlepunk.sensordb.ScalarReadingList;
+import com.google.android.apps.forscience.whistlepunk.sensordb.SensorDatabaseImpl;
+import com.google.android.apps.forscience.whistlepunk.sensordb.TimeRange;
+import com.google.common.collect.Range;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+/**
+ * Measures the cost of getting large trials into a chart. Only runs with {@code -Pbenchmarks}; the
+ * assertions check what ends up in the chart, and the timings are just printed.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class ChartDataBenchmarkTest {
+  private static final String DATABASE_NAME = "bench_chart.db";
+  private static final int TRIAL_POINTS = 100000;
+
+  // 30 minutes of a 200Hz sensor, with the default 20 second graph range.
+  private static final int STREAM_HZ = 200;
+  private static final long STREAM_MILLIS = 30 * 60 * 1000;
+  private static final long GRAPH_RANGE = 20000;
+  private static final int KEEP_SCREENS = 3;
+
+  // A zoomed out run review graph on a low-end tablet.
+  private static final int FRAME_POINTS = 50000;
+  private static final int FRAME_WIDTH_PX = 1200;
+  private static final int FRAMES = 20;
+
+  // A minute of observing six sensor cards at 60 frames per second.
+  private static final int LIVE_CARDS = 6;
+  private static final long LIVE_MILLIS = 60 * 1000;
+  private static final long FRAME_MILLIS = 16;
+
+  @Test
+  public void testLoadTrialAllocations() {
+    SensorDatabaseImpl db =
+        new SensorDatabaseImpl(
+            getContext(), NonSignedInAccount.getInstance(getContext()), DATABASE_NAME);
+    List<BatchInsertScalarReading> readings = new ArrayList<>();
+    for (int i = 0; i < TRIAL_POINTS; i++) {
+      readings.add(new BatchInsertScalarReading("trial", "sensor", 0, i * 10, Math.sin(i / 50.0)));
+    }
+    db.addScalarReadings(readings);
+    readings = null;
+
+    ScalarReadingList list =
+        db.getScalarReadings(
+            "trial", "sensor", TimeRange.oldest(Range.closed(0L, Long.MAX_VALUE)), 0, 0);
+    assertEquals(TRIAL_POINTS, list.size());
+
+    // The old handoff: box every reading, then hand the list to the chart.
+    long start = getAllocatedBytes();
+    ChartData boxed = new ChartData();
+    boxed.setPoints(list.asDataPoints());
+    long boxedBytes = getAllocatedBytes() - start;
+
+    start = getAllocatedBytes();
+    ChartData primitive = new ChartData();
+    primitive.addOrderedGroupOfPoints(list.asPointList());
+    long primitiveBytes = getAllocatedBytes() - start;
+
+    assertEquals(TRIAL_POINTS, primitive.getNumPoints());
+    System.out.println(
+        String.format(
+            "%d points to chart: %.1f bytes/point boxed, %.1f bytes/point primitive",
+            TRIAL_POINTS,
+            boxedBytes / (double) TRIAL_POINTS,
+            primitiveBytes / (double) TRIAL_POINTS));
+    // Two primitive arrays cost 16 bytes/point; anything much larger means per-point objects.
+    assertTrue(primitiveBytes < 24L * TRIAL_POINTS);
+  }
+
+  /**
+   * Feeds ChartData the way ChartController does while observing: every point is preceded by a
+   * throwAwayBetween, and each 60Hz frame throws away data older than the kept screens. The second
+   * half of the stream is watched while scrolled back, which evicts from the middle of the data.
+   */
+  @Test
+  public void testLiveStreamThroughput() {
+    ChartData chartData = new ChartData();
+    long points = STREAM_MILLIS * STREAM_HZ / 1000;
+    long scrolledBackTo = STREAM_MILLIS / 2 - GRAPH_RANGE;
+    long nextFrame = 0;
+    int maxRetained = 0;
+
+    long start = System.nanoTime();
+    for (long i = 0; i < points; i++) {
+      long x = i * 1000 / STREAM_HZ;
+      boolean pinned = x < STREAM_MILLIS / 2;
+      long renderedXMax = pinned ? x : scrolledBackTo;
+      chartData.throwAwayBetween(renderedXMax + GRAPH_RANGE, x - KEEP_SCREENS * GRAPH_RANGE);
+      chartData.addPoint(new ChartData.DataPoint(x, Math.sin(i / 100.0)));
+      if (x >= nextFrame) {
+        nextFrame = x + 16;
+        chartData.throwAwayBefore(renderedXMax - GRAPH_RANGE - (KEEP_SCREENS - 1) * GRAPH_RANGE);
+      }
+      maxRetained = Math.max(maxRetained, chartData.getNumPoints());
+    }
+    long elapsed = System.nanoTime() - start;
+
+    System.out.println(
+        String.format(
+            "%d streamed points: %d ms total, %d ns/point, at most %d points retained",
+            points, elapsed / 1000000, elapsed / points, maxRetained));
+    assertTrue(chartData.getNumPoints() > 0);
+    // Eviction has to keep up, or the chart would hold the whole stream.
+    assertTrue(maxRetained < points / 4);
+  }
+
+  /** Loads 20 second pages on either side of a live chart, as scrolling during recording does. */
+  @Test
+  public void testPageMergeThroughput() {
+    ChartData chartData = new ChartData();
+    int pagePoints = (int) (GRAPH_RANGE * STREAM_HZ / 1000);
+    int pages = 90;
+    long middle = pages / 2 * GRAPH_RANGE;
+
+    long start = System.nanoTime();
+    for (int page = 0; page < pages; page++) {
+      // Alternate between loading the next page forward and the next page back.
+      long pageStart = middle + (page % 2 == 1 ? 1 : -1) * ((page + 1) / 2) * GRAPH_RANGE;
+      long[] xs = new long[pagePoints];
+      double[] ys = new double[pagePoints];
+      for (int i = 0; i < pagePoints; i++) {
+        xs[i] = pageStart + i * 1000 / STREAM_HZ;
+        ys[i] = i;
+      }
+      chartData.addOrderedGroupOfPoints(PointList.wrap(xs, ys, pagePoints));
+    }
+    long elapsed = System.nanoTime() - start;
+
+    System.out.println(
+        String.format(
+            "%d pages of %d points merged: %d ms total", pages, pagePoints, elapsed / 1000000));
+    PointList merged = chartData.getPointList();
+    for (int i = 1; i < merged.size(); i++) {
+      assertTrue(merged.getX(i - 1) <= merged.getX(i));
+    }
+  }
+
+  /** Times building the graph path for one frame with and without per-pixel decimation. */
+  @Test
+  public void testPathFrameTime() {
+    PointList points = new PointList(FRAME_POINTS);
+    for (int i = 0; i < FRAME_POINTS; i++) {
+      points.add(i * 5, Math.sin(i / 30.0) + Math.sin(i / 7.0) * 0.3);
+    }
+    long xMax = points.getX(FRAME_POINTS - 1);
+    Path path = new Path();
+    PathDecimator decimator = new PathDecimator();
+
+    long start = System.nanoTime();
+    for (int frame = 0; frame < FRAMES; frame++) {
+      path.reset();
+      path.moveTo(toScreenX(points.getX(0), xMax), (float) points.getY(0));
+      for (int i = 1; i < FRAME_POINTS; i++) {
+        path.lineTo(toScreenX(points.getX(i), xMax), (float) points.getY(i));
+      }
+    }
+    long fullNanos = (System.nanoTime() - start) / FRAMES;
+
+    int drawn = 0;
+    start = System.nanoTime();
+    for (int frame = 0; frame < FRAMES; frame++) {
+      path.reset();
+      drawn = decimator.decimate(points, 0, FRAME_POINTS - 1, 0, xMax, FRAME_WIDTH_PX);
+      int index = decimator.getIndex(0);
+      path.moveTo(toScreenX(points.getX(index), xMax), (float) points.getY(index));
+      for (int i = 1; i < drawn; i++) {
+        index = decimator.getIndex(i);
+        path.lineTo(toScreenX(points.getX(index), xMax), (float) points.getY(index));
+      }
+    }
+    long decimatedNanos = (System.nanoTime() - start) / FRAMES;
+
+    System.out.println(
+        String.format(
+            "%d points on %dpx: %.2f ms/frame drawing all, %.2f ms/frame drawing %d decimated",
+            FRAME_POINTS, FRAME_WIDTH_PX, fullNanos / 1e6, decimatedNanos / 1e6, drawn));
+    assertTrue(drawn <= 4 * (FRAME_WIDTH_PX + 1));
+  }
+
+  /**
+   * Times the line work per frame for six observe cards at 200Hz: first the way ChartView used to
+   * do it, adding each point to one path, transforming the whole path every frame and rebuilding it
+   * every 400 points, then with a live path that is only added to and shifted.
+   */
+  @Test
+  public void testLiveFrameCost() {
+    int frames = (int) (LIVE_MILLIS / FRAME_MILLIS);
+    float pixelsPerMilli = FRAME_WIDTH_PX / (float) GRAPH_RANGE;
+    PointList[] shown = new PointList[LIVE_CARDS];
+    Path[] paths = new Path[LIVE_CARDS];
+    LivePath[] livePaths = new LivePath[LIVE_CARDS];
+    for (int card = 0; card < LIVE_CARDS; card++) {
+      shown[card] = new PointList();
+      paths[card] = new Path();
+      livePaths[card] = new LivePath();
+    }
+    PathDecimator decimator = new PathDecimator();
+    Matrix scroll = new Matrix();
+    scroll.setTranslate(-FRAME_MILLIS * pixelsPerMilli, 0);
+
+    int[] added = new int[LIVE_CARDS];
+    long next = 0;
+    long start = System.nanoTime();
+    for (int frame = 0; frame < frames; frame++) {
+      long frameEnd = (frame + 1) * FRAME_MILLIS;
+      for (int card = 0; card < LIVE_CARDS; card++) {
+        PointList points = shown[card];
+        Path path = paths[card];
+        for (long x = next; x < frameEnd; x += 1000 / STREAM_HZ) {
+          points.add(x, Math.sin(x / 100.0 + card));
+          if (++added[card] % ChartView.DRAWN_POINTS_REDRAW_THRESHOLD == 0) {
+            int count =
+                decimator.decimate(
+                    points, 0, points.size() - 1, x - GRAPH_RANGE, x, FRAME_WIDTH_PX);
+            path.reset();
+            path.moveTo(0, 0);
+            for (int i = 1; i < count; i++) {
+              int index = decimator.getIndex(i);
+              path.lineTo((points.getX(index) - x) * pixelsPerMilli, (float) points.getY(index));
+            }
+          } else {
+            path.lineTo(FRAME_WIDTH_PX, (float) points.getY(points.size() - 1));
+          }
+        }
+        path.transform(scroll);
+        while (points.getX(0) < frameEnd - GRAPH_RANGE) {
+          points.removeRange(0, 1);
+        }
+      }
+      next = frameEnd;
+    }
+    long pathNanos = (System.nanoTime() - start) / frames;
+
+    next = 0;
+    start = System.nanoTime();
+    for (int frame = 0; frame < frames; frame++) {
+      long frameEnd = (frame + 1) * FRAME_MILLIS;
+      for (int card = 0; card < LIVE_CARDS; card++) {
+        LivePath livePath = livePaths[card];
+        for (long x = next; x < frameEnd; x += 1000 / STREAM_HZ) {
+          livePath.add(x, x * pixelsPerMilli, (float) Math.sin(x / 100.0 + card));
+        }
+        livePath.dropBefore(frameEnd - GRAPH_RANGE);
+      }
+      next = frameEnd;
+    }
+    long liveNanos = (System.nanoTime() - start) / frames;
+
+    System.out.println(
+        String.format(
+            "%d cards at %dHz: %.3f ms/frame with one path, %.3f ms/frame with live paths",
+            LIVE_CARDS, STREAM_HZ, pathNanos / 1e6, liveNanos / 1e6));
+    // Only a screen's worth of points, and at most a segment more, is kept per card.
+    int screenPoints = (int) (GRAPH_RANGE * STREAM_HZ / 1000);
+    for (LivePath livePath : livePaths) {
+      assertTrue(livePath.getNumPoints() <= screenPoints + LivePath.POINTS_PER_SEGMENT);
+    }
+  }
+
+  private static float toScreenX(long x, long xMax) {
+    return (float) x / xMax * FRAME_WIDTH_PX;
+  }
+
+  private static long getAllocatedBytes() {
+    return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+        .getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+
+  @After
+  public void tearDown() {
+    getContext().getDatabasePath(DATABASE_NAME).delete();
+  }
+
+  private Context getContext() {
+    return RuntimeEnvironment.application.getApplicationContext();
+  }
+}
@@ -0,0 +1,83 @@
+/*
+ *  Copyright 2019 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.scalarchart;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+@RunWith(RobolectricTestRunner.class)
+public class LivePathTest {
+  private static final int SEGMENT = LivePath.POINTS_PER_SEGMENT;
+
+  @Test
+  public void testStartsNewSegmentsAsItGrows() {
+    LivePath livePath = new LivePath();
+    assertTrue(livePath.isEmpty());
+    addPoints(livePath, 0, 3 * SEGMENT + 1);
+    assertFalse(livePath.isEmpty());
+    assertEquals(4, livePath.getNumSegments());
+    assertEquals(3 * SEGMENT + 1, livePath.getNumPoints());
+  }
+
+  @Test
+  public void testDropBeforeKeepsSegmentsStillOnScreen() {
+    LivePath livePath = new LivePath();
+    addPoints(livePath, 0, 3 * SEGMENT + 16);
+    // The second segment ends after this, so only the first can go.
+    livePath.dropBefore(SEGMENT + 10);
+    assertEquals(3, livePath.getNumSegments());
+    assertEquals(2 * SEGMENT + 16, livePath.getNumPoints());
+  }
+
+  @Test
+  public void testDropBeforeKeepsLastSegment() {
+    LivePath livePath = new LivePath();
+    addPoints(livePath, 0, 2 * SEGMENT + 5);
+    livePath.dropBefore(Long.MAX_VALUE);
+    assertEquals(1, livePath.getNumSegments());
+    assertEquals(5, livePath.getNumPoints());
+
+    // The line carries on from the kept segment.
+    addPoints(livePath, 2 * SEGMENT + 5, 1);
+    assertEquals(6, livePath.getNumPoints());
+  }
+
+  @Test
+  public void testResetRecyclesSegments() {
+    LivePath livePath = new LivePath();
+    addPoints(livePath, 0, 2 * SEGMENT);
+    livePath.reset();
+    assertTrue(livePath.isEmpty());
+    assertEquals(0, livePath.getNumPoints());
+
+    addPoints(livePath, 0, SEGMENT + 1);
+    assertEquals(2, livePath.getNumSegments());
+    assertEquals(SEGMENT + 1, livePath.getNumPoints());
+  }
+
+  private void addPoints(LivePath livePath, long firstX, int count) {
+    for (int i = 0; i < count; i++) {
+      long x = firstX + i;
+      livePath.add(x, x, (float) Math.sin(x));
+    }
+  }
+}
@@ -0,0 +1,136 @@
+/*
+ *  Copyright 2019 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.scalarchart;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+@RunWith(RobolectricTestRunner.class)
+public class PathDecimatorTest {
+  @Test
+  public void testKeepsSparsePoints() {
+    PointList points = new PointList();
+    for (int i = 0; i < 10; i++) {
+      points.add(i * 100, i);
+    }
+    PathDecimator decimator = new PathDecimator();
+    assertEquals(10, decimator.decimate(points, 0, 9, 0, 1000, 10));
+    for (int i = 0; i < 10; i++) {
+      assertEquals(i, decimator.getIndex(i));
+    }
+  }
+
+  @Test
+  public void testKeepsFirstMinMaxLastPerColumn() {
+    PointList points = new PointList();
+    double[] ys = {5, 9, 1, 7, 3, 6};
+    for (int i = 0; i < ys.length; i++) {
+      points.add(i, ys[i]);
+    }
+    PathDecimator decimator = new PathDecimator();
+    // All six points fall in the same column.
+    assertEquals(4, decimator.decimate(points, 0, 5, 0, 100, 10));
+    assertEquals(0, decimator.getIndex(0));
+    assertEquals(1, decimator.getIndex(1));
+    assertEquals(2, decimator.getIndex(2));
+    assertEquals(5, decimator.getIndex(3));
+  }
+
+  @Test
+  public void testRespectsIndexRange() {
+    PointList points = new PointList();
+    for (int i = 0; i < 100; i++) {
+      points.add(i, i % 7);
+    }
+    PathDecimator decimator = new PathDecimator();
+    int count = decimator.decimate(points, 20, 59, 0, 100, 2);
+    assertEquals(20, decimator.getIndex(0));
+    assertEquals(59, decimator.getIndex(count - 1));
+    for (int i = 1; i < count; i++) {
+      assertTrue(decimator.getIndex(i - 1) < decimator.getIndex(i));
+    }
+  }
+
+  /**
+   * The decimated line must reach the same lowest and highest value as the full line within every
+   * pixel column, and cross every column boundary at the same height, or it would look different.
+   */
+  @Test
+  public void testDecimatedLineCoversSamePixels() {
+    Random random = new Random(42);
+    PointList points = new PointList();
+    long x = 0;
+    double y = 0;
+    for (int i = 0; i < 20000; i++) {
+      x += 1 + random.nextInt(3);
+      y += random.nextGaussian();
+      points.add(x, y);
+    }
+    int columns = 300;
+    PathDecimator decimator = new PathDecimator();
+    int count = decimator.decimate(points, 0, points.size() - 1, 0, x, columns);
+    assertTrue(count <= 4 * (columns + 1));
+
+    PointList decimated = new PointList();
+    for (int i = 0; i < count; i++) {
+      int index = decimator.getIndex(i);
+      decimated.add(points.getX(index), points.getY(index));
+    }
+    double[][] expected = columnExtents(points, x, columns);
+    double[][] actual = columnExtents(decimated, x, columns);
+    for (int column = 0; column <= columns; column++) {
+      assertEquals(expected[0][column], actual[0][column], 1e-9);
+      assertEquals(expected[1][column], actual[1][column], 1e-9);
+    }
+  }
+
+  /** Returns the lowest and highest y the polyline reaches in each column, including crossings. */
+  private static double[][] columnExtents(PointList points, long xMax, int columns) {
+    double[] min = new double[columns + 1];
+    double[] max = new double[columns + 1];
+    Arrays.fill(min, Double.POSITIVE_INFINITY);
+    Arrays.fill(max, Double.NEGATIVE_INFINITY);
+    double columnWidth = xMax / (double) columns;
+    for (int i = 0; i < points.size(); i++) {
+      int column = (int) Math.floor(points.getX(i) / columnWidth);
+      min[column] = Math.min(min[column], points.getY(i));
+      max[column] = Math.max(max[column], points.getY(i));
+      if (i == 0) {
+        continue;
+      }
+      // Where the segment from the previous point crosses into this column.
+      int previousColumn = (int) Math.floor(points.getX(i - 1) / columnWidth);
+      for (int c = previousColumn + 1; c <= column; c++) {
+        double boundary = c * columnWidth;
+        double fraction =
+            (boundary - points.getX(i - 1)) / (points.getX(i) - (double) points.getX(i - 1));
+        double crossing = points.getY(i - 1) + fraction * (points.getY(i) - points.getY(i - 1));
+        min[c] = Math.min(min[c], crossing);
+        max[c] = Math.max(max[c], crossing);
+        min[c - 1] = Math.min(min[c - 1], crossing);
+        max[c - 1] = Math.max(max[c - 1], crossing);
+      }
+    }
+    return new double[][] {min, max};
+  }
+}
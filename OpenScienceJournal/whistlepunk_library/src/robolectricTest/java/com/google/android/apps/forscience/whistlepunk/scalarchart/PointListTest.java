@@ -0,0 +1,149 @@
+/*
+ *  Copyright 2019 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.scalarchart;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+@RunWith(RobolectricTestRunner.class)
+public class PointListTest {
+  @Test
+  public void testGrowsPastInitialCapacity() {
+    PointList points = new PointList(2);
+    for (int i = 0; i < 100; i++) {
+      points.add(i, i / 10.0);
+    }
+    assertEquals(100, points.size());
+    assertEquals(99, points.getX(99));
+    assertEquals(9.9, points.getY(99), 0.0);
+  }
+
+  @Test
+  public void testWrapSharesArrays() {
+    long[] xs = {1, 2, 3, 0};
+    double[] ys = {10, 20, 30, 0};
+    PointList points = PointList.wrap(xs, ys, 3);
+    assertEquals(3, points.size());
+    assertEquals(2, points.getX(1));
+    assertEquals(20, points.getY(1), 0.0);
+
+    xs[1] = 5;
+    assertEquals(5, points.getX(1));
+  }
+
+  @Test
+  public void testInsertAndRemoveRange() {
+    PointList points = new PointList();
+    points.add(0, 0);
+    points.add(2, 2);
+    points.insert(1, 1, 1);
+    points.add(3, 3);
+    points.removeRange(1, 3);
+    assertEquals(2, points.size());
+    assertEquals(0, points.getX(0));
+    assertEquals(3, points.getX(1));
+  }
+
+  @Test
+  public void testMergeOrderedKeepsExistingPointsFirst() {
+    PointList points = new PointList();
+    points.add(1, 0);
+    points.add(3, 1);
+    points.add(5, 2);
+    PointList page = new PointList();
+    page.add(0, 3);
+    page.add(3, 4);
+    page.add(6, 5);
+
+    points.mergeOrdered(page);
+    long[] expectedX = {0, 1, 3, 3, 5, 6};
+    double[] expectedY = {3, 0, 1, 4, 2, 5};
+    assertPoints(expectedX, expectedY, points);
+  }
+
+  @Test
+  public void testMergeOrderedPrependsAndAppends() {
+    PointList points = new PointList(4);
+    points.add(10, 10);
+    points.add(11, 11);
+    points.mergeOrdered(PointList.wrap(new long[] {5, 6}, new double[] {5, 6}, 2));
+    points.mergeOrdered(PointList.wrap(new long[] {12, 13}, new double[] {12, 13}, 2));
+    assertPoints(new long[] {5, 6, 10, 11, 12, 13}, new double[] {5, 6, 10, 11, 12, 13}, points);
+  }
+
+  @Test
+  public void testRingWrapsAround() {
+    PointList points = new PointList(4);
+    for (int i = 0; i < 100; i++) {
+      points.add(i, i);
+      if (points.size() > 3) {
+        // Evict from the front, as a live chart does.
+        points.removeRange(0, 1);
+      }
+    }
+    assertPoints(new long[] {97, 98, 99}, new double[] {97, 98, 99}, points);
+
+    points.add(100, 100);
+    points.add(101, 101);
+    assertPoints(new long[] {97, 98, 99, 100, 101}, new double[] {97, 98, 99, 100, 101}, points);
+  }
+
+  @Test
+  public void testRemoveFromMiddleMovesShorterSide() {
+    for (int from = 0; from < 6; from++) {
+      for (int to = from; to <= 6; to++) {
+        PointList points = new PointList(8);
+        // Start part way through the buffer, so that the points wrap around.
+        points.add(-2, 0);
+        points.add(-1, 0);
+        points.removeRange(0, 2);
+        for (int i = 0; i < 6; i++) {
+          points.add(i, i);
+        }
+        points.removeRange(from, to);
+        assertEquals(6 - (to - from), points.size());
+        for (int i = 0; i < points.size(); i++) {
+          long expected = i < from ? i : i + (to - from);
+          assertEquals(expected, points.getX(i));
+          assertEquals(expected, points.getY(i), 0.0);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testAddOrderedGroupOfPointsMerges() {
+    ChartData chartData = new ChartData();
+    chartData.addOrderedGroupOfPoints(PointList.wrap(new long[] {10, 20}, new double[] {1, 2}, 2));
+    chartData.addOrderedGroupOfPoints(PointList.wrap(new long[] {0, 15}, new double[] {0, 1}, 2));
+    assertEquals(4, chartData.getNumPoints());
+    assertEquals(0, chartData.getXMin());
+    assertEquals(20, chartData.getXMax());
+    assertEquals(15, chartData.getPointList().getX(2));
+  }
+
+  private void assertPoints(long[] expectedX, double[] expectedY, PointList actual) {
+    assertEquals(expectedX.length, actual.size());
+    for (int i = 0; i < expectedX.length; i++) {
+      assertEquals(expectedX[i], actual.getX(i));
+      assertEquals(expectedY[i], actual.getY(i), 0.0);
+    }
+  }
+}
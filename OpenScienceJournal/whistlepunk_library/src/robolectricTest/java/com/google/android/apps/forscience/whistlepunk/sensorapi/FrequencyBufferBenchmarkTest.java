@@ -0,0 +1,92 @@
+/*
+ *  Copyright 2019 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.sensorapi;
+
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+/**
+ * Measures the cost of frequency detection on a fast stream, against a buffer which rescans the
+ * window. Run it with {@code -Pbenchmarks}; it asserts that both agree on the frequency and prints
+ * how long each took.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class FrequencyBufferBenchmarkTest {
+  // A 200Hz BLE sensor with the default 2 second window, running for five minutes.
+  private static final int STREAM_HZ = 200;
+  private static final long WINDOW_MILLIS = 2000;
+  private static final int READINGS = STREAM_HZ * 60 * 5;
+
+  @Test
+  public void testThroughput() {
+    long[] timestamps = new long[READINGS];
+    double[] values = new double[READINGS];
+    Random random = new Random(5);
+    for (int i = 0; i < READINGS; i++) {
+      timestamps[i] = i * 1000L / STREAM_HZ;
+      // A wheel at about 3Hz, with sensor noise.
+      values[i] = Math.sin(timestamps[i] * 2 * Math.PI * 3 / 1000) + random.nextGaussian() * 0.05;
+    }
+
+    // Warm up both, so the comparison isn't of interpreted code.
+    run(new FrequencyBuffer(WINDOW_MILLIS, 1000.0, 0.0), timestamps, values, READINGS / 10);
+    run(
+        new FrequencyBufferTest.ScanningFrequencyBuffer(WINDOW_MILLIS, 1000.0, 0.0),
+        timestamps,
+        values,
+        READINGS / 10);
+
+    long start = System.nanoTime();
+    double frequency =
+        run(new FrequencyBuffer(WINDOW_MILLIS, 1000.0, 0.0), timestamps, values, READINGS);
+    long incrementalNanos = System.nanoTime() - start;
+
+    start = System.nanoTime();
+    double scannedFrequency =
+        run(
+            new FrequencyBufferTest.ScanningFrequencyBuffer(WINDOW_MILLIS, 1000.0, 0.0),
+            timestamps,
+            values,
+            READINGS);
+    long scanningNanos = System.nanoTime() - start;
+
+    System.out.println(
+        String.format(
+            "FrequencyBuffer: %d readings, incremental %.0f ns/reading, scanning %.0f ns/reading"
+                + " (%.1fx), %.2fHz",
+            READINGS,
+            incrementalNanos / (double) READINGS,
+            scanningNanos / (double) READINGS,
+            scanningNanos / (double) incrementalNanos,
+            frequency));
+
+    assertTrue(Math.abs(frequency - 3) < 0.5);
+    assertTrue(Math.abs(frequency - scannedFrequency) < 1e-9);
+  }
+
+  private static double run(ValueFilter filter, long[] timestamps, double[] values, int count) {
+    double frequency = 0;
+    for (int i = 0; i < count; i++) {
+      frequency = filter.filterValue(timestamps[i], values[i]);
+    }
+    return frequency;
+  }
+}
@@ -18,6 +18,10 @@ package com.google.android.apps.forscience.whistlepunk.sensorapi;
 
 import static org.junit.Assert.assertEquals;
 
+import com.google.android.apps.forscience.whistlepunk.sensordb.ScalarReading;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.robolectric.RobolectricTestRunner;
@@ -154,4 +158,190 @@ public class FrequencyBufferTest {
     buffer.changeWindow(200);
     // Just don't crash
   }
+
+  @Test
+  public void testMatchesScanOfNoisySine() {
+    Random random = new Random(1);
+    Differ differ = new Differ(2000, 1000.0, 0.0);
+    long timestamp = 0;
+    for (int i = 0; i < 20000; i++) {
+      timestamp += 4 + random.nextInt(3);
+      differ.add(timestamp, Math.sin(timestamp / 40.0) + random.nextGaussian() * 0.3);
+      if (i == 8000) {
+        differ.changeFilter(0.25);
+      }
+    }
+  }
+
+  @Test
+  public void testMatchesScanOfQuantizedValues() {
+    // Lots of equal values, some of them right on the average.
+    Random random = new Random(2);
+    Differ differ = new Differ(500, 60000.0, 0.0);
+    int value = 0;
+    for (int i = 0; i < 20000; i++) {
+      value = Math.max(-3, Math.min(3, value + random.nextInt(3) - 1));
+      differ.add(i * 5 + random.nextInt(2), value);
+    }
+  }
+
+  @Test
+  public void testMatchesScanWhenSignalStopsAndStarts() {
+    Random random = new Random(3);
+    Differ differ = new Differ(1000, 1000.0, 0.1);
+    for (int i = 0; i < 30000; i++) {
+      boolean spinning = (i / 2000) % 2 == 0;
+      double value = spinning ? Math.signum(Math.sin(i / 7.0)) * 5 : 2 + random.nextDouble() * 0.05;
+      differ.add(i * 5, value);
+      if (i % 7000 == 0) {
+        differ.changeWindow(500 + random.nextInt(2000));
+      }
+      if (i % 5000 == 0) {
+        differ.changeFilter(random.nextDouble());
+      }
+    }
+  }
+
+  @Test
+  public void testMatchesScanWithNonFiniteValues() {
+    Random random = new Random(4);
+    Differ differ = new Differ(200, 1000.0, 0.0);
+    for (int i = 0; i < 10000; i++) {
+      double value = Math.sin(i / 3.0);
+      int special = random.nextInt(400);
+      if (special == 0) {
+        value = Double.NaN;
+      } else if (special == 1) {
+        value = Double.POSITIVE_INFINITY;
+      } else if (special == 2) {
+        value = Double.NEGATIVE_INFINITY;
+      }
+      differ.add(i * 5, value);
+    }
+  }
+
+  @Test
+  public void testMatchesScanOverALongRunWithSpikes() {
+    // The values are on a grid which a scan sums exactly, so the running sum has to stay exact too.
+    // Now and then a spike comes along which is so large that the rest are lost in its rounding
+    // error while it is in the window, and must come back once it leaves.
+    Random random = new Random(5);
+    Differ differ = new Differ(1000, 1000.0, 0.0);
+    for (int i = 0; i < 500000; i++) {
+      double value = Math.sin(i / 20.0) + random.nextGaussian() * 0.2;
+      if (random.nextInt(5000) == 0) {
+        value = 1e15;
+      }
+      differ.add(i * 5, Math.round(value * 1024) / 1024.0);
+    }
+  }
+
+  /**
+   * Feeds the same readings to a FrequencyBuffer and to the scanning implementation it replaced.
+   */
+  private static class Differ {
+    private final FrequencyBuffer buffer;
+    private final ScanningFrequencyBuffer expected;
+    private int count = 0;
+
+    Differ(long windowMillis, double denominatorInMillis, double filter) {
+      buffer = new FrequencyBuffer(windowMillis, denominatorInMillis, filter);
+      expected = new ScanningFrequencyBuffer(windowMillis, denominatorInMillis, filter);
+    }
+
+    void add(long timestamp, double value) {
+      assertEquals(
+          "reading " + count++,
+          expected.filterValue(timestamp, value),
+          buffer.filterValue(timestamp, value),
+          1e-9);
+    }
+
+    void changeWindow(long windowMillis) {
+      buffer.changeWindow(windowMillis);
+      expected.changeWindow(windowMillis);
+      assertEquals(expected.getLatestFrequency(), buffer.getLatestFrequency(), 1e-9);
+    }
+
+    void changeFilter(double filter) {
+      buffer.changeFilter(filter);
+      expected.changeFilter(filter);
+      assertEquals(expected.getLatestFrequency(), buffer.getLatestFrequency(), 1e-9);
+    }
+  }
+
+  /** The original implementation, which rescans the whole window for every reading. */
+  static class ScanningFrequencyBuffer implements ValueFilter {
+    private final List<ScalarReading> readings = new LinkedList<>();
+    private long window;
+    private final double denominatorInMillis;
+    private double filter;
+
+    ScanningFrequencyBuffer(long windowMillis, double denominatorInMillis, double filter) {
+      window = windowMillis;
+      this.denominatorInMillis = denominatorInMillis;
+      this.filter = filter;
+    }
+
+    void changeWindow(long newWindowMillis) {
+      window = newWindowMillis;
+      if (!readings.isEmpty()) {
+        prune(readings.get(readings.size() - 1).getCollectedTimeMillis());
+      }
+    }
+
+    void changeFilter(double newFilter) {
+      filter = newFilter;
+    }
+
+    @Override
+    public double filterValue(long timestamp, double value) {
+      readings.add(new ScalarReading(timestamp, value));
+      prune(timestamp);
+      return getLatestFrequency();
+    }
+
+    private void prune(long timestamp) {
+      long oldestRemaining = timestamp - window;
+      while (readings.get(0).getCollectedTimeMillis() < oldestRemaining) {
+        readings.remove(0);
+      }
+    }
+
+    double getLatestFrequency() {
+      if (readings.size() < 2) {
+        return 0.0;
+      }
+      double total = 0;
+      for (ScalarReading reading : readings) {
+        total += reading.getValue();
+      }
+      double average = total / readings.size() + filter;
+      int crossings = 0;
+      long firstCrossingTime = -1;
+      long lastCrossingTime = -1;
+      boolean higherThanAverage = readings.get(0).getValue() > average;
+      for (ScalarReading reading : readings.subList(1, readings.size())) {
+        boolean thisReadingHigher = reading.getValue() > average;
+        if (higherThanAverage != thisReadingHigher) {
+          higherThanAverage = thisReadingHigher;
+          crossings++;
+          if (firstCrossingTime == -1) {
+            firstCrossingTime = reading.getCollectedTimeMillis();
+          } else {
+            lastCrossingTime = reading.getCollectedTimeMillis();
+          }
+        }
+      }
+      crossings--;
+      if (firstCrossingTime == -1 || lastCrossingTime == -1) {
+        return 0.0;
+      }
+      long adjustedWindowMillis = lastCrossingTime - firstCrossingTime;
+      if (adjustedWindowMillis < window / 4) {
+        return 0.0;
+      }
+      return crossings / 2.0f / (adjustedWindowMillis / denominatorInMillis);
+    }
+  }
 }
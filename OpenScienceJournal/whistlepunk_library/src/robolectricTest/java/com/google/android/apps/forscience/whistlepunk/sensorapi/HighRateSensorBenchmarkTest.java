@@ -0,0 +1,134 @@
+/*
+ *  Copyright 2019 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.sensorapi;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.android.apps.forscience.whistlepunk.Clock;
+import com.google.android.apps.forscience.whistlepunk.DataControllerImpl;
+import com.google.android.apps.forscience.whistlepunk.ScalarIngestPipeline;
+import com.google.android.apps.forscience.whistlepunk.accounts.NonSignedInAccount;
+import com.google.android.apps.forscience.whistlepunk.devicemanager.ConnectableSensor;
+import com.google.android.apps.forscience.whistlepunk.sensordb.MemoryMetadataManager;
+import com.google.android.apps.forscience.whistlepunk.sensordb.SensorDatabaseImpl;
+import com.google.common.util.concurrent.MoreExecutors;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+/**
+ * Measures the cost of recording built-in sensors at high sampling rates, through
+ * ScalarStreamConsumer, ZoomDownsampler and group-committed database ingest. It is only run with
+ * {@code -Pbenchmarks}, and checks that nothing is dropped; how long that took is printed.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class HighRateSensorBenchmarkTest {
+  // The three accelerometer axes and the magnetometer, all at 400Hz, for a minute.
+  private static final int SENSORS = 4;
+  private static final int RATE_HZ = 400;
+  private static final int SECONDS = 60;
+  private static final long START_MILLIS = 1500000000000L;
+
+  @Test
+  public void testKeepsUpAt400Hz() {
+    // Warm up, so the measurement isn't of interpreted code.
+    record("warmup.db", SECONDS / 10);
+
+    long start = System.nanoTime();
+    ScalarIngestPipeline pipeline = record("bench_high_rate.db", SECONDS);
+    long elapsedNanos = System.nanoTime() - start;
+
+    int readings = SENSORS * RATE_HZ * SECONDS;
+    double fractionOfRealTime = elapsedNanos / (SECONDS * 1e9);
+    System.out.println(
+        String.format(
+            "%d sensors at %dHz: %.2f us/reading, %d database rows in %d transactions, "
+                + "%.1f%% of real time",
+            SENSORS,
+            RATE_HZ,
+            elapsedNanos / 1000.0 / readings,
+            pipeline.getWrittenCount(),
+            pipeline.getFlushCount(),
+            fractionOfRealTime * 100));
+
+    // Every reading is stored at tier 0, plus a few in the zoomed-out tiers.
+    assertTrue(pipeline.getWrittenCount() >= readings);
+    assertEquals(0, pipeline.getDroppedCount());
+  }
+
+  /** Records {@code seconds} of every sensor, and returns the drained pipeline. */
+  private ScalarIngestPipeline record(String databaseName, int seconds) {
+    Clock clock = () -> START_MILLIS;
+    DataControllerImpl dataController =
+        new DataControllerImpl(
+            RuntimeEnvironment.application,
+            NonSignedInAccount.getInstance(RuntimeEnvironment.application),
+            new SensorDatabaseImpl(
+                RuntimeEnvironment.application,
+                NonSignedInAccount.getInstance(RuntimeEnvironment.application),
+                databaseName),
+            MoreExecutors.directExecutor(),
+            MoreExecutors.directExecutor(),
+            MoreExecutors.directExecutor(),
+            new MemoryMetadataManager(),
+            clock,
+            new HashMap<>(),
+            new ConnectableSensor.Connector(new HashMap<>()),
+            ScalarIngestPipeline.Policy.GROUP_COMMIT);
+
+    List<ManualSensor> sensors = new ArrayList<>();
+    List<SensorRecorder> recorders = new ArrayList<>();
+    List<RecordingSensorObserver> observers = new ArrayList<>();
+    for (int i = 0; i < SENSORS; i++) {
+      ManualSensor sensor = new ManualSensor("sensor" + i, Long.MAX_VALUE, 20);
+      RecordingSensorObserver observer = new RecordingSensorObserver();
+      SensorRecorder recorder = sensor.createRecorder(null, dataController, observer);
+      recorder.startObserving();
+      recorder.startRecording("trial");
+      sensors.add(sensor);
+      recorders.add(recorder);
+      observers.add(observer);
+    }
+
+    int perSensor = RATE_HZ * seconds;
+    for (int i = 0; i < perSensor; i++) {
+      // Hardware timestamps, converted to millis as HardwareSensorHub does. At 400Hz they are
+      // always distinct, so ManualSensor would fail the test if any were dropped.
+      long timestamp = START_MILLIS + i * 1000L / RATE_HZ;
+      double value = Math.sin(i / 20.0);
+      for (ManualSensor sensor : sensors) {
+        sensor.pushValue(timestamp, value);
+      }
+    }
+
+    for (SensorRecorder recorder : recorders) {
+      recorder.stopRecording(null);
+      recorder.stopObserving();
+    }
+    ScalarIngestPipeline pipeline = dataController.getIngestPipeline();
+    pipeline.drain();
+    for (RecordingSensorObserver observer : observers) {
+      assertEquals(perSensor, observer.getReadings().size());
+    }
+    return pipeline;
+  }
+}
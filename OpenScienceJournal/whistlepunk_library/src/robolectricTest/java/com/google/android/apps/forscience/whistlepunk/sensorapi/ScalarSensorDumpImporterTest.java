@@ -0,0 +1,253 @@
+/*
+ *  Copyright 2019 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.sensorapi;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.android.apps.forscience.whistlepunk.BatchInsertScalarReading;
+import com.google.android.apps.forscience.whistlepunk.metadata.GoosciScalarSensorData.ScalarSensorData;
+import com.google.android.apps.forscience.whistlepunk.metadata.GoosciScalarSensorData.ScalarSensorDataDump;
+import com.google.android.apps.forscience.whistlepunk.metadata.GoosciScalarSensorData.ScalarSensorDataRow;
+import com.google.android.apps.forscience.whistlepunk.sensordb.InMemorySensorDatabase;
+import com.google.android.apps.forscience.whistlepunk.sensordb.ScalarReadingBatch;
+import com.google.common.collect.HashMultiset;
+import com.google.protobuf.CodedOutputStream;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+@RunWith(RobolectricTestRunner.class)
+public class ScalarSensorDumpImporterTest {
+  // 5M readings, about what a long recording of several sensors leaves behind.
+  private static final int BENCHMARK_SENSORS = 10;
+  private static final int BENCHMARK_READINGS_PER_SENSOR = 500000;
+  private static final int CHUNK_SIZE = 4096;
+
+  private final ExecutorService writeThread = Executors.newSingleThreadExecutor();
+  private final ExecutorService zoomThreads = Executors.newFixedThreadPool(4);
+  private final Map<String, String> idMap = new HashMap<>();
+
+  @After
+  public void tearDown() {
+    writeThread.shutdown();
+    zoomThreads.shutdown();
+  }
+
+  @Test
+  public void testStoresSameReadingsAsReader() throws IOException {
+    idMap.put("trial", "imported");
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    writeSensor(out, "trial", "foo", 0, 10000, 999);
+    writeSensor(out, "trial", "bar", 0, 3000, 250);
+    writeSensor(out, "trial", "baz", 0, 10, 4);
+    // Out of order readings are dropped, as the reader drops them.
+    writeDump(
+        out,
+        ScalarSensorDataDump.newBuilder()
+            .setTrialId("trial")
+            .setTag("baz")
+            .addRows(row(5, 1))
+            .addRows(row(200, 2))
+            .build());
+    byte[] bytes = out.toByteArray();
+
+    InMemorySensorDatabase expected = new InMemorySensorDatabase();
+    new ScalarSensorDumpReader(expected.makeSimpleRecordingController())
+        .readData(new ByteArrayInputStream(bytes), idMap);
+
+    InMemorySensorDatabase actual = new InMemorySensorDatabase();
+    ScalarSensorDumpImporter.Stats stats =
+        new ScalarSensorDumpImporter(actual, writeThread, zoomThreads)
+            .importData(new ByteArrayInputStream(bytes), idMap);
+
+    long total = 0;
+    for (int tier = 0; tier < 5; tier++) {
+      assertEquals(
+          HashMultiset.create(expected.getReadings(tier)),
+          HashMultiset.create(actual.getReadings(tier)));
+      total += actual.getReadings(tier).size();
+    }
+    assertEquals(13011, actual.getReadings(0).size());
+    assertEquals(total, stats.readingsWritten);
+    assertEquals(bytes.length, stats.bytesRead);
+  }
+
+  @Test
+  public void testGroupsDumpsIntoTransactionsAndReportsProgress() throws IOException {
+    idMap.put("trial", "trial");
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    for (int i = 0; i < 20; i++) {
+      writeSensor(out, "trial", "sensor" + i, 0, 500, 100);
+    }
+    CountingDatabase db = new CountingDatabase();
+    List<Long> progress = new ArrayList<>();
+    ScalarSensorDumpImporter.Stats stats =
+        new ScalarSensorDumpImporter(db, writeThread, zoomThreads)
+            .setTransactionSize(2000)
+            .setProgressListener((readingsWritten, bytesRead) -> progress.add(readingsWritten))
+            .importData(new ByteArrayInputStream(out.toByteArray()), idMap);
+
+    assertEquals(100, stats.dumpsRead);
+    assertEquals(db.readings, stats.readingsWritten);
+    assertEquals(db.batches, stats.transactions);
+    // 20 * 500 tier 0 readings, plus the zoom tiers, in a handful of transactions.
+    assertTrue(db.readings > 10000);
+    assertTrue(db.batches < 20);
+    for (int i = 1; i < progress.size(); i++) {
+      assertTrue(progress.get(i) >= progress.get(i - 1));
+    }
+    assertEquals(db.readings, (long) progress.get(progress.size() - 1));
+  }
+
+  @Test
+  public void testReportsWriteFailureAfterDraining() throws IOException {
+    idMap.put("trial", "trial");
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    for (int i = 0; i < 10; i++) {
+      writeSensor(out, "trial", "sensor" + i, 0, 5000, 100);
+    }
+    InMemorySensorDatabase db =
+        new InMemorySensorDatabase() {
+          @Override
+          public void addScalarReadingBatch(ScalarReadingBatch batch) {
+            throw new IllegalStateException("disk full");
+          }
+        };
+    try {
+      new ScalarSensorDumpImporter(db, writeThread, zoomThreads)
+          .setTransactionSize(1000)
+          .importData(new ByteArrayInputStream(out.toByteArray()), idMap);
+      fail("Expected an IOException");
+    } catch (IOException expected) {
+      assertEquals("disk full", expected.getCause().getMessage());
+    }
+  }
+
+  @Test
+  public void testImportBenchmark() throws IOException {
+    idMap.put("trial", "trial");
+    File file = File.createTempFile("benchmark", ".proto");
+    try {
+      try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+        for (int i = 0; i < BENCHMARK_SENSORS; i++) {
+          writeSensor(out, "trial", "sensor" + i, 0, BENCHMARK_READINGS_PER_SENSOR, CHUNK_SIZE);
+        }
+      }
+
+      CountingDatabase serialDb = new CountingDatabase();
+      long start = System.nanoTime();
+      try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+        new ScalarSensorDumpReader(serialDb.makeSimpleRecordingController()).readData(in, idMap);
+      }
+      long serialMs = (System.nanoTime() - start) / 1000000;
+
+      CountingDatabase pipelinedDb = new CountingDatabase();
+      start = System.nanoTime();
+      ScalarSensorDumpImporter.Stats stats;
+      try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+        stats =
+            new ScalarSensorDumpImporter(pipelinedDb, writeThread, zoomThreads)
+                .importData(in, idMap);
+      }
+      long pipelinedMs = (System.nanoTime() - start) / 1000000;
+
+      System.out.println(
+          String.format(
+              "Importing %d readings: serial reader %d ms in %d transactions, "
+                  + "pipeline %d ms in %d transactions; %s",
+              BENCHMARK_SENSORS * BENCHMARK_READINGS_PER_SENSOR,
+              serialMs,
+              serialDb.batches,
+              pipelinedMs,
+              pipelinedDb.batches,
+              stats));
+      assertEquals(serialDb.readings, pipelinedDb.readings);
+      assertTrue(pipelinedDb.batches < serialDb.batches);
+    } finally {
+      file.delete();
+    }
+  }
+
+  /** Counts what would be stored, so that benchmarks measure the import rather than storage. */
+  private static class CountingDatabase extends InMemorySensorDatabase {
+    long readings = 0;
+    long batches = 0;
+    double checksum = 0;
+
+    @Override
+    public void addScalarReadings(List<BatchInsertScalarReading> readings) {
+      for (BatchInsertScalarReading reading : readings) {
+        checksum += reading.value + reading.timestampMillis + reading.resolutionTier;
+      }
+      this.readings += readings.size();
+      batches++;
+    }
+
+    @Override
+    public void addScalarReadingBatch(ScalarReadingBatch batch) {
+      // Reads every reading, as a real database would.
+      for (int i = 0; i < batch.size(); i++) {
+        checksum += batch.getValue(i) + batch.getTimestampMillis(i) + batch.getResolutionTier(i);
+      }
+      readings += batch.size();
+      batches++;
+    }
+  }
+
+  /** Writes one sensor as consecutive dumps of at most {@code chunkSize} rows, as export does. */
+  private static void writeSensor(
+      OutputStream out, String trialId, String tag, long start, int count, int chunkSize)
+      throws IOException {
+    for (int first = 0; first < count; first += chunkSize) {
+      ScalarSensorDataDump.Builder dump =
+          ScalarSensorDataDump.newBuilder().setTrialId(trialId).setTag(tag);
+      for (int i = first; i < Math.min(count, first + chunkSize); i++) {
+        dump.addRows(row(start + i * 10, Math.sin(i / 50.0)));
+      }
+      writeDump(out, dump.build());
+    }
+  }
+
+  private static void writeDump(OutputStream out, ScalarSensorDataDump dump) throws IOException {
+    CodedOutputStream output = CodedOutputStream.newInstance(out);
+    output.writeMessage(ScalarSensorData.SENSORS_FIELD_NUMBER, dump);
+    output.flush();
+  }
+
+  private static ScalarSensorDataRow row(long timestamp, double value) {
+    return ScalarSensorDataRow.newBuilder().setTimestampMillis(timestamp).setValue(value).build();
+  }
+}
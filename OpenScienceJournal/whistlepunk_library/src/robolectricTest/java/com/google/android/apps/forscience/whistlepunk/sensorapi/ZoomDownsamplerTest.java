@@ -0,0 +1,264 @@
+/*
+ *  Copyright 2019 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.sensorapi;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.android.apps.forscience.javalib.FailureListener;
+import com.google.android.apps.forscience.whistlepunk.BatchInsertScalarReading;
+import com.google.android.apps.forscience.whistlepunk.RecordingDataController;
+import com.google.android.apps.forscience.whistlepunk.sensordb.ScalarReading;
+import com.google.android.apps.forscience.whistlepunk.sensordb.ScalarReadingBatch;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+@RunWith(RobolectricTestRunner.class)
+public class ZoomDownsamplerTest {
+  private final TierRecorder recorder = new TierRecorder();
+
+  @Test
+  public void testMinMaxMatchesRunsOfTierBelow() {
+    ZoomDownsampler downsampler = newDownsampler(5, ZoomDownsampler.Kernel.MIN_MAX);
+    Random random = new Random(42);
+    double value = 0;
+    for (int i = 0; i < 10000; i++) {
+      value += random.nextGaussian();
+      downsampler.addData(i, value, recorder);
+    }
+
+    for (int tier = 1; tier < recorder.tiers.size(); tier++) {
+      List<ScalarReading> below = recorder.getTier(tier - 1);
+      List<ScalarReading> expected = new ArrayList<>();
+      for (int start = 0; start + 10 <= below.size(); start += 10) {
+        ScalarReading min = below.get(start);
+        ScalarReading max = below.get(start);
+        for (int i = start + 1; i < start + 10; i++) {
+          ScalarReading reading = below.get(i);
+          if (reading.getValue() < min.getValue()) {
+            min = reading;
+          }
+          if (reading.getValue() > max.getValue()) {
+            max = reading;
+          }
+        }
+        if (min == max) {
+          expected.add(below.get(start));
+          expected.add(below.get(start + 9));
+        } else if (min.getCollectedTimeMillis() < max.getCollectedTimeMillis()) {
+          expected.add(min);
+          expected.add(max);
+        } else {
+          expected.add(max);
+          expected.add(min);
+        }
+      }
+      assertEquals("tier " + tier, expected, recorder.getTier(tier));
+    }
+    assertEquals(recorder.tiers.size(), downsampler.countTiers());
+  }
+
+  @Test
+  public void testMinMaxKeepsTwoPointsForFlatRuns() {
+    ZoomDownsampler downsampler = newDownsampler(5, ZoomDownsampler.Kernel.MIN_MAX);
+    for (int i = 0; i < 100; i++) {
+      downsampler.addData(i, 3, recorder);
+    }
+    downsampler.addData(100, 3, recorder);
+    downsampler.flushAllTiers(recorder);
+
+    // Each full run of 10 gives its first and last reading, and the final reading is alone.
+    List<ScalarReading> tier1 = recorder.getTier(1);
+    assertEquals(21, tier1.size());
+    assertEquals(new ScalarReading(0, 3), tier1.get(0));
+    assertEquals(new ScalarReading(9, 3), tier1.get(1));
+    assertEquals(new ScalarReading(100, 3), tier1.get(20));
+    assertEquals(5, recorder.getTier(2).size());
+  }
+
+  @Test
+  public void testSendsOneBatchPerReading() {
+    ZoomDownsampler downsampler = newDownsampler(5, ZoomDownsampler.Kernel.MIN_MAX);
+    for (int i = 0; i < 1000; i++) {
+      downsampler.addData(i, i % 7, recorder);
+    }
+    assertEquals(1000, recorder.batchCount);
+    assertEquals(1000, recorder.getTier(0).size());
+    assertEquals(200, recorder.getTier(1).size());
+    assertEquals(40, recorder.getTier(2).size());
+    assertEquals(8, recorder.getTier(3).size());
+  }
+
+  @Test
+  public void testCountsAndFlushesTiers() {
+    ZoomDownsampler downsampler = newDownsampler(5, ZoomDownsampler.Kernel.MIN_MAX);
+    for (int i = 0; i < 100; i++) {
+      downsampler.addData(i, i, recorder);
+    }
+    assertEquals(3, downsampler.countTiers());
+    assertEquals(4, recorder.getTier(2).size());
+
+    downsampler.addData(100, 100, recorder);
+    downsampler.flushAllTiers(recorder);
+    // The partial run at tier 1 is summarized, and passed up to tier 2.
+    assertEquals(21, recorder.getTier(1).size());
+    assertEquals(new ScalarReading(100, 100), recorder.getTier(1).get(20));
+    assertEquals(5, recorder.getTier(2).size());
+    assertEquals(1, downsampler.countTiers());
+  }
+
+  @Test
+  public void testMeanStddevKeepsMeanAndVariance() {
+    ZoomDownsampler downsampler = newDownsampler(5, ZoomDownsampler.Kernel.MEAN_STDDEV);
+    Random random = new Random(7);
+    for (int i = 0; i < 1000; i++) {
+      downsampler.addData(i, 10 + 3 * random.nextGaussian(), recorder);
+    }
+
+    for (int tier = 1; tier <= 2; tier++) {
+      assertEquals(mean(recorder.getTier(0)), mean(recorder.getTier(tier)), 1e-9);
+      assertEquals(variance(recorder.getTier(0)), variance(recorder.getTier(tier)), 1e-9);
+    }
+  }
+
+  @Test
+  public void testLttbKeepsSpikes() {
+    ZoomDownsampler downsampler = newDownsampler(10, ZoomDownsampler.Kernel.LTTB);
+    for (int i = 0; i < 1000; i++) {
+      downsampler.addData(i, i == 437 ? 50 : Math.sin(i / 20.0), recorder);
+    }
+    downsampler.flushAllTiers(recorder);
+
+    List<ScalarReading> tier1 = recorder.getTier(1);
+    assertEquals(100, tier1.size());
+    assertTrue(tier1.contains(new ScalarReading(437, 50)));
+    assertTrue(recorder.getTier(2).contains(new ScalarReading(437, 50)));
+    // The first and last readings are always kept.
+    assertEquals(recorder.getTier(0).get(0), tier1.get(0));
+    assertEquals(recorder.getTier(0).get(999), tier1.get(99));
+    for (ScalarReading reading : tier1) {
+      assertTrue(recorder.getTier(0).contains(reading));
+    }
+  }
+
+  @Test
+  public void testFirstLast() {
+    ZoomDownsampler downsampler = newDownsampler(2, ZoomDownsampler.Kernel.FIRST_LAST);
+    for (int i = 0; i < 10; i++) {
+      downsampler.addData(i, i * i, recorder);
+    }
+    downsampler.flushAllTiers(recorder);
+
+    List<ScalarReading> expected = new ArrayList<>();
+    expected.add(new ScalarReading(0, 0));
+    expected.add(new ScalarReading(3, 9));
+    expected.add(new ScalarReading(4, 16));
+    expected.add(new ScalarReading(7, 49));
+    expected.add(new ScalarReading(8, 64));
+    expected.add(new ScalarReading(9, 81));
+    assertEquals(expected, recorder.getTier(1));
+  }
+
+  @Test
+  public void testClearDropsPartialRuns() {
+    ZoomDownsampler downsampler = newDownsampler(5, ZoomDownsampler.Kernel.MIN_MAX);
+    for (int i = 0; i < 5; i++) {
+      downsampler.addData(i, i, recorder);
+    }
+    downsampler.clear();
+    for (int i = 5; i < 15; i++) {
+      downsampler.addData(i, i, recorder);
+    }
+
+    List<ScalarReading> expected = new ArrayList<>();
+    expected.add(new ScalarReading(5, 5));
+    expected.add(new ScalarReading(14, 14));
+    assertEquals(expected, recorder.getTier(1));
+  }
+
+  private static ZoomDownsampler newDownsampler(int zoomLevel, ZoomDownsampler.Kernel kernel) {
+    ZoomDownsampler downsampler = new ZoomDownsampler("sensor", zoomLevel, kernel);
+    downsampler.setTrialId("trial");
+    return downsampler;
+  }
+
+  private static double mean(List<ScalarReading> readings) {
+    double sum = 0;
+    for (ScalarReading reading : readings) {
+      sum += reading.getValue();
+    }
+    return sum / readings.size();
+  }
+
+  private static double variance(List<ScalarReading> readings) {
+    double mean = mean(readings);
+    double sum = 0;
+    for (ScalarReading reading : readings) {
+      sum += (reading.getValue() - mean) * (reading.getValue() - mean);
+    }
+    return sum / readings.size();
+  }
+
+  /** Keeps the readings written to each tier, in order. */
+  private static class TierRecorder implements RecordingDataController {
+    final List<List<ScalarReading>> tiers = new ArrayList<>();
+    int batchCount = 0;
+
+    List<ScalarReading> getTier(int tier) {
+      while (tiers.size() <= tier) {
+        tiers.add(new ArrayList<>());
+      }
+      return tiers.get(tier);
+    }
+
+    @Override
+    public void addScalarReading(
+        String trialId, String sensorId, int resolutionTier, long timestampMillis, double value) {
+      assertEquals("trial", trialId);
+      assertEquals("sensor", sensorId);
+      getTier(resolutionTier).add(new ScalarReading(timestampMillis, value));
+    }
+
+    @Override
+    public void addScalarReadings(List<BatchInsertScalarReading> readings) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void addScalarReadingBatch(ScalarReadingBatch batch) {
+      batchCount++;
+      for (int i = 0; i < batch.size(); i++) {
+        addScalarReading(
+            batch.getTrialId(i),
+            batch.getSensorId(i),
+            batch.getResolutionTier(i),
+            batch.getTimestampMillis(i),
+            batch.getValue(i));
+      }
+    }
+
+    @Override
+    public void setDataErrorListenerForSensor(String sensorId, FailureListener listener) {}
+
+    @Override
+    public void clearDataErrorListenerForSensor(String sensorId) {}
+  }
+}
@@ -0,0 +1,150 @@
+/*
+ *  Copyright 2019 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.sensorapi;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.android.apps.forscience.whistlepunk.RecordingDataController;
+import com.google.android.apps.forscience.whistlepunk.filemetadata.TrialStats;
+import com.google.android.apps.forscience.whistlepunk.metadata.GoosciTrial.SensorStat.StatType;
+import com.google.android.apps.forscience.whistlepunk.sensordb.InMemorySensorDatabase;
+import com.google.android.apps.forscience.whistlepunk.sensordb.ScalarReadingBatch;
+import java.util.Random;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+@RunWith(RobolectricTestRunner.class)
+public class ZoomTierRebuilderTest {
+  private static final int READINGS = 10000;
+
+  @Test
+  public void testRebuildsRecordedTiers() {
+    // What recording the trial would have stored.
+    InMemorySensorDatabase recorded = new InMemorySensorDatabase();
+    ZoomDownsampler downsampler =
+        new ZoomDownsampler(
+            "sensor",
+            ScalarSensor.DEFAULT_ZOOM_LEVEL_BETWEEN_TIERS,
+            ZoomDownsampler.Kernel.MIN_MAX);
+    downsampler.setTrialId("trial");
+    RecordingDataController dc = recorded.makeSimpleRecordingController();
+    Random random = new Random(3);
+    for (int i = 0; i < READINGS; i++) {
+      downsampler.addData(i * 10, random.nextGaussian(), dc);
+    }
+    int tierCount = downsampler.countTiers();
+    downsampler.flushAllTiers(dc);
+
+    InMemorySensorDatabase db = copyTierZero(recorded);
+    ZoomTierRebuilder rebuilder =
+        new ZoomTierRebuilder("trial", "sensor", 0, READINGS * 10).setStepSize(1000);
+    int steps = 1;
+    while (!rebuilder.step(db)) {
+      steps++;
+    }
+    assertEquals(READINGS / 1000 + 1, steps);
+
+    for (int tier = 0; tier <= tierCount; tier++) {
+      assertEquals("tier " + tier, recorded.getReadings(tier), db.getReadings(tier));
+    }
+    TrialStats stats = rebuilder.getTrialStats();
+    assertEquals(tierCount, stats.getStatValue(StatType.ZOOM_PRESENTER_TIER_COUNT, 0), 0.0);
+    assertEquals(
+        ScalarSensor.DEFAULT_ZOOM_LEVEL_BETWEEN_TIERS,
+        stats.getStatValue(StatType.ZOOM_PRESENTER_ZOOM_LEVEL_BETWEEN_TIERS, 0),
+        0.0);
+    assertEquals(READINGS, stats.getStatValue(StatType.NUM_DATA_POINTS, 0), 0.0);
+    assertEquals((READINGS - 1) * 10, stats.getStatValue(StatType.TOTAL_DURATION, 0), 0.0);
+    assertTrue(stats.statsAreValid());
+  }
+
+  @Test
+  public void testStartsOverAfterInterruptedRebuild() {
+    InMemorySensorDatabase expected = new InMemorySensorDatabase();
+    InMemorySensorDatabase db = new InMemorySensorDatabase();
+    for (int i = 0; i < READINGS; i++) {
+      expected.addScalarReading("trial", "sensor", 0, i, Math.sin(i / 100.0));
+      db.addScalarReading("trial", "sensor", 0, i, Math.sin(i / 100.0));
+    }
+    rebuild(expected);
+
+    // Killed part way through, leaving some of the tiers written.
+    ZoomTierRebuilder interrupted = new ZoomTierRebuilder("trial", "sensor", 0, READINGS);
+    interrupted.setStepSize(2500);
+    assertFalse(interrupted.step(db));
+    assertFalse(interrupted.step(db));
+    assertTrue(db.getReadings(1).size() > 0);
+
+    rebuild(db);
+    for (int tier = 0; tier < 5; tier++) {
+      assertEquals("tier " + tier, expected.getReadings(tier), db.getReadings(tier));
+    }
+  }
+
+  @Test
+  public void testWritesInBoundedBatches() {
+    BatchCountingDatabase db = new BatchCountingDatabase();
+    for (int i = 0; i < READINGS; i++) {
+      db.addScalarReading("trial", "sensor", 0, i, i % 17);
+    }
+    TrialStats stats = rebuild(db);
+
+    assertTrue(db.largestBatch <= ZoomTierRebuilder.WRITE_BATCH_SIZE);
+    assertEquals(READINGS, db.getReadings(0).size());
+    assertEquals(2 * READINGS / 20, db.getReadings(1).size());
+    assertEquals(4, stats.getStatValue(StatType.ZOOM_PRESENTER_TIER_COUNT, 0), 0.0);
+  }
+
+  @Test
+  public void testEmptySensor() {
+    TrialStats stats = rebuild(new InMemorySensorDatabase());
+    assertEquals(0, stats.getStatValue(StatType.NUM_DATA_POINTS, -1), 0.0);
+    assertEquals(1, stats.getStatValue(StatType.ZOOM_PRESENTER_TIER_COUNT, 0), 0.0);
+  }
+
+  private static TrialStats rebuild(InMemorySensorDatabase db) {
+    ZoomTierRebuilder rebuilder = new ZoomTierRebuilder("trial", "sensor", 0, READINGS * 10);
+    while (!rebuilder.step(db)) {}
+    return rebuilder.getTrialStats();
+  }
+
+  private static InMemorySensorDatabase copyTierZero(InMemorySensorDatabase from) {
+    InMemorySensorDatabase to = new InMemorySensorDatabase();
+    for (InMemorySensorDatabase.Reading reading : from.getReadings(0)) {
+      to.addScalarReading(
+          reading.getTrialId(),
+          reading.getDatabaseTag(),
+          0,
+          reading.getTimestampMillis(),
+          reading.getValue());
+    }
+    return to;
+  }
+
+  private static class BatchCountingDatabase extends InMemorySensorDatabase {
+    int largestBatch = 0;
+
+    @Override
+    public void addScalarReadingBatch(ScalarReadingBatch batch) {
+      largestBatch = Math.max(largestBatch, batch.size());
+      super.addScalarReadingBatch(batch);
+    }
+  }
+}
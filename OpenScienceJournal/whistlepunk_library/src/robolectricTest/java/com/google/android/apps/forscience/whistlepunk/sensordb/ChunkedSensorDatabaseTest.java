@@ -0,0 +1,267 @@
+/*
+ *  Copyright 2019 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.sensordb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+import com.google.android.apps.forscience.whistlepunk.BatchInsertScalarReading;
+import com.google.android.apps.forscience.whistlepunk.accounts.AppAccount;
+import com.google.android.apps.forscience.whistlepunk.accounts.NonSignedInAccount;
+import com.google.common.collect.Range;
+import io.reactivex.observers.TestObserver;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+@RunWith(RobolectricTestRunner.class)
+public class ChunkedSensorDatabaseTest {
+  private static final String TEST_DATABASE_NAME = "chunked_test.db";
+  private static final String LEGACY_DATABASE_NAME = "legacy_test.db";
+  private static final int MANY = ChunkedSensorDatabase.CHUNK_SIZE * 3 + 17;
+
+  @Test
+  public void testAddAndReadPending() {
+    ChunkedSensorDatabase db = newDatabase(null);
+    db.addScalarReading("id", "tag", 0, 1, 1.0);
+    db.addScalarReading("id", "tag", 0, 2, 2.0);
+    db.addScalarReading("id", "other", 0, 3, 3.0);
+    db.addScalarReading("id", "tag", 1, 4, 4.0);
+    List<ScalarReading> readings =
+        ScalarReading.slurp(
+            db.getScalarReadings("id", "tag", TimeRange.oldest(Range.closed(0L, 4L)), 0, 0));
+    assertEquals(Arrays.asList(new ScalarReading(1, 1.0), new ScalarReading(2, 2.0)), readings);
+  }
+
+  @Test
+  public void testReadAcrossChunks() {
+    ChunkedSensorDatabase db = newDatabase(null);
+    addMany(db, "id", "tag");
+
+    assertEquals(
+        MANY, db.getScalarReadings("id", "tag", TimeRange.oldest(Range.<Long>all()), 0, 0).size());
+
+    long from = ChunkedSensorDatabase.CHUNK_SIZE - 5;
+    long to = ChunkedSensorDatabase.CHUNK_SIZE * 2 + 5;
+    List<ScalarReading> readings =
+        ScalarReading.slurp(
+            db.getScalarReadings("id", "tag", TimeRange.oldest(Range.closedOpen(from, to)), 0, 0));
+    assertEquals(to - from, readings.size());
+    assertEquals(new ScalarReading(from, from / 2.0), readings.get(0));
+    assertEquals(new ScalarReading(to - 1, (to - 1) / 2.0), readings.get(readings.size() - 1));
+  }
+
+  @Test
+  public void testNewestFirstWithLimit() {
+    ChunkedSensorDatabase db = newDatabase(null);
+    addMany(db, "id", "tag");
+    List<ScalarReading> readings =
+        ScalarReading.slurp(
+            db.getScalarReadings("id", "tag", TimeRange.newest(Range.<Long>all()), 0, 2));
+    assertEquals(
+        Arrays.asList(
+            new ScalarReading(MANY - 1, (MANY - 1) / 2.0),
+            new ScalarReading(MANY - 2, (MANY - 2) / 2.0)),
+        readings);
+  }
+
+  @Test
+  public void testLimitOverOverlappingChunks() {
+    ChunkedSensorDatabase db = newDatabase(null);
+    // Two passes leave chunks whose time ranges interleave, plus some pending readings.
+    for (int i = 0; i < MANY; i++) {
+      db.addScalarReading("id", "tag", 0, i * 2, i);
+    }
+    for (int i = 0; i < MANY; i++) {
+      db.addScalarReading("id", "tag", 0, i * 2 + 1, i);
+    }
+
+    Range<Long> times = Range.closedOpen(5L, MANY * 2L - 7);
+    int limit = ChunkedSensorDatabase.CHUNK_SIZE + 3;
+    List<ScalarReading> all =
+        ScalarReading.slurp(db.getScalarReadings("id", "tag", TimeRange.oldest(times), 0, 0));
+    assertEquals(
+        all.subList(0, limit),
+        ScalarReading.slurp(db.getScalarReadings("id", "tag", TimeRange.oldest(times), 0, limit)));
+
+    List<ScalarReading> newest = new ArrayList<>(all.subList(all.size() - limit, all.size()));
+    Collections.reverse(newest);
+    assertEquals(
+        newest,
+        ScalarReading.slurp(db.getScalarReadings("id", "tag", TimeRange.newest(times), 0, limit)));
+  }
+
+  @Test
+  public void testOutOfOrderReadings() {
+    ChunkedSensorDatabase db = newDatabase(null);
+    List<BatchInsertScalarReading> batch = new ArrayList<>();
+    for (int i = MANY - 1; i >= 0; i--) {
+      batch.add(new BatchInsertScalarReading("id", "tag", 0, i, i));
+    }
+    db.addScalarReadings(batch);
+    db.addScalarReading("id", "tag", 0, -1, -1);
+
+    List<ScalarReading> readings =
+        ScalarReading.slurp(
+            db.getScalarReadings("id", "tag", TimeRange.oldest(Range.<Long>all()), 0, 0));
+    assertEquals(MANY + 1, readings.size());
+    for (int i = 0; i < readings.size(); i++) {
+      assertEquals(i - 1, readings.get(i).getCollectedTimeMillis());
+    }
+  }
+
+  @Test
+  public void testDefaultTrialIdFallback() {
+    ChunkedSensorDatabase db = newDatabase(null);
+    db.addScalarReading(SensorDatabaseImpl.DEFAULT_TRIAL_ID, "tag", 0, 1, 1.0);
+    assertEquals(
+        1, db.getScalarReadings("id", "tag", TimeRange.oldest(Range.<Long>all()), 0, 0).size());
+  }
+
+  @Test
+  public void testDeleteAcrossChunks() {
+    ChunkedSensorDatabase db = newDatabase(null);
+    addMany(db, "id", "tag");
+    addMany(db, "id", "tag2");
+
+    db.deleteScalarReadings("id", "tag", TimeRange.oldest(Range.closed(10L, MANY - 10L)));
+
+    List<ScalarReading> readings =
+        ScalarReading.slurp(
+            db.getScalarReadings("id", "tag", TimeRange.oldest(Range.<Long>all()), 0, 0));
+    assertEquals(19, readings.size());
+    assertEquals(9, readings.get(9).getCollectedTimeMillis());
+    assertEquals(MANY - 9, readings.get(10).getCollectedTimeMillis());
+
+    // Make sure tag2 is unaffected.
+    assertEquals(
+        MANY, db.getScalarReadings("id", "tag2", TimeRange.oldest(Range.<Long>all()), 0, 0).size());
+  }
+
+  @Test
+  public void testFirstTagAfter() {
+    ChunkedSensorDatabase db = newDatabase(null);
+    assertNull(db.getFirstDatabaseTagAfter(0));
+    addMany(db, "id", "tagBefore");
+    db.addScalarReading("id", "tagAfter", 0, MANY + 1, 2.0);
+    assertEquals("tagBefore", db.getFirstDatabaseTagAfter(5));
+    assertEquals("tagAfter", db.getFirstDatabaseTagAfter(MANY));
+  }
+
+  @Test
+  public void testObservable_multipleSensors() {
+    ChunkedSensorDatabase db = newDatabase(null);
+    db.addScalarReading("id", "tag", 0, 0, 0.0);
+    db.addScalarReading("id", "tag", 0, 3, 1.0);
+    db.addScalarReading("id", "tag", 0, 101, 2.0);
+    db.addScalarReading("id", "tag2", 0, 1, 3.0);
+    db.addScalarReading("id", "tag2", 0, 2, 4.0);
+
+    TestObserver<ScalarReading> testObserver = new TestObserver<>();
+    db.createScalarObservable(
+            "id", new String[] {"tag", "tag2"}, TimeRange.oldest(Range.closed(0L, 3L)), 0)
+        .subscribe(testObserver);
+    testObserver.assertNoErrors();
+    testObserver.assertValues(
+        new ScalarReading(0, 0.0, "tag"),
+        new ScalarReading(1, 3.0, "tag2"),
+        new ScalarReading(2, 4.0, "tag2"),
+        new ScalarReading(3, 1.0, "tag"));
+  }
+
+  @Test
+  public void testObservable_overlappingChunks() {
+    ChunkedSensorDatabase db = newDatabase(null);
+    // Two passes leave chunks whose time ranges interleave, plus some pending readings.
+    for (int i = 0; i < MANY; i++) {
+      db.addScalarReading("id", "tag", 0, i * 2, i);
+    }
+    for (int i = 0; i < MANY; i++) {
+      db.addScalarReading("id", "tag", 0, i * 2 + 1, i);
+    }
+    addMany(db, "id", "tag2");
+
+    TestObserver<ScalarReading> testObserver = new TestObserver<>();
+    db.createScalarObservable(
+            "id", new String[] {"tag", "tag2"}, TimeRange.oldest(Range.<Long>all()), 0)
+        .subscribe(testObserver);
+    testObserver.assertNoErrors();
+    testObserver.assertComplete();
+    List<ScalarReading> readings = testObserver.values();
+    assertEquals(MANY * 3, readings.size());
+    for (int i = 1; i < readings.size(); i++) {
+      assertTrue(
+          readings.get(i - 1).getCollectedTimeMillis() <= readings.get(i).getCollectedTimeMillis());
+    }
+  }
+
+  @Test
+  public void testMigrationFromLegacyDatabase() {
+    SensorDatabaseImpl legacy =
+        new SensorDatabaseImpl(getContext(), getAppAccount(), LEGACY_DATABASE_NAME);
+    for (int i = 0; i < MANY; i++) {
+      legacy.addScalarReading("id", "tag", 0, i, i / 2.0);
+    }
+    legacy.addScalarReading("id", "tag", 1, 7, 8.0);
+
+    ChunkedSensorDatabase db = newDatabase(LEGACY_DATABASE_NAME);
+    assertEquals(
+        MANY, db.getScalarReadings("id", "tag", TimeRange.oldest(Range.<Long>all()), 0, 0).size());
+    assertEquals(
+        Arrays.asList(new ScalarReading(7, 8.0)),
+        ScalarReading.slurp(
+            db.getScalarReadings("id", "tag", TimeRange.oldest(Range.<Long>all()), 1, 0)));
+
+    // Migration only happens once.
+    ChunkedSensorDatabase reopened = newDatabase(LEGACY_DATABASE_NAME);
+    assertEquals(
+        MANY,
+        reopened.getScalarReadings("id", "tag", TimeRange.oldest(Range.<Long>all()), 0, 0).size());
+  }
+
+  @After
+  public void tearDown() {
+    getContext().getDatabasePath(TEST_DATABASE_NAME).delete();
+    getContext().getDatabasePath(LEGACY_DATABASE_NAME).delete();
+  }
+
+  private void addMany(ChunkedSensorDatabase db, String trialId, String tag) {
+    for (int i = 0; i < MANY; i++) {
+      db.addScalarReading(trialId, tag, 0, i, i / 2.0);
+    }
+  }
+
+  private ChunkedSensorDatabase newDatabase(String legacyName) {
+    return new ChunkedSensorDatabase(getContext(), getAppAccount(), TEST_DATABASE_NAME, legacyName);
+  }
+
+  private Context getContext() {
+    return RuntimeEnvironment.application.getApplicationContext();
+  }
+
+  private AppAccount getAppAccount() {
+    return NonSignedInAccount.getInstance(getContext());
+  }
+}
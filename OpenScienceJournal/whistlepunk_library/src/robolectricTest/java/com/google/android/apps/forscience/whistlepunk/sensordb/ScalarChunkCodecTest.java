@@ -0,0 +1,102 @@
+/*
+ *  Copyright 2019 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.sensordb;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+@RunWith(RobolectricTestRunner.class)
+public class ScalarChunkCodecTest {
+  @Test
+  public void testEmpty() {
+    byte[] chunk = ScalarChunkCodec.encode(new long[0], new double[0], 0, 0);
+    assertEquals(0, ScalarChunkCodec.getPointCount(chunk));
+    assertEquals(0, ScalarChunkCodec.decode(chunk, new long[0], new double[0], 0));
+  }
+
+  @Test
+  public void testRegularRateCompressesWell() {
+    int count = 1000;
+    long[] timestamps = new long[count];
+    double[] values = new double[count];
+    for (int i = 0; i < count; i++) {
+      timestamps[i] = 1500000000000L + i * 5;
+      values[i] = 9.8;
+    }
+    byte[] chunk = ScalarChunkCodec.encode(timestamps, values, 0, count);
+    // A constant value at a constant rate needs two bits per point after the first.
+    assertTrue(chunk.length < count / 2);
+    assertRoundTrip(timestamps, values);
+  }
+
+  @Test
+  public void testIrregularTimestampsAndValues() {
+    Random random = new Random(42);
+    int count = 2000;
+    long[] timestamps = new long[count];
+    double[] values = new double[count];
+    long timestamp = 1500000000000L;
+    for (int i = 0; i < count; i++) {
+      // Mix small jitter with the occasional long gap.
+      timestamp += i % 97 == 0 ? random.nextInt(100000000) : random.nextInt(20);
+      timestamps[i] = timestamp;
+      values[i] = random.nextGaussian() * 1000;
+    }
+    assertRoundTrip(timestamps, values);
+  }
+
+  @Test
+  public void testSpecialValues() {
+    long[] timestamps = new long[] {-5, 0, 1, 1, Long.MAX_VALUE / 2, Long.MAX_VALUE / 2 + 3};
+    double[] values =
+        new double[] {
+          Double.NaN, Double.POSITIVE_INFINITY, -0.0, 0.0, Double.MIN_VALUE, -Double.MAX_VALUE
+        };
+    assertRoundTrip(timestamps, values);
+  }
+
+  @Test
+  public void testOffset() {
+    long[] timestamps = new long[] {10, 20, 30, 40};
+    double[] values = new double[] {1, 2, 3, 4};
+    byte[] chunk = ScalarChunkCodec.encode(timestamps, values, 1, 2);
+    long[] decodedTimestamps = new long[3];
+    double[] decodedValues = new double[3];
+    assertEquals(2, ScalarChunkCodec.decode(chunk, decodedTimestamps, decodedValues, 1));
+    assertArrayEquals(new long[] {0, 20, 30}, decodedTimestamps);
+    assertArrayEquals(new double[] {0, 2, 3}, decodedValues, 0);
+  }
+
+  private void assertRoundTrip(long[] timestamps, double[] values) {
+    byte[] chunk = ScalarChunkCodec.encode(timestamps, values, 0, timestamps.length);
+    assertEquals(timestamps.length, ScalarChunkCodec.getPointCount(chunk));
+    long[] decodedTimestamps = new long[timestamps.length];
+    double[] decodedValues = new double[values.length];
+    ScalarChunkCodec.decode(chunk, decodedTimestamps, decodedValues, 0);
+    assertArrayEquals(timestamps, decodedTimestamps);
+    for (int i = 0; i < values.length; i++) {
+      assertEquals(
+          Double.doubleToRawLongBits(values[i]), Double.doubleToRawLongBits(decodedValues[i]));
+    }
+  }
+}
@@ -0,0 +1,226 @@
+/*
+ *  Copyright 2019 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.sensordb;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+import com.google.android.apps.forscience.whistlepunk.accounts.AppAccount;
+import com.google.android.apps.forscience.whistlepunk.accounts.NonSignedInAccount;
+import com.google.android.apps.forscience.whistlepunk.data.GoosciSensorLayout;
+import com.google.android.apps.forscience.whistlepunk.metadata.GoosciExperiment;
+import com.google.android.apps.forscience.whistlepunk.metadata.GoosciScalarSensorData.ScalarSensorData;
+import com.google.android.apps.forscience.whistlepunk.metadata.GoosciScalarSensorData.ScalarSensorDataDump;
+import com.google.android.apps.forscience.whistlepunk.metadata.GoosciTrial;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.ScalarSensorDumpReader;
+import com.google.common.collect.Range;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+@RunWith(RobolectricTestRunner.class)
+public class ScalarSensorDumpWriterTest {
+  private static final String TEST_DATABASE_NAME = "test.db";
+
+  @Test
+  public void testSplitsSensorsIntoChunks() throws IOException {
+    SensorDatabaseImpl db =
+        new SensorDatabaseImpl(getContext(), getAppAccount(), TEST_DATABASE_NAME);
+    for (int i = 0; i < 10; i++) {
+      db.addScalarReading("trial", "foo", 0, 100 + i, i);
+      // Only tier 0 is exported.
+      db.addScalarReading("trial", "foo", 1, 100 + i, i);
+    }
+    // Outside the trial's recording range.
+    db.addScalarReading("trial", "foo", 0, 500, 0);
+
+    ScalarSensorData data =
+        ScalarSensorData.parseFrom(
+            write(
+                db,
+                makeExperiment(makeTrial("trial", 100, 200, "foo", "bar")),
+                3 /* chunkSize */,
+                2 /* pageSize */));
+
+    // foo is split into chunks of at most 3, and bar still gets an empty dump.
+    assertEquals(5, data.getSensorsCount());
+    int[] expectedRows = {3, 3, 3, 1, 0};
+    String[] expectedTags = {"foo", "foo", "foo", "foo", "bar"};
+    long nextTimestamp = 100;
+    for (int i = 0; i < expectedRows.length; i++) {
+      ScalarSensorDataDump sensor = data.getSensors(i);
+      assertEquals("trial", sensor.getTrialId());
+      assertEquals(expectedTags[i], sensor.getTag());
+      assertEquals(expectedRows[i], sensor.getRowsCount());
+      for (int row = 0; row < sensor.getRowsCount(); row++) {
+        assertEquals(nextTimestamp++, sensor.getRows(row).getTimestampMillis());
+      }
+    }
+  }
+
+  @Test
+  public void testKeepsReadingsWhichShareATimestampAcrossPages() throws IOException {
+    SensorDatabaseImpl db =
+        new SensorDatabaseImpl(getContext(), getAppAccount(), TEST_DATABASE_NAME);
+    for (int i = 0; i < 5; i++) {
+      db.addScalarReading("trial", "foo", 0, 100, i);
+    }
+    db.addScalarReading("trial", "foo", 0, 101, 5);
+
+    ScalarSensorData data =
+        ScalarSensorData.parseFrom(
+            write(
+                db,
+                makeExperiment(makeTrial("trial", 100, 200, "foo")),
+                4 /* chunkSize */,
+                2 /* pageSize */));
+
+    assertEquals(2, data.getSensorsCount());
+    assertEquals(4, data.getSensors(0).getRowsCount());
+    assertEquals(2, data.getSensors(1).getRowsCount());
+    assertEquals(101, data.getSensors(1).getRows(1).getTimestampMillis());
+  }
+
+  @Test
+  public void testSkipsTrialsWithInvalidRanges() throws IOException {
+    SensorDatabaseImpl db =
+        new SensorDatabaseImpl(getContext(), getAppAccount(), TEST_DATABASE_NAME);
+    db.addScalarReading("bad", "foo", 0, 100, 1);
+    db.addScalarReading("good", "foo", 0, 100, 1);
+
+    ScalarSensorData data =
+        ScalarSensorData.parseFrom(
+            write(
+                db,
+                makeExperiment(
+                    makeTrial("bad", 200, 100, "foo"), makeTrial("good", 100, 200, "foo")),
+                ScalarSensorDumpWriter.CHUNK_SIZE,
+                ScalarSensorDumpWriter.CHUNK_SIZE));
+
+    assertEquals(1, data.getSensorsCount());
+    assertEquals("good", data.getSensors(0).getTrialId());
+  }
+
+  @Test
+  public void testWritesAChunkPerStep() throws IOException {
+    SensorDatabaseImpl db =
+        new SensorDatabaseImpl(getContext(), getAppAccount(), TEST_DATABASE_NAME);
+    for (int i = 0; i < 10; i++) {
+      db.addScalarReading("trial", "foo", 0, 100 + i, i);
+    }
+    GoosciExperiment.Experiment experiment =
+        makeExperiment(makeTrial("trial", 100, 200, "foo", "bar"));
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ScalarSensorDumpWriter writer =
+        new ScalarSensorDumpWriter(experiment).setChunkSize(3).setPageSize(2).setOutputStream(out);
+    int steps = 1;
+    while (!writer.step(db)) {
+      steps++;
+    }
+
+    // Four chunks of foo, bar's empty chunk, and the step which finds nothing left.
+    assertEquals(6, steps);
+    assertArrayEquals(write(db, experiment, 3, 2), out.toByteArray());
+    assertTrue(writer.step(db));
+  }
+
+  /** Chunks of one sensor must be imported as if they were one dump, including its zoom tiers. */
+  @Test
+  public void testChunksReadBackLikeOneDump() throws IOException {
+    SensorDatabaseImpl db =
+        new SensorDatabaseImpl(getContext(), getAppAccount(), TEST_DATABASE_NAME);
+    for (int i = 0; i < 10000; i++) {
+      db.addScalarReading("trial", "foo", 0, i, Math.sin(i / 100.0));
+    }
+    GoosciExperiment.Experiment experiment = makeExperiment(makeTrial("trial", 0, 10000, "foo"));
+
+    InMemorySensorDatabase whole = new InMemorySensorDatabase();
+    new ScalarSensorDumpReader(whole.makeSimpleRecordingController())
+        .readData(
+            db.getScalarReadingProtos(experiment), Collections.singletonMap("trial", "imported"));
+
+    InMemorySensorDatabase chunked = new InMemorySensorDatabase();
+    byte[] bytes = write(db, experiment, 999 /* chunkSize */, 500 /* pageSize */);
+    new ScalarSensorDumpReader(chunked.makeSimpleRecordingController())
+        .readData(new ByteArrayInputStream(bytes), Collections.singletonMap("trial", "imported"));
+
+    for (int tier = 0; tier < 4; tier++) {
+      List<ScalarReading> expected = readTier(whole, tier);
+      assertEquals(expected, readTier(chunked, tier));
+    }
+    assertEquals(10000, readTier(chunked, 0).size());
+  }
+
+  private static List<ScalarReading> readTier(SensorDatabase db, int tier) {
+    return ScalarReading.slurp(
+        db.getScalarReadings("imported", "foo", TimeRange.oldest(Range.all()), tier, 0));
+  }
+
+  private static byte[] write(
+      SensorDatabase db, GoosciExperiment.Experiment experiment, int chunkSize, int pageSize)
+      throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    new ScalarSensorDumpWriter(experiment)
+        .setChunkSize(chunkSize)
+        .setPageSize(pageSize)
+        .write(db, out);
+    return out.toByteArray();
+  }
+
+  private static GoosciExperiment.Experiment makeExperiment(GoosciTrial.Trial... trials) {
+    GoosciExperiment.Experiment.Builder experiment = GoosciExperiment.Experiment.newBuilder();
+    for (GoosciTrial.Trial trial : trials) {
+      experiment.addTrials(trial);
+    }
+    return experiment.build();
+  }
+
+  private static GoosciTrial.Trial makeTrial(
+      String trialId, long startMs, long endMs, String... sensorIds) {
+    GoosciTrial.Trial.Builder trial =
+        GoosciTrial.Trial.newBuilder()
+            .setTrialId(trialId)
+            .setRecordingRange(GoosciTrial.Range.newBuilder().setStartMs(startMs).setEndMs(endMs));
+    for (String sensorId : sensorIds) {
+      trial.addSensorLayouts(GoosciSensorLayout.SensorLayout.newBuilder().setSensorId(sensorId));
+    }
+    return trial.build();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    getContext().getDatabasePath(TEST_DATABASE_NAME).delete();
+  }
+
+  private Context getContext() {
+    return RuntimeEnvironment.application.getApplicationContext();
+  }
+
+  private AppAccount getAppAccount() {
+    return NonSignedInAccount.getInstance(getContext());
+  }
+}
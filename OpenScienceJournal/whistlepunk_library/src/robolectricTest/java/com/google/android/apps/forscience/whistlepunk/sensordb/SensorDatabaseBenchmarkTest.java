@@ -0,0 +1,170 @@
+/*
+ *  Copyright 2019 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.sensordb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import com.google.android.apps.forscience.whistlepunk.BatchInsertScalarReading;
+import com.google.android.apps.forscience.whistlepunk.accounts.AppAccount;
+import com.google.android.apps.forscience.whistlepunk.accounts.NonSignedInAccount;
+import com.google.common.collect.Range;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+/**
+ * Compares storage size and read latency of the sensor database implementations. Benchmarks are
+ * left out of the default test run; use {@code ./gradlew test -Pbenchmarks} and read the printed
+ * numbers.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class SensorDatabaseBenchmarkTest {
+  private static final String ROW_DATABASE_NAME = "bench_rows.db";
+  private static final String CHUNKED_DATABASE_NAME = "bench_chunks.db";
+
+  private static final int SENSORS = 4;
+  private static final int POINTS_PER_SENSOR = 20000;
+  private static final int QUERIES = 50;
+
+  // Production databases reach 10M rows; raise this locally for representative numbers.
+  private static final int INDEX_BENCHMARK_ROWS = 200000;
+  private static final int INDEX_BENCHMARK_TRIALS = 50;
+
+  @Test
+  public void testBytesPerPointAndReadLatency() {
+    SensorDatabaseImpl rows =
+        new SensorDatabaseImpl(getContext(), getAppAccount(), ROW_DATABASE_NAME);
+    ChunkedSensorDatabase chunks =
+        new ChunkedSensorDatabase(getContext(), getAppAccount(), CHUNKED_DATABASE_NAME, null);
+    List<BatchInsertScalarReading> readings = generateTrial("trial");
+    rows.addScalarReadings(readings);
+    chunks.addScalarReadings(readings);
+
+    int points = SENSORS * POINTS_PER_SENSOR;
+    double rowBytes = sizeOf(ROW_DATABASE_NAME) / (double) points;
+    double chunkBytes = sizeOf(CHUNKED_DATABASE_NAME) / (double) points;
+    long rowNanos = timeQueries(rows);
+    long chunkNanos = timeQueries(chunks);
+
+    System.out.println(
+        String.format(
+            "SensorDatabaseImpl: %.1f bytes/point, %d us/query; "
+                + "ChunkedSensorDatabase: %.1f bytes/point, %d us/query",
+            rowBytes, rowNanos / QUERIES / 1000, chunkBytes, chunkNanos / QUERIES / 1000));
+    assertTrue(chunkBytes < rowBytes);
+  }
+
+  @Test
+  public void testSeriesIndexReadLatency() {
+    SensorDatabaseImpl rows =
+        new SensorDatabaseImpl(getContext(), getAppAccount(), ROW_DATABASE_NAME);
+    List<BatchInsertScalarReading> readings = new ArrayList<>();
+    int perTrial = INDEX_BENCHMARK_ROWS / INDEX_BENCHMARK_TRIALS;
+    for (int trial = 0; trial < INDEX_BENCHMARK_TRIALS; trial++) {
+      for (int i = 0; i < perTrial; i++) {
+        long timestamp = trial * 10000000L + i * 10;
+        readings.add(
+            new BatchInsertScalarReading("trial" + trial, "sensor" + (i % 2), 0, timestamp, i));
+      }
+      rows.addScalarReadings(readings);
+      readings.clear();
+    }
+
+    long withIndex = timeTrialQueries(rows);
+
+    SQLiteDatabase db =
+        SQLiteDatabase.openDatabase(
+            getContext().getDatabasePath(ROW_DATABASE_NAME).getPath(),
+            null,
+            SQLiteDatabase.OPEN_READWRITE);
+    db.execSQL("DROP INDEX series_time");
+    db.close();
+    long withoutIndex =
+        timeTrialQueries(new SensorDatabaseImpl(getContext(), getAppAccount(), ROW_DATABASE_NAME));
+
+    System.out.println(
+        String.format(
+            "%d rows in %d trials: %d us/query without series index, %d us/query with",
+            INDEX_BENCHMARK_ROWS,
+            INDEX_BENCHMARK_TRIALS,
+            withoutIndex / (INDEX_BENCHMARK_TRIALS * 2) / 1000,
+            withIndex / (INDEX_BENCHMARK_TRIALS * 2) / 1000));
+  }
+
+  /** Times one populated and one empty window per trial; the empty one exercises the fallback. */
+  private long timeTrialQueries(SensorDatabase db) {
+    long start = System.nanoTime();
+    for (int trial = 0; trial < INDEX_BENCHMARK_TRIALS; trial++) {
+      long from = trial * 10000000L + 5000;
+      TimeRange populated = TimeRange.oldest(Range.closedOpen(from, from + 1000));
+      assertEquals(50, db.getScalarReadings("trial" + trial, "sensor0", populated, 0, 0).size());
+      TimeRange empty = TimeRange.oldest(Range.closedOpen(from - 10000000L, from - 9000000L));
+      db.getScalarReadings("trial" + trial, "sensor0", empty, 0, 0);
+    }
+    return System.nanoTime() - start;
+  }
+
+  private List<BatchInsertScalarReading> generateTrial(String trialId) {
+    List<BatchInsertScalarReading> readings = new ArrayList<>();
+    for (int i = 0; i < POINTS_PER_SENSOR; i++) {
+      for (int sensor = 0; sensor < SENSORS; sensor++) {
+        // 100Hz with a little jitter, and a smoothly varying signal.
+        long timestamp = 1500000000000L + i * 10 + (i % 3);
+        double value = Math.round(Math.sin(i / 50.0 + sensor) * 1000) / 100.0;
+        readings.add(new BatchInsertScalarReading(trialId, "sensor" + sensor, 0, timestamp, value));
+      }
+    }
+    return readings;
+  }
+
+  private long timeQueries(SensorDatabase db) {
+    long start = System.nanoTime();
+    for (int q = 0; q < QUERIES; q++) {
+      // One second windows spread across the trial.
+      long from = 1500000000000L + (q * (POINTS_PER_SENSOR / QUERIES)) * 10L;
+      TimeRange range = TimeRange.oldest(Range.closedOpen(from, from + 1000));
+      assertEquals(
+          100, db.getScalarReadings("trial", "sensor" + (q % SENSORS), range, 0, 0).size());
+    }
+    return System.nanoTime() - start;
+  }
+
+  private long sizeOf(String name) {
+    return getContext().getDatabasePath(name).length();
+  }
+
+  @After
+  public void tearDown() {
+    getContext().getDatabasePath(ROW_DATABASE_NAME).delete();
+    getContext().getDatabasePath(CHUNKED_DATABASE_NAME).delete();
+  }
+
+  private Context getContext() {
+    return RuntimeEnvironment.application.getApplicationContext();
+  }
+
+  private AppAccount getAppAccount() {
+    return NonSignedInAccount.getInstance(getContext());
+  }
+}
@@ -17,9 +17,12 @@
 package com.google.android.apps.forscience.whistlepunk.sensordb;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import android.content.Context;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
 import com.google.android.apps.forscience.whistlepunk.Arbitrary;
 import com.google.android.apps.forscience.whistlepunk.accounts.AppAccount;
 import com.google.android.apps.forscience.whistlepunk.accounts.NonSignedInAccount;
@@ -29,6 +32,8 @@ import com.google.android.apps.forscience.whistlepunk.metadata.GoosciExperiment;
 import com.google.android.apps.forscience.whistlepunk.metadata.GoosciScalarSensorData;
 import com.google.android.apps.forscience.whistlepunk.metadata.GoosciScalarSensorData.ScalarSensorDataDump;
 import com.google.android.apps.forscience.whistlepunk.metadata.GoosciTrial;
+import com.google.android.apps.forscience.whistlepunk.metadata.GoosciTrial.SensorStat.StatType;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.ZoomTierRebuilder;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Range;
 import io.reactivex.Observable;
@@ -443,6 +448,72 @@ public class SensorDatabaseTest {
     assertEquals(trial.getTrialId(), data.get(0).getTrialId());
   }
 
+  @Test
+  public void testDefaultTrialFallbackSkippedOnceTrialHasReadings() {
+    SensorDatabaseImpl db =
+        new SensorDatabaseImpl(getContext(), getAppAccount(), TEST_DATABASE_NAME);
+    db.addScalarReading("0", "tag", 0, 1, 1.0);
+    assertEquals(
+        1, db.getScalarReadings("id", "tag", TimeRange.oldest(Range.closed(0L, 2L)), 0, 0).size());
+
+    db.addScalarReading("id", "tag", 0, 100, 2.0);
+    assertEquals(
+        0, db.getScalarReadings("id", "tag", TimeRange.oldest(Range.closed(0L, 2L)), 0, 0).size());
+  }
+
+  @Test
+  public void testRebuiltTiersKeepDefaultTrialFallbackForTierZero() {
+    SensorDatabaseImpl db =
+        new SensorDatabaseImpl(getContext(), getAppAccount(), TEST_DATABASE_NAME);
+    // A trial recorded before trial ids, with only tier 0 stored.
+    for (int i = 0; i < 1000; i++) {
+      db.addScalarReading("0", "tag", 0, i, i);
+    }
+    TimeRange all = TimeRange.oldest(Range.closed(0L, 999L));
+
+    for (int rebuild = 0; rebuild < 2; rebuild++) {
+      ZoomTierRebuilder rebuilder = new ZoomTierRebuilder("id", "tag", 0, 999);
+      while (!rebuilder.step(db)) {}
+      assertEquals(1000, rebuilder.getTrialStats().getStatValue(StatType.NUM_DATA_POINTS, 0), 0.0);
+      assertTrue(db.getScalarReadings("id", "tag", all, 1, 0).size() > 0);
+      assertEquals(1000, db.getScalarReadings("id", "tag", all, 0, 0).size());
+      assertEquals(1000, db.getScalarReadingSensorProtos("id", "tag", all).getRowsCount());
+    }
+  }
+
+  @Test
+  public void testUpgradeFromV4AddsSeriesIndex() {
+    SQLiteDatabase v4 =
+        SQLiteDatabase.openOrCreateDatabase(getContext().getDatabasePath(TEST_DATABASE_NAME), null);
+    v4.execSQL(
+        "CREATE TABLE scalar_sensors (tag  TEXT, timestampMillis INTEGER, value REAL, "
+            + "resolutionTier INTEGER DEFAULT 0, trialId TEXT DEFAULT 0 NOT NULL);");
+    v4.execSQL("CREATE INDEX timestamp ON scalar_sensors(timestampMillis);");
+    v4.execSQL(
+        "INSERT INTO scalar_sensors (tag, timestampMillis, value, resolutionTier, trialId) "
+            + "VALUES ('tag', 1, 1.0, 0, 'id');");
+    v4.setVersion(4);
+    v4.close();
+
+    SensorDatabaseImpl db =
+        new SensorDatabaseImpl(getContext(), getAppAccount(), TEST_DATABASE_NAME);
+    assertEquals(
+        Arrays.asList(new ScalarReading(1, 1.0)),
+        ScalarReading.slurp(
+            db.getScalarReadings("id", "tag", TimeRange.oldest(Range.<Long>all()), 0, 0)));
+
+    SQLiteDatabase upgraded =
+        SQLiteDatabase.openDatabase(
+            getContext().getDatabasePath(TEST_DATABASE_NAME).getPath(),
+            null,
+            SQLiteDatabase.OPEN_READONLY);
+    assertEquals(
+        1,
+        DatabaseUtils.queryNumEntries(
+            upgraded, "sqlite_master", "type = 'index' AND name = 'series_time'", null));
+    upgraded.close();
+  }
+
   @Before
   public void setUp() throws Exception {
     File dbtest = getContext().getDatabasePath(TEST_DATABASE_NAME);
@@ -16,6 +16,8 @@
 package com.google.android.apps.forscience.whistlepunk.sensors;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -108,4 +110,17 @@ public class BleProtocolVersionTest {
     assertEquals(versionDecoder.getMaxMinorVersion(), versionDecoder.getMinorVersion());
     assertEquals(versionDecoder.getMaxPatchVersion(), versionDecoder.getPatchVersion());
   }
+
+  @Test
+  public void testSupportsBatchedReadings() {
+    byte[] version_1_0_5 = {0x05, 0x08};
+    assertFalse(new BleProtocolVersion(version_1_0_5).supportsBatchedReadings());
+    byte[] version_0_5_0 = {0x40, 0x01};
+    assertFalse(new BleProtocolVersion(version_0_5_0).supportsBatchedReadings());
+
+    byte[] version_1_1_0 = {0x40, 0x08};
+    assertTrue(new BleProtocolVersion(version_1_1_0).supportsBatchedReadings());
+    byte[] version_2_0_0 = {0x00, 0x10};
+    assertTrue(new BleProtocolVersion(version_2_0_0).supportsBatchedReadings());
+  }
 }
@@ -23,6 +23,7 @@ import static org.junit.Assert.assertTrue;
 
 import android.content.Context;
 import com.google.android.apps.forscience.whistlepunk.MemorySensorHistoryStorage;
+import com.google.android.apps.forscience.whistlepunk.PacketAssembler;
 import com.google.android.apps.forscience.whistlepunk.accounts.AppAccount;
 import com.google.android.apps.forscience.whistlepunk.accounts.NonSignedInAccount;
 import com.google.android.apps.forscience.whistlepunk.data.GoosciSensorConfig;
@@ -34,6 +35,8 @@ import com.google.android.apps.forscience.whistlepunk.sensorapi.RecordingSensorO
 import com.google.android.apps.forscience.whistlepunk.sensorapi.SensorRecorder;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.StubStatusListener;
 import com.google.android.apps.forscience.whistlepunk.sensordb.InMemorySensorDatabase;
+import java.util.ArrayList;
+import java.util.List;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.robolectric.RobolectricTestRunner;
@@ -42,6 +45,8 @@ import org.robolectric.RuntimeEnvironment;
 @RunWith(RobolectricTestRunner.class)
 public class BluetoothSensorTest {
   private static final BleServiceSpec SPEC = BluetoothSensor.ANNING_SERVICE_SPEC;
+  // The default ATT MTU of 23, less 3 bytes of header.
+  private static final int NOTIFICATION_SIZE = 20;
 
   @Test
   public void testGetFrequency() {
@@ -92,6 +97,96 @@ public class BluetoothSensorTest {
     assertEquals("address", bleClient.mostRecentAddress);
   }
 
+  @Test
+  public void testBatchedReadings() throws Exception {
+    FakeAnningPeripheral peripheral = new FakeAnningPeripheral(1, 1, NOTIFICATION_SIZE);
+    peripheral.writeConfig(
+        BluetoothSensor.buildConfigProtoForDevice(
+            new BleSensorSpec("address", "name"),
+            new BleProtocolVersion(peripheral.readVersion())));
+
+    List<byte[]> notifications = sample(peripheral, BluetoothSensor.MAX_BATCH_SIZE * 10);
+    assertEquals(expectedReadings(BluetoothSensor.MAX_BATCH_SIZE * 10), assemble(notifications));
+    // Several times fewer notifications, even at the default MTU.
+    assertTrue(notifications.size() * 4 < BluetoothSensor.MAX_BATCH_SIZE * 10);
+  }
+
+  @Test
+  public void testPartialBatch() throws Exception {
+    FakeAnningPeripheral peripheral = new FakeAnningPeripheral(1, 1, NOTIFICATION_SIZE);
+    peripheral.writeConfig(
+        BluetoothSensor.buildConfigProtoForDevice(
+            new BleSensorSpec("address", "name"),
+            new BleProtocolVersion(peripheral.readVersion())));
+
+    List<byte[]> notifications = sample(peripheral, BluetoothSensor.MAX_BATCH_SIZE + 5);
+    assertEquals(expectedReadings(BluetoothSensor.MAX_BATCH_SIZE + 5), assemble(notifications));
+  }
+
+  @Test
+  public void testSingleReadingsFromOlderDevice() throws Exception {
+    FakeAnningPeripheral peripheral = new FakeAnningPeripheral(1, 0, NOTIFICATION_SIZE);
+    peripheral.writeConfig(
+        BluetoothSensor.buildConfigProtoForDevice(
+            new BleSensorSpec("address", "name"),
+            new BleProtocolVersion(peripheral.readVersion())));
+
+    List<byte[]> notifications = sample(peripheral, 100);
+    assertEquals(expectedReadings(100), assemble(notifications));
+    assertEquals(100, notifications.size());
+  }
+
+  @Test
+  public void testSingleReadingsWithoutVersion() throws Exception {
+    // A device without a version characteristic gets the original request.
+    FakeAnningPeripheral peripheral = new FakeAnningPeripheral(1, 1, NOTIFICATION_SIZE);
+    peripheral.writeConfig(
+        BluetoothSensor.buildConfigProtoForDevice(new BleSensorSpec("address", "name"), null));
+
+    List<byte[]> notifications = sample(peripheral, 100);
+    assertEquals(expectedReadings(100), assemble(notifications));
+    assertEquals(100, notifications.size());
+  }
+
+  /** Takes readings every 10ms, of a slow sawtooth of analog values. */
+  private static List<byte[]> sample(FakeAnningPeripheral peripheral, int count) {
+    for (int i = 0; i < count; i++) {
+      peripheral.sample(1000 + i * 10, (i * 37) % 1024);
+    }
+    peripheral.flush();
+    return peripheral.takeNotifications();
+  }
+
+  private static List<String> expectedReadings(int count) {
+    List<String> readings = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      readings.add(i * 10 + ":" + (i * 37) % 1024);
+    }
+    return readings;
+  }
+
+  private static List<String> assemble(List<byte[]> notifications) {
+    List<String> readings = new ArrayList<>();
+    PacketAssembler pa =
+        new PacketAssembler(
+            () -> 0,
+            new PacketAssembler.Listener() {
+              @Override
+              public void onError(int error, String errorMessage) {
+                readings.add("error: " + errorMessage);
+              }
+
+              @Override
+              public void onDataParsed(long timeStampMs, double data) {
+                readings.add(timeStampMs + ":" + (int) data);
+              }
+            });
+    for (byte[] notification : notifications) {
+      pa.append(notification, notification.length);
+    }
+    return readings;
+  }
+
   private static Context getContext() {
     return RuntimeEnvironment.application.getApplicationContext();
   }
@@ -0,0 +1,243 @@
+/*
+ *  Copyright 2019 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.sensors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import android.hardware.Sensor;
+import android.hardware.SensorManager;
+import io.reactivex.disposables.Disposable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+@RunWith(RobolectricTestRunner.class)
+public class HardwareSensorHubTest {
+  private long nowMillis = 1000000;
+  private long sensorNanos = 5000000000L;
+  private final FakeBackend backend = new FakeBackend();
+  private final HardwareSensorHub hub =
+      new HardwareSensorHub(() -> nowMillis, () -> sensorNanos, backend);
+
+  @Test
+  public void registersOncePerSensorType() {
+    List<String> received = new ArrayList<>();
+    hub.subscribe(null, Sensor.TYPE_ACCELEROMETER, 20000, 0, record(received, "x", 0));
+    hub.subscribe(null, Sensor.TYPE_ACCELEROMETER, 20000, 0, record(received, "y", 1));
+    hub.subscribe(null, Sensor.TYPE_MAGNETIC_FIELD, 20000, 0, record(received, "m", 2));
+
+    assertEquals(2, backend.registrations.size());
+    assertEquals(1, backend.registerCount);
+    backend.get(Sensor.TYPE_ACCELEROMETER).deliver(sensorNanos, new float[] {1, 2, 3});
+    backend.get(Sensor.TYPE_MAGNETIC_FIELD).deliver(sensorNanos, new float[] {4, 5, 6});
+    assertEquals("[x:1.0, y:2.0, m:6.0]", received.toString());
+  }
+
+  @Test
+  public void convertsEventTimestamps() {
+    List<Long> timestamps = new ArrayList<>();
+    hub.subscribe(
+        null,
+        Sensor.TYPE_ACCELEROMETER,
+        20000,
+        200000,
+        (timestamp, values) -> timestamps.add(timestamp));
+    HardwareSensorHub.Registration registration = backend.get(Sensor.TYPE_ACCELEROMETER);
+
+    // A batch of three events, 20ms apart, delivered together 100ms after the first.
+    nowMillis += 100;
+    registration.deliver(sensorNanos, new float[3]);
+    registration.deliver(sensorNanos + 20000000, new float[3]);
+    registration.deliver(sensorNanos + 40000000, new float[3]);
+    assertEquals("[1000000, 1000020, 1000040]", timestamps.toString());
+  }
+
+  @Test
+  public void fallsBackToNowForUntrustworthyTimestamps() {
+    List<Long> timestamps = new ArrayList<>();
+    hub.subscribe(
+        null,
+        Sensor.TYPE_ACCELEROMETER,
+        20000,
+        0,
+        (timestamp, values) -> timestamps.add(timestamp));
+    HardwareSensorHub.Registration registration = backend.get(Sensor.TYPE_ACCELEROMETER);
+
+    // For example, a device that reports timestamps in uptime rather than elapsed realtime.
+    registration.deliver(sensorNanos - 3600000000000L, new float[3]);
+    registration.deliver(sensorNanos + 3600000000000L, new float[3]);
+    assertEquals("[1000000, 1000000]", timestamps.toString());
+  }
+
+  @Test
+  public void registersAtFastestRequestedRate() {
+    Disposable slow =
+        hub.subscribe(
+            null, Sensor.TYPE_ACCELEROMETER, SensorManager.SENSOR_DELAY_UI, 100000, noop());
+    assertEquals(66667, backend.periodUs);
+    assertEquals(100000, backend.latencyUs);
+
+    Disposable fast = hub.subscribe(null, Sensor.TYPE_ACCELEROMETER, 2500, 50000, noop());
+    assertEquals(2500, backend.periodUs);
+    assertEquals(50000, backend.latencyUs);
+    assertEquals(2, backend.registerCount);
+
+    // Once the fast subscriber goes away, drop back down to save power.
+    fast.dispose();
+    assertEquals(66667, backend.periodUs);
+    assertEquals(100000, backend.latencyUs);
+    assertEquals(3, backend.registerCount);
+
+    slow.dispose();
+    assertNull(backend.get(Sensor.TYPE_ACCELEROMETER));
+  }
+
+  @Test
+  public void decimatesToEachSubscribersPeriod() {
+    List<Long> fast = new ArrayList<>();
+    List<Long> slow = new ArrayList<>();
+    hub.subscribe(
+        null, Sensor.TYPE_ACCELEROMETER, 2500, 0, (timestamp, values) -> fast.add(timestamp));
+    hub.subscribe(
+        null, Sensor.TYPE_ACCELEROMETER, 20000, 0, (timestamp, values) -> slow.add(timestamp));
+    assertEquals(2500, backend.periodUs);
+    HardwareSensorHub.Registration registration = backend.get(Sensor.TYPE_ACCELEROMETER);
+
+    for (int i = 0; i < 40; i++) {
+      registration.deliver(sensorNanos + i * 2500000L, new float[3]);
+    }
+    assertEquals(40, fast.size());
+    // 50Hz on average. An event a little early counts, so the first gap is short.
+    assertEquals("[1000000, 1000015, 1000035, 1000055, 1000075, 1000095]", slow.toString());
+  }
+
+  @Test
+  public void unsubscribeStopsDelivery() {
+    List<String> received = new ArrayList<>();
+    Disposable x = hub.subscribe(null, Sensor.TYPE_ACCELEROMETER, 0, 0, record(received, "x", 0));
+    hub.subscribe(null, Sensor.TYPE_ACCELEROMETER, 0, 0, record(received, "z", 2));
+    HardwareSensorHub.Registration registration = backend.get(Sensor.TYPE_ACCELEROMETER);
+
+    x.dispose();
+    // Disposing twice is harmless.
+    x.dispose();
+    assertSame(registration, backend.get(Sensor.TYPE_ACCELEROMETER));
+    registration.deliver(sensorNanos, new float[] {1, 2, 3});
+    assertEquals("[z:3.0]", received.toString());
+  }
+
+  @Test
+  public void pairsBatchedBurstsInTimestampOrder() {
+    List<String> received = new ArrayList<>();
+    hub.subscribePair(
+        null,
+        Sensor.TYPE_MAGNETIC_FIELD,
+        Sensor.TYPE_ACCELEROMETER,
+        20000,
+        100000,
+        (timestamp, first, second) ->
+            received.add(timestamp + ":" + (int) first[0] + "," + (int) second[0]));
+    HardwareSensorHub.Registration magnetometer = backend.get(Sensor.TYPE_MAGNETIC_FIELD);
+    HardwareSensorHub.Registration accelerometer = backend.get(Sensor.TYPE_ACCELEROMETER);
+
+    // Each sensor's FIFO is flushed separately, so a whole burst of one arrives before the other.
+    nowMillis += 100;
+    magnetometer.deliver(sensorNanos, new float[] {1});
+    magnetometer.deliver(sensorNanos + 20000000, new float[] {2});
+    magnetometer.deliver(sensorNanos + 40000000, new float[] {3});
+    assertEquals("[]", received.toString());
+    accelerometer.deliver(sensorNanos + 10000000, new float[] {10});
+    accelerometer.deliver(sensorNanos + 30000000, new float[] {20});
+    accelerometer.deliver(sensorNanos + 50000000, new float[] {30});
+    magnetometer.deliver(sensorNanos + 60000000, new float[] {4});
+    magnetometer.deliver(sensorNanos + 80000000, new float[] {5});
+    accelerometer.deliver(sensorNanos + 70000000, new float[] {40});
+
+    // Each value is paired with the other sensor's value at its time, and time never goes back.
+    assertEquals(
+        "[1000010:1,10, 1000020:2,10, 1000030:2,20, 1000040:3,20, 1000050:3,30, 1000060:4,30,"
+            + " 1000070:4,40]",
+        received.toString());
+  }
+
+  @Test
+  public void pairDoesNotWaitForeverForASilentSensor() {
+    List<Long> timestamps = new ArrayList<>();
+    hub.subscribePair(
+        null,
+        Sensor.TYPE_MAGNETIC_FIELD,
+        Sensor.TYPE_ACCELEROMETER,
+        1000,
+        100000,
+        (timestamp, first, second) -> timestamps.add(timestamp));
+    HardwareSensorHub.Registration magnetometer = backend.get(Sensor.TYPE_MAGNETIC_FIELD);
+    HardwareSensorHub.Registration accelerometer = backend.get(Sensor.TYPE_ACCELEROMETER);
+
+    accelerometer.deliver(sensorNanos, new float[3]);
+    for (int i = 1; i <= 1000; i++) {
+      magnetometer.deliver(sensorNanos + i * 1000000L, new float[3]);
+    }
+    // Held events are let through once too many are waiting, still in order.
+    assertTrue(timestamps.size() > 500);
+    for (int i = 1; i < timestamps.size(); i++) {
+      assertTrue(timestamps.get(i - 1) < timestamps.get(i));
+    }
+  }
+
+  private static HardwareSensorHub.Subscriber record(List<String> received, String name, int i) {
+    return (timestamp, values) -> received.add(name + ":" + values[i]);
+  }
+
+  private static HardwareSensorHub.Subscriber noop() {
+    return (timestamp, values) -> {};
+  }
+
+  private static class FakeBackend implements HardwareSensorHub.Backend {
+    final Map<Integer, HardwareSensorHub.Registration> registrations = new HashMap<>();
+    int registerCount = 0;
+    int periodUs = -1;
+    int latencyUs = -1;
+
+    @Override
+    public boolean register(
+        HardwareSensorHub.Registration registration, int samplingPeriodUs, int maxReportLatencyUs) {
+      registrations.put(registration.sensorType, registration);
+      if (registration.sensorType == Sensor.TYPE_ACCELEROMETER) {
+        registerCount++;
+        periodUs = samplingPeriodUs;
+        latencyUs = maxReportLatencyUs;
+      }
+      return true;
+    }
+
+    @Override
+    public void unregister(HardwareSensorHub.Registration registration) {
+      registrations.remove(registration.sensorType);
+    }
+
+    HardwareSensorHub.Registration get(int sensorType) {
+      return registrations.get(sensorType);
+    }
+  }
+}
@@ -0,0 +1,81 @@
+/*
+ *  Copyright 2019 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.sensors;
+
+import static org.junit.Assert.assertEquals;
+
+import android.hardware.SensorManager;
+import com.google.android.apps.forscience.whistlepunk.LocalSensorOptionsStorage;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.WriteableSensorOptions;
+import java.util.Map;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+@RunWith(RobolectricTestRunner.class)
+public class SamplingProfileTest {
+  private final LocalSensorOptionsStorage storage = new LocalSensorOptionsStorage();
+  private final WriteableSensorOptions options = storage.load();
+
+  @Test
+  public void defaultsToUi() {
+    assertEquals(SamplingProfile.UI, SamplingProfile.fromOptions(options.getReadOnly()));
+    assertEquals(
+        SensorManager.SENSOR_DELAY_UI, SamplingProfile.getSamplingPeriodUs(options.getReadOnly()));
+  }
+
+  @Test
+  public void namedProfiles() {
+    options.put(SamplingProfile.PREFS_KEY_SAMPLING_PROFILE, "GAME");
+    assertEquals(
+        SensorManager.SENSOR_DELAY_GAME,
+        SamplingProfile.getSamplingPeriodUs(options.getReadOnly()));
+
+    options.put(SamplingProfile.PREFS_KEY_SAMPLING_PROFILE, "FASTEST");
+    assertEquals(
+        SensorManager.SENSOR_DELAY_FASTEST,
+        SamplingProfile.getSamplingPeriodUs(options.getReadOnly()));
+
+    // For example, a layout saved by a later version of the app.
+    options.put(SamplingProfile.PREFS_KEY_SAMPLING_PROFILE, "LUDICROUS");
+    assertEquals(SamplingProfile.UI, SamplingProfile.fromOptions(options.getReadOnly()));
+  }
+
+  @Test
+  public void customPeriod() {
+    options.put(SamplingProfile.PREFS_KEY_SAMPLING_PROFILE, "CUSTOM");
+    assertEquals(2500, SamplingProfile.getSamplingPeriodUs(options.getReadOnly()));
+
+    options.put(SamplingProfile.PREFS_KEY_SAMPLING_PERIOD_US, "1250");
+    assertEquals(1250, SamplingProfile.getSamplingPeriodUs(options.getReadOnly()));
+
+    // Too fast, and in the range SensorManager would read as a SENSOR_DELAY_* constant.
+    options.put(SamplingProfile.PREFS_KEY_SAMPLING_PERIOD_US, "2");
+    assertEquals(1000, SamplingProfile.getSamplingPeriodUs(options.getReadOnly()));
+  }
+
+  @Test
+  public void savedInLayoutExtras() {
+    options.put(SamplingProfile.PREFS_KEY_SAMPLING_PROFILE, "CUSTOM");
+    options.put(SamplingProfile.PREFS_KEY_SAMPLING_PERIOD_US, "2000");
+    Map<String, String> extras = storage.exportAsLayoutExtras();
+
+    LocalSensorOptionsStorage restored = new LocalSensorOptionsStorage();
+    restored.putAllExtras(extras);
+    assertEquals(2000, SamplingProfile.getSamplingPeriodUs(restored.load().getReadOnly()));
+  }
+}